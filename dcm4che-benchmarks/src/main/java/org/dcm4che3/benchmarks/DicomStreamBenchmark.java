@@ -0,0 +1,120 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and encoding of Data Sets by {@link DicomInputStream} and
+ * {@link DicomOutputStream} in different Transfer Syntaxes.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DicomStreamBenchmark {
+
+    @Param({ SyntheticDatasets.CT, SyntheticDatasets.SR })
+    public String dataset;
+
+    @Param({ UID.ImplicitVRLittleEndian,
+             UID.ExplicitVRLittleEndian,
+             UID.ExplicitVRBigEndianRetired,
+             UID.DeflatedExplicitVRLittleEndian })
+    public String tsuid;
+
+    private Attributes attrs;
+    private Attributes fmi;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        attrs = SyntheticDatasets.create(dataset);
+        fmi = attrs.createFileMetaInformation(tsuid);
+        encoded = SyntheticDatasets.encode(attrs, tsuid);
+    }
+
+    @Benchmark
+    public Attributes readDataset() throws IOException {
+        DicomInputStream in = new DicomInputStream(
+                new ByteArrayInputStream(encoded));
+        try {
+            return in.readDataset(-1, -1);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public int writeDataset() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length);
+        DicomOutputStream dos = new DicomOutputStream(out,
+                UID.ExplicitVRLittleEndian);
+        try {
+            dos.writeDataset(fmi, attrs);
+            dos.finish();
+        } finally {
+            dos.close();
+        }
+        return out.size();
+    }
+}
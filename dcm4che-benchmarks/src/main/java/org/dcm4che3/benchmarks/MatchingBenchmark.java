@@ -0,0 +1,118 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.AttributesMatcher;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching of query keys against study level records, as performed by
+ * C-FIND SCPs walking a DICOMDIR. Compares the original
+ * {@link Attributes#matches(Attributes, boolean, boolean)}, which parses the
+ * key values again for each candidate, with an {@link AttributesMatcher}
+ * compiled once from the same keys.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingBenchmark {
+
+    @Param({ "1000" })
+    public int records;
+
+    @Param({ "false", "true" })
+    public boolean ignorePNCase;
+
+    private Attributes[] candidates;
+    private Attributes keys;
+    private AttributesMatcher matcher;
+
+    @Setup
+    public void setup() {
+        candidates = new Attributes[records];
+        for (int i = 0; i < records; i++)
+            candidates[i] = SyntheticDatasets.createStudyRecord(i);
+        keys = new Attributes(6);
+        keys.setString(Tag.StudyDate, VR.DA, "20150301-20150630");
+        keys.setString(Tag.PatientName, VR.PN, "S*^J*");
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "CT", "MR");
+        keys.setNull(Tag.PatientID, VR.LO);
+        keys.setNull(Tag.StudyInstanceUID, VR.UI);
+        matcher = new AttributesMatcher(keys, ignorePNCase, false);
+    }
+
+    /** Baseline: the unmodified {@code Attributes.matches} algorithm. */
+    @Benchmark
+    public int attributesMatches() {
+        int count = 0;
+        for (Attributes candidate : candidates)
+            if (candidate.matches(keys, ignorePNCase, false))
+                count++;
+        return count;
+    }
+
+    @Benchmark
+    public int precompiledMatcher() {
+        int count = 0;
+        for (Attributes candidate : candidates)
+            if (matcher.matches(candidate))
+                count++;
+        return count;
+    }
+}
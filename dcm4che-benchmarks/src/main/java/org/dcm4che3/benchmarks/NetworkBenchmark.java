@@ -0,0 +1,259 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.DimseRSP;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.BasicCFindSCP;
+import org.dcm4che3.net.service.BasicCStoreSCP;
+import org.dcm4che3.net.service.BasicQueryTask;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.dcm4che3.net.service.QueryTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback DICOM network operations between two {@link Device}s in the same
+ * JVM. Association establishment and release exercise the encoding and
+ * decoding of A-ASSOCIATE and A-RELEASE PDUs; C-ECHO, C-STORE and C-FIND
+ * over an open Association exercise the P-DATA-TF round-trip.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+    private static final String FIND_CUID =
+            UID.StudyRootQueryRetrieveInformationModelFIND;
+
+    @Param({ "100" })
+    public int matches;
+
+    private final Device scpDevice = new Device("benchmark-scp");
+    private final ApplicationEntity scpAE = new ApplicationEntity("BENCH_SCP");
+    private final Connection scpConn = new Connection();
+    private final Device scuDevice = new Device("benchmark-scu");
+    private final ApplicationEntity scuAE = new ApplicationEntity("BENCH_SCU");
+    private final Connection scuConn = new Connection();
+    private final Connection remote = new Connection();
+    private final AAssociateRQ rq = new AAssociateRQ();
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduledExecutor;
+    private Attributes[] studies;
+    private Attributes image;
+    private Attributes keys;
+    private Association as;
+
+    @Setup
+    public void setup() throws Exception {
+        int port = freePort();
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        studies = new Attributes[matches];
+        for (int i = 0; i < matches; i++)
+            studies[i] = SyntheticDatasets.createStudyRecord(i);
+        image = SyntheticDatasets.createImage(256, 256);
+        keys = new Attributes(4);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setNull(Tag.PatientName, VR.PN);
+        keys.setNull(Tag.PatientID, VR.LO);
+        keys.setNull(Tag.StudyInstanceUID, VR.UI);
+
+        scpConn.setHostname("127.0.0.1");
+        scpConn.setPort(port);
+        scpDevice.addConnection(scpConn);
+        scpDevice.addApplicationEntity(scpAE);
+        scpAE.setAssociationAcceptor(true);
+        scpAE.addConnection(scpConn);
+        scpAE.addTransferCapability(new TransferCapability(null, "*",
+                TransferCapability.Role.SCP, "*"));
+        scpDevice.setDimseRQHandler(createServiceRegistry());
+        scpDevice.setExecutor(executor);
+        scpDevice.setScheduledExecutor(scheduledExecutor);
+        scpDevice.bindConnections();
+
+        scuDevice.addConnection(scuConn);
+        scuDevice.addApplicationEntity(scuAE);
+        scuAE.addConnection(scuConn);
+        scuDevice.setExecutor(executor);
+        scuDevice.setScheduledExecutor(scheduledExecutor);
+        remote.setHostname("127.0.0.1");
+        remote.setPort(port);
+        rq.setCalledAET(scpAE.getAETitle());
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        rq.addPresentationContext(new PresentationContext(3,
+                UID.CTImageStorage, UID.ExplicitVRLittleEndian));
+        rq.addPresentationContext(new PresentationContext(5,
+                FIND_CUID, UID.ImplicitVRLittleEndian));
+        as = connect();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try {
+            as.release();
+            as.waitForSocketClose();
+        } finally {
+            scpDevice.unbindConnections();
+            executor.shutdown();
+            scheduledExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void associateAndRelease() throws Exception {
+        Association as = connect();
+        as.release();
+        as.waitForSocketClose();
+    }
+
+    @Benchmark
+    public int echo() throws Exception {
+        DimseRSP rsp = as.cecho();
+        rsp.next();
+        return rsp.getCommand().getInt(Tag.Status, -1);
+    }
+
+    @Benchmark
+    public int store() throws Exception {
+        DimseRSP rsp = as.cstore(UID.CTImageStorage,
+                image.getString(Tag.SOPInstanceUID), Priority.NORMAL,
+                new DataWriterAdapter(image), UID.ExplicitVRLittleEndian);
+        rsp.next();
+        return rsp.getCommand().getInt(Tag.Status, -1);
+    }
+
+    @Benchmark
+    public int find() throws Exception {
+        DimseRSP rsp = as.cfind(FIND_CUID, Priority.NORMAL, keys,
+                UID.ImplicitVRLittleEndian, Integer.MAX_VALUE);
+        int count = -1;
+        while (rsp.next())
+            count++;
+        return count;
+    }
+
+    private Association connect() throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        return scuAE.connect(scuConn, remote, rq);
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private DicomServiceRegistry createServiceRegistry() {
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        serviceRegistry.addDicomService(new BasicCStoreSCP("*") {
+            @Override
+            protected void store(Association as, PresentationContext pc,
+                    Attributes rq, PDVInputStream data, Attributes rsp)
+                    throws IOException {
+                data.readDataset(pc.getTransferSyntax());
+            }
+        });
+        serviceRegistry.addDicomService(new BasicCFindSCP(FIND_CUID) {
+            @Override
+            protected QueryTask calculateMatches(Association as,
+                    PresentationContext pc, Attributes rq, Attributes keys)
+                    throws DicomServiceException {
+                return new BasicQueryTask(as, pc, rq, keys) {
+                    private int index;
+
+                    @Override
+                    protected boolean hasMoreMatches() {
+                        return index < studies.length;
+                    }
+
+                    @Override
+                    protected Attributes nextMatch() {
+                        return studies[index++];
+                    }
+                };
+            }
+        });
+        return serviceRegistry;
+    }
+}
@@ -0,0 +1,201 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+
+/**
+ * Generates reproducible synthetic Data Sets used as input of the benchmarks.
+ *
+ * @author agent <agent@local>
+ */
+public class SyntheticDatasets {
+
+    public static final String CT = "CT";
+    public static final String SR = "SR";
+
+    private static final String[] MODALITIES = { "CT", "MR", "US", "CR", "SR" };
+    private static final String[] FAMILY_NAMES = {
+        "Smith", "Miller", "Doe", "Garcia", "Schmidt", "Novak", "Rossi", "Kim" };
+    private static final String[] GIVEN_NAMES = {
+        "John", "Jane", "Maria", "Peter", "Anna", "Luca", "Min", "Eva" };
+
+    public static Attributes create(String name) {
+        if (CT.equals(name))
+            return createImage(256, 256);
+        if (SR.equals(name))
+            return createStructuredReport(4, 5);
+        throw new IllegalArgumentException("Unknown data set: " + name);
+    }
+
+    public static Attributes createImage(int rows, int columns) {
+        Attributes attrs = createStudyRecord(1);
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.CTImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.40.0.13.1.1.1.1.1");
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.40.0.13.1.1.1.1");
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setInt(Tag.SeriesNumber, VR.IS, 1);
+        attrs.setInt(Tag.InstanceNumber, VR.IS, 1);
+        attrs.setDouble(Tag.SliceThickness, VR.DS, 1.25);
+        attrs.setDouble(Tag.KVP, VR.DS, 120);
+        attrs.setDouble(Tag.ImagePositionPatient, VR.DS, -125.0, -125.0, 42.5);
+        attrs.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+        attrs.setDouble(Tag.PixelSpacing, VR.DS, 0.48828125, 0.48828125);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 16);
+        attrs.setInt(Tag.BitsStored, VR.US, 12);
+        attrs.setInt(Tag.HighBit, VR.US, 11);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setDouble(Tag.WindowCenter, VR.DS, 40);
+        attrs.setDouble(Tag.WindowWidth, VR.DS, 400);
+        attrs.setDouble(Tag.RescaleIntercept, VR.DS, -1024);
+        attrs.setDouble(Tag.RescaleSlope, VR.DS, 1);
+        byte[] pixelData = new byte[rows * columns * 2];
+        new Random(rows * 31 + columns).nextBytes(pixelData);
+        for (int i = 1; i < pixelData.length; i += 2)
+            pixelData[i] &= 0x0f;
+        attrs.setBytes(Tag.PixelData, VR.OW, pixelData);
+        return attrs;
+    }
+
+    public static Attributes createStructuredReport(int depth, int breadth) {
+        Attributes attrs = createStudyRecord(2);
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.ComprehensiveSRStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.40.0.13.1.1.2.1.1");
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.40.0.13.1.1.2.1");
+        attrs.setString(Tag.Modality, VR.CS, "SR");
+        attrs.setString(Tag.ValueType, VR.CS, "CONTAINER");
+        attrs.setString(Tag.ContinuityOfContent, VR.CS, "SEPARATE");
+        attrs.setString(Tag.CompletionFlag, VR.CS, "COMPLETE");
+        attrs.setString(Tag.VerificationFlag, VR.CS, "UNVERIFIED");
+        attrs.newSequence(Tag.ConceptNameCodeSequence, 1)
+                .add(code("18748-4", "LN", "Diagnostic Imaging Report"));
+        addContent(attrs, depth, breadth);
+        return attrs;
+    }
+
+    private static void addContent(Attributes parent, int depth, int breadth) {
+        Sequence seq = parent.newSequence(Tag.ContentSequence, breadth);
+        for (int i = 0; i < breadth; i++) {
+            Attributes item = new Attributes(6);
+            item.setString(Tag.RelationshipType, VR.CS, "CONTAINS");
+            item.newSequence(Tag.ConceptNameCodeSequence, 1)
+                    .add(code("1100" + i, "99DCM4CHE", "Finding " + depth + "." + i));
+            if (depth > 1) {
+                item.setString(Tag.ValueType, VR.CS, "CONTAINER");
+                item.setString(Tag.ContinuityOfContent, VR.CS, "SEPARATE");
+                addContent(item, depth - 1, breadth);
+            } else {
+                item.setString(Tag.ValueType, VR.CS, "TEXT");
+                item.setString(Tag.TextValue, VR.UT,
+                        "No evidence of focal lesion in segment " + i
+                        + ". Normal appearance of the surrounding tissue.");
+            }
+            seq.add(item);
+        }
+    }
+
+    private static Attributes code(String value, String designator,
+            String meaning) {
+        Attributes item = new Attributes(3);
+        item.setString(Tag.CodeValue, VR.SH, value);
+        item.setString(Tag.CodingSchemeDesignator, VR.SH, designator);
+        item.setString(Tag.CodeMeaning, VR.LO, meaning);
+        return item;
+    }
+
+    public static Attributes createStudyRecord(int index) {
+        Random rnd = new Random(index);
+        Attributes attrs = new Attributes(20);
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A" + (100000 + index));
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN,
+                FAMILY_NAMES[rnd.nextInt(FAMILY_NAMES.length)] + "^"
+                + GIVEN_NAMES[rnd.nextInt(GIVEN_NAMES.length)]);
+        attrs.setString(Tag.StudyDescription, VR.LO, "Synthetic Study " + index);
+        attrs.setString(Tag.PatientName, VR.PN,
+                FAMILY_NAMES[rnd.nextInt(FAMILY_NAMES.length)] + "^"
+                + GIVEN_NAMES[rnd.nextInt(GIVEN_NAMES.length)]);
+        attrs.setString(Tag.PatientID, VR.LO, "P" + (index % 1000));
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "DCM4CHE");
+        attrs.setString(Tag.PatientBirthDate, VR.DA,
+                String.format("19%02d%02d%02d", 20 + rnd.nextInt(80),
+                        1 + rnd.nextInt(12), 1 + rnd.nextInt(28)));
+        attrs.setString(Tag.PatientSex, VR.CS, rnd.nextBoolean() ? "M" : "F");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.40.0.13.1.1." + index);
+        attrs.setString(Tag.StudyDate, VR.DA,
+                String.format("2015%02d%02d", 1 + rnd.nextInt(12),
+                        1 + rnd.nextInt(28)));
+        attrs.setString(Tag.StudyTime, VR.TM,
+                String.format("%02d%02d%02d", rnd.nextInt(24), rnd.nextInt(60),
+                        rnd.nextInt(60)));
+        attrs.setString(Tag.StudyID, VR.SH, Integer.toString(index));
+        attrs.setString(Tag.ModalitiesInStudy, VR.CS,
+                MODALITIES[rnd.nextInt(MODALITIES.length)]);
+        return attrs;
+    }
+
+    public static byte[] encode(Attributes attrs, String tsuid)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DicomOutputStream dos = new DicomOutputStream(out,
+                UID.ExplicitVRLittleEndian);
+        try {
+            dos.writeDataset(attrs.createFileMetaInformation(tsuid), attrs);
+            dos.finish();
+        } finally {
+            dos.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -41,14 +41,20 @@ package org.dcm4che3.conf.api;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.xml.transform.TransformerConfigurationException;
+
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 import org.dcm4che3.conf.core.api.LDAP;
+import org.dcm4che3.io.TemplatesCache;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -60,18 +66,37 @@ public class AttributeCoercions
     
     private static final long serialVersionUID = -1960600890844978686L;
 
+    private static final Logger LOG =
+            LoggerFactory.getLogger(AttributeCoercions.class);
+
     @LDAP(noContainerNode = true)
     @ConfigurableProperty(name = "dcmAttributeCoercionList")
     private List<AttributeCoercion> list =
             new ArrayList<AttributeCoercion>();
 
+    private transient volatile Index index;
+
+    /**
+     * Returns an unmodifiable view of the contained coercion rules. Use
+     * {@link #setList}, {@link #add} or {@link #remove} for modifications,
+     * which keep the lookup index in sync.
+     */
     public List<AttributeCoercion> getList() {
-        return list;
+        return Collections.unmodifiableList(list);
     }
 
+    /**
+     * Replace the contained coercion rules, compile the lookup index and
+     * preload the XSLT templates referenced by the rules into the default
+     * {@link TemplatesCache}.
+     */
     public void setList(List<AttributeCoercion> list) {
+        List<AttributeCoercion> coercions =
+                new ArrayList<AttributeCoercion>(list);
         this.list.clear();
-        for (AttributeCoercion coercion : list) add(coercion);
+        for (AttributeCoercion coercion : coercions) add(coercion);
+        index = new Index(this.list);
+        preloadTemplates(TemplatesCache.getDefault());
     }
 
     public void add(AttributeCoercion ac) {
@@ -82,6 +107,7 @@ public class AttributeCoercions
         if (index < 0)
             index = -(index+1);
         list.add(index, ac);
+        this.index = null;
     }
 
     public void add(AttributeCoercions acs) {
@@ -90,10 +116,12 @@ public class AttributeCoercions
     }
 
     public boolean remove(AttributeCoercion ac) {
+        index = null;
         return list.remove(ac);
     }
 
     public void clear() {
+        index = null;
         list.clear();
     }
 
@@ -106,14 +134,131 @@ public class AttributeCoercions
 
     public AttributeCoercion findAttributeCoercion(String sopClass, Dimse dimse,
             Role role, String aeTitle) {
-        for (AttributeCoercion ac : list)
-            if (ac.matchesCondition(sopClass, dimse, role, aeTitle))
-                return ac;
-        return null;
+        if (sopClass == null || aeTitle == null) {
+            for (AttributeCoercion ac : list)
+                if (ac.matchesCondition(sopClass, dimse, role, aeTitle))
+                    return ac;
+            return null;
+        }
+        Index idx = index;
+        if (idx == null || !idx.isCompiledFrom(list))
+            index = idx = new Index(list);
+        return idx.find(sopClass, dimse, role, aeTitle);
+    }
+
+    /**
+     * Load the XSLT templates referenced by the contained coercion rules
+     * into the specified cache, so they are not compiled on the first
+     * coerced DIMSE message.
+     *
+     * @param cache
+     *            templates cache
+     */
+    public void preloadTemplates(TemplatesCache cache) {
+        for (AttributeCoercion ac : list) {
+            String uri = ac.getURI();
+            if (uri != null)
+                try {
+                    cache.get(uri);
+                } catch (TransformerConfigurationException e) {
+                    LOG.warn("Failed to load XSLT {} of {}:",
+                            uri, ac.getCommonName(), e);
+                }
+        }
     }
 
     @Override
     public Iterator<AttributeCoercion> iterator() {
         return list.iterator();
     }
+
+    /**
+     * Lookup index of coercion rules by DIMSE and role, then by AE Title,
+     * then by SOP Class. Rules without AE Titles or SOP Classes are indexed
+     * as wildcards. Each entry holds the position of the first matching
+     * rule, so the lowest position of the exact and wildcard entries
+     * selects the same rule as a sequential scan of the list.
+     */
+    private static final class Index {
+
+        private final List<AttributeCoercion> list;
+        private final int size;
+        private final SOPClassIndex[] anyAET;
+        private final HashMap<String, SOPClassIndex>[] byAET;
+
+        @SuppressWarnings("unchecked")
+        Index(List<AttributeCoercion> list) {
+            this.list = list;
+            this.size = list.size();
+            int n = Dimse.values().length * Role.values().length;
+            anyAET = new SOPClassIndex[n];
+            byAET = new HashMap[n];
+            for (int pos = 0; pos < size; pos++) {
+                AttributeCoercion ac = list.get(pos);
+                if (ac.getDIMSE() == null || ac.getRole() == null)
+                    continue;
+
+                int i = indexOf(ac.getDIMSE(), ac.getRole());
+                String[] aets = ac.getAETitles();
+                if (aets.length == 0) {
+                    if (anyAET[i] == null)
+                        anyAET[i] = new SOPClassIndex();
+                    anyAET[i].add(ac.getSOPClasses(), pos);
+                } else {
+                    if (byAET[i] == null)
+                        byAET[i] = new HashMap<String, SOPClassIndex>();
+                    for (String aet : aets) {
+                        SOPClassIndex sopClassIndex = byAET[i].get(aet);
+                        if (sopClassIndex == null)
+                            byAET[i].put(aet, sopClassIndex = new SOPClassIndex());
+                        sopClassIndex.add(ac.getSOPClasses(), pos);
+                    }
+                }
+            }
+        }
+
+        private static int indexOf(Dimse dimse, Role role) {
+            return dimse.ordinal() * Role.values().length + role.ordinal();
+        }
+
+        boolean isCompiledFrom(List<AttributeCoercion> list) {
+            return this.list == list && size == list.size();
+        }
+
+        AttributeCoercion find(String sopClass, Dimse dimse, Role role,
+                String aeTitle) {
+            int i = indexOf(dimse, role);
+            int pos = Integer.MAX_VALUE;
+            if (byAET[i] != null) {
+                SOPClassIndex sopClassIndex = byAET[i].get(aeTitle);
+                if (sopClassIndex != null)
+                    pos = sopClassIndex.find(sopClass);
+            }
+            if (anyAET[i] != null)
+                pos = Math.min(pos, anyAET[i].find(sopClass));
+            return pos < size ? list.get(pos) : null;
+        }
+    }
+
+    private static final class SOPClassIndex {
+
+        private final HashMap<String, Integer> bySOPClass =
+                new HashMap<String, Integer>();
+        private int anySOPClass = Integer.MAX_VALUE;
+
+        void add(String[] sopClasses, int pos) {
+            if (sopClasses.length == 0) {
+                anySOPClass = Math.min(anySOPClass, pos);
+            } else {
+                for (String cuid : sopClasses)
+                    if (!bySOPClass.containsKey(cuid))
+                        bySOPClass.put(cuid, pos);
+            }
+        }
+
+        int find(String sopClass) {
+            Integer pos = bySOPClass.get(sopClass);
+            return pos != null ? Math.min(pos, anySOPClass) : anySOPClass;
+        }
+    }
 }
@@ -38,13 +38,39 @@
 
 package org.dcm4che3.conf.api;
 
-import java.util.HashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Thread-safe cache of configuration objects, loaded by {@link #find}.
+ * <p/>
+ * Concurrent requests for the same missing entry are served by one
+ * invocation of {@link #find}. Entries older than the stale timeout are
+ * still returned, while they are reloaded in the background by the
+ * configured {@link Executor}, so the calling thread does not have to wait
+ * for the configuration backend. Entries for not existing configuration
+ * objects have their own stale timeout.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  */
 public abstract class ConfigurationCache<C,T> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCache.class);
+
+    private static volatile Executor defaultExecutor;
+
     private static final class CacheEntry<T> {
         final T value;
         final long fetchTime;
@@ -54,10 +80,24 @@ public abstract class ConfigurationCache<C,T> {
         }
     }
 
-    private final HashMap<String, CacheEntry<T>> cache =
-            new HashMap<String, CacheEntry<T>>();
+    private final ConcurrentHashMap<String, CacheEntry<T>> cache =
+            new ConcurrentHashMap<String, CacheEntry<T>>();
+    private final ConcurrentHashMap<String, FutureTask<CacheEntry<T>>> loading =
+            new ConcurrentHashMap<String, FutureTask<CacheEntry<T>>>();
     private final C conf;
-    private long staleTimeout;
+    private volatile long staleTimeout;
+    private volatile long negativeStaleTimeout = -1L;
+    private volatile boolean refreshAhead = true;
+    private volatile Executor executor;
+    private volatile int generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong maxLoadTime = new AtomicLong();
 
     public ConfigurationCache(C conf) {
         if (conf == null)
@@ -73,27 +113,298 @@ public abstract class ConfigurationCache<C,T> {
         this.staleTimeout = staleTimeout * 1000L;
     }
 
+    /**
+     * Get stale timeout in seconds of cache entries for not existing
+     * configuration objects, {@code 0} if such entries never become stale or
+     * {@code -1} if the stale timeout of other entries applies.
+     *
+     * @return stale timeout in seconds, {@code 0} or {@code -1}
+     */
+    public int getNegativeStaleTimeout() {
+        return negativeStaleTimeout < 0 ? -1 : (int) (negativeStaleTimeout / 1000);
+    }
+
+    /**
+     * Set stale timeout in seconds of cache entries for not existing
+     * configuration objects, {@code 0} if such entries shall never become
+     * stale or {@code -1} if the stale timeout of other entries shall apply.
+     *
+     * @param negativeStaleTimeout stale timeout in seconds, {@code 0} or {@code -1}
+     */
+    public void setNegativeStaleTimeout(int negativeStaleTimeout) {
+        if (negativeStaleTimeout < -1)
+            throw new IllegalArgumentException(
+                    "negativeStaleTimeout: " + negativeStaleTimeout);
+        this.negativeStaleTimeout = negativeStaleTimeout < 0
+                ? -1L : negativeStaleTimeout * 1000L;
+    }
+
+    public boolean isRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * Specify if stale entries are returned while they are reloaded in the
+     * background, or if the calling thread has to wait for the reload.
+     *
+     * @param refreshAhead {@code true} to reload stale entries in the background
+     */
+    public void setRefreshAhead(boolean refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set executor used to reload stale entries in the background. If
+     * {@code null}, a shared pool of daemon threads is used.
+     *
+     * @param executor executor used to reload stale entries or {@code null}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public void clear() {
+        generation++;
         cache.clear();
     }
 
-
     public T get(String key) throws ConfigurationException {
-        long now = System.currentTimeMillis();
         CacheEntry<T> entry = cache.get(key);
-        if (entry == null 
-                || (staleTimeout != 0 && now > entry.fetchTime + staleTimeout)) {
-            T value = null;
-            try {
-                value = find(conf, key);
-            } catch (ConfigurationNotFoundException e) {
-            }
-            entry = new CacheEntry<T>(value, now);
-            cache.put(key, entry);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return load(key).value;
+        }
+        if (!isStale(entry, System.currentTimeMillis())) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        if (!refreshAhead) {
+            misses.incrementAndGet();
+            return load(key).value;
         }
+        staleHits.incrementAndGet();
+        refresh(key);
         return entry.value;
     }
 
+    private boolean isStale(CacheEntry<T> entry, long now) {
+        long timeout = entry.value == null && negativeStaleTimeout >= 0
+                ? negativeStaleTimeout
+                : staleTimeout;
+        return timeout != 0 && now > entry.fetchTime + timeout;
+    }
+
+    private CacheEntry<T> load(String key) throws ConfigurationException {
+        FutureTask<CacheEntry<T>> task = newLoadTask(key);
+        FutureTask<CacheEntry<T>> prev = loading.putIfAbsent(key, task);
+        if (prev != null)
+            task = prev;
+        else
+            runLoadTask(key, task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConfigurationException)
+                throw (ConfigurationException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new ConfigurationException(cause);
+        }
+    }
+
+    private void refresh(final String key) {
+        final FutureTask<CacheEntry<T>> task = newLoadTask(key);
+        if (loading.putIfAbsent(key, task) != null)
+            return;
+
+        try {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runLoadTask(key, task);
+                    try {
+                        task.get();
+                    } catch (Exception e) {
+                        LOG.warn("Failed to refresh cached configuration of {}:",
+                                key, e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            loading.remove(key, task);
+            LOG.warn("Failed to schedule refresh of cached configuration of {}:",
+                    key, e);
+        }
+    }
+
+    private void runLoadTask(String key, FutureTask<CacheEntry<T>> task) {
+        try {
+            task.run();
+        } finally {
+            loading.remove(key, task);
+        }
+    }
+
+    private FutureTask<CacheEntry<T>> newLoadTask(final String key) {
+        final int generation = this.generation;
+        return new FutureTask<CacheEntry<T>>(new Callable<CacheEntry<T>>() {
+            @Override
+            public CacheEntry<T> call() throws Exception {
+                long start = System.nanoTime();
+                T value = null;
+                try {
+                    value = find(conf, key);
+                } catch (ConfigurationNotFoundException e) {
+                } catch (Exception e) {
+                    loadFailures.incrementAndGet();
+                    throw e;
+                } finally {
+                    updateLoadTime(System.nanoTime() - start);
+                }
+                CacheEntry<T> entry =
+                        new CacheEntry<T>(value, System.currentTimeMillis());
+                if (generation == ConfigurationCache.this.generation)
+                    cache.put(key, entry);
+                return entry;
+            }
+        });
+    }
+
+    private void updateLoadTime(long nanos) {
+        loads.incrementAndGet();
+        totalLoadTime.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxLoadTime.get())
+                && !maxLoadTime.compareAndSet(max, nanos))
+            ;
+    }
+
+    private Executor executor() {
+        Executor executor = this.executor;
+        return executor != null ? executor : defaultExecutor();
+    }
+
+    private static Executor defaultExecutor() {
+        Executor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (ConfigurationCache.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    defaultExecutor = executor = new ThreadPoolExecutor(
+                            0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            new ThreadFactory() {
+                                final AtomicInteger threadNumber = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "ConfigurationCache-Refresh-"
+                                            + threadNumber.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the number of requests served by a not stale cache entry.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests served by a stale cache entry, while the
+     * entry was reloaded in the background.
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * Returns the number of requests which had to wait for loading the entry.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of invocations of {@link #find}.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * Returns the number of invocations of {@link #find} which failed with
+     * another exception than {@link ConfigurationNotFoundException}.
+     */
+    public long getLoadFailures() {
+        return loadFailures.get();
+    }
+
+    /**
+     * Returns the total time spent in {@link #find}.
+     */
+    public long getTotalLoadTime(TimeUnit unit) {
+        return unit.convert(totalLoadTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the maximal time spent in one invocation of {@link #find}.
+     */
+    public long getMaxLoadTime(TimeUnit unit) {
+        return unit.convert(maxLoadTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of entries currently kept in the cache.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        staleHits.set(0);
+        misses.set(0);
+        loads.set(0);
+        loadFailures.set(0);
+        totalLoadTime.set(0);
+        maxLoadTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long loads = this.loads.get();
+        return getClass().getSimpleName() + "[size=" + cache.size()
+                + ", hits=" + hits
+                + ", staleHits=" + staleHits
+                + ", misses=" + misses
+                + ", loads=" + loads
+                + ", loadFailures=" + loadFailures
+                + ", avgLoadTime=" + (loads > 0
+                        ? TimeUnit.NANOSECONDS.toMillis(totalLoadTime.get() / loads)
+                        : 0)
+                + "ms, maxLoadTime=" + TimeUnit.NANOSECONDS.toMillis(maxLoadTime.get())
+                + "ms]";
+    }
+
     protected abstract T find(C conf, String key)
             throws ConfigurationException;
 
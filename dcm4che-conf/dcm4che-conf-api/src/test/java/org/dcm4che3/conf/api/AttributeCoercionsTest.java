@@ -4,9 +4,14 @@ import static org.junit.Assert.*;
 import static org.dcm4che3.net.Dimse.*;
 import static org.dcm4che3.net.TransferCapability.Role.*;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.dcm4che3.data.UID;
 import org.dcm4che3.conf.api.AttributeCoercion;
 import org.dcm4che3.conf.api.AttributeCoercions;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability.Role;
 import org.junit.Test;
 
 public class AttributeCoercionsTest {
@@ -58,5 +63,87 @@ public class AttributeCoercionsTest {
                 UID.CTImageStorage, C_STORE_RQ, SCP, "AET3"));
     }
 
+    @Test
+    public void testFindAttributeCoercionMatchesSequentialScan() {
+        String[] cuids = { UID.CTImageStorage, UID.MRImageStorage,
+                UID.SecondaryCaptureImageStorage };
+        String[] aets = { "AET1", "AET2", "AET3" };
+        Dimse[] dimses = { C_STORE_RQ, C_FIND_RQ };
+        Random rnd = new Random(42);
+        AttributeCoercions acs = new AttributeCoercions();
+        for (int i = 0; i < 200; i++)
+            acs.add(new AttributeCoercion("ac" + i,
+                    subset(rnd, cuids),
+                    dimses[rnd.nextInt(dimses.length)],
+                    rnd.nextBoolean() ? SCP : SCU,
+                    subset(rnd, aets),
+                    URI));
+        for (Dimse dimse : dimses)
+            for (Role role : Role.values())
+                for (String cuid : cuids)
+                    for (String aet : aets)
+                        assertSame(scan(acs, cuid, dimse, role, aet),
+                                acs.findAttributeCoercion(cuid, dimse, role, aet));
+        AttributeCoercion ctFromAET3 = new AttributeCoercion(
+                "Coerce CT from AET3",
+                new String[] { UID.CTImageStorage },
+                C_STORE_RQ,
+                SCU,
+                new String[] { "AET3" },
+                URI);
+        acs.add(ctFromAET3);
+        assertSame(ctFromAET3, acs.findAttributeCoercion(
+                UID.CTImageStorage, C_STORE_RQ, SCU, "AET3"));
+    }
+
+    @Test
+    public void testFindAttributeCoercionAfterSetList() {
+        AttributeCoercion ctFromAET1 = new AttributeCoercion(
+                "Coerce CT from AET1",
+                new String[] { UID.CTImageStorage },
+                C_STORE_RQ,
+                SCP,
+                new String[] { "AET1" },
+                URI);
+        AttributeCoercion anyFromAET1 = new AttributeCoercion(
+                "Coerce any from AET1",
+                null,
+                C_STORE_RQ,
+                SCP,
+                new String[] { "AET1" },
+                URI);
+        AttributeCoercions acs = new AttributeCoercions();
+        acs.setList(Arrays.asList(anyFromAET1));
+        assertSame(anyFromAET1, acs.findAttributeCoercion(
+                UID.CTImageStorage, C_STORE_RQ, SCP, "AET1"));
+        try {
+            acs.getList().set(0, ctFromAET1);
+            fail("list returned by getList() is modifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+        acs.setList(Arrays.asList(ctFromAET1));
+        assertSame(ctFromAET1, acs.findAttributeCoercion(
+                UID.CTImageStorage, C_STORE_RQ, SCP, "AET1"));
+        assertNull(acs.findAttributeCoercion(
+                UID.MRImageStorage, C_STORE_RQ, SCP, "AET1"));
+        acs.setList(acs.getList());
+        assertSame(ctFromAET1, acs.findAttributeCoercion(
+                UID.CTImageStorage, C_STORE_RQ, SCP, "AET1"));
+    }
+
+    private static String[] subset(Random rnd, String[] values) {
+        return rnd.nextInt(3) == 0
+                ? null
+                : new String[] { values[rnd.nextInt(values.length)] };
+    }
+
+    private static AttributeCoercion scan(AttributeCoercions acs,
+            String cuid, Dimse dimse, Role role, String aet) {
+        for (AttributeCoercion ac : acs)
+            if (ac.matchesCondition(cuid, dimse, role, aet))
+                return ac;
+        return null;
+    }
+
 
 }
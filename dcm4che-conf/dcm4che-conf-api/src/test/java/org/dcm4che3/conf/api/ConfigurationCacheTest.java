@@ -0,0 +1,154 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4che3.conf.api;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class ConfigurationCacheTest {
+
+    private static class TestCache extends ConfigurationCache<Object, String> {
+
+        final AtomicInteger finds = new AtomicInteger();
+        volatile CountDownLatch block;
+        volatile String value = "value";
+
+        TestCache() {
+            super(new Object());
+        }
+
+        @Override
+        protected String find(Object conf, String key)
+                throws ConfigurationException {
+            finds.incrementAndGet();
+            CountDownLatch block = this.block;
+            if (block != null)
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    throw new ConfigurationException(e);
+                }
+            if (value == null)
+                throw new ConfigurationNotFoundException();
+            return value + ':' + key;
+        }
+    }
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testSingleFlightLoad() throws Exception {
+        final TestCache cache = new TestCache();
+        cache.block = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++)
+                futures[i] = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return cache.get("AET");
+                    }
+                });
+            Thread.sleep(100);
+            cache.block.countDown();
+            for (Future<?> future : futures)
+                assertEquals("value:AET", future.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, cache.finds.get());
+        assertEquals(1, cache.getLoads());
+        assertEquals(4, cache.getMisses());
+        assertEquals("value:AET", cache.get("AET"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        TestCache cache = new TestCache();
+        cache.setExecutor(SAME_THREAD);
+        cache.setStaleTimeout(1);
+        assertEquals("value:AET", cache.get("AET"));
+        cache.value = "changed";
+        Thread.sleep(1100);
+        assertEquals("value:AET", cache.get("AET"));
+        assertEquals(1, cache.getStaleHits());
+        assertEquals("changed:AET", cache.get("AET"));
+        assertEquals(2, cache.finds.get());
+    }
+
+    @Test
+    public void testNegativeStaleTimeout() throws Exception {
+        TestCache cache = new TestCache();
+        cache.setRefreshAhead(false);
+        cache.value = null;
+        assertNull(cache.get("AET"));
+        cache.value = "value";
+        assertNull(cache.get("AET"));
+        assertEquals(1, cache.finds.get());
+        cache.setNegativeStaleTimeout(1);
+        Thread.sleep(1100);
+        assertEquals("value:AET", cache.get("AET"));
+        assertEquals(2, cache.finds.get());
+        cache.value = "changed";
+        Thread.sleep(1100);
+        assertEquals("value:AET", cache.get("AET"));
+        assertEquals(2, cache.finds.get());
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.util.PathPattern;
+import org.dcm4che3.conf.dicom.DicomPath;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of device nodes of a configuration tree by device name, AE title and
+ * HL7 application name, which answers the searches of {@link DicomPath} used
+ * by {@link org.dcm4che3.conf.dicom.CommonDicomConfiguration} by map lookups
+ * instead of XPath evaluation over all devices.
+ * <p/>
+ * Not thread-safe - access has to be synchronized by the owning storage.
+ *
+ * @author agent <agent@local>
+ */
+class DicomConfigurationIndex {
+
+    private static final String DEVICES_ROOT = "/dicomConfigurationRoot/dicomDevicesRoot";
+    private static final Pattern DEVICE_PATH = Pattern.compile(
+            Pattern.quote(DEVICES_ROOT) + "(?:\\[@name='([^']*)'\\]|/([A-Za-z_][\\w\\-]*))(?:[/\\[].*)?");
+
+    private static final DicomPath[] INDEXED_SEARCHES = {
+            DicomPath.DeviceNameByAEName,
+            DicomPath.DeviceNameByHL7AppName,
+            DicomPath.AllDeviceNames,
+            DicomPath.AllAETitles,
+            DicomPath.AllHL7AppNames
+    };
+
+    private final Map<String, Map<String, Object>> devices =
+            new HashMap<String, Map<String, Object>>();
+    private final Map<String, Set<String>> devicesByAET =
+            new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> devicesByHL7AppName =
+            new HashMap<String, Set<String>>();
+    private final Map<String, Collection<String>> aetsOfDevice =
+            new HashMap<String, Collection<String>>();
+    private final Map<String, Collection<String>> hl7AppNamesOfDevice =
+            new HashMap<String, Collection<String>>();
+
+    public void rebuild(Map<String, Object> root) {
+        devices.clear();
+        devicesByAET.clear();
+        devicesByHL7AppName.clear();
+        aetsOfDevice.clear();
+        hl7AppNamesOfDevice.clear();
+        Map<String, Object> devicesRoot = devicesRoot(root);
+        if (devicesRoot != null)
+            for (Map.Entry<String, Object> entry : devicesRoot.entrySet())
+                addDevice(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Update the index after the node at the specified path was persisted
+     * or removed.
+     *
+     * @param root configuration tree
+     * @param path path of the persisted or removed node
+     */
+    public void update(Map<String, Object> root, String path) {
+        if (!path.startsWith(DEVICES_ROOT)) {
+            if (DEVICES_ROOT.startsWith(path))
+                rebuild(root);
+            return;
+        }
+        Matcher matcher = DEVICE_PATH.matcher(path);
+        if (!matcher.matches()) {
+            rebuild(root);
+            return;
+        }
+        String deviceName = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        removeDevice(deviceName);
+        Map<String, Object> devicesRoot = devicesRoot(root);
+        if (devicesRoot != null)
+            addDevice(deviceName, devicesRoot.get(deviceName));
+    }
+
+    /**
+     * Evaluate search expression using the index.
+     *
+     * @param liteXPathExpression search expression
+     * @return list of matching values or {@code null}, if the expression is
+     * not supported by the index
+     */
+    public List<Object> search(String liteXPathExpression) {
+        for (DicomPath pathType : INDEXED_SEARCHES) {
+            PathPattern.PathParser parser;
+            try {
+                parser = pathType.parse(liteXPathExpression);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            switch (pathType) {
+                case DeviceNameByAEName:
+                    return deviceNames(devicesByAET.get(parser.getParam("aeName")));
+                case DeviceNameByHL7AppName:
+                    return deviceNames(devicesByHL7AppName.get(parser.getParam("hl7AppName")));
+                case AllDeviceNames:
+                    return deviceNames(devices.keySet());
+                case AllAETitles:
+                    return allAETitles();
+                case AllHL7AppNames:
+                    return allHL7AppNames();
+            }
+        }
+        return null;
+    }
+
+    private List<Object> deviceNames(Collection<String> deviceKeys) {
+        if (deviceKeys == null)
+            return Collections.emptyList();
+
+        List<Object> names = new ArrayList<Object>(deviceKeys.size());
+        for (String deviceKey : deviceKeys) {
+            Object name = devices.get(deviceKey).get("dicomDeviceName");
+            if (name != null)
+                names.add(name);
+        }
+        return names;
+    }
+
+    private List<Object> allAETitles() {
+        List<Object> aets = new ArrayList<Object>();
+        for (Map<String, Object> device : devices.values()) {
+            Map<String, Object> aes = childMap(device, "dicomNetworkAE");
+            if (aes != null)
+                for (Object ae : aes.values())
+                    if (ae instanceof Map) {
+                        Object aet = ((Map<?, ?>) ae).get("dicomAETitle");
+                        if (aet != null)
+                            aets.add(aet);
+                    }
+        }
+        return aets;
+    }
+
+    private List<Object> allHL7AppNames() {
+        List<Object> names = new ArrayList<Object>();
+        for (Collection<String> appNames : hl7AppNamesOfDevice.values())
+            names.addAll(appNames);
+        return names;
+    }
+
+    private void addDevice(String deviceKey, Object node) {
+        if (!(node instanceof Map))
+            return;
+
+        Map<String, Object> device = (Map<String, Object>) node;
+        devices.put(deviceKey, device);
+
+        Map<String, Object> aes = childMap(device, "dicomNetworkAE");
+        if (aes != null) {
+            Collection<String> aets = new ArrayList<String>(aes.keySet());
+            aetsOfDevice.put(deviceKey, aets);
+            for (String aet : aets)
+                addTo(devicesByAET, aet, deviceKey);
+        }
+
+        Map<String, Object> hl7Apps = childMap(
+                childMap(childMap(device, "deviceExtensions"), "HL7DeviceExtension"),
+                "hl7Apps");
+        if (hl7Apps != null) {
+            Collection<String> appNames = new ArrayList<String>(hl7Apps.size());
+            for (Object hl7App : hl7Apps.values())
+                if (hl7App instanceof Map) {
+                    Object appName = ((Map<?, ?>) hl7App).get("hl7ApplicationName");
+                    if (appName instanceof String) {
+                        appNames.add((String) appName);
+                        addTo(devicesByHL7AppName, (String) appName, deviceKey);
+                    }
+                }
+            hl7AppNamesOfDevice.put(deviceKey, appNames);
+        }
+    }
+
+    private void removeDevice(String deviceKey) {
+        if (devices.remove(deviceKey) == null)
+            return;
+
+        Collection<String> aets = aetsOfDevice.remove(deviceKey);
+        if (aets != null)
+            for (String aet : aets)
+                removeFrom(devicesByAET, aet, deviceKey);
+
+        Collection<String> appNames = hl7AppNamesOfDevice.remove(deviceKey);
+        if (appNames != null)
+            for (String appName : appNames)
+                removeFrom(devicesByHL7AppName, appName, deviceKey);
+    }
+
+    private static void addTo(Map<String, Set<String>> index, String key, String deviceKey) {
+        Set<String> deviceKeys = index.get(key);
+        if (deviceKeys == null)
+            index.put(key, deviceKeys = new LinkedHashSet<String>(2));
+        deviceKeys.add(deviceKey);
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String deviceKey) {
+        Set<String> deviceKeys = index.get(key);
+        if (deviceKeys != null && deviceKeys.remove(deviceKey) && deviceKeys.isEmpty())
+            index.remove(key);
+    }
+
+    private static Map<String, Object> devicesRoot(Map<String, Object> root) {
+        return childMap(childMap(root, "dicomConfigurationRoot"), "dicomDevicesRoot");
+    }
+
+    private static Map<String, Object> childMap(Map<String, Object> node, String name) {
+        if (node == null)
+            return null;
+
+        Object child = node.get(name);
+        return child instanceof Map ? (Map<String, Object>) child : null;
+    }
+}
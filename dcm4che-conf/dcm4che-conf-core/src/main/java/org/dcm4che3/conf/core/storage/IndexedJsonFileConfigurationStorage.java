@@ -0,0 +1,435 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.dcm4che3.conf.api.ConfigurationException;
+import org.dcm4che3.conf.core.Configuration;
+import org.dcm4che3.conf.core.util.ConfigNodeUtil;
+import org.dcm4che3.util.SafeClose;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Configuration storage which keeps the whole configuration tree in memory,
+ * backed by a JSON file.
+ * <p/>
+ * Modifications by {@link #persistNode} and {@link #removeNode} are appended
+ * to a journal file ({@code <fileName>.journal}), one JSON object per line,
+ * and written to the JSON file only after {@link #getCompactionDelay()} ms by
+ * a background thread, or on {@link #close()}. The journal is replayed on
+ * load, so no modification is lost, if the JSON file was not updated before
+ * termination.
+ * <p/>
+ * Searches for devices by AE title or HL7 application name and for all
+ * device names, AE titles and HL7 application names are answered by an index,
+ * which is updated on each modification. Other searches are evaluated by
+ * JXPath over the in-memory tree.
+ * <p/>
+ * The JSON file must not be modified by other instances or processes, while
+ * it is used by this storage.
+ *
+ * @author agent <agent@local>
+ */
+public class IndexedJsonFileConfigurationStorage implements Configuration, Closeable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IndexedJsonFileConfigurationStorage.class);
+
+    private static final String PERSIST = "persist";
+    private static final String REMOVE = "remove";
+
+    private final File file;
+    private final File journalFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DicomConfigurationIndex index = new DicomConfigurationIndex();
+    private Map<String, Object> configurationRoot;
+    private OutputStream journal;
+    private long journalLength;
+    private boolean dirty;
+    private final Object compactionLock = new Object();
+    private int compactionDelay = 1000;
+    private ScheduledExecutorService compactionExecutor;
+    private ScheduledFuture<?> compaction;
+
+    public IndexedJsonFileConfigurationStorage(String fileName)
+            throws ConfigurationException {
+        this.file = new File(fileName);
+        this.journalFile = new File(fileName + ".journal");
+        load();
+    }
+
+    /**
+     * Get delay in ms after the first modification, after which the JSON file
+     * is updated.
+     *
+     * @return delay in ms
+     */
+    public int getCompactionDelay() {
+        return compactionDelay;
+    }
+
+    public void setCompactionDelay(int compactionDelay) {
+        if (compactionDelay < 0)
+            throw new IllegalArgumentException("compactionDelay: " + compactionDelay);
+        this.compactionDelay = compactionDelay;
+    }
+
+    @Override
+    public Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+        lock.readLock().lock();
+        try {
+            return configurationRoot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Object getConfigurationNode(String path, Class configurableClass)
+            throws ConfigurationException {
+        lock.readLock().lock();
+        try {
+            return ConfigNodeUtil.getNode(configurationRoot, path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Class getConfigurationNodeClass(String path)
+            throws ConfigurationException, ClassNotFoundException {
+        throw new RuntimeException("Not implemented");
+    }
+
+    @Override
+    public boolean nodeExists(String path) throws ConfigurationException {
+        return getConfigurationNode(path, null) != null;
+    }
+
+    @Override
+    public void persistNode(String path, Map<String, Object> configNode, Class configurableClass)
+            throws ConfigurationException {
+        Map<String, Object> entry = new HashMap<String, Object>(4);
+        entry.put("op", PERSIST);
+        entry.put("path", path);
+        entry.put("node", configNode);
+        lock.writeLock().lock();
+        try {
+            // apply a copy of the journal entry, so the in-memory tree is
+            // not affected by later modifications of configNode by the caller
+            apply(appendToJournal(entry));
+            scheduleCompaction();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void refreshNode(String path) {
+    }
+
+    @Override
+    public void removeNode(String path) throws ConfigurationException {
+        Map<String, Object> entry = new HashMap<String, Object>(4);
+        entry.put("op", REMOVE);
+        entry.put("path", path);
+        lock.writeLock().lock();
+        try {
+            apply(appendToJournal(entry));
+            scheduleCompaction();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator search(String liteXPathExpression)
+            throws IllegalArgumentException, ConfigurationException {
+        lock.readLock().lock();
+        try {
+            List<Object> result = index.search(liteXPathExpression);
+            if (result == null) {
+                result = new ArrayList<Object>();
+                Iterator iter = ConfigNodeUtil.search(configurationRoot, liteXPathExpression);
+                while (iter.hasNext())
+                    result.add(iter.next());
+            }
+            return result.iterator();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write the configuration tree to the JSON file and delete the journal.
+     *
+     * @throws ConfigurationException if an I/O error occurs writing the file
+     */
+    public void compact() throws ConfigurationException {
+        synchronized (this) {
+            if (compaction != null) {
+                compaction.cancel(false);
+                compaction = null;
+            }
+        }
+        synchronized (compactionLock) {
+            lock.readLock().lock();
+            try {
+                writeFileAndDeleteJournal();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private void writeFileAndDeleteJournal() throws ConfigurationException {
+        if (!dirty)
+            return;
+
+        if (journalFile.length() != journalLength) {
+            LOG.warn("Journal {} was modified by another writer - do not update {}",
+                    journalFile, file);
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp, configurationRoot);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new ConfigurationException("Failed to write " + tmp, e);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+            throw new ConfigurationException("Failed to rename " + tmp + " to " + file);
+
+        SafeClose.close(journal);
+        journal = null;
+        journalLength = 0;
+        dirty = false;
+        if (!journalFile.delete())
+            LOG.warn("Failed to delete {}", journalFile);
+        LOG.debug("Updated {}", file);
+    }
+
+    /**
+     * Write pending modifications to the JSON file and stop the background
+     * thread.
+     */
+    @Override
+    public void close() {
+        try {
+            compact();
+        } catch (ConfigurationException e) {
+            LOG.warn("Failed to update {} - modifications kept in {}:", file, journalFile, e);
+        }
+        synchronized (this) {
+            if (compactionExecutor != null) {
+                compactionExecutor.shutdown();
+                compactionExecutor = null;
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            SafeClose.close(journal);
+            journal = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load() throws ConfigurationException {
+        try {
+            configurationRoot = file.exists()
+                    ? objectMapper.readValue(file, Map.class)
+                    : new HashMap<String, Object>();
+        } catch (IOException e) {
+            throw new ConfigurationException("Failed to read " + file, e);
+        }
+        index.rebuild(configurationRoot);
+        if (journalFile.exists()) {
+            replayJournal();
+            scheduleCompaction();
+        }
+    }
+
+    private void replayJournal() throws ConfigurationException {
+        int count = 0;
+        long end = 0;
+        try {
+            byte[] b = readJournal();
+            int off = 0;
+            int lineEnd;
+            while ((lineEnd = indexOf(b, '\n', off)) >= 0) {
+                if (lineEnd > off) {
+                    Map<String, Object> entry;
+                    try {
+                        entry = objectMapper.readValue(b, off, lineEnd - off, Map.class);
+                    } catch (IOException e) {
+                        LOG.warn("Ignore corrupted entry at position {} of {}",
+                                off, journalFile, e);
+                        break;
+                    }
+                    apply(entry);
+                    count++;
+                }
+                off = lineEnd + 1;
+            }
+            end = off;
+            if (end < b.length) {
+                // drop the torn entry, so further entries are appended to
+                // the last complete one
+                LOG.warn("Truncate {} from {} to {} bytes", journalFile, b.length, end);
+                truncateJournal(end);
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Failed to read " + journalFile, e);
+        }
+        journalLength = end;
+        dirty = true;
+        LOG.info("Applied {} modifications from {}", count, journalFile);
+    }
+
+    private byte[] readJournal() throws IOException {
+        FileInputStream in = new FileInputStream(journalFile);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    (int) journalFile.length());
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0)
+                out.write(buf, 0, read);
+            return out.toByteArray();
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+    private void truncateJournal(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        try {
+            raf.getChannel().truncate(length);
+        } finally {
+            SafeClose.close(raf);
+        }
+    }
+
+    private static int indexOf(byte[] b, char c, int fromIndex) {
+        for (int i = fromIndex; i < b.length; i++)
+            if (b[i] == c)
+                return i;
+        return -1;
+    }
+
+    private Map<String, Object> appendToJournal(Map<String, Object> entry)
+            throws ConfigurationException {
+        try {
+            byte[] b = objectMapper.writeValueAsBytes(entry);
+            if (journal == null) {
+                journalFile.getAbsoluteFile().getParentFile().mkdirs();
+                journal = new BufferedOutputStream(new FileOutputStream(journalFile, true));
+                journalLength = journalFile.length();
+            }
+            journal.write(b);
+            journal.write('\n');
+            journal.flush();
+            journalLength += b.length + 1;
+            dirty = true;
+            return objectMapper.readValue(b, 0, b.length, Map.class);
+        } catch (IOException e) {
+            SafeClose.close(journal);
+            journal = null;
+            throw new ConfigurationException("Failed to write " + journalFile, e);
+        }
+    }
+
+    private void apply(Map<String, Object> entry) {
+        String path = (String) entry.get("path");
+        if (PERSIST.equals(entry.get("op"))) {
+            Map<String, Object> node = (Map<String, Object>) entry.get("node");
+            if (path.equals("/"))
+                configurationRoot = node;
+            else
+                ConfigNodeUtil.replaceNode(configurationRoot, path, node);
+        } else {
+            ConfigNodeUtil.removeNode(configurationRoot, path);
+        }
+        index.update(configurationRoot, path);
+    }
+
+    private synchronized void scheduleCompaction() {
+        if (compaction != null)
+            return;
+
+        if (compactionExecutor == null)
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "IndexedJsonFileConfigurationStorage-Compaction");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        compaction = compactionExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (IndexedJsonFileConfigurationStorage.this) {
+                    compaction = null;
+                }
+                try {
+                    compact();
+                } catch (ConfigurationException e) {
+                    LOG.warn("Failed to update {} - modifications kept in {}:",
+                            file, journalFile, e);
+                }
+            }
+        }, compactionDelay, TimeUnit.MILLISECONDS);
+    }
+}
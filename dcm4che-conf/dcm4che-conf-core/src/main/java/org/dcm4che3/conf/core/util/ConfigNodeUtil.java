@@ -75,6 +75,10 @@ public class ConfigNodeUtil {
     }
 
     public static Object getNode(Object rootConfigNode, String path) {
+        Object node = getNodeBySimplePath(rootConfigNode, path);
+        if (node != NOT_A_SIMPLE_PATH)
+            return node;
+
         try {
             return JXPathContext.newContext(rootConfigNode).getValue(path);
         } catch (JXPathNotFoundException e) {
@@ -82,6 +86,63 @@ public class ConfigNodeUtil {
         }
     }
 
+    private static final Object NOT_A_SIMPLE_PATH = new Object();
+
+    /**
+     * Resolves absolute paths consisting only of child names, optionally
+     * followed by a single <code>[@name='key']</code> predicate, by direct map
+     * lookups, without creating a JXPathContext.
+     *
+     * @return the node, <code>null</code> if not found, or NOT_A_SIMPLE_PATH
+     * if the path has to be evaluated by JXPath
+     */
+    private static Object getNodeBySimplePath(Object node, String path) {
+        int len = path.length();
+        if (len == 0 || path.charAt(0) != '/')
+            return NOT_A_SIMPLE_PATH;
+
+        int pos = 1;
+        while (pos < len) {
+            int start = pos;
+            char c = path.charAt(pos);
+            if (!(Character.isLetter(c) || c == '_'))
+                return NOT_A_SIMPLE_PATH;
+            while (++pos < len
+                    && (Character.isLetterOrDigit(c = path.charAt(pos)) || c == '_' || c == '-'))
+                ;
+            String name = path.substring(start, pos);
+            String key = null;
+            if (pos < len && path.charAt(pos) == '[') {
+                if (!path.startsWith("[@name='", pos))
+                    return NOT_A_SIMPLE_PATH;
+                int keyStart = pos + 8;
+                int keyEnd = path.indexOf('\'', keyStart);
+                if (keyEnd < 0 || !path.startsWith("']", keyEnd))
+                    return NOT_A_SIMPLE_PATH;
+                key = path.substring(keyStart, keyEnd);
+                pos = keyEnd + 2;
+            }
+            if (pos < len) {
+                if (path.charAt(pos) != '/' || pos + 1 == len)
+                    return NOT_A_SIMPLE_PATH;
+                pos++;
+            }
+            if (!(node instanceof Map))
+                return NOT_A_SIMPLE_PATH;
+            node = ((Map<?, ?>) node).get(name);
+            if (key != null) {
+                if (node == null)
+                    return null;
+                if (!(node instanceof Map))
+                    return NOT_A_SIMPLE_PATH;
+                node = ((Map<?, ?>) node).get(key);
+            }
+            if (node == null)
+                return null;
+        }
+        return node;
+    }
+
     public static boolean nodeExists(Map<String, Object> rootConfigNode, String path) {
         return getNode(rootConfigNode, path) != null;
     }
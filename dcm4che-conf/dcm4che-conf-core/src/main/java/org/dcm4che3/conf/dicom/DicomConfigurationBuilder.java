@@ -46,6 +46,7 @@ import org.dcm4che3.conf.api.ConfigurationException;
 import org.dcm4che3.conf.core.Configuration;
 import org.dcm4che3.conf.core.normalization.DefaultsFilterDecorator;
 import org.dcm4che3.conf.core.storage.CachedRootNodeConfiguration;
+import org.dcm4che3.conf.core.storage.IndexedJsonFileConfigurationStorage;
 import org.dcm4che3.conf.core.storage.SingleJsonFileConfigurationStorage;
 import org.dcm4che3.conf.ldap.LdapConfigurationStorage;
 import org.dcm4che3.net.AEExtension;
@@ -119,10 +120,16 @@ public class DicomConfigurationBuilder {
         String configType = getPropertyWithNotice(props,
                 "org.dcm4che.conf.storage", "json_file", 
                 " Possible values: 'json_file', 'ldap'.");
+        boolean cached = Boolean.valueOf(getPropertyWithNotice(props, "org.dcm4che.conf.cached", "true"));
         switch(ConfigType.valueOf(configType.toUpperCase().trim())) {
         case JSON_FILE:
-            builder = newJsonConfigurationBuilder(getPropertyWithNotice(props,
-                "org.dcm4che.conf.filename", "../standalone/configuration/sample-config.json"));
+            String fileName = getPropertyWithNotice(props,
+                "org.dcm4che.conf.filename", "../standalone/configuration/sample-config.json");
+            boolean indexed = Boolean.valueOf(getPropertyWithNotice(props,
+                    "org.dcm4che.conf.indexed", "false"));
+            builder = indexed
+                    ? newIndexedJsonConfigurationBuilder(fileName)
+                    : newJsonConfigurationBuilder(fileName);
             break;
         case LDAP:
             Hashtable<String,String> ldapProps = new Hashtable<String, String>();
@@ -139,13 +146,15 @@ public class DicomConfigurationBuilder {
                             "org.dcm4che.conf.ldap.credentials", "1"));
             ldapProps.put("java.naming.factory.initial", "com.sun.jndi.ldap.LdapCtxFactory");
             ldapProps.put("java.naming.ldap.attributes.binary", "dicomVendorData");
+            ldapProps.put(LdapConfigurationStorage.SUBTREE_PREFETCH,
+                    getPropertyWithNotice(props,
+                            LdapConfigurationStorage.SUBTREE_PREFETCH, "false"));
             builder = newLdapConfigurationBuilder(ldapProps);
             break;
         case PREFERENCES:
         default:
             throw new RuntimeException("Not implemented");
         }
-        boolean cached = Boolean.valueOf(getPropertyWithNotice(props, "org.dcm4che.conf.cached", "true"));
         return cached ? builder.cache() : builder;
 
     }
@@ -155,6 +164,21 @@ public class DicomConfigurationBuilder {
                 new SingleJsonFileConfigurationStorage(fileName));
     }
 
+    /**
+     * Create builder for configuration kept in memory, backed by the specified
+     * JSON file. Lookups of devices by AE title or HL7 application name are
+     * served by an index instead of XPath searches over all devices.
+     *
+     * @param fileName path of the JSON file
+     * @return configuration builder
+     * @throws ConfigurationException if the JSON file cannot be read
+     */
+    public static DicomConfigurationBuilder newIndexedJsonConfigurationBuilder(String fileName)
+            throws ConfigurationException {
+        return new DicomConfigurationBuilder(
+                new IndexedJsonFileConfigurationStorage(fileName));
+    }
+
     public static DicomConfigurationBuilder newLdapConfigurationBuilder(Hashtable<?,?> ldapProps)
             throws ConfigurationException {
         return new DicomConfigurationBuilder.Ldap(
@@ -181,7 +205,8 @@ public class DicomConfigurationBuilder {
     }
  
     public DicomConfigurationBuilder cache() {
-        if (!(configurationStorage instanceof CachedRootNodeConfiguration))
+        if (!(configurationStorage instanceof CachedRootNodeConfiguration
+                || configurationStorage instanceof IndexedJsonFileConfigurationStorage))
             configurationStorage = new CachedRootNodeConfiguration(configurationStorage);
         return this;
     }
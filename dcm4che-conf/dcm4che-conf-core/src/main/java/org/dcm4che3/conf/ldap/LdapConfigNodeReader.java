@@ -58,6 +58,7 @@ import javax.naming.directory.SearchResult;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,15 +66,16 @@ import java.util.Map;
  */
 public class LdapConfigNodeReader {
     static Object readNode(LdapConfigurationStorage ldapConfigurationStorage, String dn, Class configurableClass) throws ConfigurationException, NamingException {
-        ArrayList<String> objectClasses = LdapConfigUtils.extractObjectClasses(configurableClass);
+        return readNode(ldapConfigurationStorage, null, dn, configurableClass);
+    }
+
+    /**
+     * @param subtree prefetched entries to read from instead of querying the directory, may be {@code null}
+     */
+    static Object readNode(LdapConfigurationStorage ldapConfigurationStorage, LdapSubtree subtree, String dn, Class configurableClass) throws ConfigurationException, NamingException {
         boolean isAnyContents = false;
 
-        Attributes attributes;
-        try {
-            attributes = ldapConfigurationStorage.getLdapCtx().getAttributes(dn);
-        } catch (NameNotFoundException noname) {
-            attributes = null;
-        }
+        Attributes attributes = getAttributes(ldapConfigurationStorage, subtree, dn);
 
         Map<String, Object> configNode = new HashMap<String, Object>();
         for (AnnotatedConfigurableProperty property : ConfigIterators.getAllConfigurableFieldsAndSetterParameters(configurableClass)) {
@@ -83,11 +85,9 @@ public class LdapConfigNodeReader {
 
                 Map<String, Object> map = new HashMap<String, Object>();
                 try {
-                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, subDn, property);
-                    while (enumeration.hasMore()) {
+                    for (SearchResult res : searchForCollectionElements(ldapConfigurationStorage, subtree, subDn, property)) {
                         isAnyContents = true;
 
-                        SearchResult res = enumeration.next();
                         String distField = LdapConfigUtils.getDistinguishingFieldForCollectionElement(property);
                         Attributes resAttributes = res.getAttributes();
                         String key = (String) resAttributes.get(distField).get();
@@ -96,7 +96,7 @@ public class LdapConfigNodeReader {
                         if (property.getAnnotation(LDAP.class).storedAsReference() || !property.isMapOfConfObjects()) {
                             map.put(key, resAttributes.get(property.getAnnotation(LDAP.class).mapValueAttribute()).get());
                         } else {
-                            Object value = readNode(ldapConfigurationStorage, res.getName() + "," + subDn, property.getPseudoPropertyForConfigClassCollectionElement().getRawClass());
+                            Object value = readNode(ldapConfigurationStorage, subtree, res.getName() + "," + subDn, property.getPseudoPropertyForConfigClassCollectionElement().getRawClass());
                             map.put(key, value);
                         }
                     }
@@ -118,7 +118,7 @@ public class LdapConfigNodeReader {
                     }
                 } else {
                     String subDn = LdapConfigUtils.getSubDn(dn, property);
-                    Object value = readNode(ldapConfigurationStorage, subDn, property.getRawClass());
+                    Object value = readNode(ldapConfigurationStorage, subtree, subDn, property.getRawClass());
                     if (value != null) isAnyContents = true;
                     configNode.put(property.getAnnotatedName(), value);
                 }
@@ -136,13 +136,11 @@ public class LdapConfigNodeReader {
                 String subDn = LdapConfigUtils.getSubDn(dn, property);
 
                 try {
-                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, subDn, property);
                     ArrayList<Object> list = new ArrayList<Object>();
-                    while (enumeration.hasMore()) {
+                    for (SearchResult next : searchForCollectionElements(ldapConfigurationStorage, subtree, subDn, property)) {
                         isAnyContents = true;
-                        SearchResult next = enumeration.next();
                         // check if it is a primitive or a custom representation, e.g a ref
-                        list.add(readNode(ldapConfigurationStorage, next.getName() + "," + dn, elemClass));
+                        list.add(readNode(ldapConfigurationStorage, subtree, next.getName() + "," + dn, elemClass));
                     }
                     configNode.put(property.getAnnotatedName(), list);
                 } catch (NameNotFoundException e) {
@@ -201,15 +199,37 @@ public class LdapConfigNodeReader {
         }
 
         if (configurableClass.equals(Device.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "deviceExtensions");
+            ldapConfigurationStorage.fillExtension(subtree, dn, configNode, "deviceExtensions");
         } else if (configurableClass.equals(ApplicationEntity.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "aeExtensions");
+            ldapConfigurationStorage.fillExtension(subtree, dn, configNode, "aeExtensions");
         } else if (configurableClass.equals(HL7Application.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "hl7AppExtensions");
+            ldapConfigurationStorage.fillExtension(subtree, dn, configNode, "hl7AppExtensions");
         }
 
         if (!isAnyContents) return null;
 
         return configNode;
     }
+
+    private static Attributes getAttributes(LdapConfigurationStorage ldapConfigurationStorage, LdapSubtree subtree, String dn) throws NamingException {
+        if (subtree != null)
+            return subtree.getAttributes(dn);
+
+        try {
+            return ldapConfigurationStorage.getLdapCtx().getAttributes(dn);
+        } catch (NameNotFoundException noname) {
+            return null;
+        }
+    }
+
+    private static List<SearchResult> searchForCollectionElements(LdapConfigurationStorage ldapConfigurationStorage, LdapSubtree subtree, String dn, AnnotatedConfigurableProperty property) throws NamingException, ConfigurationException {
+        if (subtree != null)
+            return subtree.searchChildren(dn, LdapConfigUtils.getCollectionElementObjectClass(property));
+
+        List<SearchResult> list = new ArrayList<SearchResult>();
+        NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, dn, property);
+        while (enumeration.hasMore())
+            list.add(enumeration.next());
+        return list;
+    }
 }
@@ -370,22 +370,21 @@ public class LdapConfigUtils {
     }
 
     protected static NamingEnumeration<SearchResult> searchForCollectionElements(LdapConfigurationStorage ldapConfigurationStorage, String dn, AnnotatedConfigurableProperty property) throws NamingException, ConfigurationException {
-        NamingEnumeration<SearchResult> enumeration;
+        return searchSubcontextWithClass(ldapConfigurationStorage, getCollectionElementObjectClass(property), dn);
+    }
+
+    static String getCollectionElementObjectClass(AnnotatedConfigurableProperty property) throws ConfigurationException {
         AnnotatedConfigurableProperty elemProperty = property.getPseudoPropertyForConfigClassCollectionElement();
 
         // figure out the objectClass
-        String childObjClass;
         if (elemProperty == null)
-            childObjClass = property.getAnnotation(LDAP.class).mapEntryObjectClass();
-        else
-            childObjClass = extractObjectClasses(elemProperty.getRawClass()).get(0);
+            return property.getAnnotation(LDAP.class).mapEntryObjectClass();
 
         try {
-            enumeration = searchSubcontextWithClass(ldapConfigurationStorage, childObjClass, dn);
+            return extractObjectClasses(elemProperty.getRawClass()).get(0);
         } catch (IndexOutOfBoundsException e) {
             throw new ConfigurationException("No object class defined for class " + elemProperty.getRawClass(), e);
         }
-        return enumeration;
     }
 
     protected static class BooleanContainer {
@@ -51,6 +51,7 @@ import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
+import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import java.util.*;
@@ -58,9 +59,21 @@ import java.util.*;
 
 public class LdapConfigurationStorage implements Configuration {
 
+    /**
+     * Environment property enabling {@link #setSubtreePrefetch(boolean) subtree prefetch mode}
+     */
+    public static final String SUBTREE_PREFETCH = "org.dcm4che.conf.ldap.prefetch";
+
+    /**
+     * Environment property specifying the {@link #setPageSize(int) page size} of subtree searches
+     */
+    public static final String PAGE_SIZE = "org.dcm4che.conf.ldap.pageSize";
+
     private final String baseDN;
-    private final InitialDirContext ldapCtx;
+    private final InitialLdapContext ldapCtx;
     private final List<Class<?>> allExtensionClasses = new ArrayList<Class<?>>();
+    private volatile boolean subtreePrefetch;
+    private volatile int pageSize = 500;
 
     public List<Class<?>> getAllExtensionClasses() {
         return allExtensionClasses;
@@ -74,13 +87,52 @@ public class LdapConfigurationStorage implements Configuration {
             int end = e.lastIndexOf('/');
             env_.put("java.naming.provider.url", e.substring(0, end));
             this.baseDN = e.substring(end + 1);
+            Object prefetch = env_.remove(SUBTREE_PREFETCH);
+            if (prefetch != null)
+                this.subtreePrefetch = Boolean.valueOf(prefetch.toString());
+            Object pageSize = env_.remove(PAGE_SIZE);
+            if (pageSize != null)
+                setPageSize(Integer.parseInt(pageSize.toString()));
             //TODO: what happens when LDAP goes down and up again while app is running?
-            this.ldapCtx = new InitialDirContext(env_);
+            this.ldapCtx = new InitialLdapContext(env_, null);
         } catch (Exception e) {
             throw new ConfigurationException(e);
         }
     }
 
+    public boolean isSubtreePrefetch() {
+        return subtreePrefetch;
+    }
+
+    /**
+     * If enabled, a node is read by fetching its whole LDAP subtree with one
+     * paged SUBTREE search and assembling it in memory, and a persisted node
+     * is merged against its prefetched subtree, so only entries that actually
+     * changed are modified - each with a single modify operation.
+     * Otherwise every child node is read and written with separate requests.
+     *
+     * @param subtreePrefetch
+     */
+    public void setSubtreePrefetch(boolean subtreePrefetch) {
+        this.subtreePrefetch = subtreePrefetch;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of entries requested per page by subtree searches in
+     * {@link #setSubtreePrefetch(boolean) subtree prefetch mode}.
+     *
+     * @param pageSize
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize: " + pageSize);
+        this.pageSize = pageSize;
+    }
+
     public LdapConfigurationStorage addExtensionClass(Class<?> clazz) {
         allExtensionClasses.add(clazz);
         return this;
@@ -126,13 +178,18 @@ public class LdapConfigurationStorage implements Configuration {
         String dn = LdapConfigUtils.refToLdapDN(path, this);
 
         try {
-            return LdapConfigNodeReader.readNode(this, dn, configurableClass);
+            LdapSubtree subtree = subtreePrefetch ? LdapSubtree.load(ldapCtx, dn, pageSize) : null;
+            return LdapConfigNodeReader.readNode(this, subtree, dn, configurableClass);
         } catch (NamingException e) {
             throw new ConfigurationException("Cannot read node from ldap :" + path, e);
         }
     }
 
     public void fillExtension(String dn, Map<String, Object> map, String extensionLabel) throws NamingException, ConfigurationException {
+        fillExtension(null, dn, map, extensionLabel);
+    }
+
+    void fillExtension(LdapSubtree subtree, String dn, Map<String, Object> map, String extensionLabel) throws NamingException, ConfigurationException {
         HashMap<String, Object> exts = new HashMap<String, Object>();
         map.put(extensionLabel, exts);
 
@@ -146,7 +203,7 @@ public class LdapConfigurationStorage implements Configuration {
             else
                 subDn = dn;
 
-            Map ext = (Map) LdapConfigNodeReader.readNode(this, subDn, aClass);
+            Map ext = (Map) LdapConfigNodeReader.readNode(this, subtree, subDn, aClass);
             if (ext == null || ext.isEmpty()) continue;
 
             exts.put(aClass.getSimpleName(), ext);
@@ -188,8 +245,139 @@ public class LdapConfigurationStorage implements Configuration {
         ldapNode.setDn(dn);
         ldapNode.populate(configNode, configurableClass);
 
+        if (subtreePrefetch) {
+            try {
+                mergeIn(ldapNode, LdapSubtree.load(ldapCtx, dn, pageSize), false);
+            } catch (NamingException e) {
+                throw new ConfigurationException("Cannot persist node to ldap :" + path, e);
+            }
+        } else
+            merge(ldapNode);
+    }
+
+    /**
+     * Merges the node into the prefetched subtree of existing entries. New entries are created,
+     * changed entries are updated with one modify request carrying all changed attributes,
+     * unchanged entries are left alone, and children that are no longer present are deleted.
+     *
+     * @param existing entries currently stored below the node
+     * @param replace  whether the node replaces the existing entry, rather than being merged into it,
+     *                 i.e. attributes and children not present in the node are removed
+     */
+    private void mergeIn(LdapNode ldapNode, LdapSubtree existing, boolean replace) throws NamingException {
+        LdapName name = new LdapName(ldapNode.getDn());
+
+        if (!ldapNode.getObjectClasses().isEmpty()) {
+            Attributes attributes = existing.getAttributes(name);
+
+            if (attributes != null && replace && hasOtherObjectClasses(attributes, ldapNode)) {
+                destroySubtree(name, existing);
+                attributes = null;
+            }
+
+            if (attributes == null) {
+                BasicAttribute objectClass = new BasicAttribute("objectClass");
+                for (String c : ldapNode.getObjectClasses()) objectClass.add(c);
+                ldapNode.getAttributes().put(objectClass);
+                storeAttributes(ldapNode);
+            } else {
+                List<ModificationItem> mods = diff(name, attributes, ldapNode, replace);
+                if (!mods.isEmpty())
+                    ldapCtx.modifyAttributes(name, mods.toArray(new ModificationItem[mods.size()]));
+            }
+        }
+
+        // remove children that do not exist in the new config
+        Set<LdapName> childNames = new HashSet<LdapName>();
+        for (LdapNode child : ldapNode.getChildren())
+            childNames.add(new LdapName(child.getDn()));
+
+        for (LdapName childName : existing.getChildNames(name)) {
+            if (childNames.contains(childName))
+                continue;
+            if (replace || hasAnyObjectClass(existing.getAttributes(childName), ldapNode.getChildrenObjectClasses()))
+                destroySubtree(childName, existing);
+        }
+
+        // descent recursively, children replace the existing ones
+        for (LdapNode child : ldapNode.getChildren()) mergeIn(child, existing, true);
+    }
+
+    private static List<ModificationItem> diff(LdapName name, Attributes existing, LdapNode ldapNode, boolean replace) throws NamingException {
+        List<ModificationItem> mods = new ArrayList<ModificationItem>();
+
+        // naming attributes cannot be modified
+        Set<String> skip = new HashSet<String>();
+        for (NamingEnumeration<String> ids = name.getRdn(name.size() - 1).toAttributes().getIDs(); ids.hasMore(); )
+            skip.add(ids.next().toLowerCase());
+        skip.add("objectclass");
+
+        for (String c : ldapNode.getObjectClasses())
+            if (!LdapSubtree.hasObjectClass(existing, c))
+                mods.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute("objectClass", c)));
+
+        Set<String> ids = new HashSet<String>();
+        for (NamingEnumeration<? extends Attribute> attrs = ldapNode.getAttributes().getAll(); attrs.hasMore(); ) {
+            Attribute attr = attrs.next();
+            String id = attr.getID().toLowerCase();
+            ids.add(id);
+            if (!skip.contains(id) && !hasSameValues(attr, existing.get(attr.getID())))
+                mods.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, attr));
+        }
+
+        if (replace)
+            for (NamingEnumeration<String> existingIds = existing.getIDs(); existingIds.hasMore(); ) {
+                String id = existingIds.next();
+                if (!skip.contains(id.toLowerCase()) && !ids.contains(id.toLowerCase()))
+                    mods.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, new BasicAttribute(id)));
+            }
+
+        return mods;
+    }
+
+    private static boolean hasSameValues(Attribute attr, Attribute existing) throws NamingException {
+        if (existing == null || existing.size() != attr.size())
+            return false;
+        for (int i = 0; i < attr.size(); i++)
+            if (!existing.contains(attr.get(i)))
+                return false;
+        return true;
+    }
+
+    private static boolean hasOtherObjectClasses(Attributes existing, LdapNode ldapNode) throws NamingException {
+        Attribute objectClass = existing.get("objectClass");
+        if (objectClass == null)
+            return false;
+        for (int i = 0; i < objectClass.size(); i++) {
+            String c = String.valueOf(objectClass.get(i));
+            if (!c.equalsIgnoreCase("top") && !containsIgnoreCase(ldapNode.getObjectClasses(), c))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean containsIgnoreCase(Collection<String> values, String value) {
+        for (String s : values)
+            if (s.equalsIgnoreCase(value))
+                return true;
+        return false;
+    }
+
+    private static boolean hasAnyObjectClass(Attributes attributes, Collection<String> objectClasses) {
+        for (String c : objectClasses)
+            if (LdapSubtree.hasObjectClass(attributes, c))
+                return true;
+        return false;
+    }
 
-        merge(ldapNode);
+    /**
+     * Deletes the prefetched entries leaf first, without listing them again.
+     */
+    private void destroySubtree(LdapName name, LdapSubtree existing) throws NamingException {
+        for (LdapName childName : existing.getChildNames(name))
+            destroySubtree(childName, existing);
+        ldapCtx.destroySubcontext(name);
+        existing.remove(name);
     }
 
 
@@ -268,7 +456,12 @@ public class LdapConfigurationStorage implements Configuration {
         String dn = LdapConfigUtils.refToLdapDN(path, this, dnIsKillableWrapper);
         if (dnIsKillableWrapper.isKillable()) {
             try {
-                destroySubcontextWithChilds(dn);
+                if (subtreePrefetch) {
+                    LdapSubtree existing = LdapSubtree.load(ldapCtx, dn, pageSize);
+                    if (!existing.isEmpty())
+                        destroySubtree(new LdapName(dn), existing);
+                } else
+                    destroySubcontextWithChilds(dn);
             } catch (NameNotFoundException nnfe) {
                 //noop
             } catch (NamingException e) {
@@ -0,0 +1,207 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.ldap;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory snapshot of all entries below (and including) a DN, fetched with
+ * a single paged SUBTREE search. Used by {@link LdapConfigurationStorage} to
+ * read and merge a whole device without a round trip per child node.
+ *
+ * @author agent <agent@local>
+ */
+class LdapSubtree {
+
+    private final Map<LdapName, Attributes> entries = new HashMap<LdapName, Attributes>();
+    private final Map<LdapName, Set<LdapName>> children = new HashMap<LdapName, Set<LdapName>>();
+
+    static LdapSubtree load(LdapContext ctx, String dn, int pageSize) throws NamingException {
+        LdapSubtree subtree = new LdapSubtree();
+        SearchControls ctls = new SearchControls();
+        ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        ctls.setReturningObjFlag(false);
+
+        // paging controls are per context, do not touch the shared one
+        LdapContext pagedCtx = ctx.newInstance(null);
+        try {
+            byte[] cookie = null;
+            do {
+                pagedCtx.setRequestControls(new Control[]{
+                        new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL)});
+                NamingEnumeration<SearchResult> ne = pagedCtx.search(new LdapName(dn), "(objectclass=*)", ctls);
+                try {
+                    while (ne.hasMore()) {
+                        SearchResult sr = ne.next();
+                        subtree.add(new LdapName(sr.getNameInNamespace()), sr.getAttributes());
+                    }
+                } finally {
+                    ne.close();
+                }
+                cookie = null;
+                Control[] controls = pagedCtx.getResponseControls();
+                if (controls != null)
+                    for (Control control : controls)
+                        if (control instanceof PagedResultsResponseControl)
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+            } while (cookie != null && cookie.length > 0);
+        } catch (NameNotFoundException e) {
+            // empty subtree
+        } catch (IOException e) {
+            NamingException ne = new NamingException("Failed to encode paged results control");
+            ne.setRootCause(e);
+            throw ne;
+        } finally {
+            pagedCtx.close();
+        }
+        return subtree;
+    }
+
+    private void add(LdapName name, Attributes attributes) {
+        entries.put(name, attributes);
+        if (name.size() > 0)
+            childNames((LdapName) name.getPrefix(name.size() - 1), true).add(name);
+    }
+
+    private Set<LdapName> childNames(LdapName name, boolean create) {
+        Set<LdapName> set = children.get(name);
+        if (set == null && create)
+            children.put(name, set = new LinkedHashSet<LdapName>());
+        return set;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return attributes of the entry, or {@code null} if there is no such entry in the subtree
+     */
+    public Attributes getAttributes(LdapName name) {
+        return entries.get(name);
+    }
+
+    public Attributes getAttributes(String dn) throws NamingException {
+        return entries.get(new LdapName(dn));
+    }
+
+    /**
+     * @return names of the direct children of the entry
+     */
+    public List<LdapName> getChildNames(LdapName name) {
+        Set<LdapName> set = childNames(name, false);
+        return set == null
+                ? Collections.<LdapName>emptyList()
+                : new ArrayList<LdapName>(set);
+    }
+
+    /**
+     * Equivalent of a ONELEVEL search for {@code (objectclass=childObjClass)}.
+     * Result names are relative to {@code dn}, like the ones returned by the directory.
+     *
+     * @throws NameNotFoundException if there is no entry {@code dn} in the subtree
+     */
+    public List<SearchResult> searchChildren(String dn, String childObjClass) throws NamingException {
+        LdapName name = new LdapName(dn);
+        if (!entries.containsKey(name))
+            throw new NameNotFoundException(dn);
+
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        for (LdapName childName : getChildNames(name)) {
+            Attributes attrs = entries.get(childName);
+            if (hasObjectClass(attrs, childObjClass))
+                result.add(new SearchResult(childName.getRdn(childName.size() - 1).toString(),
+                        null, attrs, false));
+        }
+        return result;
+    }
+
+    /**
+     * Removes the entry and all its descendants from the snapshot.
+     */
+    public void remove(LdapName name) {
+        for (LdapName childName : getChildNames(name))
+            remove(childName);
+        entries.remove(name);
+        children.remove(name);
+        if (name.size() > 0) {
+            Set<LdapName> siblings = childNames((LdapName) name.getPrefix(name.size() - 1), false);
+            if (siblings != null)
+                siblings.remove(name);
+        }
+    }
+
+    static boolean hasObjectClass(Attributes attrs, String objectClass) {
+        Attribute attr = attrs.get("objectClass");
+        if (attr == null)
+            return false;
+        try {
+            for (int i = 0; i < attr.size(); i++)
+                if (objectClass.equalsIgnoreCase(String.valueOf(attr.get(i))))
+                    return true;
+        } catch (NamingException e) {
+            // cannot happen for in-memory attributes
+        }
+        return false;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.api.ConfigurationException;
+import org.dcm4che3.conf.dicom.DicomPath;
+import org.dcm4che3.conf.dicom.SearchTest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * @author agent <agent@local>
+ */
+public class IndexedJsonFileConfigurationStorageTest {
+
+    private static final String FILE_NAME = "target/indexed-config.json";
+
+    @Before
+    public void setUp() throws IOException {
+        new File(FILE_NAME + ".journal").delete();
+        new File(FILE_NAME).getParentFile().mkdirs();
+        InputStream in = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream("mockConfig.json");
+        try {
+            OutputStream out = new FileOutputStream(FILE_NAME);
+            try {
+                byte[] b = new byte[8192];
+                int read;
+                while ((read = in.read(b)) > 0)
+                    out.write(b, 0, read);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSearch() throws ConfigurationException {
+        IndexedJsonFileConfigurationStorage storage =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        try {
+            new SearchTest().searchTestForStorage(storage);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testUpdateIndex() throws ConfigurationException {
+        IndexedJsonFileConfigurationStorage storage =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        try {
+            storage.persistNode(
+                    DicomPath.DeviceByName.set("deviceName", "newdev").path(),
+                    newDevice("newdev", "NEWAE", "NEWAPP^NEWFAC"),
+                    null);
+            Assert.assertEquals("newdev", searchDeviceByAEName(storage, "NEWAE"));
+            Assert.assertEquals("newdev", storage.search(DicomPath.DeviceNameByHL7AppName
+                    .set("hl7AppName", "NEWAPP^NEWFAC").path()).next());
+
+            storage.persistNode(
+                    DicomPath.DeviceByName.set("deviceName", "newdev").path(),
+                    newDevice("newdev", "OTHERAE", null),
+                    null);
+            Assert.assertNull(searchDeviceByAEName(storage, "NEWAE"));
+            Assert.assertEquals("newdev", searchDeviceByAEName(storage, "OTHERAE"));
+            Assert.assertFalse(storage.search(DicomPath.DeviceNameByHL7AppName
+                    .set("hl7AppName", "NEWAPP^NEWFAC").path()).hasNext());
+
+            storage.removeNode(DicomPath.DeviceByName.set("deviceName", "storescp").path());
+            Assert.assertNull(searchDeviceByAEName(storage, "STORESCP"));
+            Assert.assertEquals("dcm4chee-arc", searchDeviceByAEName(storage, "DCM4CHEE"));
+        } finally {
+            storage.close();
+        }
+        Assert.assertFalse(new File(FILE_NAME + ".journal").exists());
+
+        IndexedJsonFileConfigurationStorage reloaded =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        try {
+            Assert.assertEquals("newdev", searchDeviceByAEName(reloaded, "OTHERAE"));
+            Assert.assertNull(searchDeviceByAEName(reloaded, "STORESCP"));
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testReplayJournal() throws ConfigurationException {
+        IndexedJsonFileConfigurationStorage storage =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        storage.setCompactionDelay(Integer.MAX_VALUE);
+        Map<String, Object> device = newDevice("newdev", "NEWAE", null);
+        storage.persistNode(
+                DicomPath.DeviceByName.set("deviceName", "newdev").path(), device, null);
+        device.put("dicomDeviceName", "modified");
+        Assert.assertEquals("newdev", searchDeviceByAEName(storage, "NEWAE"));
+        Assert.assertTrue(new File(FILE_NAME + ".journal").exists());
+
+        // reload without close of previous instance
+        IndexedJsonFileConfigurationStorage reloaded =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        try {
+            Assert.assertEquals("newdev", searchDeviceByAEName(reloaded, "NEWAE"));
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void testTruncateTornJournalEntry() throws Exception {
+        IndexedJsonFileConfigurationStorage storage =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        storage.setCompactionDelay(Integer.MAX_VALUE);
+        storage.persistNode(
+                DicomPath.DeviceByName.set("deviceName", "newdev").path(),
+                newDevice("newdev", "NEWAE", null), null);
+        File journal = new File(FILE_NAME + ".journal");
+        long length = journal.length();
+        // simulate termination while appending an entry
+        OutputStream out = new FileOutputStream(journal, true);
+        try {
+            out.write("{\"op\":\"persist\",\"path\":".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        IndexedJsonFileConfigurationStorage reloaded =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        reloaded.setCompactionDelay(Integer.MAX_VALUE);
+        Assert.assertEquals(length, journal.length());
+        Assert.assertEquals("newdev", searchDeviceByAEName(reloaded, "NEWAE"));
+        reloaded.persistNode(
+                DicomPath.DeviceByName.set("deviceName", "otherdev").path(),
+                newDevice("otherdev", "OTHERAE", null), null);
+
+        // reload without close of previous instance
+        IndexedJsonFileConfigurationStorage replayed =
+                new IndexedJsonFileConfigurationStorage(FILE_NAME);
+        try {
+            Assert.assertEquals("newdev", searchDeviceByAEName(replayed, "NEWAE"));
+            Assert.assertEquals("otherdev", searchDeviceByAEName(replayed, "OTHERAE"));
+        } finally {
+            replayed.close();
+        }
+    }
+
+    private static String searchDeviceByAEName(IndexedJsonFileConfigurationStorage storage,
+            String aet) throws ConfigurationException {
+        Iterator search = storage.search(DicomPath.DeviceNameByAEName.set("aeName", aet).path());
+        return search.hasNext() ? (String) search.next() : null;
+    }
+
+    private static Map<String, Object> newDevice(String name, String aet, String hl7AppName) {
+        Map<String, Object> ae = new HashMap<String, Object>();
+        ae.put("dicomAETitle", aet);
+        Map<String, Object> aes = new HashMap<String, Object>();
+        aes.put(aet, ae);
+        Map<String, Object> device = new HashMap<String, Object>();
+        device.put("dicomDeviceName", name);
+        device.put("dicomNetworkAE", aes);
+        if (hl7AppName != null) {
+            Map<String, Object> hl7App = new HashMap<String, Object>();
+            hl7App.put("hl7ApplicationName", hl7AppName);
+            Map<String, Object> hl7Apps = new HashMap<String, Object>();
+            hl7Apps.put(hl7AppName, hl7App);
+            Map<String, Object> hl7Ext = new HashMap<String, Object>();
+            hl7Ext.put("hl7Apps", hl7Apps);
+            Map<String, Object> exts = new HashMap<String, Object>();
+            exts.put("HL7DeviceExtension", hl7Ext);
+            device.put("deviceExtensions", exts);
+        }
+        return device;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import org.dcm4che3.conf.api.ConfigurationException;
+import org.dcm4che3.conf.core.Configuration;
+import org.dcm4che3.conf.core.SimpleStorageTest;
+import org.dcm4che3.conf.core.misc.DeepEqualsDiffer;
+import org.dcm4che3.conf.dicom.DicomPath;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.hl7.HL7DeviceExtension;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author agent <agent@local>
+ */
+public class LdapConfigurationStorageTest {
+
+    private static final String BASE_DN = "dc=example,dc=com";
+
+    private final AtomicInteger searches = new AtomicInteger();
+    private final AtomicInteger adds = new AtomicInteger();
+    private final AtomicInteger modifies = new AtomicInteger();
+    private final AtomicInteger deletes = new AtomicInteger();
+
+    private InMemoryDirectoryServer server;
+    private LdapConfigurationStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        // without schema, the server could not tell operational attributes from user attributes
+        config.setSchema(null);
+        config.setGenerateOperationalAttributes(false);
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request) {
+                searches.incrementAndGet();
+            }
+
+            @Override
+            public void processAddRequest(InMemoryInterceptedAddRequest request) {
+                adds.incrementAndGet();
+            }
+
+            @Override
+            public void processModifyRequest(InMemoryInterceptedModifyRequest request) {
+                modifies.incrementAndGet();
+            }
+
+            @Override
+            public void processDeleteRequest(InMemoryInterceptedDeleteRequest request) {
+                deletes.incrementAndGet();
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE_DN, "objectClass: top", "objectClass: domain", "dc: example");
+        server.add("dn: cn=DICOM Configuration," + BASE_DN, "objectClass: dicomConfigurationRoot",
+                "cn: DICOM Configuration");
+        server.add("dn: cn=Devices,cn=DICOM Configuration," + BASE_DN, "objectClass: dicomDevicesRoot",
+                "cn: Devices");
+        server.startListening();
+
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("java.naming.provider.url", "ldap://localhost:" + server.getListenPort() + "/" + BASE_DN);
+        env.put("java.naming.factory.initial", "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(LdapConfigurationStorage.PAGE_SIZE, "10");
+        storage = new LdapConfigurationStorage(env);
+        storage.addExtensionClass(HL7DeviceExtension.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutDown(true);
+    }
+
+    @Test
+    public void testPrefetchRead() throws Exception {
+        String path = devicePath("dcmqrscp");
+        storage.persistNode(path, mockDeviceWithTransferCapabilities(), Device.class);
+
+        resetCounters();
+        Object fetchedByRequests = storage.getConfigurationNode(path, Device.class);
+        int requestsWithoutPrefetch = searches.get();
+
+        storage.setSubtreePrefetch(true);
+        resetCounters();
+        Object prefetched = storage.getConfigurationNode(path, Device.class);
+
+        Assert.assertTrue(requestsWithoutPrefetch > 200);
+        Assert.assertEquals("one paged search per page", 1 + server.countEntriesBelow(
+                "dicomDeviceName=dcmqrscp,cn=Devices,cn=DICOM Configuration," + BASE_DN) / 10, searches.get());
+        DeepEqualsDiffer.assertDeepEquals("Prefetched device must be equal to the one read by requests",
+                fetchedByRequests, prefetched);
+    }
+
+    @Test
+    public void testPrefetchReadExtension() throws ConfigurationException {
+        String path = devicePath("hl7rcv");
+        storage.persistNode(path, mockDevice("hl7rcv"), Device.class);
+
+        Object fetchedByRequests = storage.getConfigurationNode(path, Device.class);
+        storage.setSubtreePrefetch(true);
+        Object prefetched = storage.getConfigurationNode(path, Device.class);
+
+        Assert.assertNotNull(((Map) ((Map) prefetched).get("deviceExtensions")).get("HL7DeviceExtension"));
+        DeepEqualsDiffer.assertDeepEquals("Prefetched device must be equal to the one read by requests",
+                fetchedByRequests, prefetched);
+    }
+
+    @Test
+    public void testBatchedModify() throws Exception {
+        storage.setSubtreePrefetch(true);
+        storage.setPageSize(1000);
+        String path = devicePath("dcmqrscp");
+        storage.persistNode(path, mockDeviceWithTransferCapabilities(), Device.class);
+        Map<String, Object> device = (Map<String, Object>) storage.getConfigurationNode(path, Device.class);
+
+        resetCounters();
+        storage.persistNode(path, device, Device.class);
+        Assert.assertEquals("unchanged device must not be written", 0, adds.get() + modifies.get() + deletes.get());
+
+        device.put("dicomDescription", "changed");
+        resetCounters();
+        storage.persistNode(path, device, Device.class);
+        Assert.assertEquals(1, modifies.get());
+        Assert.assertEquals(0, adds.get() + deletes.get());
+        Assert.assertEquals(1, searches.get());
+        DeepEqualsDiffer.assertDeepEquals("Stored device must be equal to the one loaded",
+                device, storage.getConfigurationNode(path, Device.class));
+
+        List<Object> tcs = transferCapabilities(device);
+        tcs.subList(0, 5).clear();
+        resetCounters();
+        storage.persistNode(path, device, Device.class);
+        Assert.assertEquals(5, deletes.get());
+        Assert.assertEquals(0, adds.get() + modifies.get());
+        Assert.assertEquals(tcs.size(), transferCapabilities(
+                (Map<String, Object>) storage.getConfigurationNode(path, Device.class)).size());
+
+        storage.removeNode(path);
+        Assert.assertEquals(0, server.countEntriesBelow("cn=Devices,cn=DICOM Configuration," + BASE_DN) - 1);
+    }
+
+    private void resetCounters() {
+        searches.set(0);
+        adds.set(0);
+        modifies.set(0);
+        deletes.set(0);
+    }
+
+    private static String devicePath(String deviceName) {
+        return DicomPath.DeviceByName.set("deviceName", deviceName).path();
+    }
+
+    private static Map<String, Object> mockDevice(String deviceName) throws ConfigurationException {
+        Configuration mockStorage = SimpleStorageTest.getMockDicomConfStorage();
+        return (Map<String, Object>) mockStorage.getConfigurationNode(devicePath(deviceName), Device.class);
+    }
+
+    private static Map<String, Object> mockDeviceWithTransferCapabilities() throws ConfigurationException {
+        Map<String, Object> device = mockDevice("dcmqrscp");
+        transferCapabilities(device).addAll(transferCapabilities(mockDevice("dcm4chee-arc")));
+        return device;
+    }
+
+    private static List<Object> transferCapabilities(Map<String, Object> device) {
+        Map<String, Map<String, Object>> aes = (Map<String, Map<String, Object>>) device.get("dicomNetworkAE");
+        return (List<Object>) aes.values().iterator().next().get("dcmTransferCapability");
+    }
+}
@@ -89,6 +89,7 @@ public class Attributes implements Serializable {
     private transient int length = -1;
     private transient int[] groupLengths;
     private transient int groupLengthIndex0;
+    private transient boolean containsLazyValues;
 
     private final boolean bigEndian;
     private long itemPosition = -1;
@@ -253,6 +254,7 @@ public class Attributes implements Serializable {
     }
 
     public void internalizeStringValues(boolean decode) {
+        loadLazyValues();
         SpecificCharacterSet cs = getSpecificCharacterSet();
         for (int i = 0; i < values.length; i++) {
             VR vr = vrs[i];
@@ -277,6 +279,7 @@ public class Attributes implements Serializable {
     }
 
     private void decodeStringValuesUsingSpecificCharacterSet() {
+        loadLazyValues();
         Object value;
         VR vr;
         SpecificCharacterSet cs = getSpecificCharacterSet();
@@ -353,6 +356,13 @@ public class Attributes implements Serializable {
     }
 
     private int indexOf(String privateCreator, int tag) {
+        int index = tagIndexOf(privateCreator, tag);
+        if (index >= 0 && values[index] instanceof LazyValue)
+            loadLazyValue(index);
+        return index;
+    }
+
+    private int tagIndexOf(String privateCreator, int tag) {
         if (privateCreator != null) {
             int creatorTag = creatorTagOf(privateCreator, tag, false);
             if (creatorTag == -1)
@@ -362,6 +372,25 @@ public class Attributes implements Serializable {
         return indexOf(tag);
     }
 
+    private void loadLazyValue(int index) {
+        try {
+            ((LazyValue) values[index]).load(this, tags[index], vrs[index]);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load value of "
+                    + TagUtils.toString(tags[index]), e);
+        }
+    }
+
+    private void loadLazyValues() {
+        if (!containsLazyValues)
+            return;
+
+        for (int i = 0; i < size; i++)
+            if (values[i] instanceof LazyValue)
+                loadLazyValue(i);
+        containsLazyValues = false;
+    }
+
     private int creatorTagOf(String privateCreator, int tag, boolean reserve) {
         if (!TagUtils.isPrivateGroup(tag))
             throw new IllegalArgumentException(TagUtils.toString(tag)
@@ -394,6 +423,10 @@ public class Attributes implements Serializable {
 
     private Object decodeStringValue(int index) {
         Object value = values[index];
+        if (value instanceof LazyValue) {
+            loadLazyValue(index);
+            value = values[index];
+        }
         if (value instanceof byte[]) {
             value = vrs[index].toStrings((byte[]) value, bigEndian,
                     getSpecificCharacterSet(vrs[index]));
@@ -501,7 +534,7 @@ public class Attributes implements Serializable {
     }
 
     public boolean contains(String privateCreator, int tag) {
-        return indexOf(privateCreator, tag) >= 0;
+        return tagIndexOf(privateCreator, tag) >= 0;
     }
 
     public boolean containsValue(int tag) {
@@ -559,7 +592,7 @@ public class Attributes implements Serializable {
     }
 
     public VR getVR(String privateCreator, int tag) {
-        int index = indexOf(privateCreator, tag);
+        int index = tagIndexOf(privateCreator, tag);
         if (index < 0)
             return null;
         
@@ -724,6 +757,35 @@ public class Attributes implements Serializable {
         }
     }
 
+    /**
+     * Returns the decoded value of the specified attribute as
+     * {@code String}, {@code String[]} or {@link Value#NULL}, without
+     * wrapping single values into a new array as {@link #getStrings} does.
+     * Used by {@link AttributesMatcher}.
+     */
+    Object getStringValue(String privateCreator, int tag) {
+        int index = indexOf(privateCreator, tag);
+        if (index < 0)
+            return null;
+
+        Object value = values[index];
+        if (value == Value.NULL)
+            return value;
+
+        VR vr = vrs[index];
+        if (vr.isStringType()) {
+            value = decodeStringValue(index);
+            if (value == Value.NULL)
+                return value;
+        }
+        try {
+            return vr.toStrings(value, bigEndian, getSpecificCharacterSet(vr));
+        } catch (UnsupportedOperationException e) {
+            LOG.info("Attempt to access {} {} as string", TagUtils.toString(tag), vr);
+            return null;
+        }
+    }
+
     private static String[] toStrings(Object val) {
         return (val instanceof String) 
                 ? new String[] { (String) val } 
@@ -1475,6 +1537,7 @@ public class Attributes implements Serializable {
     }
 
     private void updateTimezone(TimeZone from, TimeZone to) {
+        loadLazyValues();
         for (int i = 0; i < size; i++) {
             Object val = values[i];
             if (val instanceof Sequence) {
@@ -1876,6 +1939,8 @@ public class Attributes implements Serializable {
     }
 
     private Object set(int tag, VR vr, Object value) {
+        if (value instanceof LazyValue)
+            containsLazyValues = true;
         int index = indexForInsertOf(tag);
         if (index >= 0) {
             Object oldValue = values[index];
@@ -2022,6 +2087,8 @@ public class Attributes implements Serializable {
     private boolean add(Attributes other, int[] include, int[] exclude,
             int fromIndex, int toIndex, Attributes selection, boolean merge,
             boolean update, boolean simulate, Attributes modified) {
+        other.loadLazyValues();
+        loadLazyValues();
         boolean toggleEndian = bigEndian != other.bigEndian;
         boolean modifiedToggleEndian = modified != null
                 && bigEndian != modified.bigEndian;
@@ -2168,6 +2235,9 @@ public class Attributes implements Serializable {
         if (size != other.size)
             return false;
 
+        loadLazyValues();
+        other.loadLazyValues();
+
         int creatorTag = 0;
         int otherCreatorTag = 0;
         for (int i = 0; i < size; i++) {
@@ -2291,6 +2361,7 @@ public class Attributes implements Serializable {
     }
 
     private int appendAttributes(int limit, int maxWidth, StringBuilder sb, String prefix) {
+        loadLazyValues();
         int lines = 0;
         int creatorTag = 0;
         String privateCreator = null;
@@ -2357,6 +2428,7 @@ public class Attributes implements Serializable {
 
     private int calcLength(DicomEncodingOptions encOpts, boolean explicitVR,
             SpecificCharacterSet cs, int[] groupLengths) {
+        loadLazyValues();
         int len, totlen = 0;
         int groupLengthTag = -1;
         int groupLengthIndex = -1;
@@ -2446,6 +2518,7 @@ public class Attributes implements Serializable {
 
     private void writeTo(DicomOutputStream out, SpecificCharacterSet cs,
             int start, int end, int groupLengthIndex) throws IOException {
+        loadLazyValues();
         boolean groupLength = groupLengths != null;
         int groupLengthTag = -1;
         for (int i = start; i < end; i++) {
@@ -2487,6 +2560,7 @@ public class Attributes implements Serializable {
 
     private boolean accept(Visitor visitor, boolean visitNestedDatasets,
             int start, int end) throws Exception {
+        loadLazyValues();
         for (int i = start; i < end; i++) {
             if (!visitor.visit(this, tags[i], vrs[i], values[i]))
                 return false;
@@ -2552,6 +2626,7 @@ public class Attributes implements Serializable {
 
     public boolean matches(Attributes keys, boolean ignorePNCase,
             boolean matchNoValue) {
+        keys.loadLazyValues();
         int[] keyTags = keys.tags;
         VR[] keyVrs = keys.vrs;
         Object[] keyValues = keys.values;
@@ -2719,6 +2794,8 @@ public class Attributes implements Serializable {
             }
             return;
         }
+        if (values[index] instanceof LazyValue)
+            loadLazyValue(index);
         Object value = values[index];
         if (isEmpty(value)) {
             if (el.type == IOD.DataElementType.TYPE_1) {
@@ -2908,6 +2985,8 @@ public class Attributes implements Serializable {
     public Attributes getModified(Attributes other, Attributes result) {
         if (result == null)
             result = new Attributes(other.size);
+        loadLazyValues();
+        other.loadLazyValues();
         int creatorTag = -1;
         int prevOtherCreatorTag = -1;
         int otherCreatorTag = -1;
@@ -2972,6 +3051,8 @@ public class Attributes implements Serializable {
      */
     public Attributes getRemovedOrModified(Attributes other) {
         Attributes modified = new Attributes(size);
+        loadLazyValues();
+        other.loadLazyValues();
         int creatorTag = -1;
         int prevCreatorTag = -1;
         int otherCreatorTag = 0;
@@ -0,0 +1,398 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.data;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Immutable matcher compiled once from query keys, which can be evaluated
+ * against many candidate data sets - e.g. Directory Records - without
+ * parsing the keys again. Wildcard keys are matched without regular
+ * expressions, keys of Person Names are normalized on compilation and
+ * range keys of DA, TM and DT attributes are split into their bounds.
+ * Specific Character Set (0008,0005) is not treated as matching key.
+ * Matching a candidate whose values are already decoded and whose Person
+ * Names are in normalized form does not allocate any objects, except for
+ * range matching of DT values.
+ * <p>
+ * Unlike {@link Attributes#matches(Attributes, boolean, boolean)}, which
+ * compares range keys literally, range keys are applied as ranges.
+ * 
+ * Instances are thread-safe.
+ *
+ * @author agent <agent@local>
+ */
+public class AttributesMatcher {
+
+    private static final Key[] NO_KEYS = {};
+
+    private final Key[] keys;
+
+    public AttributesMatcher(Attributes keys, boolean ignorePNCase,
+            boolean matchNoValue) {
+        this.keys = compile(keys, ignorePNCase, matchNoValue);
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public boolean matches(Attributes attrs) {
+        for (int i = 0; i < keys.length; i++)
+            if (!keys[i].matches(attrs))
+                return false;
+        return true;
+    }
+
+    private static Key[] compile(Attributes attrs, boolean ignorePNCase,
+            boolean matchNoValue) {
+        if (attrs.isEmpty())
+            return NO_KEYS;
+
+        ArrayList<Key> list = new ArrayList<Key>(attrs.size());
+        String privateCreator = null;
+        int creatorTag = 0;
+        VR.Holder vrHolder = new VR.Holder();
+        for (int tag : attrs.tags()) {
+            if (tag == Tag.SpecificCharacterSet
+                    || TagUtils.isPrivateCreator(tag))
+                continue;
+
+            if (TagUtils.isPrivateGroup(tag)) {
+                int tmp = TagUtils.creatorTagOf(tag);
+                if (creatorTag != tmp) {
+                    creatorTag = tmp;
+                    privateCreator = attrs.getString(creatorTag, null);
+                }
+            } else {
+                creatorTag = 0;
+                privateCreator = null;
+            }
+
+            Object value = attrs.getValue(privateCreator, tag, vrHolder);
+            if (value instanceof Value && ((Value) value).isEmpty())
+                continue;
+
+            VR vr = vrHolder.vr;
+            if (vr.isStringType()) {
+                String[] ss = attrs.getStrings(privateCreator, tag, null);
+                if (ss == null || ss.length == 0)
+                    continue;
+                if (ss.length == 1 && ss[0] != null && isRange(vr, ss[0]))
+                    list.add(vr == VR.DT
+                            ? new DateTimeRangeKey(privateCreator, tag,
+                                    matchNoValue,
+                                    attrs.getDateRange(privateCreator, tag, vr))
+                            : new RangeKey(privateCreator, tag, matchNoValue,
+                                    ss[0]));
+                else
+                    list.add(new StringKey(privateCreator, tag, matchNoValue,
+                            vr, ignorePNCase && vr == VR.PN, ss));
+            } else if (value instanceof Sequence) {
+                Sequence seq = (Sequence) value;
+                int n = seq.size();
+                if (n > 1)
+                    throw new IllegalArgumentException("Keys contain Sequence "
+                            + TagUtils.toString(tag) + " with " + n + " Items");
+                Attributes item = seq.get(0);
+                if (!item.isEmpty())
+                    list.add(new SequenceKey(privateCreator, tag, matchNoValue,
+                            new AttributesMatcher(item, ignorePNCase,
+                                    matchNoValue)));
+            } else {
+                throw new UnsupportedOperationException("Keys with VR: "
+                        + vr + " not supported");
+            }
+        }
+        return list.toArray(new Key[list.size()]);
+    }
+
+    private static boolean isRange(VR vr, String s) {
+        return (vr == VR.DA || vr == VR.TM || vr == VR.DT)
+                && s.indexOf('-') >= 0;
+    }
+
+    private static abstract class Key {
+        final String privateCreator;
+        final int tag;
+        final boolean matchNoValue;
+
+        Key(String privateCreator, int tag, boolean matchNoValue) {
+            this.privateCreator = privateCreator;
+            this.tag = tag;
+            this.matchNoValue = matchNoValue;
+        }
+
+        abstract boolean matches(Attributes attrs);
+    }
+
+    private static abstract class ValueKey extends Key {
+
+        ValueKey(String privateCreator, int tag, boolean matchNoValue) {
+            super(privateCreator, tag, matchNoValue);
+        }
+
+        @Override
+        boolean matches(Attributes attrs) {
+            Object value = attrs.getStringValue(privateCreator, tag);
+            if (value == null || value == Value.NULL)
+                return matchNoValue;
+
+            if (value instanceof String)
+                return matchesValue((String) value);
+
+            String[] ss = (String[]) value;
+            if (ss.length == 0)
+                return matchNoValue;
+
+            for (int i = 0; i < ss.length; i++) {
+                String s = ss[i];
+                if (s == null) {
+                    if (matchNoValue)
+                        return true;
+                } else if (matchesValue(s))
+                    return true;
+            }
+            return false;
+        }
+
+        abstract boolean matchesValue(String s);
+    }
+
+    private static final class StringKey extends ValueKey {
+        final boolean pn;
+        final boolean ignoreCase;
+        final String[] values;
+        final boolean[] wildcard;
+
+        StringKey(String privateCreator, int tag, boolean matchNoValue,
+                VR vr, boolean ignoreCase, String[] ss) {
+            super(privateCreator, tag, matchNoValue);
+            this.pn = vr == VR.PN;
+            this.ignoreCase = ignoreCase;
+            this.values = new String[ss.length];
+            this.wildcard = new boolean[ss.length];
+            for (int i = 0; i < ss.length; i++) {
+                String s = ss[i] != null ? ss[i] : "";
+                values[i] = pn ? new PersonName(s).toString() : s;
+                wildcard[i] = StringUtils.containsWildCard(values[i]);
+            }
+        }
+
+        @Override
+        boolean matchesValue(String s) {
+            if (pn && !isNormalizedPN(s))
+                s = new PersonName(s).toString();
+
+            for (int i = 0; i < values.length; i++) {
+                String key = values[i];
+                if (wildcard[i]
+                        ? matchesWildcard(key, s, ignoreCase)
+                        : ignoreCase ? key.equalsIgnoreCase(s)
+                                     : key.equals(s))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class RangeKey extends ValueKey {
+        final String lower;
+        final String upper;
+
+        RangeKey(String privateCreator, int tag, boolean matchNoValue,
+                String range) {
+            super(privateCreator, tag, matchNoValue);
+            int dash = range.indexOf('-');
+            this.lower = dash == 0 ? null : range.substring(0, dash);
+            this.upper = dash == range.length() - 1 ? null
+                    : range.substring(dash + 1);
+        }
+
+        @Override
+        boolean matchesValue(String s) {
+            return (lower == null || comparePrefix(s, lower) >= 0)
+                && (upper == null || comparePrefix(s, upper) <= 0);
+        }
+    }
+
+    private static final class DateTimeRangeKey extends Key {
+        final DateRange range;
+
+        DateTimeRangeKey(String privateCreator, int tag, boolean matchNoValue,
+                DateRange range) {
+            super(privateCreator, tag, matchNoValue);
+            this.range = range;
+        }
+
+        @Override
+        boolean matches(Attributes attrs) {
+            Date[] dates = attrs.getDates(privateCreator, tag);
+            if (dates == null || dates.length == 0)
+                return matchNoValue;
+
+            for (Date date : dates) {
+                if (date == null) {
+                    if (matchNoValue)
+                        return true;
+                } else if (range.contains(date))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class SequenceKey extends Key {
+        final AttributesMatcher matcher;
+
+        SequenceKey(String privateCreator, int tag, boolean matchNoValue,
+                AttributesMatcher matcher) {
+            super(privateCreator, tag, matchNoValue);
+            this.matcher = matcher;
+        }
+
+        @Override
+        boolean matches(Attributes attrs) {
+            Object value = attrs.getValue(privateCreator, tag);
+            if (value == null || value instanceof Value && ((Value) value).isEmpty())
+                return matchNoValue;
+
+            if (value instanceof Sequence) {
+                Sequence seq = (Sequence) value;
+                for (int i = 0, n = seq.size(); i < n; i++)
+                    if (matcher.matches(seq.get(i)))
+                        return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Compares the value with the bound of a range over the length of the
+     * shorter of both, so a value of lower precision - e.g. a TM value
+     * without seconds - is regarded as covering the bound.
+     */
+    static int comparePrefix(String s, String bound) {
+        int n = Math.min(s.length(), bound.length());
+        for (int i = 0; i < n; i++) {
+            int d = s.charAt(i) - bound.charAt(i);
+            if (d != 0)
+                return d;
+        }
+        return 0;
+    }
+
+    /**
+     * Matches the value against a key containing wildcards {@code *} and
+     * {@code ?} with the same semantics as the regular expression returned
+     * by {@link StringUtils#compilePattern}, but without allocating a
+     * {@link java.util.regex.Matcher}.
+     */
+    static boolean matchesWildcard(String key, String s, boolean ignoreCase) {
+        int klen = key.length();
+        int slen = s.length();
+        int k = 0;
+        int i = 0;
+        int starK = -1;
+        int starI = 0;
+        while (i < slen) {
+            if (k < klen) {
+                char ch = key.charAt(k);
+                if (ch == '*') {
+                    starK = k++;
+                    starI = i;
+                    continue;
+                }
+                if (ch == '?' || equals(ch, s.charAt(i), ignoreCase)) {
+                    k++;
+                    i++;
+                    continue;
+                }
+            }
+            if (starK < 0)
+                return false;
+            k = starK + 1;
+            i = ++starI;
+        }
+        while (k < klen && key.charAt(k) == '*')
+            k++;
+        return k == klen;
+    }
+
+    private static boolean equals(char c1, char c2, boolean ignoreCase) {
+        return c1 == c2 || ignoreCase && c1 < 128 && c2 < 128
+                && toLowerCase(c1) == toLowerCase(c2);
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /**
+     * Returns {@code true} if {@code new PersonName(s).toString()} would
+     * return an equal String.
+     */
+    static boolean isNormalizedPN(String s) {
+        int len = s.length();
+        if (len == 0)
+            return true;
+
+        int groups = 0;
+        int components = 0;
+        char prev = '=';
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch == '=') {
+                if (prev == '^' || ++groups > 2 || i > 0 && prev <= ' ')
+                    return false;
+                components = 0;
+            } else if (ch == '^') {
+                if (++components > 4 || i > 0 && prev <= ' ')
+                    return false;
+            } else if (ch <= ' ' && (prev == '^' || prev == '='))
+                return false;
+            prev = ch;
+        }
+        return prev != '^' && prev != '=' && prev > ' ';
+    }
+}
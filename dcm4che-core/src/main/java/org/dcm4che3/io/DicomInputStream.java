@@ -39,6 +39,7 @@
 package org.dcm4che3.io;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -47,6 +48,8 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -61,6 +64,7 @@ import org.dcm4che3.data.BulkData;
 import org.dcm4che3.data.ElementDictionary;
 import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.ItemPointer;
+import org.dcm4che3.data.LazyValue;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.util.ByteUtils;
@@ -78,6 +82,16 @@ public class DicomInputStream extends FilterInputStream
 
     public enum IncludeBulkData { NO, YES, URI }
 
+    /**
+     * Random access to the bytes of the parsed DICOM stream, used to load
+     * values which were skipped on parsing in lazy mode.
+     *
+     * @see DicomInputStream#setLazyValueSource(ValueSource)
+     */
+    public interface ValueSource {
+        void read(long pos, byte[] b, int off, int len) throws IOException;
+    }
+
     private static final Logger LOG = 
         LoggerFactory.getLogger(DicomInputStream.class);
 
@@ -98,6 +112,7 @@ public class DicomInputStream extends FilterInputStream
 
     private static final int ZLIB_HEADER = 0x789c;
     private static final int DEF_ALLOCATE_LIMIT = 0x4000000; // 64MiB
+    private static final int DEF_LAZY_VALUE_THRESHOLD = 64;
 
     private int allocateLimit = DEF_ALLOCATE_LIMIT;
     private String uri;
@@ -120,6 +135,9 @@ public class DicomInputStream extends FilterInputStream
     private final byte[] buffer = new byte[12];
     private List<ItemPointer> itemPointers = new ArrayList<ItemPointer>(4);
     private boolean decodeUNWithIVRLE = true;
+    private ValueSource lazyValueSource;
+    private int lazyValueThreshold = DEF_LAZY_VALUE_THRESHOLD;
+    private LazyContext lazyContext;
 
     private boolean catBlkFiles;
     private String blkFilePrefix = "blk";
@@ -270,6 +288,81 @@ public class DicomInputStream extends FilterInputStream
         this.decodeUNWithIVRLE = decodeUNWithIVRLE;
     }
 
+    public final ValueSource getLazyValueSource() {
+        return lazyValueSource;
+    }
+
+    /**
+     * Enables lazy parsing of the Data Set. Instead of reading values of
+     * Data Elements with a length of at least {@link #getLazyValueThreshold()}
+     * and Sequences of defined length, only their position in the stream is
+     * recorded and the value is read from the specified source and decoded
+     * on first access by the returned {@link Attributes}. Items of nested
+     * Sequences are parsed lazily again. The source must be readable until
+     * all values of interest were accessed.
+     * 
+     * Lazy parsing is not applied to File Meta Information and to deflated
+     * DICOM streams.
+     * 
+     * @param lazyValueSource provides random access to the bytes of this
+     *        stream or {@code null} to disable lazy parsing
+     * @see #valueSourceOf(FileChannel)
+     * @see #valueSourceOf(ByteBuffer)
+     */
+    public final void setLazyValueSource(ValueSource lazyValueSource) {
+        this.lazyValueSource = lazyValueSource;
+        this.lazyContext = null;
+    }
+
+    public final int getLazyValueThreshold() {
+        return lazyValueThreshold;
+    }
+
+    /**
+     * Sets the minimal length of values which are loaded lazily. Shorter
+     * values are read immediately, because the placeholder for a lazily
+     * loaded value would not save memory.
+     * 
+     * By default, the threshold is set to 64 bytes.
+     * 
+     * @param lazyValueThreshold minimal length of lazily loaded values
+     */
+    public final void setLazyValueThreshold(int lazyValueThreshold) {
+        if (lazyValueThreshold <= 0)
+            throw new IllegalArgumentException(
+                    "lazyValueThreshold: " + lazyValueThreshold);
+        this.lazyValueThreshold = lazyValueThreshold;
+        this.lazyContext = null;
+    }
+
+    public static ValueSource valueSourceOf(final FileChannel channel) {
+        return new ValueSource() {
+            @Override
+            public void read(long pos, byte[] b, int off, int len)
+                    throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, pos + buf.position() - off) < 0)
+                        throw new EOFException();
+                }
+            }
+        };
+    }
+
+    public static ValueSource valueSourceOf(final ByteBuffer buffer) {
+        return new ValueSource() {
+            @Override
+            public void read(long pos, byte[] b, int off, int len)
+                    throws IOException {
+                if (pos + len > buffer.limit())
+                    throw new EOFException();
+                ByteBuffer buf = buffer.duplicate();
+                buf.position((int) pos);
+                buf.get(b, off, len);
+            }
+        };
+    }
+
     public final void setFileMetaInformationGroupLength(byte[] val) {
         fmiEndPos = pos + ByteUtils.bytesToInt(val, 0, bigEndian);
     }
@@ -504,7 +597,10 @@ public class DicomInputStream extends FilterInputStream
         } else if (length == 0) {
             attrs.setNull(tag, vr);
         } else if (vr == VR.SQ) {
-            readSequence(length, attrs, tag);
+            if (isLazyValue())
+                setLazyValue(attrs);
+            else
+                readSequence(length, attrs, tag);
         } else if (length == -1) {
             readFragments(attrs, tag, vr);
         } else if (length == BulkData.MAGIC_LEN
@@ -513,6 +609,8 @@ public class DicomInputStream extends FilterInputStream
                     (ObjectInputStream) super.in));
         } else if (includeBulkData == IncludeBulkData.URI && isBulkData(attrs)) {
             attrs.setValue(tag, vr, createBulkData());
+        } else if (isLazyValue() && !TagUtils.isGroupLength(tag)) {
+            setLazyValue(attrs);
         } else {
             byte[] b = readValue();
             if (!TagUtils.isGroupLength(tag)) {
@@ -554,6 +652,23 @@ public class DicomInputStream extends FilterInputStream
         return bulkData;
     }
 
+    private boolean isLazyValue() {
+        return lazyValueSource != null
+                && length >= lazyValueThreshold
+                && pos > fmiEndPos
+                && !(super.in instanceof InflaterInputStream);
+    }
+
+    private void setLazyValue(Attributes attrs) throws IOException {
+        if (lazyContext == null)
+            lazyContext = new LazyContext(this);
+        attrs.setValue(tag, vr, new DeferredValue(lazyContext, pos, length,
+                bigEndian, explicitVR, vr == VR.SQ && !itemPointers.isEmpty()
+                        ? itemPointers.toArray(new ItemPointer[itemPointers.size()])
+                        : null));
+        skipFully(length);
+    }
+
     public boolean isBulkData(Attributes attrs) {
         return bulkDataDescriptor.isBulkData(itemPointers,
                 attrs.getPrivateCreator(tag), tag, vr, length);
@@ -803,4 +918,73 @@ public class DicomInputStream extends FilterInputStream
         this.explicitVR = false;
         return true;
     }
+
+    private static final class LazyContext {
+        final ValueSource source;
+        final int threshold;
+        final int allocateLimit;
+        final boolean decodeUNWithIVRLE;
+        final IncludeBulkData includeBulkData;
+        final BulkDataDescriptor bulkDataDescriptor;
+        final String uri;
+
+        LazyContext(DicomInputStream dis) {
+            this.source = dis.lazyValueSource;
+            this.threshold = dis.lazyValueThreshold;
+            this.allocateLimit = dis.allocateLimit;
+            this.decodeUNWithIVRLE = dis.decodeUNWithIVRLE;
+            this.includeBulkData = dis.includeBulkData;
+            this.bulkDataDescriptor = dis.bulkDataDescriptor;
+            this.uri = dis.uri;
+        }
+    }
+
+    private static final class DeferredValue implements LazyValue {
+        final LazyContext ctx;
+        final long pos;
+        final int length;
+        final boolean bigEndian;
+        final boolean explicitVR;
+        final ItemPointer[] itemPointers;
+
+        DeferredValue(LazyContext ctx, long pos, int length,
+                boolean bigEndian, boolean explicitVR,
+                ItemPointer[] itemPointers) {
+            this.ctx = ctx;
+            this.pos = pos;
+            this.length = length;
+            this.bigEndian = bigEndian;
+            this.explicitVR = explicitVR;
+            this.itemPointers = itemPointers;
+        }
+
+        @Override
+        public void load(Attributes attrs, int tag, VR vr) throws IOException {
+            byte[] b = new byte[length];
+            ctx.source.read(pos, b, 0, length);
+            if (vr != VR.SQ) {
+                if (bigEndian != attrs.bigEndian())
+                    vr.toggleEndian(b, false);
+                attrs.setBytes(tag, vr, b);
+                return;
+            }
+            DicomInputStream dis = new DicomInputStream(
+                    new ByteArrayInputStream(b),
+                    bigEndian ? UID.ExplicitVRBigEndianRetired
+                            : explicitVR ? UID.ExplicitVRLittleEndian
+                                    : UID.ImplicitVRLittleEndian);
+            dis.pos = pos;
+            dis.uri = ctx.uri;
+            dis.allocateLimit = ctx.allocateLimit;
+            dis.decodeUNWithIVRLE = ctx.decodeUNWithIVRLE;
+            dis.includeBulkData = ctx.includeBulkData;
+            dis.bulkDataDescriptor = ctx.bulkDataDescriptor;
+            dis.lazyValueSource = ctx.source;
+            dis.lazyValueThreshold = ctx.threshold;
+            dis.lazyContext = ctx;
+            if (itemPointers != null)
+                dis.itemPointers.addAll(Arrays.asList(itemPointers));
+            dis.readSequence(length, attrs, tag);
+        }
+    }
 }
@@ -38,7 +38,7 @@
 
 package org.dcm4che3.io;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
@@ -52,7 +52,8 @@ public class TemplatesCache {
 
     private static TemplatesCache defaultCache;
 
-    private final HashMap<String, Templates> map = new HashMap<String, Templates>();
+    private final ConcurrentHashMap<String, Templates> map =
+            new ConcurrentHashMap<String, Templates>();
 
     public static synchronized TemplatesCache getDefault() {
         if (defaultCache == null) {
@@ -74,8 +75,12 @@ public class TemplatesCache {
 
     public Templates get(String uri) throws TransformerConfigurationException {
         Templates tpl = map.get(uri);
-        if (tpl == null)
-            map.put(uri, tpl = SAXTransformer.newTemplates(new StreamSource(uri)));
+        if (tpl == null) {
+            tpl = SAXTransformer.newTemplates(new StreamSource(uri));
+            Templates prev = map.putIfAbsent(uri, tpl);
+            if (prev != null)
+                tpl = prev;
+        }
         return tpl;
     }
 }
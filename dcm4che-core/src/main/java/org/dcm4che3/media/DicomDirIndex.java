@@ -0,0 +1,265 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.media;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.util.IntHashMap;
+
+/**
+ * In-memory index over the Directory Records in use of a DICOMDIR, with
+ * hash indexes on Patient ID, Study, Series and SOP Instance UID and a sorted
+ * index on Study Date. Obtained by {@link DicomDirReader#getIndex()} and kept
+ * in sync by {@link DicomDirWriter} on adding or deleting records.
+ * 
+ * @author agent <agent@local>
+ */
+public class DicomDirIndex {
+
+    private final DicomDirReader reader;
+    private final HashMap<String, List<Attributes>> patientsByID =
+            new HashMap<String, List<Attributes>>();
+    private final HashMap<String, Attributes> studyByIUID =
+            new HashMap<String, Attributes>();
+    private final HashMap<String, Attributes> seriesByIUID =
+            new HashMap<String, Attributes>();
+    private final HashMap<String, Attributes> instanceByIUID =
+            new HashMap<String, Attributes>();
+    private final TreeMap<String, List<Attributes>> studiesByDate =
+            new TreeMap<String, List<Attributes>>();
+    private final IntHashMap<Attributes> parentByOffset =
+            new IntHashMap<Attributes>();
+
+    DicomDirIndex(DicomDirReader reader) throws IOException {
+        this.reader = reader;
+        build();
+    }
+
+    public final DicomDirReader getDicomDirReader() {
+        return reader;
+    }
+
+    /**
+     * Returns Patient Directory Records with one of the specified Patient IDs.
+     * 
+     * @param ids
+     *            Patient IDs
+     * @return matching Patient Directory Records in order of the specified
+     *         Patient IDs
+     */
+    public synchronized List<Attributes> findPatientRecords(String... ids) {
+        ArrayList<Attributes> list = new ArrayList<Attributes>();
+        for (String id : ids) {
+            List<Attributes> recs = patientsByID.get(id);
+            if (recs != null)
+                list.addAll(recs);
+        }
+        return list;
+    }
+
+    public synchronized List<Attributes> findStudyRecords(String... iuids) {
+        return find(studyByIUID, iuids);
+    }
+
+    public synchronized List<Attributes> findSeriesRecords(String... iuids) {
+        return find(seriesByIUID, iuids);
+    }
+
+    public synchronized List<Attributes> findInstanceRecords(String... iuids) {
+        return find(instanceByIUID, iuids);
+    }
+
+    /**
+     * Returns Study Directory Records with a Study Date (0008,0020) within
+     * the specified range. Both boundaries are inclusive and formatted as
+     * DA values.
+     * 
+     * @param from
+     *            earliest Study Date or {@code null}
+     * @param to
+     *            latest Study Date or {@code null}
+     * @return matching Study Directory Records in order of Study Date
+     */
+    public synchronized List<Attributes> findStudyRecordsByDate(String from,
+            String to) {
+        Map<String, List<Attributes>> range;
+        if (from == null)
+            range = to == null ? studiesByDate : studiesByDate.headMap(to, true);
+        else if (to == null)
+            range = studiesByDate.tailMap(from, true);
+        else if (from.compareTo(to) > 0)
+            return Collections.emptyList();
+        else
+            range = studiesByDate.subMap(from, true, to, true);
+
+        ArrayList<Attributes> list = new ArrayList<Attributes>();
+        for (List<Attributes> recs : range.values())
+            list.addAll(recs);
+        return list;
+    }
+
+    /**
+     * Returns the Directory Record which references the specified record as
+     * lower level record, or {@code null} for records of the root directory
+     * entity.
+     * 
+     * @param rec
+     *            Directory Record
+     * @return parent Directory Record or {@code null}
+     */
+    public synchronized Attributes getParentRecord(Attributes rec) {
+        return parentByOffset.get((int) rec.getItemPosition());
+    }
+
+    private static List<Attributes> find(HashMap<String, Attributes> map,
+            String... iuids) {
+        ArrayList<Attributes> list = new ArrayList<Attributes>(iuids.length);
+        for (String iuid : iuids) {
+            Attributes rec = map.get(iuid);
+            if (rec != null)
+                list.add(rec);
+        }
+        return list;
+    }
+
+    synchronized void build() throws IOException {
+        patientsByID.clear();
+        studyByIUID.clear();
+        seriesByIUID.clear();
+        instanceByIUID.clear();
+        studiesByDate.clear();
+        parentByOffset.clear();
+        addAll(null, reader.findFirstRootDirectoryRecordInUse(false));
+    }
+
+    private void addAll(Attributes parentRec, Attributes rec) throws IOException {
+        while (rec != null) {
+            add(parentRec, rec);
+            addAll(rec, reader.findLowerDirectoryRecordInUse(rec, false));
+            rec = reader.findNextDirectoryRecordInUse(rec, false);
+        }
+    }
+
+    synchronized void add(Attributes parentRec, Attributes rec) {
+        if (parentRec != null)
+            parentByOffset.put((int) rec.getItemPosition(), parentRec);
+        String type = rec.getString(Tag.DirectoryRecordType, null);
+        if ("PATIENT".equals(type)) {
+            String id = rec.getString(Tag.PatientID, null);
+            if (id != null)
+                addTo(patientsByID, id, rec);
+        } else if ("STUDY".equals(type)) {
+            putIfAbsent(studyByIUID, rec.getString(Tag.StudyInstanceUID, null), rec);
+            String date = rec.getString(Tag.StudyDate, null);
+            if (date != null)
+                addTo(studiesByDate, date, rec);
+        } else if ("SERIES".equals(type)) {
+            putIfAbsent(seriesByIUID, rec.getString(Tag.SeriesInstanceUID, null), rec);
+        } else if (!"PRIVATE".equals(type)) {
+            putIfAbsent(instanceByIUID,
+                    rec.getString(Tag.ReferencedSOPInstanceUIDInFile, null), rec);
+        }
+    }
+
+    synchronized void remove(Attributes rec) {
+        parentByOffset.remove((int) rec.getItemPosition());
+        String type = rec.getString(Tag.DirectoryRecordType, null);
+        if ("PATIENT".equals(type)) {
+            removeFrom(patientsByID, rec.getString(Tag.PatientID, null), rec);
+        } else if ("STUDY".equals(type)) {
+            removeIfSame(studyByIUID, rec.getString(Tag.StudyInstanceUID, null), rec);
+            removeFrom(studiesByDate, rec.getString(Tag.StudyDate, null), rec);
+        } else if ("SERIES".equals(type)) {
+            removeIfSame(seriesByIUID, rec.getString(Tag.SeriesInstanceUID, null), rec);
+        } else {
+            removeIfSame(instanceByIUID,
+                    rec.getString(Tag.ReferencedSOPInstanceUIDInFile, null), rec);
+        }
+    }
+
+    private static void putIfAbsent(HashMap<String, Attributes> map,
+            String key, Attributes rec) {
+        if (key != null && !map.containsKey(key))
+            map.put(key, rec);
+    }
+
+    private static void removeIfSame(HashMap<String, Attributes> map,
+            String key, Attributes rec) {
+        if (key == null)
+            return;
+
+        Attributes prev = map.get(key);
+        if (prev != null && prev.getItemPosition() == rec.getItemPosition())
+            map.remove(key);
+    }
+
+    private static void addTo(Map<String, List<Attributes>> map, String key,
+            Attributes rec) {
+        List<Attributes> list = map.get(key);
+        if (list == null)
+            map.put(key, list = new ArrayList<Attributes>(1));
+        list.add(rec);
+    }
+
+    private static void removeFrom(Map<String, List<Attributes>> map,
+            String key, Attributes rec) {
+        if (key == null)
+            return;
+
+        List<Attributes> list = map.get(key);
+        if (list == null)
+            return;
+
+        for (int i = 0, n = list.size(); i < n; i++)
+            if (list.get(i).getItemPosition() == rec.getItemPosition()) {
+                list.remove(i);
+                break;
+            }
+        if (list.isEmpty())
+            map.remove(key);
+    }
+}
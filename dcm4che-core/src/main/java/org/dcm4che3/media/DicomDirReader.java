@@ -39,30 +39,48 @@
 package org.dcm4che3.media;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.AttributesMatcher;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.RAFInputStreamAdapter;
-import org.dcm4che3.util.IntHashMap;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StringUtils;
 
 /**
+ * Reads Directory Records from a DICOMDIR. Records are decoded by
+ * positional reads from the file channel and cached, so several threads
+ * may walk the directory concurrently - also while a {@link DicomDirWriter}
+ * appends records.
+ * 
  * @author Gunter Zeilinger <gunterze@gmail.com>
  */
 public class DicomDirReader implements Closeable {
 
+    private static final int RECORD_BUFFER_SIZE = 1024;
+
+
     protected final File file;
     protected final RandomAccessFile raf;
+    private final FileChannel channel;
     protected final DicomInputStream in;
     protected final Attributes fmi;
     protected final Attributes fsInfo;
-    protected final IntHashMap<Attributes> cache = new IntHashMap<Attributes>();
+    private final ConcurrentHashMap<Integer, Attributes> cache =
+            new ConcurrentHashMap<Integer, Attributes>();
+    private final ThreadLocal<RecordReader> recordReader =
+            new ThreadLocal<RecordReader>();
+    DicomDirIndex index;
 
     public DicomDirReader(File file) throws IOException {
         this(file, "r");
@@ -71,6 +89,7 @@ public class DicomDirReader implements Closeable {
     protected DicomDirReader(File file, String mode) throws IOException {
         this.file = file;
         this.raf = new RandomAccessFile(file, mode);
+        this.channel = raf.getChannel();
         try {
             this.in = new DicomInputStream(new RAFInputStreamAdapter(raf));
             this.fmi = in.readFileMetaInformation();
@@ -170,6 +189,20 @@ public class DicomDirReader implements Closeable {
         cache.clear();
     }
 
+    /**
+     * Returns the index over the Directory Records in use, which is built on
+     * first invocation by reading all Directory Records.
+     * 
+     * @return the index over the Directory Records in use
+     * @throws IOException
+     *             if an I/O error occurs on building the index
+     */
+    public synchronized DicomDirIndex getIndex() throws IOException {
+        if (index == null)
+            index = new DicomDirIndex(this);
+        return index;
+    }
+
     public Attributes readFirstRootDirectoryRecord() throws IOException {
         return readRecord(getOffsetOfFirstRootDirectoryRecord());
     }
@@ -218,6 +251,12 @@ public class DicomDirReader implements Closeable {
         return findRootDirectoryRecord(keys, ignorePrivate, ignoreCaseOfPN, matchNoValue);
     }
 
+    public Attributes findRootDirectoryRecord(boolean ignorePrivate,
+            AttributesMatcher matcher) throws IOException {
+        return findRecordInUse(getOffsetOfFirstRootDirectoryRecord(),
+                ignorePrivate, matcher);
+    }
+
     public Attributes findNextDirectoryRecordInUse(Attributes rec, boolean ignorePrivate)
             throws IOException {
         return findNextDirectoryRecord(rec, ignorePrivate, null, false, false);
@@ -230,6 +269,13 @@ public class DicomDirReader implements Closeable {
                 keys, ignoreCaseOfPN, matchNoValue);
     }
 
+    public Attributes findNextDirectoryRecord(Attributes rec, boolean ignorePrivate,
+            AttributesMatcher matcher) throws IOException {
+        return findRecordInUse(
+                rec.getInt(Tag.OffsetOfTheNextDirectoryRecord, 0), ignorePrivate,
+                matcher);
+    }
+
     public Attributes findLowerDirectoryRecordInUse(Attributes rec, boolean ignorePrivate)
             throws IOException {
         return findLowerDirectoryRecord(rec, ignorePrivate, null, false, false);
@@ -243,6 +289,13 @@ public class DicomDirReader implements Closeable {
                 keys, ignoreCaseOfPN, matchNoValue);
     }
 
+    public Attributes findLowerDirectoryRecord(Attributes rec, boolean ignorePrivate,
+            AttributesMatcher matcher) throws IOException {
+        return findRecordInUse(
+                rec.getInt(Tag.OffsetOfReferencedLowerLevelDirectoryEntity, 0), ignorePrivate,
+                matcher);
+    }
+
     public Attributes findPatientRecord(String... ids) throws IOException {
         return findRootDirectoryRecord(false,
                 pk("PATIENT", Tag.PatientID, VR.LO, ids), false, false);
@@ -326,21 +379,51 @@ public class DicomDirReader implements Closeable {
         return null;
     }
 
-    private synchronized Attributes readRecord(int offset) throws IOException {
+    private Attributes findRecordInUse(int offset, boolean ignorePrivate,
+            AttributesMatcher matcher) throws IOException {
+        while (offset != 0) {
+            Attributes item = readRecord(offset);
+            if (inUse(item) && !(ignorePrivate && isPrivate(item))
+                    && (matcher == null || matcher.matches(item)))
+                return item;
+            offset = item.getInt(Tag.OffsetOfTheNextDirectoryRecord, 0);
+        }
+        return null;
+    }
+
+    private Attributes readRecord(int offset) throws IOException {
         if (offset == 0)
             return null;
 
         Attributes item = cache.get(offset);
         if (item == null) {
-            long off = offset & 0xffffffffL;
-            raf.seek(off);
-            in.setPosition(off);
-            item = in.readItem();
-            cache.put(offset, item);
+            item = readRecordFromChannel(offset & 0xffffffffL);
+            Attributes prev = cache.putIfAbsent(offset, item);
+            if (prev != null)
+                item = prev;
         }
         return item;
     }
 
+    private Attributes readRecordFromChannel(long offset) throws IOException {
+        RecordReader reader = recordReader.get();
+        if (reader == null) {
+            reader = new RecordReader(channel, in.getTransferSyntax());
+            recordReader.set(reader);
+        }
+        try {
+            return reader.readRecord(offset);
+        } catch (IOException e) {
+            // do not reuse the reader in an undefined state
+            recordReader.remove();
+            throw e;
+        }
+    }
+
+    void cacheRecord(int offset, Attributes rec) {
+        cache.put(offset, rec);
+    }
+
     public static boolean inUse(Attributes rec) {
         return rec.getInt(Tag.RecordInUseFlag, 0) != 0;
     }
@@ -349,4 +432,96 @@ public class DicomDirReader implements Closeable {
         return "PRIVATE".equals(rec.getString(Tag.DirectoryRecordType));
     }
 
+    private static final class RecordReader {
+
+        private final ChannelInputStream cin;
+        private final DicomInputStream din;
+
+        RecordReader(FileChannel channel, String tsuid) throws IOException {
+            this.cin = new ChannelInputStream(channel);
+            this.din = new DicomInputStream(cin, tsuid);
+        }
+
+        Attributes readRecord(long offset) throws IOException {
+            cin.seek(offset);
+            din.setPosition(offset);
+            return din.readItem();
+        }
+    }
+
+    private static final class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(RECORD_BUFFER_SIZE);
+        private long position;
+
+        ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+            buf.limit(0);
+        }
+
+        void seek(long position) {
+            this.position = position;
+            buf.limit(0);
+        }
+
+        private boolean fill() throws IOException {
+            buf.clear();
+            int n = channel.read(buf, position);
+            buf.flip();
+            if (n <= 0)
+                return false;
+            position += n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (!buf.hasRemaining()) {
+                if (len >= buf.capacity()) {
+                    int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+                    if (n > 0)
+                        position += n;
+                    return n;
+                }
+                if (!fill())
+                    return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0)
+                return 0;
+
+            int buffered = buf.remaining();
+            if (n <= buffered) {
+                buf.position(buf.position() + (int) n);
+                return n;
+            }
+            buf.limit(0);
+            long remaining = channel.size() - position;
+            if (remaining <= 0) {
+                if (buffered > 0)
+                    return buffered;
+                throw new EOFException();
+            }
+            long skip = Math.min(n - buffered, remaining);
+            position += skip;
+            return buffered + skip;
+        }
+    }
 }
@@ -45,6 +45,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -90,6 +93,16 @@ public class DicomDirWriter extends DicomDirReader {
             new IdentityHashMap<Attributes,Attributes>();
     private final ArrayList<Attributes> dirtyRecords =
             new ArrayList<Attributes>();
+    private int groupCommitSize = 1;
+    private long groupCommitDelay;
+    private long commitCount;
+    private int pendingGroupCommits;
+    private boolean groupCommitLeader;
+    private long failedCommit = -1;
+    private IOException commitException;
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchCommitted = lock.newCondition();
 
     private DicomDirWriter(File file) throws IOException {
         super(file, "rw");
@@ -121,6 +134,44 @@ public class DicomDirWriter extends DicomDirReader {
         out.setEncodingOptions(encOpts);
     }
 
+    public final int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * Set maximal number of {@link #groupCommit()} invocations committed
+     * together.
+     * 
+     * @param groupCommitSize
+     *            maximal number of invocations committed together; 1 disables
+     *            group commit
+     */
+    public final void setGroupCommitSize(int groupCommitSize) {
+        if (groupCommitSize < 1)
+            throw new IllegalArgumentException("groupCommitSize: "
+                    + groupCommitSize);
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    public final long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    /**
+     * Set maximal time in ms the first {@link #groupCommit()} invocation of a
+     * batch waits for further invocations before committing the batch.
+     * 
+     * @param groupCommitDelay
+     *            maximal delay in ms; 0 commits a batch only after
+     *            {@link #getGroupCommitSize()} invocations joined it
+     */
+    public final void setGroupCommitDelay(long groupCommitDelay) {
+        if (groupCommitDelay < 0)
+            throw new IllegalArgumentException("groupCommitDelay: "
+                    + groupCommitDelay);
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
     public static DicomDirWriter open(File file) throws IOException {
         if (!file.isFile())
             throw new FileNotFoundException();
@@ -170,84 +221,127 @@ public class DicomDirWriter extends DicomDirReader {
         return fsInfo;
     }
 
-    public synchronized Attributes addRootDirectoryRecord(Attributes rec)
+    public Attributes addRootDirectoryRecord(Attributes rec)
             throws IOException {
-        Attributes lastRootRecord = readLastRootDirectoryRecord();
-        if (lastRootRecord == null) {
-            writeRecord(firstRecordPos, rec);
-            setOffsetOfFirstRootDirectoryRecord(firstRecordPos);
-        } else {
-            addRecord(Tag.OffsetOfTheNextDirectoryRecord, lastRootRecord, rec);
+        lock.lock();
+        try {
+            Attributes lastRootRecord = readLastRootDirectoryRecord();
+            if (lastRootRecord == null) {
+                writeRecord(firstRecordPos, rec);
+                setOffsetOfFirstRootDirectoryRecord(firstRecordPos);
+            } else {
+                addRecord(Tag.OffsetOfTheNextDirectoryRecord, lastRootRecord, rec);
+            }
+            setOffsetOfLastRootDirectoryRecord((int) rec.getItemPosition());
+            if (index != null)
+                index.add(null, rec);
+            return rec;
+        } finally {
+            lock.unlock();
         }
-        setOffsetOfLastRootDirectoryRecord((int) rec.getItemPosition());
-        return rec;
     }
 
-    public synchronized Attributes addLowerDirectoryRecord(
+    public Attributes addLowerDirectoryRecord(
             Attributes parentRec, Attributes rec) throws IOException {
-        Attributes prevRec = lastChildRecords.get(parentRec);
-        if (prevRec == null)
-            prevRec = findLastLowerDirectoryRecord(parentRec);
+        lock.lock();
+        try {
+            Attributes prevRec = lastChildRecords.get(parentRec);
+            if (prevRec == null)
+                prevRec = findLastLowerDirectoryRecord(parentRec);
 
-        if (prevRec != null)
-            addRecord(Tag.OffsetOfTheNextDirectoryRecord, prevRec, rec);
-        else
-            addRecord(Tag.OffsetOfReferencedLowerLevelDirectoryEntity,
-                    parentRec, rec);
+            if (prevRec != null)
+                addRecord(Tag.OffsetOfTheNextDirectoryRecord, prevRec, rec);
+            else
+                addRecord(Tag.OffsetOfReferencedLowerLevelDirectoryEntity,
+                        parentRec, rec);
 
-        lastChildRecords.put(parentRec, rec);
-        return rec;
+            lastChildRecords.put(parentRec, rec);
+            if (index != null)
+                index.add(parentRec, rec);
+            return rec;
+        } finally {
+            lock.unlock();
+        }
     }
  
-    public synchronized Attributes findOrAddPatientRecord(Attributes rec) throws IOException {
-        Attributes patRec = super.findPatientRecord(rec.getString(Tag.PatientID));
-        return patRec != null ? patRec : addRootDirectoryRecord(rec);
+    public Attributes findOrAddPatientRecord(Attributes rec) throws IOException {
+        lock.lock();
+        try {
+            Attributes patRec = super.findPatientRecord(rec.getString(Tag.PatientID));
+            return patRec != null ? patRec : addRootDirectoryRecord(rec);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized Attributes findOrAddStudyRecord(Attributes patRec, Attributes rec)
+    public Attributes findOrAddStudyRecord(Attributes patRec, Attributes rec)
             throws IOException {
-        Attributes studyRec = super.findStudyRecord(patRec, rec.getString(Tag.StudyInstanceUID));
-        return studyRec != null ? studyRec : addLowerDirectoryRecord(patRec, rec);
+        lock.lock();
+        try {
+            Attributes studyRec = super.findStudyRecord(patRec, rec.getString(Tag.StudyInstanceUID));
+            return studyRec != null ? studyRec : addLowerDirectoryRecord(patRec, rec);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized Attributes findOrAddSeriesRecord(Attributes studyRec, Attributes rec)
+    public Attributes findOrAddSeriesRecord(Attributes studyRec, Attributes rec)
             throws IOException {
-        Attributes seriesRec = super.findSeriesRecord(studyRec, rec.getString(Tag.SeriesInstanceUID));
-        return seriesRec != null ? seriesRec : addLowerDirectoryRecord(studyRec, rec);
+        lock.lock();
+        try {
+            Attributes seriesRec = super.findSeriesRecord(studyRec, rec.getString(Tag.SeriesInstanceUID));
+            return seriesRec != null ? seriesRec : addLowerDirectoryRecord(studyRec, rec);
+        } finally {
+            lock.unlock();
+        }
     }
 
-   public synchronized boolean deleteRecord(Attributes rec)
+   public boolean deleteRecord(Attributes rec)
             throws IOException {
-        if (rec.getInt(Tag.RecordInUseFlag, 0) == INACTIVE)
-            return false; // already disabled
-
-        for (Attributes lowerRec = readLowerDirectoryRecord(rec);
-                lowerRec != null; 
-                lowerRec = readNextDirectoryRecord(lowerRec))
-            deleteRecord(lowerRec);
-
-        rec.setInt(Tag.RecordInUseFlag, VR.US, INACTIVE);
-        markAsDirty(rec);
-        return true;
+        lock.lock();
+        try {
+            if (rec.getInt(Tag.RecordInUseFlag, 0) == INACTIVE)
+                return false; // already disabled
+
+            for (Attributes lowerRec = readLowerDirectoryRecord(rec);
+                    lowerRec != null; 
+                    lowerRec = readNextDirectoryRecord(lowerRec))
+                deleteRecord(lowerRec);
+
+            rec.setInt(Tag.RecordInUseFlag, VR.US, INACTIVE);
+            markAsDirty(rec);
+            if (index != null)
+                index.remove(rec);
+            return true;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void rollback() throws IOException {
-        if (dirtyRecords.isEmpty())
-            return;
-
-        clearCache();
-        dirtyRecords.clear();
-        if (rollbackLen != -1) {
-            restoreDirInfo();
-            nextRecordPos = rollbackLen;
-            if (getEncodingOptions().undefSequenceLength) {
-                writeSequenceDelimitationItem();
-                raf.setLength(raf.getFilePointer());
-            } else {
-                raf.setLength(rollbackLen);
+    public void rollback() throws IOException {
+        lock.lock();
+        try {
+            if (dirtyRecords.isEmpty())
+                return;
+
+            clearCache();
+            dirtyRecords.clear();
+            if (rollbackLen != -1) {
+                restoreDirInfo();
+                nextRecordPos = rollbackLen;
+                if (getEncodingOptions().undefSequenceLength) {
+                    writeSequenceDelimitationItem();
+                    raf.setLength(raf.getFilePointer());
+                } else {
+                    raf.setLength(rollbackLen);
+                }
+                writeFileSetConsistencyFlag(NO_KNOWN_INCONSISTENCIES);
+                rollbackLen = -1;
             }
-            writeFileSetConsistencyFlag(NO_KNOWN_INCONSISTENCIES);
-            rollbackLen = -1;
+            if (index != null)
+                index.build();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -256,29 +350,102 @@ public class DicomDirWriter extends DicomDirReader {
         super.clearCache();
     }
 
-    public synchronized void commit() throws IOException {
-        if (dirtyRecords.isEmpty())
-            return;
+    public void commit() throws IOException {
+        lock.lock();
+        try {
+            if (dirtyRecords.isEmpty())
+                return;
 
-        if (rollbackLen == -1)
-            writeFileSetConsistencyFlag(KNOWN_INCONSISTENCIES);
+            if (rollbackLen == -1)
+                writeFileSetConsistencyFlag(KNOWN_INCONSISTENCIES);
 
-        for (Attributes rec : dirtyRecords)
-            writeDirRecordHeader(rec);
+            for (Attributes rec : dirtyRecords)
+                writeDirRecordHeader(rec);
 
-        dirtyRecords.clear();
+            dirtyRecords.clear();
 
-        if (rollbackLen != -1 && getEncodingOptions().undefSequenceLength)
-            writeSequenceDelimitationItem();
+            if (rollbackLen != -1 && getEncodingOptions().undefSequenceLength)
+                writeSequenceDelimitationItem();
 
-        writeDirInfoHeader();
+            writeDirInfoHeader();
 
-        rollbackLen = -1;
+            rollbackLen = -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commit changes together with changes of other threads invoking this
+     * method concurrently. Returns after the batch containing the changes of
+     * the current thread was committed: either after
+     * {@link #getGroupCommitSize()} threads joined the batch or after
+     * {@link #getGroupCommitDelay()} ms elapsed, if a delay is set. Behaves
+     * like {@link #commit()} if group commit is disabled.
+     * 
+     * @throws IOException
+     *             if the commit of the batch failed
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting for the
+     *             commit of the batch
+     */
+    public void groupCommit()
+            throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            if (groupCommitSize <= 1) {
+                commit();
+                return;
+            }
+
+            long batch = commitCount;
+            if (++pendingGroupCommits >= groupCommitSize) {
+                commitBatch();
+            } else if (!groupCommitLeader && groupCommitDelay > 0) {
+                groupCommitLeader = true;
+                long nanos = TimeUnit.MILLISECONDS.toNanos(groupCommitDelay);
+                try {
+                    while (commitCount == batch && nanos > 0)
+                        nanos = batchCommitted.awaitNanos(nanos);
+                } finally {
+                    if (commitCount == batch)
+                        commitBatch();
+                }
+            } else {
+                while (commitCount == batch)
+                    batchCommitted.await();
+            }
+            if (failedCommit == batch)
+                throw new IOException("Group commit failed", commitException);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitBatch() throws IOException {
+        try {
+            commit();
+        } catch (IOException e) {
+            failedCommit = commitCount;
+            commitException = e;
+        } finally {
+            commitCount++;
+            pendingGroupCommits = 0;
+            groupCommitLeader = false;
+            batchCommitted.signalAll();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        commit();
+        lock.lock();
+        try {
+            if (pendingGroupCommits > 0)
+                commitBatch();
+            commit();
+        } finally {
+            lock.unlock();
+        }
         super.close();
     }
 
@@ -344,9 +511,12 @@ public class DicomDirWriter extends DicomDirReader {
 
     private void addRecord(int tag, Attributes prevRec, Attributes rec)
             throws IOException {
-        prevRec.setInt(tag, VR.UL, nextRecordPos);
+        int offset = nextRecordPos;
+        // write the new record before linking it, so concurrent readers
+        // following the link find it
+        writeRecord(offset, rec);
+        prevRec.setInt(tag, VR.UL, offset);
         markAsDirty(prevRec);
-        writeRecord(nextRecordPos, rec);
     }
 
     private void writeRecord(int offset, Attributes rec) throws IOException {
@@ -365,7 +535,7 @@ public class DicomDirWriter extends DicomDirReader {
         rec.setInt(Tag.OffsetOfReferencedLowerLevelDirectoryEntity, VR.UL, 0);
         rec.writeItemTo(out);
         nextRecordPos = (int) raf.getFilePointer();
-        cache.put(offset, rec);
+        cacheRecord(offset, rec);
     }
 
     private void writeFileSetConsistencyFlag(int flag) throws IOException {
@@ -388,10 +558,15 @@ public class DicomDirWriter extends DicomDirReader {
             dirtyRecords.add(-(index + 1), rec);
     }
 
-    public synchronized int purge() throws IOException {
-        int[] count = { 0 };
-        purge(findFirstRootDirectoryRecordInUse(false), count);
-        return count[0];
+    public int purge() throws IOException {
+        lock.lock();
+        try {
+            int[] count = { 0 };
+            purge(findFirstRootDirectoryRecordInUse(false), count);
+            return count[0];
+        } finally {
+            lock.unlock();
+        }
     }
 
     private boolean purge(Attributes rec, int[] count) throws IOException {
@@ -0,0 +1,166 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class AttributesMatcherTest {
+
+    @Test
+    public void testMatchesWildcard() {
+        assertTrue(AttributesMatcher.matchesWildcard("DOE*", "DOE^JOHN", false));
+        assertTrue(AttributesMatcher.matchesWildcard("*^JO?N", "DOE^JOHN", false));
+        assertTrue(AttributesMatcher.matchesWildcard("*", "", false));
+        assertTrue(AttributesMatcher.matchesWildcard("d*e*n", "DOE^JOHN", true));
+        assertFalse(AttributesMatcher.matchesWildcard("d*e*n", "DOE^JOHN", false));
+        assertFalse(AttributesMatcher.matchesWildcard("DOE?", "DOE", false));
+        assertFalse(AttributesMatcher.matchesWildcard("*X*", "DOE^JOHN", false));
+    }
+
+    @Test
+    public void testIsNormalizedPN() {
+        assertTrue(AttributesMatcher.isNormalizedPN("DOE^JOHN"));
+        assertTrue(AttributesMatcher.isNormalizedPN("^JOHN"));
+        assertTrue(AttributesMatcher.isNormalizedPN("DOE==D"));
+        assertFalse(AttributesMatcher.isNormalizedPN("DOE^JOHN^"));
+        assertFalse(AttributesMatcher.isNormalizedPN("DOE^JOHN="));
+        assertFalse(AttributesMatcher.isNormalizedPN("DOE ^JOHN"));
+        assertFalse(AttributesMatcher.isNormalizedPN(" DOE"));
+        for (String s : new String[] { "DOE^JOHN", "^JOHN", "DOE==D",
+                "DOE^JOHN^", "DOE^JOHN=", "DOE ^JOHN", " DOE", "A^^B" })
+            assertEquals(s, new PersonName(s).toString().equals(s),
+                    AttributesMatcher.isNormalizedPN(s));
+    }
+
+    @Test
+    public void testMatches() {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, "doe*");
+        keys.setString(Tag.PatientID, VR.LO, "P1", "P2");
+        keys.setString(Tag.StudyDate, VR.DA, "20150101-20150131");
+        keys.setNull(Tag.StudyDescription, VR.LO);
+        AttributesMatcher matcher = new AttributesMatcher(keys, true, false);
+
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.PatientName, VR.PN, "DOE^JOHN^^");
+        attrs.setString(Tag.PatientID, VR.LO, "P2");
+        attrs.setString(Tag.StudyDate, VR.DA, "20150115");
+        assertTrue(matcher.matches(attrs));
+
+        attrs.setString(Tag.StudyDate, VR.DA, "20150201");
+        assertFalse(matcher.matches(attrs));
+        attrs.setString(Tag.StudyDate, VR.DA, "20150131");
+        assertTrue(matcher.matches(attrs));
+        attrs.setString(Tag.PatientID, VR.LO, "P3");
+        assertFalse(matcher.matches(attrs));
+        attrs.remove(Tag.PatientID);
+        assertFalse(matcher.matches(attrs));
+        assertTrue(new AttributesMatcher(keys, true, true).matches(attrs));
+        assertFalse(new AttributesMatcher(keys, false, true).matches(attrs));
+    }
+
+    @Test
+    public void testMatchesAsAttributesMatches() {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, "doe*");
+        keys.setString(Tag.PatientID, VR.LO, "P1", "P2");
+        keys.setString(Tag.Modality, VR.CS, "C?");
+        String[][] values = {
+                { "DOE^JOHN^^", "P2", "CT" },
+                { "Doe^Jane", "P1", "CR" },
+                { "SMITH^JOHN", "P1", "CT" },
+                { "DOE^JOHN", "P3", "CT" },
+                { "DOE^JOHN", "P1", "MR" },
+                { "DOE^JOHN", null, "CT" } };
+        for (boolean ignorePNCase : new boolean[] { false, true })
+            for (boolean matchNoValue : new boolean[] { false, true }) {
+                AttributesMatcher matcher =
+                        new AttributesMatcher(keys, ignorePNCase, matchNoValue);
+                for (String[] v : values) {
+                    Attributes attrs = new Attributes();
+                    attrs.setString(Tag.PatientName, VR.PN, v[0]);
+                    if (v[1] != null)
+                        attrs.setString(Tag.PatientID, VR.LO, v[1]);
+                    attrs.setString(Tag.Modality, VR.CS, v[2]);
+                    assertEquals(attrs.toString(),
+                            attrs.matches(keys, ignorePNCase, matchNoValue),
+                            matcher.matches(attrs));
+                }
+            }
+    }
+
+    @Test
+    public void testMatchesTimeRange() {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.StudyTime, VR.TM, "1200-1300");
+        AttributesMatcher matcher = new AttributesMatcher(keys, false, false);
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.StudyTime, VR.TM, "130059.123");
+        assertTrue(matcher.matches(attrs));
+        attrs.setString(Tag.StudyTime, VR.TM, "115959");
+        assertFalse(matcher.matches(attrs));
+        attrs.setString(Tag.StudyTime, VR.TM, "130100");
+        assertFalse(matcher.matches(attrs));
+    }
+
+    @Test
+    public void testMatchesSequence() {
+        Attributes keys = new Attributes();
+        Attributes keyItem = new Attributes();
+        keyItem.setString(Tag.CodeValue, VR.SH, "CT");
+        keys.newSequence(Tag.ProcedureCodeSequence, 1).add(keyItem);
+        AttributesMatcher matcher = new AttributesMatcher(keys, false, false);
+
+        Attributes attrs = new Attributes();
+        Sequence seq = attrs.newSequence(Tag.ProcedureCodeSequence, 2);
+        Attributes item1 = new Attributes();
+        item1.setString(Tag.CodeValue, VR.SH, "MR");
+        seq.add(item1);
+        assertFalse(matcher.matches(attrs));
+        Attributes item2 = new Attributes();
+        item2.setString(Tag.CodeValue, VR.SH, "CT");
+        seq.add(item2);
+        assertTrue(matcher.matches(attrs));
+    }
+}
@@ -3,10 +3,15 @@ package org.dcm4che3.io;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.junit.Test;
@@ -42,6 +47,106 @@ public class DicomInputStreamTest {
         assertEquals(1, attrs.getInt(Tag.SamplesPerPixel, 0));
     }
 
+    @Test
+    public void testLazyFileChannel() throws Exception {
+        File file = resourceFile("DICOMDIR");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Attributes attrs = readLazy(file,
+                    DicomInputStream.valueSourceOf(raf.getChannel()));
+            Sequence seq = attrs.getSequence(null, Tag.DirectoryRecordSequence);
+            assertEquals(44, seq.size());
+            assertEquals(readFromResource("DICOMDIR", IncludeBulkData.YES), attrs);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testLazyMappedBigEndian() throws Exception {
+        File file = resourceFile("US-RGB-8-epicard");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buf;
+        try {
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        Attributes attrs = readLazy(file, DicomInputStream.valueSourceOf(buf));
+        assertEquals(3, attrs.getInt(Tag.SamplesPerPixel, 0));
+        assertEquals(readFromResource("US-RGB-8-epicard", IncludeBulkData.YES), attrs);
+    }
+
+    @Test
+    public void testLazySequenceOfDefinedLength() throws Exception {
+        Attributes item = new Attributes(2);
+        item.setString(Tag.CodeValue, VR.SH, "121060");
+        item.setString(Tag.CodeMeaning, VR.LO,
+                "History of the present illness with a long meaning");
+        Attributes nested = new Attributes(1);
+        nested.setString(Tag.TextValue, VR.UT, "Text inside a nested sequence item");
+        item.newSequence(Tag.ContentSequence, 1).add(nested);
+        Attributes dataset = new Attributes(3);
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.BasicTextSRStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        dataset.newSequence(Tag.ConceptNameCodeSequence, 1).add(item);
+
+        File file = File.createTempFile("lazy", ".dcm");
+        try {
+            DicomOutputStream out = new DicomOutputStream(file);
+            try {
+                out.setEncodingOptions(
+                        new DicomEncodingOptions(false, false, false, false, false));
+                out.writeDataset(
+                        dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian),
+                        dataset);
+            } finally {
+                out.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                DicomInputStream in = new DicomInputStream(file);
+                Attributes attrs;
+                try {
+                    in.setLazyValueSource(
+                            DicomInputStream.valueSourceOf(raf.getChannel()));
+                    in.setLazyValueThreshold(16);
+                    attrs = in.readDataset(-1, -1);
+                } finally {
+                    in.close();
+                }
+                Attributes lazyItem = attrs.getNestedDataset(Tag.ConceptNameCodeSequence);
+                assertEquals("121060", lazyItem.getString(Tag.CodeValue));
+                assertEquals(item.getString(Tag.CodeMeaning),
+                        lazyItem.getString(Tag.CodeMeaning));
+                assertEquals(nested.getString(Tag.TextValue),
+                        lazyItem.getNestedDataset(Tag.ContentSequence)
+                            .getString(Tag.TextValue));
+                assertEquals(dataset, attrs);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File resourceFile(String name) throws Exception {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return new File(cl.getResource(name).toURI());
+    }
+
+    private static Attributes readLazy(File file,
+            DicomInputStream.ValueSource source) throws Exception {
+        DicomInputStream in = new DicomInputStream(file);
+        try {
+            in.setLazyValueSource(source);
+            return in.readDataset(-1, -1);
+        } finally {
+            in.close();
+        }
+    }
+
     private static Attributes readFromResource(String name, 
             IncludeBulkData includeBulkData)
             throws Exception {
@@ -0,0 +1,102 @@
+package org.dcm4che3.media;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DicomDirIndexTest {
+
+    private static File toFile(String name) throws Exception {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return new File(cl.getResource(name).toURI());
+    }
+
+    @Test
+    public void testFindRecords() throws Exception {
+        DicomDirReader r = new DicomDirReader(toFile("DICOMDIR"));
+        try {
+            DicomDirIndex index = r.getIndex();
+            Attributes patRec = r.findPatientRecord();
+            Attributes studyRec = r.findStudyRecord(patRec);
+            Attributes seriesRec = r.findSeriesRecord(studyRec);
+            Attributes instRec = r.findLowerInstanceRecord(seriesRec, true);
+            assertSame(patRec, index.findPatientRecords(
+                    patRec.getString(Tag.PatientID)).get(0));
+            assertSame(studyRec, index.findStudyRecords(
+                    studyRec.getString(Tag.StudyInstanceUID)).get(0));
+            assertSame(seriesRec, index.findSeriesRecords(
+                    seriesRec.getString(Tag.SeriesInstanceUID)).get(0));
+            assertSame(instRec, index.findInstanceRecords(
+                    instRec.getString(Tag.ReferencedSOPInstanceUIDInFile)).get(0));
+            assertSame(seriesRec, index.getParentRecord(instRec));
+            assertSame(studyRec, index.getParentRecord(seriesRec));
+            assertSame(patRec, index.getParentRecord(studyRec));
+            assertNull(index.getParentRecord(patRec));
+            assertTrue(index.findStudyRecords("1.2.3.4.5.6.7.8.9").isEmpty());
+        } finally {
+            r.close();
+        }
+    }
+
+    @Test
+    public void testUpdateByWriter() throws Exception {
+        File file = File.createTempFile("DICOMDIR", null);
+        try {
+            DicomDirWriter.createEmptyDirectory(file, "1.2.3", null, null, null);
+            DicomDirWriter w = DicomDirWriter.open(file);
+            try {
+                DicomDirIndex index = w.getIndex();
+                Attributes patRec = w.addRootDirectoryRecord(
+                        record("PATIENT", Tag.PatientID, VR.LO, "P1"));
+                Attributes study1 = record("STUDY", Tag.StudyInstanceUID, VR.UI, "1.1");
+                study1.setString(Tag.StudyDate, VR.DA, "20150101");
+                Attributes study2 = record("STUDY", Tag.StudyInstanceUID, VR.UI, "1.2");
+                study2.setString(Tag.StudyDate, VR.DA, "20150301");
+                w.addLowerDirectoryRecord(patRec, study1);
+                w.addLowerDirectoryRecord(patRec, study2);
+                Attributes instRec = record("IMAGE",
+                        Tag.ReferencedSOPInstanceUIDInFile, VR.UI, "1.1.1");
+                instRec.setString(Tag.ReferencedSOPClassUIDInFile, VR.UI,
+                        UID.SecondaryCaptureImageStorage);
+                w.addLowerDirectoryRecord(study1, instRec);
+                w.commit();
+
+                assertSame(patRec, index.findPatientRecords("P1").get(0));
+                assertSame(study1, index.getParentRecord(instRec));
+                List<Attributes> studies =
+                        index.findStudyRecordsByDate("20150201", null);
+                assertEquals(1, studies.size());
+                assertSame(study2, studies.get(0));
+                assertEquals(2, index.findStudyRecordsByDate(null, "20150301").size());
+                assertTrue(index.findStudyRecordsByDate("20150401", "20150101").isEmpty());
+
+                w.deleteRecord(study1);
+                w.commit();
+                assertTrue(index.findStudyRecords("1.1").isEmpty());
+                assertTrue(index.findInstanceRecords("1.1.1").isEmpty());
+                assertEquals(1, index.findStudyRecordsByDate(null, null).size());
+            } finally {
+                w.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Attributes record(String type, int tag, VR vr, String value) {
+        Attributes rec = new Attributes();
+        rec.setString(Tag.DirectoryRecordType, VR.CS, type);
+        rec.setString(tag, vr, value);
+        return rec;
+    }
+}
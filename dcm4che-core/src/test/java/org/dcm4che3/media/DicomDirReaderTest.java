@@ -4,6 +4,10 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.media.DicomDirReader;
@@ -43,6 +47,28 @@ public class DicomDirReaderTest {
         }
     }
 
+    @Test
+    public void testConcurrentReadAll() throws Exception {
+        final DicomDirReader r = new DicomDirReader(toFile("DICOMDIR"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<Integer> readAll = new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return readNext(r, r.readFirstRootDirectoryRecord());
+                }
+            };
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++)
+                futures[i] = executor.submit(readAll);
+            for (Future<?> future : futures)
+                assertEquals(44, future.get());
+        } finally {
+            executor.shutdown();
+            r.close();
+        }
+    }
+
     private int readNext(DicomDirReader r, Attributes rec) throws IOException {
         int count = 0;
         while (rec != null) {
@@ -0,0 +1,153 @@
+package org.dcm4che3.media;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DicomDirWriterTest {
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        File file = File.createTempFile("DICOMDIR", null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            DicomDirWriter.createEmptyDirectory(file, "1.2.3", null, null, null);
+            final DicomDirWriter w = DicomDirWriter.open(file);
+            try {
+                w.setGroupCommitSize(4);
+                w.setGroupCommitDelay(60000L);
+                Future<?>[] futures = new Future<?>[4];
+                for (int i = 0; i < futures.length; i++) {
+                    final String pid = "P" + i;
+                    futures[i] = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            Attributes rec = new Attributes();
+                            rec.setString(Tag.DirectoryRecordType, VR.CS, "PATIENT");
+                            rec.setString(Tag.PatientID, VR.LO, pid);
+                            w.addRootDirectoryRecord(rec);
+                            w.groupCommit();
+                            return null;
+                        }
+                    });
+                }
+                long start = System.currentTimeMillis();
+                for (Future<?> future : futures)
+                    future.get();
+                assertTrue(System.currentTimeMillis() - start < 60000L);
+            } finally {
+                w.close();
+            }
+            DicomDirReader r = new DicomDirReader(file);
+            try {
+                assertEquals(0, r.getFileSetConsistencyFlag());
+                int count = 0;
+                for (Attributes rec = r.findPatientRecord(); rec != null;
+                        rec = r.findNextPatientRecord(rec))
+                    count++;
+                assertEquals(4, count);
+            } finally {
+                r.close();
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testGroupCommitDelay() throws Exception {
+        File file = File.createTempFile("DICOMDIR", null);
+        try {
+            DicomDirWriter.createEmptyDirectory(file, "1.2.3", null, null, null);
+            DicomDirWriter w = DicomDirWriter.open(file);
+            try {
+                w.setGroupCommitSize(10);
+                w.setGroupCommitDelay(50L);
+                Attributes rec = new Attributes();
+                rec.setString(Tag.DirectoryRecordType, VR.CS, "PATIENT");
+                rec.setString(Tag.PatientID, VR.LO, "P");
+                w.addRootDirectoryRecord(rec);
+                Attributes studyRec = new Attributes();
+                studyRec.setString(Tag.DirectoryRecordType, VR.CS, "STUDY");
+                studyRec.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3.4");
+                w.addLowerDirectoryRecord(rec, studyRec);
+                w.groupCommit();
+                DicomDirReader r = new DicomDirReader(file);
+                try {
+                    assertEquals(0, r.getFileSetConsistencyFlag());
+                    assertNotNull(r.findPatientRecord("P"));
+                } finally {
+                    r.close();
+                }
+            } finally {
+                w.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testGroupCommitWithoutDelay() throws Exception {
+        File file = File.createTempFile("DICOMDIR", null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DicomDirWriter.createEmptyDirectory(file, "1.2.3", null, null, null);
+            final DicomDirWriter w = DicomDirWriter.open(file);
+            try {
+                w.setGroupCommitSize(2);
+                w.setGroupCommitDelay(0L);
+                w.addRootDirectoryRecord(patientRecord("P1"));
+                Future<?> first = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        w.groupCommit();
+                        return null;
+                    }
+                });
+                try {
+                    first.get(200, TimeUnit.MILLISECONDS);
+                    fail("batch committed before group commit size reached");
+                } catch (TimeoutException expected) {
+                }
+                w.addRootDirectoryRecord(patientRecord("P2"));
+                w.groupCommit();
+                first.get(10, TimeUnit.SECONDS);
+                DicomDirReader r = new DicomDirReader(file);
+                try {
+                    assertEquals(0, r.getFileSetConsistencyFlag());
+                    assertNotNull(r.findPatientRecord("P2"));
+                } finally {
+                    r.close();
+                }
+            } finally {
+                w.close();
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    private static Attributes patientRecord(String pid) {
+        Attributes rec = new Attributes();
+        rec.setString(Tag.DirectoryRecordType, VR.CS, "PATIENT");
+        rec.setString(Tag.PatientID, VR.LO, pid);
+        return rec;
+    }
+}
@@ -0,0 +1,316 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.hl7;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a HL7 v2 message over its encoded bytes. Segment offsets
+ * are indexed on construction, field offsets of a segment on first access
+ * of one of its fields; strings are only decoded on access.
+ * 
+ * @author agent <agent@local>
+ *
+ */
+public class HL7MessageView {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] b;
+    private final int end;
+    private final char fieldSeparator;
+    private final String encodingCharacters;
+    private final String charsetName;
+    private final Charset charset;
+    private int size;
+    private int[] segStarts = new int[16];
+    private int[] segEnds = new int[16];
+    private int[][] fieldEnds;
+
+    public HL7MessageView(byte[] b, String defCharset) {
+        this(b, 0, b.length, defCharset);
+    }
+
+    public HL7MessageView(byte[] b, int off, int len, String defCharset) {
+        int end = off + len;
+        int mshEnd = endOfSegment(b, off, end);
+        if (mshEnd - off < 8)
+            throw new IllegalArgumentException("Invalid MSH Segment: "
+                    + new String(b, off, mshEnd - off));
+        this.fieldSeparator = (char) b[off + 3];
+        this.encodingCharacters = ascii(b, off + 4, off + 8);
+        this.charsetName = HL7Charset.toCharsetName(
+                mshField(b, off, mshEnd, b[off + 3], 17, defCharset));
+        Charset cs = Charset.forName(charsetName);
+        if (isASCIICompatible(charsetName)) {
+            this.b = b;
+            this.end = end;
+            this.charset = cs;
+        } else {
+            // delimiter bytes may occur in multi-byte characters, so
+            // re-encode the message once to UTF-8 before indexing it
+            this.b = new String(b, off, len, cs).getBytes(UTF_8);
+            this.end = this.b.length;
+            this.charset = UTF_8;
+            off = 0;
+        }
+        indexSegments(off);
+    }
+
+    private static boolean isASCIICompatible(String charsetName) {
+        return !(charsetName.equals("GB18030")
+                || charsetName.equals("x-JIS0208")
+                || charsetName.equals("JIS_X0212-1990"));
+    }
+
+    private static int endOfSegment(byte[] b, int off, int end) {
+        while (off < end && b[off] != '\r' && b[off] != '\n')
+            off++;
+        return off;
+    }
+
+    private static String ascii(byte[] b, int start, int end) {
+        char[] cs = new char[end - start];
+        for (int i = 0; i < cs.length; i++)
+            cs[i] = (char) (b[start + i] & 0xff);
+        return new String(cs);
+    }
+
+    private static String mshField(byte[] b, int start, int end,
+            byte fieldSeparator, int index, String defVal) {
+        for (int i = start; i < end; i++)
+            if (b[i] == fieldSeparator && --index == 0) {
+                int fieldEnd = i + 1;
+                while (fieldEnd < end && b[fieldEnd] != fieldSeparator)
+                    fieldEnd++;
+                return fieldEnd > i + 1 ? ascii(b, i + 1, fieldEnd) : defVal;
+            }
+        return defVal;
+    }
+
+    private void indexSegments(int off) {
+        while (off < end) {
+            int segEnd = endOfSegment(b, off, end);
+            if (segEnd > off)
+                addSegment(off, segEnd);
+            off = segEnd + 1;
+        }
+        fieldEnds = new int[size][];
+    }
+
+    private void addSegment(int start, int end) {
+        if (size == segStarts.length) {
+            segStarts = Arrays.copyOf(segStarts, size << 1);
+            segEnds = Arrays.copyOf(segEnds, size << 1);
+        }
+        segStarts[size] = start;
+        segEnds[size++] = end;
+    }
+
+    public final char getFieldSeparator() {
+        return fieldSeparator;
+    }
+
+    public final String getEncodingCharacters() {
+        return encodingCharacters;
+    }
+
+    public final String getCharsetName() {
+        return charsetName;
+    }
+
+    /**
+     * Returns the number of segments.
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getSegmentName(int seg) {
+        return getField(seg, 0, null);
+    }
+
+    /**
+     * Returns the index of the first segment with the specified name,
+     * starting the search at segment {@code fromIndex}, or {@code -1} if
+     * there is no such segment.
+     */
+    public int indexOfSegment(String name, int fromIndex) {
+        int nameLen = name.length();
+        for (int seg = fromIndex; seg < size; seg++)
+            if (matches(segStarts[seg], segEnds[seg], name, nameLen))
+                return seg;
+        return -1;
+    }
+
+    public int indexOfSegment(String name) {
+        return indexOfSegment(name, 0);
+    }
+
+    private boolean matches(int start, int end, String name, int nameLen) {
+        if (end - start < nameLen)
+            return false;
+        for (int i = 0; i < nameLen; i++)
+            if (b[start + i] != name.charAt(i))
+                return false;
+        return end - start == nameLen || b[start + nameLen] == fieldSeparator;
+    }
+
+    public int getFieldCount(int seg) {
+        return fieldEnds(seg).length;
+    }
+
+    /**
+     * Returns the value of field {@code index} of segment {@code seg},
+     * or {@code defVal} if the field is absent or empty. As by
+     * {@link HL7Segment#getField}, index {@code 0} refers to the segment
+     * name, and - for the MSH segment - index {@code 1} to the encoding
+     * characters.
+     */
+    public String getField(int seg, int index, String defVal) {
+        int[] ends = fieldEnds(seg);
+        if (index >= ends.length)
+            return defVal;
+        int start = index == 0 ? segStarts[seg] : ends[index - 1] + 1;
+        return decode(start, ends[index], defVal);
+    }
+
+    /**
+     * Returns component {@code component} of repetition {@code repeat} of
+     * field {@code index} of segment {@code seg}, or {@code defVal} if the
+     * component is absent or empty. All indices are zero-based.
+     */
+    public String getComponent(int seg, int index, int repeat, int component,
+            String defVal) {
+        int[] ends = fieldEnds(seg);
+        if (index >= ends.length)
+            return defVal;
+        int fieldEnd = ends[index];
+        int start = skip(index == 0 ? segStarts[seg] : ends[index - 1] + 1,
+                fieldEnd, encodingCharacters.charAt(1), repeat);
+        if (start < 0)
+            return defVal;
+        int repeatEnd = next(start, fieldEnd, encodingCharacters.charAt(1));
+        start = skip(start, repeatEnd, encodingCharacters.charAt(0), component);
+        if (start < 0)
+            return defVal;
+        return decode(start, next(start, repeatEnd, encodingCharacters.charAt(0)),
+                defVal);
+    }
+
+    public String getMessageType() {
+        String type = getComponent(0, 8, 0, 0, "");
+        String event = getComponent(0, 8, 0, 1, null);
+        return event != null ? type + '^' + event : type;
+    }
+
+    public HL7Segment getSegment(int seg) {
+        return new HL7Segment(decodeSegment(seg), fieldSeparator,
+                encodingCharacters);
+    }
+
+    public HL7Segment getSegment(String name) {
+        int seg = indexOfSegment(name);
+        return seg >= 0 ? getSegment(seg) : null;
+    }
+
+    public HL7Message toHL7Message() {
+        HL7Message msg = new HL7Message(size);
+        for (int seg = 0; seg < size; seg++)
+            msg.add(getSegment(seg));
+        return msg;
+    }
+
+    String decodeSegment(int seg) {
+        return new String(b, segStarts[seg], segEnds[seg] - segStarts[seg],
+                charset);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(end);
+        for (int seg = 0; seg < size; seg++)
+            sb.append(decodeSegment(seg)).append('\r');
+        return sb.toString();
+    }
+
+    private int[] fieldEnds(int seg) {
+        int[] ends = fieldEnds[seg];
+        if (ends == null)
+            fieldEnds[seg] = ends = split(segStarts[seg], segEnds[seg],
+                    fieldSeparator);
+        return ends;
+    }
+
+    private int[] split(int start, int end, char delim) {
+        int count = 1;
+        for (int i = start; i < end; i++)
+            if (b[i] == delim)
+                count++;
+        int[] ends = new int[count];
+        for (int i = start, j = 0; i < end; i++)
+            if (b[i] == delim)
+                ends[j++] = i;
+        ends[count - 1] = end;
+        return ends;
+    }
+
+    private int skip(int start, int end, char delim, int n) {
+        for (int i = start; n > 0; i++) {
+            if (i >= end)
+                return -1;
+            if (b[i] == delim) {
+                start = i + 1;
+                n--;
+            }
+        }
+        return start;
+    }
+
+    private int next(int start, int end, char delim) {
+        while (start < end && b[start] != delim)
+            start++;
+        return start;
+    }
+
+    private String decode(int start, int end, String defVal) {
+        return start < end ? new String(b, start, end - start, charset) : defVal;
+    }
+}
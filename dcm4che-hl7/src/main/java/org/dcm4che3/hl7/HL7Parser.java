@@ -42,7 +42,6 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.EnumSet;
-import java.util.StringTokenizer;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -55,12 +54,14 @@ import org.xml.sax.helpers.AttributesImpl;
 public class HL7Parser {
 
     private static final String NAMESPACE = "http://aurora.regenstrief.org/xhl7";
+    private static final Delimiter[] DELIMITERS = Delimiter.values();
 
     private String namespace = "";
     private final ContentHandler ch;
     private final AttributesImpl atts = new AttributesImpl();
     private final EnumSet<Delimiter> open = EnumSet.noneOf(Delimiter.class);
     private String delimiters;
+    private char[] cbuf = {};
 
     public HL7Parser(ContentHandler ch) {
         this.ch = ch;
@@ -89,53 +90,75 @@ public class HL7Parser {
             if(line.length() == 0)
                 continue;
 
-            if (line.length() < 3)
-                throw new IOException ("Segment to short: " + line);
-
-            String seg = line.substring(0, 3);
-            String[] tks;
-            int tkindex = 0;
-            if (isHeaderSegment(line)) {
-                if (line.length() < 8)
-                    throw new IOException ("Header Segment to short: " + line);
-
-                seg = line.substring(0, 3);
-                setDelimiters(line.substring(3, 8));
-                tks = tokenize(line.substring(8));
-            } else {
-                tks = tokenize(line);
-                seg = tks[tkindex++];
+            parseSegment(line);
+        }
+        endDocument();
+    }
+
+    public void parse(HL7MessageView msg) throws IOException, SAXException {
+        startDocument();
+        delimiters = Delimiter.DEFAULT;
+        for (int i = 0, n = msg.size(); i < n; i++)
+            parseSegment(msg.decodeSegment(i));
+        endDocument();
+    }
+
+    private void parseSegment(String line) throws IOException, SAXException {
+        int len = line.length();
+        if (len < 3)
+            throw new IOException ("Segment to short: " + line);
+
+        if (cbuf.length < len)
+            cbuf = new char[len];
+        line.getChars(0, len, cbuf, 0);
+        char[] cs = cbuf;
+        String seg;
+        int pos;
+        if (isHeaderSegment(line)) {
+            if (len < 8)
+                throw new IOException ("Header Segment to short: " + line);
+
+            seg = line.substring(0, 3);
+            setDelimiters(line.substring(3, 8));
+            pos = 8;
+        } else {
+            pos = endOfToken(cs, 0, len);
+            seg = line.substring(0, pos);
+        }
+        startElement(seg);
+        while (pos < len) {
+            Delimiter d = delimiter(cs[pos]);
+            if (d == null) {
+                int end = endOfToken(cs, pos, len);
+                ch.characters(cs, pos, end - pos);
+                pos = end;
+                continue;
+            }
+            pos++;
+            if (d != Delimiter.escape) {
+                endElement(d);
+                startElement(d);
+                continue;
             }
-            startElement(seg);
-            while (tkindex < tks.length) {
-                String tk = tks[tkindex++];
-                Delimiter d = delimiter(tk);
-                if (d != null) {
-                    if (d != Delimiter.escape) {
-                        endElement(d);
-                        startElement(d);
-                        continue;
-                    }
-                    if (tks.length > tkindex+1 && tks[tkindex+1].equals(tk)) {
-                        tk = tks[tkindex++];
-                        int e = escapeIndex(tk);
-                        if (e >= 0) {
-                            ch.characters(delimiters.toCharArray(), e, 1);
-                        } else {
-                            startElement(Delimiter.escape.name());
-                            ch.characters(tk.toCharArray(), 0, tk.length());
-                            endElement(Delimiter.escape.name());
-                        }
-                        tkindex++;
-                        continue;
-                    }
+            // escape sequence, if the next token is followed by another
+            // escape character
+            int end = pos < len ? Math.max(endOfToken(cs, pos, len), pos + 1) : pos;
+            if (end < len && end > pos && cs[end] == cs[pos-1]) {
+                int e = escapeIndex(cs, pos, end - pos);
+                if (e >= 0) {
+                    ch.characters(delimiters.toCharArray(), e, 1);
+                } else {
+                    startElement(Delimiter.escape.name());
+                    ch.characters(cs, pos, end - pos);
+                    endElement(Delimiter.escape.name());
                 }
-                ch.characters(tk.toCharArray(), 0, tk.length());
+                pos = end + 1;
+                continue;
             }
-            endElement(Delimiter.field);
-            endElement(seg);
+            ch.characters(cs, pos - 1, 1);
         }
-        endDocument();
+        endElement(Delimiter.field);
+        endElement(seg);
     }
 
     private boolean isHeaderSegment(String line) {
@@ -166,25 +189,19 @@ public class HL7Parser {
         atts.addAttribute(namespace, name, name, "NMTOKEN", value);
     }
 
-    private Delimiter delimiter(String tk) {
-        if (tk.length() != 1)
-            return null;
-
-        int index = delimiters.indexOf(tk.charAt(0));
-        return index >= 0 ? Delimiter.values()[index] : null;
+    private Delimiter delimiter(char c) {
+        int index = delimiters.indexOf(c);
+        return index >= 0 ? DELIMITERS[index] : null;
     }
 
-    private int escapeIndex(String tk) {
-        return tk.length() != 1 ? Delimiter.ESCAPE.indexOf(tk.charAt(0)) : -1;
+    private int endOfToken(char[] cs, int pos, int len) {
+        while (pos < len && delimiters.indexOf(cs[pos]) < 0)
+            pos++;
+        return pos;
     }
 
-    private String[] tokenize(String s) {
-        StringTokenizer stk = new StringTokenizer(s, delimiters, true);
-        String[] tks = new String[stk.countTokens()];
-        for (int i = 0; i < tks.length; i++)
-            tks[i] = stk.nextToken();
-
-        return tks;
+    private int escapeIndex(char[] cs, int off, int len) {
+        return len != 1 ? Delimiter.ESCAPE.indexOf(cs[off]) : -1;
     }
 
     private void startElement(Delimiter d) throws SAXException {
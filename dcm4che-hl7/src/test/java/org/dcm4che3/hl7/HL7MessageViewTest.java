@@ -0,0 +1,113 @@
+package org.dcm4che3.hl7;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class HL7MessageViewTest {
+
+    private static final String MSG =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150101120000||ADT^A01|MSG1|P|2.5\r"
+            + "EVN|A01|20150101120000\r"
+            + "PID|1||P1^^^ISSUER~P2^^^OTHER||DOE^JOHN||19700101|M\r"
+            + "NTE|1\r"
+            + "NTE|2||comment\r";
+
+    private static HL7MessageView view(String s) throws Exception {
+        return new HL7MessageView(s.getBytes("ISO-8859-1"), null);
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        HL7MessageView msg = view(MSG);
+        assertEquals(5, msg.size());
+        assertEquals("MSH", msg.getSegmentName(0));
+        assertEquals("PID", msg.getSegmentName(2));
+        assertEquals(2, msg.indexOfSegment("PID"));
+        assertEquals(3, msg.indexOfSegment("NTE"));
+        assertEquals(4, msg.indexOfSegment("NTE", 4));
+        assertEquals(-1, msg.indexOfSegment("NT"));
+        assertEquals(-1, msg.indexOfSegment("OBX"));
+        assertEquals('|', msg.getFieldSeparator());
+        assertEquals("^~\\&", msg.getEncodingCharacters());
+        assertEquals("ADT^A01", msg.getMessageType());
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        HL7MessageView msg = view(MSG);
+        assertEquals("^~\\&", msg.getField(0, 1, null));
+        assertEquals("SND", msg.getField(0, 2, null));
+        assertEquals("MSG1", msg.getField(0, 9, null));
+        assertEquals("DOE^JOHN", msg.getField(2, 5, null));
+        assertEquals("M", msg.getField(2, 8, null));
+        assertEquals(9, msg.getFieldCount(2));
+        assertEquals("def", msg.getField(2, 4, "def"));
+        assertEquals("def", msg.getField(2, 9, "def"));
+        assertEquals("def", msg.getField(3, 3, "def"));
+        assertEquals("comment", msg.getField(4, 3, null));
+    }
+
+    @Test
+    public void testComponents() throws Exception {
+        HL7MessageView msg = view(MSG);
+        assertEquals("P1", msg.getComponent(2, 3, 0, 0, null));
+        assertEquals("ISSUER", msg.getComponent(2, 3, 0, 3, null));
+        assertEquals("P2", msg.getComponent(2, 3, 1, 0, null));
+        assertEquals("OTHER", msg.getComponent(2, 3, 1, 3, null));
+        assertNull(msg.getComponent(2, 3, 0, 1, null));
+        assertNull(msg.getComponent(2, 3, 0, 4, null));
+        assertNull(msg.getComponent(2, 3, 2, 0, null));
+        assertEquals("JOHN", msg.getComponent(2, 5, 0, 1, null));
+        assertNull(msg.getComponent(2, 20, 0, 0, null));
+    }
+
+    @Test
+    public void testMatchesHL7Message() throws Exception {
+        HL7MessageView view = view(MSG);
+        HL7Message msg = HL7Message.parse(MSG.getBytes("ISO-8859-1"), null);
+        HL7Segment pid = view.getSegment("PID");
+        assertEquals(msg.getSegment("PID").toString(), pid.toString());
+        assertEquals(msg.getSegment("PID").getField(5, null),
+                pid.getField(5, null));
+        assertEquals(msg.getSegment("MSH").getMessageType(),
+                view.getMessageType());
+        assertEquals(msg.toString(), view.toHL7Message().toString());
+        assertEquals(MSG, view.toString());
+        assertNull(view.getSegment("OBX"));
+    }
+
+    @Test
+    public void testLineFeedSegmentSeparators() throws Exception {
+        HL7MessageView msg = view(MSG.replace("\r", "\r\n"));
+        assertEquals(5, msg.size());
+        assertEquals("comment", msg.getField(4, 3, null));
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        String s = "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150101120000||ADT^A01|MSG1|P|2.5||||||"
+                + "8859/1\rPID|1||P1||M\u00dcLLER^J\u00dcRGEN\r";
+        HL7MessageView msg = view(s);
+        assertEquals("ISO-8859-1", msg.getCharsetName());
+        assertEquals("M\u00dcLLER", msg.getComponent(1, 5, 0, 0, null));
+    }
+
+    @Test
+    public void testMultiByteCharset() throws Exception {
+        String s = "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150101120000||ADT^A01|MSG1|P|2.5||||||"
+                + "GB 18030-2000\rPID|1||P1||\u5f20^\u4e09\r";
+        HL7MessageView msg = new HL7MessageView(s.getBytes("GB18030"), null);
+        assertEquals("GB18030", msg.getCharsetName());
+        assertEquals("\u5f20", msg.getComponent(1, 5, 0, 0, null));
+        assertEquals("\u4e09", msg.getComponent(1, 5, 0, 1, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMSH() throws Exception {
+        view("MSH|^~\r");
+    }
+}
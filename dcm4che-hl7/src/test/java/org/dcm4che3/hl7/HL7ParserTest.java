@@ -0,0 +1,96 @@
+package org.dcm4che3.hl7;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @author agent <agent@local>
+ */
+public class HL7ParserTest {
+
+    private static final String MSH =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150101120000||ADT^A01|MSG1|P|2.5\r";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(MSH
+                + "PID|1||P1^^^ISSUER~P2^^^OTHER||DOE^JOHN&JR^^^DR\r"
+                + "OBX|1|ST|||A&B^C&D\r");
+    }
+
+    @Test
+    public void testRoundTripEscapeSequences() throws Exception {
+        assertRoundTrip(MSH
+                + "NTE|1||F\\F\\S\\S\\T\\T\\R\\R\\E\\E\\\r");
+    }
+
+    @Test
+    public void testRoundTripHexAndFormattingEscapes() throws Exception {
+        assertRoundTrip(MSH
+                + "NTE|1||line1\\.br\\line2\\X0D0A\\end\r");
+    }
+
+    @Test
+    public void testRoundTripCustomDelimiters() throws Exception {
+        assertRoundTrip(
+                "MSH#!*%$#SND#SNDFAC#RCV#RCVFAC#20150101120000##ADT!A01#MSG1#P#2.5\r"
+                + "NTE#1##A%F%B%S%C%T%D%R%E%E%F%.br%\r");
+    }
+
+    @Test
+    public void testEscapedDelimiterBecomesEscapeElement() throws Exception {
+        StringWriter xml = new StringWriter();
+        new HL7Parser(new XMLWriter(xml)).parse(
+                new StringReader(MSH + "NTE|1||A\\F\\B\r"));
+        assertTrue(xml.toString(),
+                xml.toString().contains("<field>A<escape>F</escape>B</field>"));
+    }
+
+    @Test
+    public void testParseMessageView() throws Exception {
+        String s = MSH
+                + "PID|1||P1^^^ISSUER~P2^^^OTHER||DOE^JOHN\r"
+                + "NTE|1||F\\F\\S\\S\\T\\T\\R\\R\\E\\E\\.br\\X0D0A\\\r";
+        StringWriter out = new StringWriter();
+        new HL7Parser(new HL7ContentHandler(out)).parse(
+                new HL7MessageView(s.getBytes("US-ASCII"), null));
+        assertEquals(s, out.toString());
+    }
+
+    private static void assertRoundTrip(String s) throws Exception {
+        StringWriter out = new StringWriter();
+        new HL7Parser(new HL7ContentHandler(out)).parse(new StringReader(s));
+        assertEquals(s, out.toString());
+    }
+
+    private static class XMLWriter extends DefaultHandler {
+
+        private final StringWriter out;
+
+        XMLWriter(StringWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes atts) {
+            out.append('<').append(qName).append('>');
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            out.append("</").append(qName).append('>');
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            out.write(ch, start, length);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.imageio.plugins.rle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes and decodes single RLE segments (DICOM PS3.5 Annex G) and runs
+ * the segments of one frame in parallel.
+ * <p>
+ * The number of threads used for parallel processing of segments defaults
+ * to the number of available processors and may be set by System Property
+ * {@code org.dcm4che3.imageio.plugins.rle.RLECodec.threads}. A value of
+ * {@code 1} disables parallel processing.
+ * 
+ * @author agent <agent@local>
+ *
+ */
+final class RLECodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RLECodec.class);
+
+    static final int MAX_SEGMENTS = 15;
+
+    static final int HEADER_LENGTH = 64;
+
+    /**
+     * Minimal number of bytes per segment, for which the segments of a frame
+     * are processed in parallel.
+     */
+    private static final int MIN_PARALLEL_SEGMENT_LENGTH = 16384;
+
+    private static final int THREADS = Integer.getInteger(
+            RLECodec.class.getName() + ".threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService executor;
+
+    private RLECodec() {}
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null)
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RLECodec-" + threadNumber.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return executor;
+    }
+
+    /**
+     * Runs the tasks in parallel, if there are several segments of at least
+     * {@link #MIN_PARALLEL_SEGMENT_LENGTH} bytes, otherwise sequentially in
+     * the calling thread.
+     */
+    static void invokeAll(List<? extends Callable<?>> tasks, int segmentLength)
+            throws IOException {
+        int n = tasks.size();
+        if (THREADS <= 1 || n <= 1 || segmentLength < MIN_PARALLEL_SEGMENT_LENGTH) {
+            for (Callable<?> task : tasks)
+                call(task);
+            return;
+        }
+        ExecutorService executor = executor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(n - 1);
+        for (int i = 1; i < n; i++)
+            futures.add(executor.submit(tasks.get(i)));
+        try {
+            call(tasks.get(0));
+        } finally {
+            for (Future<?> future : futures)
+                get(future);
+        }
+    }
+
+    private static void call(Callable<?> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the maximal encoded length of a segment of
+     * {@code width x height} bytes.
+     */
+    static int maxSegmentLength(int width, int height) {
+        return (height * (width + (width + 127) / 128) + 1) & ~1;
+    }
+
+    /**
+     * Encodes one segment from every {@code pixelStride} sample of
+     * {@code data}, starting at {@code offset}, with rows separated by
+     * {@code scanlineStride} samples. Rows are encoded separately, as required
+     * by DICOM. The segment is padded to even length.
+     *
+     * @return length of the encoded segment in {@code out}
+     */
+    static int encode(byte[] data, int offset, int pixelStride,
+            int scanlineStride, int width, int height, byte[] out) {
+        byte[] row = new byte[width];
+        int outPos = 0;
+        for (int y = 0, rowOff = offset; y < height; y++, rowOff += scanlineStride) {
+            for (int x = 0, i = rowOff; x < width; x++, i += pixelStride)
+                row[x] = data[i];
+            outPos = encodeRow(row, width, out, outPos);
+        }
+        return pad(out, outPos);
+    }
+
+    /**
+     * Encodes one segment from the byte {@code (sample >> shift) & 0xff} of
+     * every {@code pixelStride} sample of {@code data}.
+     *
+     * @see #encode(byte[], int, int, int, int, int, byte[])
+     */
+    static int encode(short[] data, int shift, int offset, int pixelStride,
+            int scanlineStride, int width, int height, byte[] out) {
+        byte[] row = new byte[width];
+        int outPos = 0;
+        for (int y = 0, rowOff = offset; y < height; y++, rowOff += scanlineStride) {
+            for (int x = 0, i = rowOff; x < width; x++, i += pixelStride)
+                row[x] = (byte) (data[i] >> shift);
+            outPos = encodeRow(row, width, out, outPos);
+        }
+        return pad(out, outPos);
+    }
+
+    private static int pad(byte[] out, int outPos) {
+        if ((outPos & 1) != 0)
+            out[outPos++] = 0;
+        return outPos;
+    }
+
+    private static int encodeRow(byte[] row, int width, byte[] out, int outPos) {
+        int literal = 0;
+        int pos = 0;
+        while (pos < width) {
+            byte val = row[pos];
+            int end = Math.min(pos + 128, width);
+            int run = pos + 1;
+            while (run < end && row[run] == val)
+                run++;
+            run -= pos;
+            if (run < 3) {
+                pos += run;
+                continue;
+            }
+            outPos = encodeLiteral(row, literal, pos, out, outPos);
+            out[outPos++] = (byte) (1 - run);
+            out[outPos++] = val;
+            pos += run;
+            literal = pos;
+        }
+        return encodeLiteral(row, literal, pos, out, outPos);
+    }
+
+    private static int encodeLiteral(byte[] row, int start, int end,
+            byte[] out, int outPos) {
+        int n;
+        while ((n = Math.min(end - start, 128)) > 0) {
+            out[outPos++] = (byte) (n - 1);
+            System.arraycopy(row, start, out, outPos, n);
+            outPos += n;
+            start += n;
+        }
+        return outPos;
+    }
+
+    /**
+     * Decodes segment #{@code seg} from {@code src[pos..end)} into
+     * {@code data}. Missing bytes of a too short segment are set to 0,
+     * surplus bytes of a too long segment are ignored.
+     */
+    static void decode(int seg, byte[] src, int pos, int end, byte[] data) {
+        int dataPos = 0;
+        int n;
+        while (dataPos < data.length) {
+            if (pos >= end) {
+                tooShort(seg, data, dataPos);
+                return;
+            }
+            n = src[pos++];
+            if (n >= 0) {
+                n++;
+                if (n > data.length - dataPos) {
+                    System.arraycopy(src, pos, data, dataPos,
+                            Math.min(data.length - dataPos, end - pos));
+                    tooLong(seg);
+                    return;
+                }
+                if (n > end - pos) {
+                    System.arraycopy(src, pos, data, dataPos, end - pos);
+                    tooShort(seg, data, dataPos + end - pos);
+                    return;
+                }
+                System.arraycopy(src, pos, data, dataPos, n);
+                pos += n;
+                dataPos += n;
+            } else if (n != -128) {
+                if (pos >= end) {
+                    tooShort(seg, data, dataPos);
+                    return;
+                }
+                n = 1 - n;
+                if (n > data.length - dataPos) {
+                    Arrays.fill(data, dataPos, data.length, src[pos]);
+                    tooLong(seg);
+                    return;
+                }
+                Arrays.fill(data, dataPos, dataPos + n, src[pos++]);
+                dataPos += n;
+            }
+        }
+    }
+
+    private static void tooShort(int seg, byte[] data, int dataPos) {
+        LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
+                seg, data.length - dataPos);
+        Arrays.fill(data, dataPos, data.length, (byte) 0);
+    }
+
+    private static void tooLong(int seg) {
+        LOG.info("RLE Segment #{} too long, truncate surplus bytes", seg);
+    }
+}
@@ -48,7 +48,11 @@ import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
@@ -58,8 +62,6 @@ import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
 
 import org.dcm4che3.util.ByteUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -67,8 +69,6 @@ import org.slf4j.LoggerFactory;
  */
 public class RLEImageReader extends ImageReader {
 
-    private static Logger LOG = LoggerFactory.getLogger(RLEImageReader.class);
-
     private static final String UNKNOWN_IMAGE_TYPE =
             "RLE Image Reader needs ImageReadParam.destination or "
             + "ImageReadParam.destinationType specified";
@@ -80,16 +80,12 @@ public class RLEImageReader extends ImageReader {
 
     private final int[] header = new int[16];
 
-    private final byte[] buf = new byte[8192];
-
-    private long headerPos;
-
-    private long bufOff;
-
-    private int bufPos;
+    private byte[] buf = new byte[8192];
 
     private int bufLen;
 
+    private byte[][] planes;
+
     private ImageInputStream iis;
 
     private int width;
@@ -223,10 +219,10 @@ public class RLEImageReader extends ImageReader {
             read(((DataBufferByte) db).getBankData());
             break;
         case DataBuffer.TYPE_USHORT:
-            read(((DataBufferUShort) db).getData());
+            read(((DataBufferUShort) db).getBankData());
             break;
         case DataBuffer.TYPE_SHORT:
-            read(((DataBufferShort) db).getData());
+            read(((DataBufferShort) db).getBankData());
             break;
         default:
             throw new IllegalArgumentException(
@@ -236,140 +232,87 @@ public class RLEImageReader extends ImageReader {
 
     private void read(byte[][] bands) throws IOException {
         readRLEHeader(bands.length);
-        for (int i = 0; i < bands.length; i++)
-            unrle(i+1, bands[i]);
-    }
-
-    private void read(short[] data) throws IOException {
-        readRLEHeader(2);
-        unrle(1, data);
-        unrle(2, data);
+        decode(bands);
     }
 
-    private void seekSegment(int seg) throws IOException {
-        long streamPos = headerPos + (header[seg] & 0xffffffffL);
-        int bufPos = (int) (streamPos - bufOff);
-        if (bufPos >= 0 && bufPos <= bufLen)
-            this.bufPos = bufPos;
-        else {
-            iis.seek(streamPos);
-            this.bufPos = bufLen; // force fillBuffer on nextByte()
+    private void read(short[][] bands) throws IOException {
+        readRLEHeader(bands.length * 2);
+        byte[][] planes = planes(bands.length * 2, bands[0].length);
+        decode(planes);
+        for (int i = 0; i < bands.length; i++) {
+            short[] data = bands[i];
+            byte[] msb = planes[i * 2];
+            byte[] lsb = planes[i * 2 + 1];
+            for (int j = 0; j < data.length; j++)
+                data[j] = (short) ((msb[j] << 8) | (lsb[j] & 0xff));
         }
     }
 
-
-    private void readRLEHeader(int numSegments) throws IOException {
-        fillBuffer();
-        if (bufLen < 64)
-            throw new EOFException();
-        for (int i = 0, off = 0; i < header.length; i++, off += 4)
-            header[i] = ByteUtils.bytesToIntLE(buf, off);
-        bufPos = 64;
-        if (header[0] != numSegments)
-            throw new IOException(MISMATCH_NUM_RLE_SEGMENTS + header[0]);
+    private byte[][] planes(int numPlanes, int length) {
+        if (planes == null || planes.length != numPlanes
+                || planes[0].length != length)
+            planes = new byte[numPlanes][length];
+        return planes;
     }
 
-    private void unrle(int seg, byte[] data) throws IOException {
-        seekSegment(seg);
-        int pos = 0;
-        try {
-            int n;
-            int end;
-            byte val;
-            while (pos < data.length) {
-                n = nextByte();
-                if (n >= 0) {
-                    read(data, pos, ++n);
-                    pos += n;
-                } else if (n != -128) {
-                    end = pos + 1 - n;
-                    val = nextByte();
-                    while (pos < end)
-                        data[pos++] = val;
+    private void decode(final byte[][] planes) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(planes.length);
+        for (int i = 0; i < planes.length; i++) {
+            final int seg = i + 1;
+            final byte[] data = planes[i];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    RLECodec.decode(seg, buf, segmentStart(seg),
+                            segmentEnd(seg), data);
+                    return null;
                 }
-            }
-        } catch (EOFException e) {
-            LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
-                    seg, data.length - pos);
-        } catch (IndexOutOfBoundsException e) {
-            LOG.info("RLE Segment #{} too long, truncate surplus bytes", seg);
+            });
         }
+        RLECodec.invokeAll(tasks, planes[0].length);
     }
 
-    private void read(byte[] data, int pos, int len) throws IOException {
-        int remaining = len;
-        int n;
-        while (remaining > 0) {
-            n = bufLen - bufPos;
-            if (n <= 0) {
-                fillBuffer();
-                n = bufLen - bufPos;
-            }
-            if ((remaining -= n) < 0)
-                n += remaining;
-            System.arraycopy(buf, bufPos, data, pos, n);
-            bufPos += n;
-            pos += n;
-        }
+    private int segmentStart(int seg) {
+        return (int) Math.min(header[seg] & 0xffffffffL, bufLen);
     }
 
-    private void unrle(int seg, short[] data) throws IOException {
-        seekSegment(seg);
-        int pos = 0;
-        try {
-            int shift = seg == 1 ? 8 : 0;
-            int n;
-            int end;
-            int val;
-            while (pos < data.length) {
-                n = nextByte();
-                if (n >= 0) {
-                    read(data, pos, ++n, shift);
-                    pos += n;
-                } else if (n != -128) {
-                    end = pos + 1 - n;
-                    val = (nextByte() & 0xff) << shift;
-                    while (pos < end)
-                        data[pos++] |= val;
-                }
-            }
-        } catch (EOFException e) {
-            LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
-                    seg, data.length - pos);
-        } catch (IndexOutOfBoundsException e) {
-            LOG.info("RLE Segment #{} to long, truncate surplus bytes", seg);
+    private int segmentEnd(int seg) {
+        if (seg < header[0]) {
+            int end = segmentStart(seg + 1);
+            if (end >= segmentStart(seg))
+                return end;
         }
+        return bufLen;
     }
 
-    private void read(short[] data, int pos, int len, int shift) throws IOException {
-        int remaining = len;
-        int n;
-        while (remaining > 0) {
-            n = bufLen - bufPos;
-            if (n <= 0) {
-                fillBuffer();
-                n = bufLen - bufPos;
-            }
-            if ((remaining -= n) < 0)
-                n += remaining;
-            while (n-- > 0)
-                data[pos++] |= (buf[bufPos++] & 0xff) << shift;
-        }
-    }
-
-    private void fillBuffer() throws IOException {
-        bufOff = iis.getStreamPosition();
-        bufPos = 0;
-        bufLen = iis.read(buf);
-        if (bufLen <= 0)
+    private void readRLEHeader(int numSegments) throws IOException {
+        if (numSegments > RLECodec.MAX_SEGMENTS)
+            throw new IOException(MISMATCH_NUM_RLE_SEGMENTS + numSegments);
+        readInput();
+        if (bufLen < RLECodec.HEADER_LENGTH)
             throw new EOFException();
+        for (int i = 0, off = 0; i < header.length; i++, off += 4)
+            header[i] = ByteUtils.bytesToIntLE(buf, off);
+        if (header[0] != numSegments)
+            throw new IOException(MISMATCH_NUM_RLE_SEGMENTS + header[0]);
     }
 
-    private byte nextByte() throws IOException {
-        if (bufPos >= bufLen)
-            fillBuffer();
-
-        return buf[bufPos++];
+    /**
+     * Reads the RLE header and all segments from the current position to the
+     * end of the input, so segments can be decoded independently.
+     */
+    private void readInput() throws IOException {
+        long length = iis.length();
+        if (length > 0) {
+            long remaining = length - iis.getStreamPosition();
+            if (remaining > buf.length && remaining <= Integer.MAX_VALUE)
+                buf = new byte[(int) remaining];
+        }
+        bufLen = 0;
+        int n;
+        while ((n = iis.read(buf, bufLen, buf.length - bufLen)) > 0)
+            if ((bufLen += n) == buf.length)
+                buf = Arrays.copyOf(buf, buf.length << 1);
     }
 
 }
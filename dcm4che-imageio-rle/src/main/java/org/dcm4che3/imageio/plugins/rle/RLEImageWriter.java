@@ -0,0 +1,243 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.imageio.plugins.rle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.dcm4che3.util.ByteUtils;
+
+/**
+ * Encodes a raster with {@code byte} or {@code short} samples to RLE Lossless
+ * (DICOM PS3.5 Annex G). Each sample of 8 bit results in one RLE segment,
+ * each sample of 16 bit in two RLE segments, with the most significant byte
+ * first. The segments of a frame are encoded in parallel.
+ * 
+ * @author agent <agent@local>
+ *
+ */
+public class RLEImageWriter extends ImageWriter {
+
+    private static final String UNSUPPORTED_SAMPLE_MODEL =
+            "RLE Image Writer requires ComponentSampleModel, but was: ";
+    private static final String UNSUPPORTED_DATA_TYPE =
+            "Unsupported Data Type of Raster: ";
+    private static final String TOO_MANY_RLE_SEGMENTS =
+            "Number of RLE Segments exceeds 15: ";
+
+    private final int[] header = new int[16];
+
+    private byte[][] segments;
+
+    protected RLEImageWriter(ImageWriterSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType,
+            ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData,
+            ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData,
+            ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public boolean canWriteRasters() {
+        return true;
+    }
+
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image,
+            ImageWriteParam param) throws IOException {
+        ImageOutputStream ios = (ImageOutputStream) getOutput();
+        if (ios == null)
+            throw new IllegalStateException("Output not set");
+
+        Raster raster;
+        if (image.hasRaster()) {
+            raster = image.getRaster();
+        } else {
+            RenderedImage ri = image.getRenderedImage();
+            // avoid the copy of the image data by RenderedImage.getData()
+            raster = ri instanceof BufferedImage
+                    ? ((BufferedImage) ri).getRaster()
+                    : ri.getData();
+        }
+        SampleModel sm = raster.getSampleModel();
+        if (!(sm instanceof ComponentSampleModel))
+            throw new IllegalArgumentException(UNSUPPORTED_SAMPLE_MODEL + sm);
+
+        int[] lengths = encode(raster, (ComponentSampleModel) sm);
+        writeRLEHeader(ios, lengths);
+        for (int i = 0; i < lengths.length; i++)
+            ios.write(segments[i], 0, lengths[i]);
+    }
+
+    private int[] encode(Raster raster, final ComponentSampleModel sm)
+            throws IOException {
+        DataBuffer db = raster.getDataBuffer();
+        final int w = raster.getWidth();
+        final int h = raster.getHeight();
+        final int bands = sm.getNumBands();
+        final int pixelStride = sm.getPixelStride();
+        final int scanlineStride = sm.getScanlineStride();
+        final int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+        final int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+        final int[] bankIndices = sm.getBankIndices();
+        final int[] bankOffsets = db.getOffsets();
+        int bytesPerSample;
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            bytesPerSample = 1;
+            break;
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_SHORT:
+            bytesPerSample = 2;
+            break;
+        default:
+            throw new IllegalArgumentException(
+                    UNSUPPORTED_DATA_TYPE + db.getDataType());
+        }
+        int numSegments = bands * bytesPerSample;
+        if (numSegments > RLECodec.MAX_SEGMENTS)
+            throw new IllegalArgumentException(TOO_MANY_RLE_SEGMENTS + numSegments);
+
+        final byte[][] segments = segments(numSegments,
+                RLECodec.maxSegmentLength(w, h));
+        final int[] lengths = new int[numSegments];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numSegments);
+        for (int b = 0; b < bands; b++) {
+            final int bankIndex = bankIndices[b];
+            final int offset = sm.getOffset(x0, y0, b) + bankOffsets[bankIndex];
+            if (bytesPerSample == 1) {
+                final byte[] data = ((DataBufferByte) db).getData(bankIndex);
+                final int seg = b;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        lengths[seg] = RLECodec.encode(data, offset,
+                                pixelStride, scanlineStride, w, h, segments[seg]);
+                        return null;
+                    }
+                });
+            } else {
+                final short[] data = db.getDataType() == DataBuffer.TYPE_SHORT
+                        ? ((DataBufferShort) db).getData(bankIndex)
+                        : ((DataBufferUShort) db).getData(bankIndex);
+                for (int i = 0; i < 2; i++) {
+                    final int seg = b * 2 + i;
+                    final int shift = i == 0 ? 8 : 0;
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            lengths[seg] = RLECodec.encode(data, shift, offset,
+                                    pixelStride, scanlineStride, w, h, segments[seg]);
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+        RLECodec.invokeAll(tasks, w * h);
+        return lengths;
+    }
+
+    private byte[][] segments(int numSegments, int maxLength) {
+        if (segments == null || segments.length < numSegments
+                || segments[0].length < maxLength)
+            segments = new byte[numSegments][maxLength];
+        return segments;
+    }
+
+    private void writeRLEHeader(ImageOutputStream ios, int[] lengths)
+            throws IOException {
+        header[0] = lengths.length;
+        int offset = RLECodec.HEADER_LENGTH;
+        for (int i = 0; i < lengths.length; i++) {
+            header[i + 1] = offset;
+            offset += lengths[i];
+        }
+        for (int i = lengths.length + 1; i < header.length; i++)
+            header[i] = 0;
+        byte[] b = new byte[RLECodec.HEADER_LENGTH];
+        for (int i = 0, off = 0; i < header.length; i++, off += 4)
+            ByteUtils.intToBytesLE(header[i], b, off);
+        ios.write(b);
+    }
+
+    @Override
+    public void dispose() {
+        segments = null;
+        super.dispose();
+    }
+}
@@ -0,0 +1,282 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.imageio.plugins.rle;
+
+import static org.junit.Assert.*;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.dcm4che3.util.ByteUtils;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class RLEImageWriterTest {
+
+    private static final ColorSpace RGB =
+            ColorSpace.getInstance(ColorSpace.CS_sRGB);
+    private static final int[] RGB_BANDS = { 0, 1, 2 };
+    private static final int[] RGB_OFFSETS = { 0, 0, 0 };
+
+    // odd width x height, so segments are padded to even length
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 9;
+
+    @Test
+    public void testByteGray() throws Exception {
+        assertRoundTrip(gray(8, DataBuffer.TYPE_BYTE, false));
+    }
+
+    @Test
+    public void testByteInterleaved() throws Exception {
+        assertRoundTrip(interleaved(DataBuffer.TYPE_BYTE));
+    }
+
+    @Test
+    public void testByteBanded() throws Exception {
+        assertRoundTrip(banded(DataBuffer.TYPE_BYTE));
+    }
+
+    @Test
+    public void testUShortGray() throws Exception {
+        assertRoundTrip(gray(16, DataBuffer.TYPE_USHORT, false));
+    }
+
+    @Test
+    public void testShortGray() throws Exception {
+        assertRoundTrip(gray(16, DataBuffer.TYPE_SHORT, true));
+    }
+
+    @Test
+    public void testUShortInterleaved() throws Exception {
+        assertRoundTrip(interleaved(DataBuffer.TYPE_USHORT));
+    }
+
+    @Test
+    public void testUShortBanded() throws Exception {
+        assertRoundTrip(banded(DataBuffer.TYPE_USHORT));
+    }
+
+    @Test
+    public void testSubimage() throws Exception {
+        BufferedImage bi = fill(interleaved(DataBuffer.TYPE_BYTE)
+                .createBufferedImage(WIDTH, HEIGHT), 42);
+        BufferedImage sub = bi.getSubimage(3, 2, 255, 5);
+        byte[] rle = write(new IIOImage(sub, null, null));
+        assertEqualSamples(sub.getRaster(), read(rle,
+                banded(DataBuffer.TYPE_BYTE).createBufferedImage(255, 5)));
+    }
+
+    @Test
+    public void testWriteRaster() throws Exception {
+        BufferedImage bi = fill(gray(16, DataBuffer.TYPE_USHORT, false)
+                .createBufferedImage(WIDTH, HEIGHT), 7);
+        byte[] rle = write(new IIOImage(bi.getRaster(), null, null));
+        assertEqualSamples(bi.getRaster(), read(rle,
+                gray(16, DataBuffer.TYPE_USHORT, false)
+                        .createBufferedImage(WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void testParallelSegments() throws Exception {
+        ImageTypeSpecifier type = interleaved(DataBuffer.TYPE_USHORT);
+        BufferedImage bi = fill(type.createBufferedImage(256, 128), 3);
+        byte[] rle = write(new IIOImage(bi, null, null));
+        assertEqualSamples(bi.getRaster(), read(rle,
+                banded(DataBuffer.TYPE_USHORT).createBufferedImage(256, 128)));
+    }
+
+    @Test
+    public void testRunAndLiteralLengths() throws Exception {
+        int[] lengths = { 1, 2, 3, 127, 128, 129, 130, 255, 256, 257 };
+        for (int len : lengths) {
+            assertRoundTrip(row(len, 0));
+            assertRoundTrip(row(len, 1));
+            assertRoundTrip(row(len, 2));
+        }
+    }
+
+    private static byte[] row(int len, int pattern) {
+        byte[] row = new byte[len];
+        Random rnd = new Random(len);
+        for (int i = 0; i < len; i++)
+            switch (pattern) {
+            case 0:
+                row[i] = 5;
+                break;
+            case 1:
+                row[i] = (byte) rnd.nextInt();
+                break;
+            default:
+                row[i] = (byte) (i / 2);
+            }
+        return row;
+    }
+
+    private static void assertRoundTrip(byte[] row) {
+        byte[] out = new byte[RLECodec.maxSegmentLength(row.length, 1)];
+        int len = RLECodec.encode(row, 0, 1, row.length, row.length, 1, out);
+        assertEquals(0, len & 1);
+        byte[] decoded = new byte[row.length];
+        RLECodec.decode(1, out, 0, len, decoded);
+        assertArrayEquals(row, decoded);
+    }
+
+    private static void assertRoundTrip(ImageTypeSpecifier type)
+            throws Exception {
+        BufferedImage bi = fill(type.createBufferedImage(WIDTH, HEIGHT), 1);
+        byte[] rle = write(new IIOImage(bi, null, null));
+        int numBands = bi.getRaster().getNumBands();
+        int numSegments = numBands
+                * (bi.getRaster().getDataBuffer().getDataType()
+                        == DataBuffer.TYPE_BYTE ? 1 : 2);
+        assertEquals(numSegments, ByteUtils.bytesToIntLE(rle, 0));
+        for (int i = 1; i <= numSegments; i++)
+            assertEquals(0, ByteUtils.bytesToIntLE(rle, i * 4) & 1);
+        assertEquals(0, rle.length & 1);
+        BufferedImage dest = numBands == 1
+                ? type.createBufferedImage(WIDTH, HEIGHT)
+                : banded(bi.getRaster().getDataBuffer().getDataType())
+                        .createBufferedImage(WIDTH, HEIGHT);
+        assertEqualSamples(bi.getRaster(), read(rle, dest));
+    }
+
+    private static ImageTypeSpecifier gray(int bits, int dataType,
+            boolean signed) {
+        return ImageTypeSpecifier.createGrayscale(bits, dataType, signed);
+    }
+
+    private static ImageTypeSpecifier interleaved(int dataType) {
+        return ImageTypeSpecifier.createInterleaved(RGB, RGB_BANDS, dataType,
+                false, false);
+    }
+
+    private static ImageTypeSpecifier banded(int dataType) {
+        return ImageTypeSpecifier.createBanded(RGB, RGB_BANDS, RGB_OFFSETS,
+                dataType, false, false);
+    }
+
+    /**
+     * Fills rows with runs longer than 128 samples, with literals longer than
+     * 128 samples and with alternating short runs and literals.
+     */
+    private static BufferedImage fill(BufferedImage bi, long seed) {
+        WritableRaster raster = bi.getRaster();
+        Random rnd = new Random(seed);
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        for (int b = 0; b < raster.getNumBands(); b++)
+            for (int y = 0; y < h; y++)
+                for (int x = 0; x < w; x++) {
+                    int v;
+                    switch ((y + b) % 3) {
+                    case 0:
+                        v = x < 200 ? y * 0x0101 + b : x / 3;
+                        break;
+                    case 1:
+                        v = rnd.nextInt();
+                        break;
+                    default:
+                        v = (x / 37 & 1) == 0 ? rnd.nextInt() : x / 2 * 0x0101;
+                    }
+                    raster.setSample(x, y, b, v);
+                }
+        return bi;
+    }
+
+    private static byte[] write(IIOImage image) throws Exception {
+        ImageWriter writer = new RLEImageWriterSpi().createWriterInstance(null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, image, null);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static Raster read(byte[] rle, BufferedImage dest)
+            throws Exception {
+        ImageReader reader = new RLEImageReaderSpi().createReaderInstance(null);
+        MemoryCacheImageInputStream iis = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(rle));
+        try {
+            reader.setInput(iis);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(dest);
+            return reader.readRaster(0, param);
+        } finally {
+            iis.close();
+            reader.dispose();
+        }
+    }
+
+    private static void assertEqualSamples(Raster expected, Raster actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getNumBands(), actual.getNumBands());
+        int x0 = expected.getMinX();
+        int y0 = expected.getMinY();
+        for (int b = 0; b < expected.getNumBands(); b++)
+            for (int y = 0; y < expected.getHeight(); y++)
+                for (int x = 0; x < expected.getWidth(); x++)
+                    assertEquals("sample[" + x + "," + y + "," + b + "]",
+                            expected.getSample(x0 + x, y0 + y, b),
+                            actual.getSample(x, y, b));
+    }
+}
@@ -312,10 +312,10 @@ public class Decompressor {
             writeTo(sm, ((DataBufferByte) db).getBankData(), out);
             break;
         case DataBuffer.TYPE_USHORT:
-            writeTo(sm, ((DataBufferUShort) db).getData(), out);
+            writeTo(sm, ((DataBufferUShort) db).getBankData(), out);
             break;
         case DataBuffer.TYPE_SHORT:
-            writeTo(sm, ((DataBufferShort) db).getData(), out);
+            writeTo(sm, ((DataBufferShort) db).getBankData(), out);
             break;
         case DataBuffer.TYPE_INT:
             writeTo(sm, ((DataBufferInt) db).getData(), out);
@@ -348,20 +348,22 @@ public class Decompressor {
         }
     }
 
-    private static void writeTo(SampleModel sm, short[] data, OutputStream out)
+    private static void writeTo(SampleModel sm, short[][] bankData, OutputStream out)
             throws IOException {
         int h = sm.getHeight();
         int w = sm.getWidth();
-        int stride = ((ComponentSampleModel) sm).getScanlineStride();
-        byte[] b = new byte[w * 2];
-        for (int y = 0; y < h; ++y) {
-            for (int i = 0, j = y * stride; i < b.length;) {
-                short s = data[j++];
-                b[i++] = (byte) s;
-                b[i++] = (byte) (s >> 8);
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        int stride = csm.getScanlineStride();
+        byte[] b = new byte[w * csm.getPixelStride() * 2];
+        for (short[] data : bankData)
+            for (int y = 0; y < h; ++y) {
+                for (int i = 0, j = y * stride; i < b.length;) {
+                    short s = data[j++];
+                    b[i++] = (byte) s;
+                    b[i++] = (byte) (s >> 8);
+                }
+                out.write(b);
             }
-            out.write(b);
-        }
     }
 
     private static void writeTo(SampleModel sm, int[] data, OutputStream out)
@@ -42,6 +42,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import javax.json.stream.JsonLocation;
 import javax.json.stream.JsonParser;
@@ -134,6 +136,59 @@ public class JSONReader {
         }
     }
 
+    /**
+     * Returns an iterator over an array of Data Set objects, which parses
+     * the next Data Set only on demand, so arbitrary large arrays can be read
+     * with constant memory. The File Meta Information of the Data Set last
+     * returned by {@link Iterator#next()} is available by
+     * {@link #getFileMetaInformation()}.
+     */
+    public Iterator<Attributes> readDatasets() {
+        if (next() != Event.START_ARRAY) {
+            throw new JsonParsingException("Unexpected " + event
+                    + ", expected array of Data Set objects", location);
+        }
+        return new Iterator<Attributes>() {
+
+            private boolean hasNext;
+            private boolean endOfArray;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext)
+                    return true;
+                if (endOfArray)
+                    return false;
+                switch (JSONReader.this.next()) {
+                case END_ARRAY:
+                    endOfArray = true;
+                    return false;
+                case START_OBJECT:
+                    return hasNext = true;
+                default:
+                    throw new JsonParsingException("Unexpected " + event
+                            + ", expected Data Set object", location);
+                }
+            }
+
+            @Override
+            public Attributes next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                hasNext = false;
+                fmi = null;
+                Attributes attrs = new Attributes();
+                doReadDataset(attrs);
+                return attrs;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     private void doReadDataset(Attributes attrs) {
         for (;;) {
             switch (next()) {
@@ -68,13 +68,51 @@ import org.xml.sax.SAXException;
  */
 public class JSONWriter implements DicomInputHandler {
 
+    private static final int BASE64_CHUNK_LENGTH = 3072;
+
     private final JsonGenerator gen;
     private final Deque<Boolean> hasItems = new ArrayDeque<Boolean>();
+    private int flushInterval;
+    private int datasetCount;
+    private byte[] chunk;
 
     public JSONWriter(JsonGenerator gen) {
         this.gen = gen;
     }
 
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Flush the underlying {@code JsonGenerator} after each {@code n}-th
+     * Data Set written by {@link #writeNext(Attributes)}, so the output
+     * buffered for an array of Data Sets does not grow with its size.
+     *
+     * @param n flush interval; {@code 0} disables intermediate flushes
+     */
+    public void setFlushInterval(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("flushInterval: " + n);
+        this.flushInterval = n;
+    }
+
+    public void writeStartArray() {
+        gen.writeStartArray();
+        datasetCount = 0;
+    }
+
+    public void writeNext(Attributes attrs) {
+        write(attrs);
+        if (flushInterval > 0 && ++datasetCount % flushInterval == 0)
+            gen.flush();
+    }
+
+    public void writeEndArray() {
+        gen.writeEnd();
+        gen.flush();
+    }
+
     public void write(Attributes attrs) {
         final SpecificCharacterSet cs = attrs.getSpecificCharacterSet();
         gen.writeStartObject();
@@ -281,15 +319,31 @@ public class JSONWriter implements DicomInputHandler {
 
     private void writeInlineBinary(VR vr, byte[] b, boolean bigEndian,
             boolean preserve) {
-        if (bigEndian)
-            b = vr.toggleEndian(b, preserve);
-        gen.write("InlineBinary", encodeBase64(b));
+        if (bigEndian && !preserve) {
+            vr.toggleEndian(b, false);
+            bigEndian = false;
+        }
+        gen.write("InlineBinary", encodeBase64(vr, b, bigEndian));
     }
 
-    private String encodeBase64(byte[] b) {
-        int len = (b.length * 4 / 3 + 3) & ~3;
-        char[] ch = new char[len];
-        Base64.encode(b, 0, b.length, ch, 0);
+    private String encodeBase64(VR vr, byte[] b, boolean toggleEndian) {
+        char[] ch = new char[(b.length * 4 / 3 + 3) & ~3];
+        if (!toggleEndian) {
+            Base64.encode(b, 0, b.length, ch, 0);
+            return new String(ch);
+        }
+        // swap bytes chunk by chunk instead of cloning the whole value;
+        // BASE64_CHUNK_LENGTH is a multiple of 3 and of all VR byte sizes
+        if (chunk == null)
+            chunk = new byte[BASE64_CHUNK_LENGTH];
+        int destPos = 0;
+        for (int off = 0; off < b.length; off += BASE64_CHUNK_LENGTH) {
+            int len = Math.min(BASE64_CHUNK_LENGTH, b.length - off);
+            System.arraycopy(b, off, chunk, 0, len);
+            vr.toggleEndian(chunk, false);
+            Base64.encode(chunk, 0, len, ch, destPos);
+            destPos += len / 3 * 4;
+        }
         return new String(ch);
     }
 
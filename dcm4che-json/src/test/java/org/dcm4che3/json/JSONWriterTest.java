@@ -38,9 +38,13 @@
 
 package org.dcm4che3.json;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Iterator;
 
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
@@ -114,4 +118,32 @@ public class JSONWriterTest {
         assertEquals(RESULT, writer.toString());
     }
 
+    @Test
+    public void testWriteArray() throws Exception {
+        byte[] overlay = new byte[10000];
+        for (int i = 0; i < overlay.length; i++)
+            overlay[i] = (byte) i;
+        StringWriter writer = new StringWriter();
+        JSONWriter w = new JSONWriter(Json.createGenerator(writer));
+        w.setFlushInterval(2);
+        w.writeStartArray();
+        for (int i = 0; i < 5; i++) {
+            Attributes dataset = new Attributes(true, 2);
+            dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3." + i);
+            dataset.setBytes(Tag.OverlayData, VR.OW, overlay);
+            w.writeNext(dataset);
+        }
+        w.writeEndArray();
+        byte[] expected = VR.OW.toggleEndian(overlay, true);
+        Iterator<Attributes> iter = new JSONReader(
+                Json.createParser(new StringReader(writer.toString())))
+                .readDatasets();
+        for (int i = 0; i < 5; i++) {
+            Attributes dataset = iter.next();
+            assertEquals("1.2.3." + i, dataset.getString(Tag.SOPInstanceUID));
+            assertArrayEquals(expected, dataset.getBytes(Tag.OverlayData));
+        }
+        assertFalse(iter.hasNext());
+    }
+
 }
@@ -48,7 +48,6 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.net.DeviceExtension;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.util.SafeClose;
-import org.dcm4che3.util.StreamUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,8 +58,12 @@ import java.net.*;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -148,13 +151,6 @@ public class AuditLogger extends DeviceExtension {
     private static final char SYSLOG_VERSION = '1';
     private static final InetAddress localHost = localHost();
     private static final String processID = processID();
-    private static final Comparator<File> FILE_COMPARATOR = new Comparator<File>() {
-        @Override
-        public int compare(File o1, File o2) {
-            long diff = o1.lastModified() - o2.lastModified();
-            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
-        }
-    };
     private static volatile AuditLogger defaultLogger;
 
     @LDAP(storedAsReference = true)
@@ -243,6 +239,15 @@ public class AuditLogger extends DeviceExtension {
     @ConfigurableProperty(name = "dcmAuditLoggerRetryInterval", defaultValue = "0")
     private int retryInterval;
 
+    @ConfigurableProperty(name = "dcmAuditLoggerQueueSize", defaultValue = "0")
+    private int queueSize;
+
+    @ConfigurableProperty(name = "dcmAuditLoggerMaxBatchSize", defaultValue = "100")
+    private int maxBatchSize = 100;
+
+    @ConfigurableProperty(name = "dcmAuditLoggerSpoolSegmentSize", defaultValue = "1000")
+    private int spoolSegmentSize = 1000;
+
     @LDAP(
             noContainerNode = true,
             distinguishingField = "cn"
@@ -254,7 +259,14 @@ public class AuditLogger extends DeviceExtension {
     @ConfigurableProperty(name = "dicomNetworkConnectionReference", collectionOfReferences = true)
     private List<Connection> connections = new ArrayList<Connection>(1);
 
-    private transient MessageBuilder builder;
+    private transient final ThreadLocal<MessageBuilder> builder =
+            new ThreadLocal<MessageBuilder>();
+    private transient final ConcurrentLinkedQueue<DatagramPacket> queue =
+            new ConcurrentLinkedQueue<DatagramPacket>();
+    private transient final AtomicInteger queued = new AtomicInteger();
+    private transient final AtomicBoolean draining = new AtomicBoolean();
+    private transient final ReentrantLock sendQueuedMessagesLock = new ReentrantLock();
+    private transient AuditMessageSpool spool;
     private transient ActiveConnection activeConnection;
     private transient ScheduledFuture<?> retryTimer;
     private transient Exception lastException;
@@ -550,7 +562,11 @@ public class AuditLogger extends DeviceExtension {
      *                  directory is to be used
      */
     public void setSpoolDirectory(File directory) {
+        if (directory == null ? spoolDirectory == null : directory.equals(spoolDirectory))
+            return;
+
         this.spoolDirectory = directory;
+        closeSpool();
     }
 
     public String getSpoolDirectoryURI() {
@@ -558,7 +574,7 @@ public class AuditLogger extends DeviceExtension {
     }
 
     public void setSpoolDirectoryURI(String uri) {
-        this.spoolDirectory = uri != null ? new File(URI.create(uri)) : null;
+        setSpoolDirectory(uri != null ? new File(URI.create(uri)) : null);
     }
 
     public String getSpoolNameFilePrefix() {
@@ -568,7 +584,11 @@ public class AuditLogger extends DeviceExtension {
     public void setSpoolFileNamePrefix(String prefix) {
         if (prefix.length() < 3)
             throw new IllegalArgumentException("Spool file name prefix too short");
+        if (prefix.equals(spoolFileNamePrefix))
+            return;
+
         this.spoolFileNamePrefix = prefix;
+        closeSpool();
     }
 
     public String getSpoolFileNameSuffix() {
@@ -578,7 +598,11 @@ public class AuditLogger extends DeviceExtension {
     public void setSpoolFileNameSuffix(String suffix) {
         if (suffix.isEmpty())
             throw new IllegalArgumentException("Spool file name suffix cannot be empty");
+        if (suffix.equals(spoolFileNameSuffix))
+            return;
+
         this.spoolFileNameSuffix = suffix;
+        closeSpool();
     }
 
     /**
@@ -605,6 +629,66 @@ public class AuditLogger extends DeviceExtension {
         this.retryInterval = interval;
     }
 
+    /**
+     * Get maximal number of messages queued in memory for asynchronous
+     * sending to the record repository or {@code 0} if messages are sent
+     * synchronously by the thread invoking {@link #write(Calendar, AuditMessage)}.
+     *
+     * @return maximal number of messages queued in memory or {@code 0}
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set maximal number of messages queued in memory for asynchronous
+     * sending to the record repository or {@code 0} if messages shall be sent
+     * synchronously by the thread invoking {@link #write(Calendar, AuditMessage)}.
+     * Messages which do not fit into the queue are appended to the spool.
+     *
+     * @param queueSize maximal number of messages queued in memory or {@code 0}
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 0)
+            throw new IllegalArgumentException("queueSize: " + queueSize);
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Get maximal number of messages sent to the record repository by one
+     * write on the connection.
+     *
+     * @return maximal number of messages sent by one write
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize: " + maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get maximal number of messages appended to one spool file.
+     *
+     * @return maximal number of messages per spool file
+     */
+    public int getSpoolSegmentSize() {
+        return spoolSegmentSize;
+    }
+
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        if (spoolSegmentSize <= 0)
+            throw new IllegalArgumentException("spoolSegmentSize: " + spoolSegmentSize);
+        if (spoolSegmentSize == this.spoolSegmentSize)
+            return;
+
+        this.spoolSegmentSize = spoolSegmentSize;
+        closeSpool();
+    }
+
     public void addConnection(Connection conn) {
         if (!conn.getProtocol().isSyslog())
             throw new IllegalArgumentException(
@@ -701,6 +785,9 @@ public class AuditLogger extends DeviceExtension {
         setSpoolFileNamePrefix(from.spoolFileNamePrefix);
         setSpoolFileNameSuffix(from.spoolFileNameSuffix);
         setRetryInterval(from.retryInterval);
+        setQueueSize(from.queueSize);
+        setMaxBatchSize(from.maxBatchSize);
+        setSpoolSegmentSize(from.spoolSegmentSize);
         setAuditLoggerInstalled(from.auditLoggerInstalled);
         setAuditRecordRepositoryDevice(from.auditRecordRepositoryDevice);
         setAuditSuppressCriteriaList(from.suppressAuditMessageFilters);
@@ -724,6 +811,12 @@ public class AuditLogger extends DeviceExtension {
      * the method throws an {@code IOException) if an I/O error occurs sending
      * the message.
      * <p/>
+     * If a {@code QueueSize} is configured, the message is only queued in
+     * memory - or appended to the spool, if the queue is full - and sent
+     * asynchronously, together with other queued messages, by a thread of the
+     * {@code Device}'s executor. Messages which could not be sent are spooled,
+     * if a {@code RetryInterval) is configured, otherwise they are discarded.
+     * <p/>
      * Attention: sending via UDP without getting an I/O error does not ensure
      * that the Audit Record Repository actually received the message!
      *
@@ -732,6 +825,7 @@ public class AuditLogger extends DeviceExtension {
      * @return {@code SendStatus.SUPPRESSED} if the message was suppressed;
      * {@code SendStatus.SENT} if the message was successfully emitted;
      * {@code SendStatus.QUEUED} if the message was spooled for later re-send
+     * or queued for asynchronous sending
      * @throws IllegalStateException           if there is no {@code AuditRecordRepository} associated with
      *                                         this {@code AuditLogger}
      * @throws IncompatibleConnectionException if no {@code Connection) of this {@code AuditLogger} is compatible
@@ -746,26 +840,117 @@ public class AuditLogger extends DeviceExtension {
         if (isAuditMessageSuppressed(msg))
             return SendStatus.SUPPRESSED;
 
-        return sendMessage(builder().createMessage(timeStamp, msg));
+        return writeMessage(builder().createMessage(timeStamp, msg));
     }
 
     public SendStatus write(Calendar timeStamp, Severity severity,
                             byte[] data, int off, int len)
             throws IncompatibleConnectionException, GeneralSecurityException, IOException {
-        return sendMessage(
+        return writeMessage(
                 builder().createMessage(timeStamp, severity, data, off, len));
     }
 
     private MessageBuilder builder() {
+        MessageBuilder builder = this.builder.get();
         if (builder == null)
-            builder = new MessageBuilder();
+            this.builder.set(builder = new MessageBuilder());
 
         return builder;
     }
 
+    private SendStatus writeMessage(DatagramPacket msg)
+            throws IncompatibleConnectionException, GeneralSecurityException, IOException {
+        return queueSize > 0 ? queueMessage(copyOf(msg)) : sendMessage(msg);
+    }
+
+    private static DatagramPacket copyOf(DatagramPacket msg) {
+        int off = msg.getOffset();
+        int len = msg.getLength();
+        return new DatagramPacket(
+                Arrays.copyOfRange(msg.getData(), off, off + len), 0, len);
+    }
+
+    private SendStatus queueMessage(DatagramPacket msg) throws IOException {
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            LOG.debug("Audit message queue full - spool audit message");
+            spoolMessage(msg);
+        } else {
+            queue.offer(msg);
+        }
+        if (draining.compareAndSet(false, true))
+            startDraining();
+        return SendStatus.QUEUED;
+    }
+
+    private void startDraining() {
+        try {
+            getDevice().execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainQueue();
+                }
+            });
+        } catch (RuntimeException e) {
+            draining.set(false);
+            throw e;
+        }
+    }
+
+    private void drainQueue() {
+        List<DatagramPacket> batch = new ArrayList<DatagramPacket>(maxBatchSize);
+        do {
+            try {
+                for (;;) {
+                    if (numberOfSpooledMessages() > 0 && !isRetryScheduled())
+                        sendQueuedMessages();
+                    batch.clear();
+                    DatagramPacket msg;
+                    while (batch.size() < maxBatchSize && (msg = queue.poll()) != null) {
+                        queued.decrementAndGet();
+                        batch.add(msg);
+                    }
+                    if (batch.isEmpty())
+                        break;
+                    sendBatch(batch);
+                }
+            } finally {
+                draining.set(false);
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void sendBatch(List<DatagramPacket> batch) {
+        if (numberOfSpooledMessages() == 0) {
+            try {
+                activeConnection().sendMessages(batch);
+                lastSentTimeInMillis = System.currentTimeMillis();
+                return;
+            } catch (Exception e) {
+                lastException = e;
+                if (retryInterval <= 0) {
+                    LOG.warn("Failed to send {} audit messages - discard messages:",
+                            batch.size(), e);
+                    return;
+                }
+                LOG.info("Failed to send {} audit messages:", batch.size(), e);
+            }
+        }
+        try {
+            spool().append(batch);
+        } catch (IOException e) {
+            LOG.warn("Failed to spool {} audit messages - discard messages:",
+                    batch.size(), e);
+        }
+        scheduleRetry();
+    }
+
     private SendStatus sendMessage(DatagramPacket msg) throws IncompatibleConnectionException,
             GeneralSecurityException, IOException {
-        if (getNumberOfQueuedMessages() > 0) {
+        if (numberOfSpooledMessages() > 0) {
             spoolMessage(msg);
         } else {
             try {
@@ -786,6 +971,10 @@ public class AuditLogger extends DeviceExtension {
         return SendStatus.QUEUED;
     }
 
+    private synchronized boolean isRetryScheduled() {
+        return retryTimer != null;
+    }
+
     private synchronized void scheduleRetry() {
         if (retryTimer != null || retryInterval <= 0) {
             return;
@@ -805,76 +994,89 @@ public class AuditLogger extends DeviceExtension {
                 retryInterval, TimeUnit.SECONDS);
     }
 
-    private void spoolMessage(DatagramPacket msg) throws IOException {
-        if (spoolDirectory != null)
-            spoolDirectory.mkdirs();
-
-        File f = null;
-        try {
-            f = File.createTempFile(spoolFileNamePrefix, spoolFileNameSuffix, spoolDirectory);
+    private synchronized AuditMessageSpool spool() {
+        if (spool == null) {
             if (spoolDirectory == null)
-                spoolDirectory = f.getParentFile();
+                spoolDirectory = new File(System.getProperty("java.io.tmpdir"));
+            spool = new AuditMessageSpool(spoolDirectory,
+                    spoolFileNamePrefix, spoolFileNameSuffix, spoolSegmentSize);
+        }
+        return spool;
+    }
 
-            LOG.info("Spool audit message to {}", f);
-            FileOutputStream out = new FileOutputStream(f);
-            try {
-                out.write(msg.getData(), msg.getOffset(), msg.getLength());
-            } finally {
-                SafeClose.close(out);
+    private synchronized void closeSpool() {
+        if (spool != null) {
+            spool.close();
+            spool = null;
+        }
+    }
+
+    private int numberOfSpooledMessages() {
+        AuditMessageSpool spool;
+        synchronized (this) {
+            spool = this.spool;
+            if (spool == null) {
+                if (spoolDirectory == null)
+                    return 0;
+                spool = spool();
             }
-            f = null;
+        }
+        return spool.size();
+    }
+
+    private void spoolMessage(DatagramPacket msg) throws IOException {
+        try {
+            spool().append(msg);
         } catch (IOException e) {
             throw new IOException("Failed to spool audit message", e);
-        } finally {
-            if (f != null)
-                f.delete();
         }
     }
 
     public void sendQueuedMessages() {
-        File dir = spoolDirectory;
-        if (dir == null)
+        if (spoolDirectory == null)
             return;
 
+        if (!sendQueuedMessagesLock.tryLock()) {
+            LOG.debug("Sending of queued audit messages already in progress");
+            return;
+        }
         try {
-            File[] queuedMessages = dir.listFiles(FILENAME_FILTER);
-            byte[] b = null;
-            while (queuedMessages != null && queuedMessages.length > 0) {
-                Arrays.sort(queuedMessages, FILE_COMPARATOR);
+            AuditMessageSpool spool = spool();
+            File[] queuedMessages;
+            while (spool.size() > 0
+                    && (queuedMessages = spool.closeAndListSegments()).length > 0) {
                 for (File file : queuedMessages) {
-                    LOG.debug("Read audit message from {}", file);
-                    int len = (int) file.length();
-                    if (b == null || b.length < len)
-                        b = new byte[len];
+                    LOG.debug("Read audit messages from {}", file);
+                    List<DatagramPacket> msgs;
                     try {
-                        FileInputStream in = new FileInputStream(file);
-                        try {
-                            StreamUtils.readFully(in, b, 0, len);
-                        } finally {
-                            SafeClose.close(in);
-                        }
+                        msgs = spool.read(file);
                     } catch (IOException e) {
-                        LOG.warn("Failed to read audit message from {}", file, e);
-                        File dest = new File(file.getParent(), file.getPath() + ".err");
-                        file.renameTo(dest);
+                        LOG.warn("Failed to read audit messages from {}", file, e);
+                        spool.discard(file);
                         continue;
                     }
-                    activeConnection().sendMessage(new DatagramPacket(b, 0, len));
-                    lastSentTimeInMillis = System.currentTimeMillis();
-                    if (file.delete())
-                        LOG.debug("Delete spool file {}", file);
-                    else
-                        LOG.warn("Failed to delete spool file {}", file);
+                    int sent = 0;
+                    try {
+                        while (sent < msgs.size()) {
+                            int end = Math.min(sent + maxBatchSize, msgs.size());
+                            activeConnection().sendMessages(msgs.subList(sent, end));
+                            lastSentTimeInMillis = System.currentTimeMillis();
+                            sent = end;
+                        }
+                    } finally {
+                        spool.remove(file, msgs, sent);
+                    }
                 }
-                queuedMessages = dir.listFiles(FILENAME_FILTER);
             }
         } catch (Exception e) {
             lastException = e;
             LOG.info("Failed to send audit message:", e);
             scheduleRetry();
+        } finally {
+            sendQueuedMessagesLock.unlock();
         }
         synchronized (this) {
-            notify();
+            notifyAll();
         }
     }
 
@@ -886,12 +1088,14 @@ public class AuditLogger extends DeviceExtension {
         return lastSentTimeInMillis;
     }
 
+    /**
+     * Get number of messages queued in memory for asynchronous sending and
+     * spooled for later re-send.
+     *
+     * @return number of queued messages
+     */
     public int getNumberOfQueuedMessages() {
-        try {
-            return spoolDirectory.list(FILENAME_FILTER).length;
-        } catch (NullPointerException e) {
-            return 0;
-        }
+        return queued.get() + numberOfSpooledMessages();
     }
 
     public File[] getQueuedMessages() {
@@ -1002,7 +1206,7 @@ public class AuditLogger extends DeviceExtension {
             try {
                 reset();
                 writeHeader(severityOf(msg), timeStamp);
-                AuditMessages.toXML(msg, builder, formatXML, encoding, schemaURI);
+                AuditMessages.toXML(msg, this, formatXML, encoding, schemaURI);
             } catch (IOException e) {
                 assert false : e;
             }
@@ -1135,7 +1339,12 @@ public class AuditLogger extends DeviceExtension {
             this.remoteConn = remoteConn;
         }
 
-        abstract void sendMessage(DatagramPacket msg) throws IOException,
+        void sendMessage(DatagramPacket msg) throws IOException,
+                IncompatibleConnectionException, GeneralSecurityException {
+            sendMessages(Collections.singletonList(msg));
+        }
+
+        abstract void sendMessages(List<DatagramPacket> msgs) throws IOException,
                 IncompatibleConnectionException, GeneralSecurityException;
 
     }
@@ -1148,16 +1357,18 @@ public class AuditLogger extends DeviceExtension {
         }
 
         @Override
-        void sendMessage(DatagramPacket msg) throws IOException {
+        synchronized void sendMessages(List<DatagramPacket> msgs) throws IOException {
             if (ds == null)
                 ds = conn.createDatagramSocket();
 
             InetSocketAddress endPoint = remoteConn.getEndPoint();
-            LOG.info("Send audit message to {}", endPoint);
-            if (LOG.isDebugEnabled())
-                LOG.debug(AuditLogger.toString(msg));
-            msg.setSocketAddress(endPoint);
-            ds.send(msg);
+            for (DatagramPacket msg : msgs) {
+                LOG.info("Send audit message to {}", endPoint);
+                if (LOG.isDebugEnabled())
+                    LOG.debug(AuditLogger.toString(msg));
+                msg.setSocketAddress(endPoint);
+                ds.send(msg);
+            }
         }
 
         @Override
@@ -1172,6 +1383,7 @@ public class AuditLogger extends DeviceExtension {
 
     private class TCPConnection extends ActiveConnection {
         Socket sock;
+        CountingOutputStream sockOut;
         OutputStream out;
         ScheduledFuture<?> idleTimer;
 
@@ -1183,34 +1395,56 @@ public class AuditLogger extends DeviceExtension {
                 IncompatibleConnectionException, GeneralSecurityException {
             if (sock == null) {
                 sock = conn.connect(remoteConn);
-                out = sock.getOutputStream();
+                sockOut = new CountingOutputStream(sock.getOutputStream());
+                out = new BufferedOutputStream(sockOut);
             }
         }
 
         @Override
-        synchronized void sendMessage(DatagramPacket packet) throws IOException,
+        synchronized void sendMessages(List<DatagramPacket> packets) throws IOException,
                 IncompatibleConnectionException, GeneralSecurityException {
             stopIdleTimer();
             connect();
+            long startCount = sockOut.count;
             try {
-                trySendMessage(packet);
+                trySendMessages(packets);
             } catch (IOException e) {
+                // resume with the first message not completely written
+                // to the socket, to avoid sending messages twice
+                int sent = completelyWritten(packets, sockOut.count - startCount);
                 LOG.info("Failed to send audit message to {} - reconnect",
                         sock, e);
                 close();
                 connect();
-                trySendMessage(packet);
+                trySendMessages(packets.subList(sent, packets.size()));
             }
             startIdleTimer();
         }
 
-        void trySendMessage(DatagramPacket packet) throws IOException {
-            LOG.info("Send audit message to {}", sock);
-            if (LOG.isDebugEnabled())
-                LOG.debug(AuditLogger.toString(packet));
-            out.write(Integer.toString(packet.getLength()).getBytes(encoding));
-            out.write(' ');
-            out.write(packet.getData(), packet.getOffset(), packet.getLength());
+        private int completelyWritten(List<DatagramPacket> packets, long written) {
+            int n = 0;
+            for (DatagramPacket packet : packets) {
+                int len = packet.getLength();
+                written -= Integer.toString(len).length() + 1 + len;
+                if (written < 0)
+                    break;
+                n++;
+            }
+            return n;
+        }
+
+        void trySendMessages(List<DatagramPacket> packets) throws IOException {
+            if (packets.size() == 1)
+                LOG.info("Send audit message to {}", sock);
+            else
+                LOG.info("Send {} audit messages to {}", packets.size(), sock);
+            for (DatagramPacket packet : packets) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug(AuditLogger.toString(packet));
+                out.write(Integer.toString(packet.getLength()).getBytes(encoding));
+                out.write(' ');
+                out.write(packet.getData(), packet.getOffset(), packet.getLength());
+            }
             out.flush();
         }
 
@@ -1252,6 +1486,7 @@ public class AuditLogger extends DeviceExtension {
             if (sock != null)
                 conn.close(sock);
             sock = null;
+            sockOut = null;
             out = null;
         }
 
@@ -1270,4 +1505,24 @@ public class AuditLogger extends DeviceExtension {
 
     }
 
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
 }
@@ -0,0 +1,316 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4che3.net.audit;
+
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only spool of audit messages which could not be sent to the
+ * Audit Record Repository. Messages are appended to segment files, each
+ * message framed by its length in octets followed by a space, as in
+ * Syslog over TCP (RFC 6587). A segment is closed after
+ * {@code segmentSize} messages or before it is read for re-send. Spool
+ * files containing one message without length prefix, written by previous
+ * versions, are still accepted.
+ * <p/>
+ * The number of spooled messages is kept in memory, and only initialized
+ * from the content of the spool directory on creation.
+ *
+ * @author agent <agent@local>
+ */
+class AuditMessageSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditMessageSpool.class);
+
+    private static final Comparator<File> FILE_COMPARATOR = new Comparator<File>() {
+        @Override
+        public int compare(File o1, File o2) {
+            long diff = o1.lastModified() - o2.lastModified();
+            return diff < 0 ? -1 : diff > 0 ? 1 : o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final File dir;
+    private final String prefix;
+    private final String suffix;
+    private final int segmentSize;
+    private final FilenameFilter filter;
+    private final AtomicInteger count = new AtomicInteger();
+    private final Set<File> corrupted =
+            Collections.synchronizedSet(new HashSet<File>());
+    private int segmentSeq;
+    private File segment;
+    private OutputStream out;
+    private int segmentCount;
+
+    AuditMessageSpool(File dir, String prefix, String suffix, int segmentSize) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.segmentSize = segmentSize;
+        this.filter = new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(AuditMessageSpool.this.prefix)
+                        && name.endsWith(AuditMessageSpool.this.suffix);
+            }
+        };
+        count.set(countSpooledMessages());
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public synchronized void append(DatagramPacket msg) throws IOException {
+        append(Collections.singletonList(msg));
+    }
+
+    public synchronized void append(Collection<DatagramPacket> msgs)
+            throws IOException {
+        try {
+            for (DatagramPacket msg : msgs) {
+                if (out == null)
+                    openSegment();
+                out.write(Integer.toString(msg.getLength()).getBytes("US-ASCII"));
+                out.write(' ');
+                out.write(msg.getData(), msg.getOffset(), msg.getLength());
+                count.incrementAndGet();
+                if (++segmentCount >= segmentSize)
+                    closeSegment();
+            }
+            if (out != null)
+                out.flush();
+        } catch (IOException e) {
+            closeSegment();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the current segment and return all spool files, sorted by
+     * modification time.
+     *
+     * @return spool files, sorted by modification time
+     */
+    public synchronized File[] closeAndListSegments() {
+        closeSegment();
+        File[] files = dir.listFiles(filter);
+        if (files == null)
+            return new File[0];
+
+        Arrays.sort(files, FILE_COMPARATOR);
+        return files;
+    }
+
+    /**
+     * Read messages from closed spool file.
+     *
+     * @param file spool file returned by {@link #closeAndListSegments()}
+     * @return messages contained in the spool file
+     * @throws IOException if an I/O error occurs reading the file
+     */
+    public List<DatagramPacket> read(File file) throws IOException {
+        int len = (int) file.length();
+        byte[] b = new byte[len];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            StreamUtils.readFully(in, b, 0, len);
+        } finally {
+            SafeClose.close(in);
+        }
+        return parse(file, b, len);
+    }
+
+    /**
+     * Remove {@code sent} messages from the spool file. If not all messages
+     * of the file were sent, the remaining messages are rewritten to the file.
+     * Spool files without messages are deleted; if the spool file was empty
+     * or contained corrupted content, the spooled messages are recounted.
+     *
+     * @param file spool file returned by {@link #closeAndListSegments()}
+     * @param msgs messages read from the spool file
+     * @param sent number of sent messages
+     * @throws IOException if an I/O error occurs rewriting the file
+     */
+    public void remove(File file, List<DatagramPacket> msgs, int sent)
+            throws IOException {
+        boolean recount = corrupted.remove(file) || msgs.isEmpty();
+        if (sent == 0 && !recount)
+            return;
+
+        try {
+            if (sent == msgs.size()) {
+                if (file.delete())
+                    LOG.debug("Delete spool file {}", file);
+                else
+                    LOG.warn("Failed to delete spool file {}", file);
+                return;
+            }
+            LOG.debug("Remove {} sent messages from spool file {}", sent, file);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                for (DatagramPacket msg : msgs.subList(sent, msgs.size())) {
+                    out.write(Integer.toString(msg.getLength()).getBytes("US-ASCII"));
+                    out.write(' ');
+                    out.write(msg.getData(), msg.getOffset(), msg.getLength());
+                }
+            } finally {
+                SafeClose.close(out);
+            }
+        } finally {
+            if (recount)
+                recount();
+            else
+                count.addAndGet(-sent);
+        }
+    }
+
+    /**
+     * Rename a spool file which could not be read to {@code <file>.err} and
+     * recount the spooled messages.
+     *
+     * @param file spool file which could not be read
+     */
+    public synchronized void discard(File file) {
+        File dest = new File(file.getParent(), file.getName() + ".err");
+        file.renameTo(dest);
+        corrupted.remove(file);
+        count.set(countSpooledMessages());
+    }
+
+    private synchronized void recount() {
+        count.set(countSpooledMessages());
+    }
+
+    @Override
+    public synchronized void close() {
+        closeSegment();
+    }
+
+    private void openSegment() throws IOException {
+        dir.mkdirs();
+        File f;
+        do {
+            f = new File(dir, prefix + System.currentTimeMillis() + '-'
+                    + (segmentSeq++) + suffix);
+        } while (!f.createNewFile());
+        LOG.info("Spool audit messages to {}", f);
+        out = new BufferedOutputStream(new FileOutputStream(f, true));
+        segment = f;
+        segmentCount = 0;
+    }
+
+    private void closeSegment() {
+        if (out != null) {
+            LOG.debug("Close spool file {}", segment);
+            SafeClose.close(out);
+            out = null;
+            segment = null;
+        }
+    }
+
+    private int countSpooledMessages() {
+        File[] files = dir.listFiles(filter);
+        if (files == null)
+            return 0;
+
+        int n = 0;
+        for (File file : files) {
+            if (file.equals(segment)) {
+                n += segmentCount;
+                continue;
+            }
+            try {
+                n += read(file).size();
+            } catch (IOException e) {
+                LOG.warn("Failed to read audit messages from {}", file, e);
+            }
+        }
+        return n;
+    }
+
+    private List<DatagramPacket> parse(File file, byte[] b, int len) {
+        if (len == 0)
+            return Collections.emptyList();
+
+        if (b[0] == '<')
+            return Collections.singletonList(new DatagramPacket(b, 0, len));
+
+        List<DatagramPacket> msgs = new ArrayList<DatagramPacket>();
+        int off = 0;
+        while (off < len) {
+            int msgLen = 0;
+            int c;
+            while (off < len && (c = b[off++]) != ' ') {
+                if (c < '0' || c > '9') {
+                    LOG.warn("Ignore corrupted content of spool file {} at position {}",
+                            file, off - 1);
+                    corrupted.add(file);
+                    return msgs;
+                }
+                msgLen = msgLen * 10 + (c - '0');
+            }
+            if (off + msgLen > len) {
+                LOG.warn("Ignore truncated message at end of spool file {}", file);
+                corrupted.add(file);
+                return msgs;
+            }
+            msgs.add(new DatagramPacket(b, off, msgLen));
+            off += msgLen;
+        }
+        return msgs;
+    }
+}
@@ -0,0 +1,184 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.audit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class AuditMessageSpoolTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("audit", null);
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 2);
+        spool.append(packet("<1>one"));
+        spool.append(Arrays.asList(packet("<2>two"), packet("<3>three 3")));
+        assertEquals(3, spool.size());
+        File[] files = spool.closeAndListSegments();
+        assertEquals(2, files.length);
+        assertMessages(spool.read(files[0]), "<1>one", "<2>two");
+        assertMessages(spool.read(files[1]), "<3>three 3");
+        assertEquals(3, new AuditMessageSpool(dir, "audit", ".log", 2).size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 10);
+        spool.append(Arrays.asList(
+                packet("<1>one"), packet("<2>two"), packet("<3>three")));
+        File file = spool.closeAndListSegments()[0];
+        List<DatagramPacket> msgs = spool.read(file);
+        spool.remove(file, msgs, 0);
+        assertEquals(3, spool.size());
+        spool.remove(file, msgs, 2);
+        assertEquals(1, spool.size());
+        assertMessages(spool.read(file), "<3>three");
+        msgs = spool.read(file);
+        spool.remove(file, msgs, 1);
+        assertEquals(0, spool.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testRemoveEmptySegment() throws Exception {
+        write("audit1.log", "");
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 10);
+        spool.append(packet("<1>one"));
+        File[] files = spool.closeAndListSegments();
+        assertEquals(2, files.length);
+        for (File file : files)
+            spool.remove(file, spool.read(file), 0);
+        assertEquals(1, spool.size());
+        assertEquals(1, spool.closeAndListSegments().length);
+    }
+
+    @Test
+    public void testRemoveCorruptedSegment() throws Exception {
+        File file = write("audit1.log", "6 <1>one6 <2>two99 <3>");
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 10);
+        assertEquals(2, spool.size());
+        spool.closeAndListSegments();
+        List<DatagramPacket> msgs = spool.read(file);
+        assertMessages(msgs, "<1>one", "<2>two");
+        spool.remove(file, msgs, 1);
+        assertEquals(1, spool.size());
+        assertMessages(spool.read(file), "<2>two");
+        spool.remove(file, spool.read(file), 1);
+        assertEquals(0, spool.size());
+        assertEquals(0, spool.closeAndListSegments().length);
+    }
+
+    @Test
+    public void testCorrectCountAfterCorruption() throws Exception {
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 10);
+        spool.append(Arrays.asList(packet("<1>one"), packet("<2>two")));
+        File file = spool.closeAndListSegments()[0];
+        // corrupt the segment after the messages were counted
+        write(file.getName(), "6 <1>one#");
+        List<DatagramPacket> msgs = spool.read(file);
+        assertMessages(msgs, "<1>one");
+        spool.remove(file, msgs, 1);
+        assertFalse(file.exists());
+        assertEquals(0, spool.size());
+    }
+
+    @Test
+    public void testLegacyFormat() throws Exception {
+        File file = write("audit1.log", "<1>one two");
+        AuditMessageSpool spool = new AuditMessageSpool(dir, "audit", ".log", 10);
+        assertEquals(1, spool.size());
+        assertMessages(spool.read(file), "<1>one two");
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static DatagramPacket packet(String s) throws IOException {
+        byte[] b = s.getBytes("US-ASCII");
+        return new DatagramPacket(b, b.length);
+    }
+
+    private static void assertMessages(List<DatagramPacket> msgs, String... expected)
+            throws IOException {
+        assertEquals(expected.length, msgs.size());
+        for (int i = 0; i < expected.length; i++) {
+            DatagramPacket msg = msgs.get(i);
+            assertEquals(expected[i], new String(msg.getData(), msg.getOffset(),
+                    msg.getLength(), "US-ASCII"));
+        }
+    }
+}
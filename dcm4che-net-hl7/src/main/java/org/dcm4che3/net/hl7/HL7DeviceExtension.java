@@ -70,8 +70,19 @@ public class HL7DeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name="hl7Apps", label = "HL7 Applications")
     private Map<String, HL7Application> hl7apps = new LinkedHashMap<String, HL7Application>();
 
+    @ConfigurableProperty(name = "hl7MaxWorkerThreads", defaultValue = "0")
+    private int maxWorkerThreads;
+
+    @ConfigurableProperty(name = "hl7MaxPipelinedMessages", defaultValue = "16")
+    private int maxPipelinedMessages = 16;
+
+    @ConfigurableProperty(name = "hl7OrderBySendingApplication", defaultValue = "false")
+    private boolean orderBySendingApplication;
+
     private transient HL7MessageListener hl7MessageListener;
 
+    private transient final HL7MessageDispatcher hl7MessageDispatcher =
+            new HL7MessageDispatcher(this);
 
     public Map<String, HL7Application> getHl7apps() {
         return hl7apps;
@@ -129,6 +140,78 @@ public class HL7DeviceExtension extends DeviceExtension {
         return hl7apps.values();
     }
 
+    public final int getMaxWorkerThreads() {
+        return maxWorkerThreads;
+    }
+
+    /**
+     * Set the maximal number of threads processing HL7 messages received
+     * over connections accepted by a selector based listener - if
+     * {@link Connection#getSelectorThreads()} > 0. If {@code 0}, messages are
+     * processed by threads of the Device executor. This is the default.
+     * 
+     * @param maxWorkerThreads
+     *            maximal number of HL7 worker threads
+     * @see #getHL7MessageDispatcher()
+     */
+    public final void setMaxWorkerThreads(int maxWorkerThreads) {
+        if (maxWorkerThreads < 0)
+            throw new IllegalArgumentException("maxWorkerThreads: "
+                    + maxWorkerThreads);
+
+        hl7MessageDispatcher.setMaxWorkerThreads(maxWorkerThreads);
+        this.maxWorkerThreads = maxWorkerThreads;
+    }
+
+    public final int getMaxPipelinedMessages() {
+        return maxPipelinedMessages;
+    }
+
+    /**
+     * Set the maximal number of messages received over one connection
+     * accepted by a selector based listener, which are processed before
+     * the acknowledgement of the first one was sent. Default: 16.
+     * 
+     * @param maxPipelinedMessages
+     *            maximal number of pipelined messages per connection
+     */
+    public final void setMaxPipelinedMessages(int maxPipelinedMessages) {
+        if (maxPipelinedMessages <= 0)
+            throw new IllegalArgumentException("maxPipelinedMessages: "
+                    + maxPipelinedMessages);
+
+        this.maxPipelinedMessages = maxPipelinedMessages;
+    }
+
+    public final boolean isOrderBySendingApplication() {
+        return orderBySendingApplication;
+    }
+
+    /**
+     * Set if HL7 messages received over connections accepted by a selector
+     * based listener from the same Sending Application are processed in
+     * the order of their receipt, also if they are received over different
+     * connections. Otherwise, the order is only kept for messages received
+     * over the same connection. Messages from different Sending
+     * Applications or connections are processed in parallel.
+     * 
+     * @param orderBySendingApplication
+     *            {@code true} to keep the order per Sending Application
+     */
+    public final void setOrderBySendingApplication(
+            boolean orderBySendingApplication) {
+        this.orderBySendingApplication = orderBySendingApplication;
+    }
+
+    /**
+     * Returns the dispatcher of HL7 messages received over connections
+     * accepted by a selector based listener, providing queue depth and
+     * latency metrics.
+     */
+    public final HL7MessageDispatcher getHL7MessageDispatcher() {
+        return hl7MessageDispatcher;
+    }
+
     public final HL7MessageListener getHL7MessageListener() {
         return hl7MessageListener;
     }
@@ -147,7 +230,11 @@ public class HL7DeviceExtension extends DeviceExtension {
 
     @Override
     public void reconfigure(DeviceExtension from)  {
-        reconfigureHL7Applications((HL7DeviceExtension) from);
+        HL7DeviceExtension hl7Ext = (HL7DeviceExtension) from;
+        reconfigureHL7Applications(hl7Ext);
+        setMaxWorkerThreads(hl7Ext.maxWorkerThreads);
+        setMaxPipelinedMessages(hl7Ext.maxPipelinedMessages);
+        setOrderBySendingApplication(hl7Ext.orderBySendingApplication);
     }
 
     private void reconfigureHL7Applications(HL7DeviceExtension from) {
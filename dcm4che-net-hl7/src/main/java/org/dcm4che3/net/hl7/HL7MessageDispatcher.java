@@ -0,0 +1,276 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dcm4che3.net.Device;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches HL7 messages received over connections accepted by a selector
+ * based listener to worker threads. Messages with the same ordering key -
+ * the receiving connection or the sending application - are processed one
+ * after the other in the order of their receipt; messages with different
+ * keys are processed in parallel. The work queue of the worker threads is
+ * bounded to {@code maxWorkerThreads * maxPipelinedMessages} entries;
+ * entries exceeding that limit are passed to the Device executor.
+ * Provides the number of queued messages and latency metrics per message
+ * type.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class HL7MessageDispatcher {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(HL7MessageDispatcher.class);
+
+    private final HL7DeviceExtension ext;
+    private final Map<Object, SerialQueue> queues =
+            new HashMap<Object, SerialQueue>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final ConcurrentMap<String, Statistics> statistics =
+            new ConcurrentHashMap<String, Statistics>();
+    private volatile ThreadPoolExecutor workers;
+
+    HL7MessageDispatcher(HL7DeviceExtension ext) {
+        this.ext = ext;
+    }
+
+    void setMaxWorkerThreads(int maxWorkerThreads) {
+        ThreadPoolExecutor pool = workers;
+        if (maxWorkerThreads == 0) {
+            workers = null;
+            if (pool != null)
+                pool.shutdown();
+        } else if (pool == null) {
+            workers = createWorkers(maxWorkerThreads,
+                    maxWorkerThreads * ext.getMaxPipelinedMessages());
+        } else if (maxWorkerThreads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(maxWorkerThreads);
+            pool.setCorePoolSize(maxWorkerThreads);
+        } else {
+            pool.setCorePoolSize(maxWorkerThreads);
+            pool.setMaximumPoolSize(maxWorkerThreads);
+        }
+    }
+
+    private ThreadPoolExecutor createWorkers(int maxWorkerThreads,
+            int queueCapacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                maxWorkerThreads, maxWorkerThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "HL7-Worker-"
+                                + threadNumber.incrementAndGet());
+                    }
+                },
+                new RejectedExecutionHandler() {
+
+                    @Override
+                    public void rejectedExecution(Runnable r,
+                            ThreadPoolExecutor executor) {
+                        // neither block nor run on the selector thread
+                        ext.getDevice().execute(r);
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private Executor executor() {
+        Executor pool = workers;
+        if (pool != null)
+            return pool;
+
+        final Device device = ext.getDevice();
+        return new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                device.execute(command);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of received messages, which processing was not
+     * yet started.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the latency metrics - measured from the receipt of the message
+     * until its acknowledgment was sent - by message type.
+     */
+    public Map<String, Statistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    public void resetStatistics() {
+        statistics.clear();
+    }
+
+    void execute(Object key, Runnable task) {
+        queueDepth.incrementAndGet();
+        SerialQueue queue;
+        synchronized (queues) {
+            queue = queues.get(key);
+            if (queue == null)
+                queues.put(key, queue = new SerialQueue(key));
+            queue.tasks.add(task);
+            if (queue.running)
+                return;
+            queue.running = true;
+        }
+        executor().execute(queue);
+    }
+
+    void onAcknowledged(String messageType, long receivedNanos) {
+        long latency = System.nanoTime() - receivedNanos;
+        Statistics stats = statistics.get(messageType);
+        if (stats == null) {
+            Statistics newStats = new Statistics();
+            stats = statistics.putIfAbsent(messageType, newStats);
+            if (stats == null)
+                stats = newStats;
+        }
+        stats.add(latency);
+    }
+
+    private final class SerialQueue implements Runnable {
+
+        final Object key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        boolean running;
+
+        SerialQueue(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (queues) {
+                task = tasks.poll();
+            }
+            queueDepth.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                LOG.warn("Failed to process HL7 message:", e);
+            }
+            synchronized (queues) {
+                if (tasks.isEmpty()) {
+                    running = false;
+                    queues.remove(key);
+                    return;
+                }
+            }
+            // yield to messages with other keys
+            executor().execute(this);
+        }
+    }
+
+    /**
+     * Latency metrics of one message type.
+     */
+    public static class Statistics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void add(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get())
+                    && !maxNanos.compareAndSet(max, nanos))
+                ;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalLatency(TimeUnit unit) {
+            return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        public long getAverageLatency(TimeUnit unit) {
+            long n = count.get();
+            return n > 0 ? unit.convert(totalNanos.get() / n, TimeUnit.NANOSECONDS) : 0;
+        }
+
+        public long getMaxLatency(TimeUnit unit) {
+            return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics[count=" + count
+                    + ", avg=" + getAverageLatency(TimeUnit.MICROSECONDS)
+                    + "us, max=" + getMaxLatency(TimeUnit.MICROSECONDS)
+                    + "us]";
+        }
+    }
+}
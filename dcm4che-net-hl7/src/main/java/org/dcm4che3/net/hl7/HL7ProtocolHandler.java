@@ -47,13 +47,14 @@ import org.dcm4che3.hl7.HL7Message;
 import org.dcm4che3.hl7.HL7Segment;
 import org.dcm4che3.hl7.MLLPConnection;
 import org.dcm4che3.net.Connection;
-import org.dcm4che3.net.TCPProtocolHandler;
+import org.dcm4che3.net.NIOProtocolHandler;
+import org.dcm4che3.net.NIOTransport;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
-enum HL7ProtocolHandler implements TCPProtocolHandler {
+enum HL7ProtocolHandler implements NIOProtocolHandler {
     INSTANCE;
 
     @Override
@@ -75,4 +76,12 @@ enum HL7ProtocolHandler implements TCPProtocolHandler {
         }
         conn.close(s);
     }
+
+    @Override
+    public void onAccept(Connection conn, NIOTransport transport)
+            throws IOException {
+        new MLLPSession(conn, transport,
+                conn.getDevice().getDeviceExtension(HL7DeviceExtension.class))
+                .start();
+    }
 }
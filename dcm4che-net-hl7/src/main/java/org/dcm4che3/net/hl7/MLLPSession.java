@@ -0,0 +1,347 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParsePosition;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.hl7.HL7Exception;
+import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7Segment;
+import org.dcm4che3.hl7.MLLPOutputStream;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.NIOTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MLLP connection accepted by a selector based listener. Received bytes are
+ * decoded into messages by the selector thread, without occupying a thread
+ * while waiting for input. Up to
+ * {@link HL7DeviceExtension#getMaxPipelinedMessages()} received messages
+ * are passed to the {@link HL7MessageDispatcher} before the acknowledgement
+ * of the first one was sent; acknowledgements are sent in the order of the
+ * receipt of the messages.
+ *
+ * @author agent <agent@local>
+ *
+ */
+class MLLPSession implements NIOTransport.Handler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MLLPSession.class);
+
+    private static final int SOM = 0x0b; // Start of Message
+    private static final int EOM1 = 0x1c; // End of Message Byte 1
+    private static final int EOM2 = 0x0d; // End of Message Byte 2
+    private static final int MAX_RETAINED_BUFFER_SIZE = 0x10000;
+
+    private enum State { EXPECT_SOM, IN_MESSAGE, EXPECT_EOM2 }
+
+    private final Connection conn;
+    private final NIOTransport transport;
+    private final HL7DeviceExtension ext;
+    private final HL7MessageDispatcher dispatcher;
+    private final InputStream in;
+    private final MLLPOutputStream out;
+    private final byte[] readBuffer = new byte[8192];
+    private int readPos;
+    private int readLen;
+    private ByteArrayOutputStream message = new ByteArrayOutputStream();
+    private final ArrayDeque<Received> pending = new ArrayDeque<Received>();
+    private State state = State.EXPECT_SOM;
+    private boolean writing;
+    private boolean closed;
+    private ScheduledFuture<?> idleTimeout;
+
+    MLLPSession(Connection conn, NIOTransport transport, HL7DeviceExtension ext) {
+        this.conn = conn;
+        this.transport = transport;
+        this.ext = ext;
+        this.dispatcher = ext.getHL7MessageDispatcher();
+        this.in = transport.getInputStream();
+        this.out = new MLLPOutputStream(new BufferedOutputStream(
+                transport.getOutputStream(), 8192));
+    }
+
+    void start() {
+        startIdleTimeout();
+        transport.start(this);
+    }
+
+    @Override
+    public void onInput(NIOTransport transport) {
+        boolean close;
+        synchronized (this) {
+            if (closed)
+                return;
+            try {
+                readMessages();
+            } catch (IOException e) {
+                LOG.warn("{}: {}", transport, e.getMessage());
+                closed = true;
+            } catch (IllegalArgumentException e) {
+                LOG.warn("{}: {}", transport, e.getMessage());
+                closed = true;
+            }
+            close = closed || transport.isInputShutdown()
+                    && transport.available() == 0 && readPos == readLen
+                    && pending.isEmpty() && !writing;
+            closed = close;
+        }
+        if (close)
+            close();
+    }
+
+    private void readMessages() throws IOException {
+        int maxPipelinedMessages = ext.getMaxPipelinedMessages();
+        int avail;
+        while (pending.size() < maxPipelinedMessages) {
+            if (readPos == readLen) {
+                if ((avail = transport.available()) <= 0)
+                    break;
+                int n = in.read(readBuffer, 0, Math.min(avail, readBuffer.length));
+                if (n <= 0)
+                    break;
+                readPos = 0;
+                readLen = n;
+            }
+            readPos = decode(readBuffer, readPos, readLen, maxPipelinedMessages);
+        }
+        if (transport.isInputShutdown() && transport.available() == 0
+                && readPos == readLen && state != State.EXPECT_SOM)
+            throw new IOException("Connection closed within message");
+    }
+
+    /**
+     * Decodes bytes {@code off} to {@code len} of {@code b}, stopping after
+     * the message reaching the pipelining limit; returns the position of the
+     * first byte not decoded, which is retained for the next invocation.
+     */
+    private int decode(byte[] b, int off, int len, int maxPipelinedMessages)
+            throws IOException {
+        int i = off;
+        while (i < len) {
+            switch (state) {
+            case EXPECT_SOM:
+                if (b[i++] != SOM)
+                    throw new IOException("Missing Start Block character");
+                state = State.IN_MESSAGE;
+                break;
+            case IN_MESSAGE:
+                int start = i;
+                while (i < len && b[i] != EOM1)
+                    i++;
+                message.write(b, start, i - start);
+                if (i < len) {
+                    i++;
+                    state = State.EXPECT_EOM2;
+                }
+                break;
+            case EXPECT_EOM2:
+                int c = b[i++] & 0xff;
+                if (c != EOM2)
+                    throw new IOException("1CH followed by "
+                            + Integer.toHexString(c) + "H instead by 0DH");
+                onMessage(message.toByteArray());
+                if (message.size() > MAX_RETAINED_BUFFER_SIZE)
+                    message = new ByteArrayOutputStream();
+                else
+                    message.reset();
+                state = State.EXPECT_SOM;
+                if (pending.size() >= maxPipelinedMessages)
+                    return i;
+                break;
+            }
+        }
+        return i;
+    }
+
+    private void onMessage(byte[] msg) {
+        ParsePosition pos = new ParsePosition(0);
+        HL7Segment msh = HL7Segment.parseMSH(msg, msg.length, pos);
+        log("{} >> {}", msg, pos.getIndex());
+        startIdleTimeout();
+        final Received received = new Received(msg, msh, pos.getIndex());
+        pending.add(received);
+        dispatcher.execute(
+                ext.isOrderBySendingApplication()
+                        ? msh.getSendingApplicationWithFacility()
+                        : this,
+                new Runnable() {
+
+                    @Override
+                    public void run() {
+                        process(received);
+                    }
+                });
+    }
+
+    private void process(Received received) {
+        HL7Segment msh = received.msh;
+        byte[] rsp;
+        try {
+            rsp = ext.onMessage(msh, received.msg, 0, received.msg.length,
+                    received.mshlen, conn, transport.getSocket());
+        } catch (HL7Exception e) {
+            rsp = HL7Message.makeACK(msh, e.getAcknowledgmentCode(),
+                    e.getErrorMessage()).getBytes(null);
+        } catch (RuntimeException e) {
+            LOG.warn("{}: Failed to process HL7 message:", transport, e);
+            rsp = HL7Message.makeACK(msh, HL7Exception.AE, e.getMessage())
+                    .getBytes(null);
+        }
+        synchronized (this) {
+            received.rsp = rsp;
+        }
+        writeAcknowledgements();
+    }
+
+    private void writeAcknowledgements() {
+        ArrayList<Received> acks = new ArrayList<Received>();
+        for (;;) {
+            synchronized (this) {
+                if (writing)
+                    return;
+                Received head;
+                while ((head = pending.peek()) != null && head.rsp != null)
+                    acks.add(pending.poll());
+                if (acks.isEmpty())
+                    break;
+                writing = true;
+            }
+            try {
+                for (Received ack : acks) {
+                    if (!transport.isClosed()) {
+                        log("{} << {}", ack.rsp, mshLength(ack.rsp));
+                        out.writeMessage(ack.rsp);
+                    }
+                    dispatcher.onAcknowledged(ack.msh.getMessageType(),
+                            ack.receivedNanos);
+                }
+            } catch (IOException e) {
+                LOG.info("{}: Failed to send acknowledgement: {}",
+                        transport, e.getMessage());
+                transport.close();
+            } finally {
+                acks.clear();
+                synchronized (this) {
+                    writing = false;
+                }
+            }
+        }
+        // resume reading messages deferred by the pipelining limit
+        onInput(transport);
+    }
+
+    private void close() {
+        stopIdleTimeout();
+        transport.close();
+        conn.close(transport.getSocket());
+    }
+
+    private synchronized void startIdleTimeout() {
+        stopIdleTimeout();
+        int timeout = conn.getIdleTimeout();
+        if (timeout > 0)
+            idleTimeout = conn.getDevice().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    onIdleTimeout();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopIdleTimeout() {
+        if (idleTimeout != null) {
+            idleTimeout.cancel(false);
+            idleTimeout = null;
+        }
+    }
+
+    private void onIdleTimeout() {
+        synchronized (this) {
+            if (closed)
+                return;
+            if (!pending.isEmpty() || writing) {
+                startIdleTimeout();
+                return;
+            }
+            closed = true;
+        }
+        LOG.info("{}: idle timeout expired", transport);
+        close();
+    }
+
+    private static int mshLength(byte[] b) {
+        int mshlen = 0;
+        while (mshlen < b.length && b[mshlen] != '\r')
+            mshlen++;
+        return mshlen;
+    }
+
+    private void log(String format, byte[] b, int mshlen) {
+        if (!LOG.isInfoEnabled())
+            return;
+        LOG.info(format, transport, new String(b, 0, Math.min(mshlen, b.length)).trim());
+        if (LOG.isDebugEnabled())
+            LOG.debug(format, transport, new String(b).replace('\r', '\n'));
+    }
+
+    private static final class Received {
+        final byte[] msg;
+        final HL7Segment msh;
+        final int mshlen;
+        final long receivedNanos = System.nanoTime();
+        byte[] rsp;
+
+        Received(byte[] msg, HL7Segment msh, int mshlen) {
+            this.msg = msg;
+            this.msh = msh;
+            this.mshlen = mshlen;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.hl7.HL7Exception;
+import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7Segment;
+import org.dcm4che3.hl7.MLLPInputStream;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class MLLPSessionTest {
+
+    private static final int PORT = 11123;
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static Device device;
+    private static HL7DeviceExtension ext;
+    private static volatile CountDownLatch blockFirstMessage;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        device = createDevice();
+        device.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        device.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testConcatenatedFrames() throws Exception {
+        Socket s = new Socket("localhost", PORT);
+        try {
+            s.getOutputStream().write(frames("C1", "C2", "C3", "C4", "C5"));
+            assertAcknowledged(s, "C1", "C2", "C3", "C4", "C5");
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void testSplitFrames() throws Exception {
+        byte[] b = frames("S1", "S2", "S3");
+        Socket s = new Socket("localhost", PORT);
+        try {
+            s.setTcpNoDelay(true);
+            OutputStream out = s.getOutputStream();
+            // split within the message, between 1CH and 0DH, and between
+            // the end of one and the start of the next frame
+            for (int i = 0; i < b.length; i++) {
+                out.write(b, i, 1);
+                out.flush();
+                if (b[i] == 0x1c || b[i] == 0x0d || b[i] == 0x0b)
+                    Thread.sleep(5);
+            }
+            assertAcknowledged(s, "S1", "S2", "S3");
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void testFramesAcrossReads() throws Exception {
+        byte[] b = frames("R1", "R2", "R3", "R4");
+        int split = b.length / 3;
+        Socket s = new Socket("localhost", PORT);
+        try {
+            s.setTcpNoDelay(true);
+            OutputStream out = s.getOutputStream();
+            out.write(b, 0, split);
+            out.flush();
+            Thread.sleep(50);
+            out.write(b, split, b.length - split);
+            out.flush();
+            assertAcknowledged(s, "R1", "R2", "R3", "R4");
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void testMaxPipelinedMessagesPerRead() throws Exception {
+        HL7MessageDispatcher dispatcher = ext.getHL7MessageDispatcher();
+        ext.setMaxPipelinedMessages(2);
+        CountDownLatch latch = new CountDownLatch(1);
+        blockFirstMessage = latch;
+        Socket s = new Socket("localhost", PORT);
+        try {
+            s.getOutputStream().write(frames("P1", "P2", "P3", "P4", "P5"));
+            Thread.sleep(500);
+            // P1 is processed, P2 is queued, P3 - P5 are not yet decoded
+            assertEquals(1, dispatcher.getQueueDepth());
+            latch.countDown();
+            assertAcknowledged(s, "P1", "P2", "P3", "P4", "P5");
+        } finally {
+            latch.countDown();
+            blockFirstMessage = null;
+            ext.setMaxPipelinedMessages(16);
+            s.close();
+        }
+    }
+
+    private static void assertAcknowledged(Socket s, String... msgControlIDs)
+            throws Exception {
+        s.setSoTimeout(5000);
+        MLLPInputStream in = new MLLPInputStream(s.getInputStream());
+        for (String msgControlID : msgControlIDs) {
+            byte[] ack = in.readMessage();
+            assertNotNull(ack);
+            HL7Segment msa = HL7Message.parse(ack, null).getSegment("MSA");
+            assertEquals(HL7Exception.AA, msa.getField(1, null));
+            assertEquals(msgControlID, msa.getField(2, null));
+        }
+    }
+
+    private static byte[] frames(String... msgControlIDs) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String msgControlID : msgControlIDs) {
+            out.write(0x0b);
+            out.write(("MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150101120000||ADT^A01|"
+                    + msgControlID + "|P|2.5\rEVN|A01|20150101120000\r")
+                    .getBytes("US-ASCII"));
+            out.write(0x1c);
+            out.write(0x0d);
+        }
+        return out.toByteArray();
+    }
+
+    private static Device createDevice() {
+        Device dev = new Device("hl7rcv");
+        ext = new HL7DeviceExtension();
+        dev.addDeviceExtension(ext);
+        Connection conn = new Connection("hl7", "localhost", PORT);
+        conn.setProtocol(Connection.Protocol.HL7);
+        conn.setSelectorThreads(1);
+        dev.addConnection(conn);
+        HL7Application app = new HL7Application("*");
+        app.setAcceptedMessageTypes("*");
+        ext.addHL7Application(app);
+        app.addConnection(conn);
+        app.setHL7MessageListener(new HL7MessageListener() {
+
+            @Override
+            public byte[] onMessage(HL7Application hl7App, Connection conn,
+                    Socket s, HL7Segment msh, byte[] msg, int off, int len,
+                    int mshlen) throws HL7Exception {
+                CountDownLatch latch = blockFirstMessage;
+                if (latch != null)
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                return HL7Message.makeACK(msh, HL7Exception.AA, null)
+                        .getBytes(null);
+            }
+        });
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+}
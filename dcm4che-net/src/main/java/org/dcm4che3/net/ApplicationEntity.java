@@ -43,6 +43,7 @@ import java.io.Serializable;
 import java.net.Socket;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
@@ -142,6 +143,13 @@ public class ApplicationEntity implements Serializable {
 
     private transient DimseRQHandler dimseRQHandler;
 
+    private transient volatile NegotiationTable negotiationTable;
+
+    // guards the invalidation and the caching of the negotiation table;
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock negotiationTableLock = new ReentrantLock();
+    private int tcModCount;
+
     public ApplicationEntity() {
     }
 
@@ -153,6 +161,7 @@ public class ApplicationEntity implements Serializable {
     public void setTransferCapabilities(Collection<TransferCapability> transferCapabilities) {
         scpTCs.clear();
         scuTCs.clear();
+        invalidateNegotiationTable();
 
         for (TransferCapability tc : transferCapabilities) {
             tc.setApplicationEntity(this);
@@ -487,6 +496,7 @@ public class ApplicationEntity implements Serializable {
         tc.setApplicationEntity(this);
         TransferCapability prev = (tc.getRole() == TransferCapability.Role.SCU
                 ? scuTCs : scpTCs).put(tc.getSopClass(), tc);
+        invalidateNegotiationTable();
         if (prev != null && prev != tc)
             prev.setApplicationEntity(null);
         return prev;
@@ -496,11 +506,52 @@ public class ApplicationEntity implements Serializable {
             TransferCapability.Role role) {
         TransferCapability tc = (role == TransferCapability.Role.SCU ? scuTCs : scpTCs)
                         .remove(sopClass);
-        if (tc != null)
+        if (tc != null) {
             tc.setApplicationEntity(null);
+            invalidateNegotiationTable();
+        }
         return tc;
     }
 
+    void onTransferCapabilityChanged() {
+        invalidateNegotiationTable();
+    }
+
+    private void invalidateNegotiationTable() {
+        negotiationTableLock.lock();
+        try {
+            tcModCount++;
+            negotiationTable = null;
+        } finally {
+            negotiationTableLock.unlock();
+        }
+    }
+
+    private NegotiationTable negotiationTable() {
+        NegotiationTable table = negotiationTable;
+        if (table != null)
+            return table;
+
+        int modCount;
+        negotiationTableLock.lock();
+        try {
+            modCount = tcModCount;
+        } finally {
+            negotiationTableLock.unlock();
+        }
+        table = new NegotiationTable(scuTCs.values(), scpTCs.values());
+        negotiationTableLock.lock();
+        try {
+            // do not cache a table compiled from Transfer Capabilities,
+            // which were modified concurrently
+            if (modCount == tcModCount)
+                negotiationTable = table;
+        } finally {
+            negotiationTableLock.unlock();
+        }
+        return table;
+    }
+
     public Collection<TransferCapability> getTransferCapabilitiesWithRole(
             TransferCapability.Role role) {
         return (role == TransferCapability.Role.SCU ? scuTCs : scpTCs).values();
@@ -514,50 +565,54 @@ public class ApplicationEntity implements Serializable {
     protected PresentationContext negotiate(AAssociateRQ rq, AAssociateAC ac,
            PresentationContext rqpc) {
        String as = rqpc.getAbstractSyntax();
-       TransferCapability tc = roleSelection(rq, ac, as);
+       NegotiationTable table = negotiationTable();
+       NegotiationTable.Entry entry = roleSelection(table, rq, ac, as);
        int pcid = rqpc.getPCID();
-       if (tc == null)
+       if (entry == null)
            return new PresentationContext(pcid,
                    PresentationContext.ABSTRACT_SYNTAX_NOT_SUPPORTED,
                    rqpc.getTransferSyntax());
 
-       for (String ts : rqpc.getTransferSyntaxes())
-           if (tc.containsTransferSyntax(ts)) {
-               byte[] info = negotiate(rq.getExtNegotiationFor(as), tc);
-               if (info != null)
-                   ac.addExtendedNegotiation(new ExtendedNegotiation(as, info));
-               return new PresentationContext(pcid,
-                       PresentationContext.ACCEPTANCE, ts);
-           }
+       String ts = table.selectTransferSyntax(entry,
+               rqpc.getTransferSyntaxes());
+       if (ts != null) {
+           byte[] info = negotiate(rq.getExtNegotiationFor(as), entry.tc);
+           if (info != null)
+               ac.addExtendedNegotiation(new ExtendedNegotiation(as, info));
+           return new PresentationContext(pcid,
+                   PresentationContext.ACCEPTANCE, ts);
+       }
 
        return new PresentationContext(pcid,
                 PresentationContext.TRANSFER_SYNTAX_NOT_SUPPORTED,
                 rqpc.getTransferSyntax());
     }
 
-    private TransferCapability roleSelection(AAssociateRQ rq,
-            AAssociateAC ac, String asuid) {
+    private NegotiationTable.Entry roleSelection(NegotiationTable table,
+            AAssociateRQ rq, AAssociateAC ac, String asuid) {
         RoleSelection rqrs = rq.getRoleSelectionFor(asuid);
         if (rqrs == null)
-            return getTC(scpTCs, asuid, rq);
+            return getTC(table, TransferCapability.Role.SCP, asuid, rq);
 
         RoleSelection acrs = ac.getRoleSelectionFor(asuid);
         if (acrs != null)
-            return getTC(acrs.isSCU() ? scpTCs : scuTCs, asuid, rq);
+            return getTC(table, acrs.isSCU()
+                    ? TransferCapability.Role.SCP
+                    : TransferCapability.Role.SCU, asuid, rq);
 
-        TransferCapability tcscu = null;
-        TransferCapability tcscp = null;
+        NegotiationTable.Entry tcscu = null;
+        NegotiationTable.Entry tcscp = null;
         boolean scu = rqrs.isSCU()
-                && (tcscp = getTC(scpTCs, asuid, rq)) != null;
+                && (tcscp = getTC(table, TransferCapability.Role.SCP, asuid, rq)) != null;
         boolean scp = rqrs.isSCP()
-                && (tcscu = getTC(scuTCs, asuid, rq)) != null;
+                && (tcscu = getTC(table, TransferCapability.Role.SCU, asuid, rq)) != null;
         ac.addRoleSelection(new RoleSelection(asuid, scu, scp));
         return scu ? tcscp : tcscu;
     }
 
-    private TransferCapability getTC(HashMap<String, TransferCapability> tcs,
-            String asuid, AAssociateRQ rq) {
-        TransferCapability tc = tcs.get(asuid);
+    private NegotiationTable.Entry getTC(NegotiationTable table,
+            TransferCapability.Role role, String asuid, AAssociateRQ rq) {
+        NegotiationTable.Entry tc = table.get(role, asuid);
         if (tc != null)
             return tc;
 
@@ -565,16 +620,16 @@ public class ApplicationEntity implements Serializable {
                 rq.getCommonExtendedNegotiationFor(asuid);
         if (commonExtNeg != null) {
             for (String cuid : commonExtNeg.getRelatedGeneralSOPClassUIDs()) {
-                tc = tcs.get(cuid);
+                tc = table.get(role, cuid);
                 if (tc != null)
                     return tc;
             }
-            tc = tcs.get(commonExtNeg.getServiceClassUID());
+            tc = table.get(role, commonExtNeg.getServiceClassUID());
             if (tc != null)
                 return tc;
         }
 
-        return tcs.get("*");
+        return table.get(role, "*");
     }
 
     private byte[] negotiate(ExtendedNegotiation exneg, TransferCapability tc) {
@@ -674,6 +729,7 @@ public class ApplicationEntity implements Serializable {
         scuTCs.putAll(src.scuTCs);
         scpTCs.clear();
         scpTCs.putAll(src.scpTCs);
+        invalidateNegotiationTable();
     }
 
     private void reconfigureAEExtensions(ApplicationEntity from) {
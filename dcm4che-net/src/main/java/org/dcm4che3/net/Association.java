@@ -38,15 +38,23 @@
 
 package org.dcm4che3.net;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -81,11 +89,12 @@ public class Association {
     private final Device device;
     private final Connection conn;
     private final Socket sock;
+    private final NIOTransport transport;
     private final InputStream in;
     private final OutputStream out;
     private final PDUEncoder encoder;
     private PDUDecoder decoder;
-    private State state;
+    private volatile State state;
     private AAssociateRQ rq;
     private AAssociateAC ac;
     private IOException ex;
@@ -94,16 +103,56 @@ public class Association {
     private int maxOpsInvoked;
     private int maxPDULength;
     private int performing;
+    private int maxDimseRQWorkers;
+    private int dimseRQWorkers;
+    private final ArrayDeque<Runnable> queuedDimseRQs =
+            new ArrayDeque<Runnable>();
     private Timeout timeout;
     private final IntHashMap<DimseRSPHandler> rspHandlerForMsgId =
             new IntHashMap<DimseRSPHandler>();
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateOrPerformingChanged = lock.newCondition();
+    private final ReentrantLock rspLock = new ReentrantLock();
+    private final Condition rspHandlerRemoved = rspLock.newCondition();
+    private final ReentrantLock cancelLock = new ReentrantLock();
     private final IntHashMap<CancelRQHandler> cancelHandlerForMsgId =
             new IntHashMap<CancelRQHandler>();
+    // message IDs of dispatched DIMSE RQs without registered CancelRQHandler,
+    // mapped to TRUE, if a C-CANCEL-RQ was already received
+    private final IntHashMap<Boolean> canceledBeforeRegistered =
+            new IntHashMap<Boolean>();
     private final HashMap<String,HashMap<String,PresentationContext>> pcMap =
             new HashMap<String,HashMap<String,PresentationContext>>();
 
     Association(ApplicationEntity ae, Connection local, Socket sock)
             throws IOException {
+        this(ae, local, sock, null, inputStreamOf(sock), outputStreamOf(sock));
+    }
+
+    private static InputStream inputStreamOf(Socket sock) throws IOException {
+        SocketChannel ch = sock.getChannel();
+        return ch != null
+                ? SocketChannels.newInputStream(ch)
+                : sock.getInputStream();
+    }
+
+    private static OutputStream outputStreamOf(Socket sock) throws IOException {
+        SocketChannel ch = sock.getChannel();
+        return ch != null
+                ? SocketChannels.newOutputStream(ch)
+                : sock.getOutputStream();
+    }
+
+    Association(Connection local, NIOTransport transport)
+            throws IOException {
+        this(null, local, transport.getSocket(), transport,
+                transport.getInputStream(), transport.getOutputStream());
+    }
+
+    private Association(ApplicationEntity ae, Connection local, Socket sock,
+            NIOTransport transport, InputStream in, OutputStream out)
+            throws IOException {
         this.serialNo = prevSerialNo.incrementAndGet();
         this.ae = ae;
         this.requestor = ae != null;
@@ -113,8 +162,9 @@ public class Association {
         this.conn = local;
         this.device = local.getDevice();
         this.sock = sock;
-        this.in = sock.getInputStream();
-        this.out = sock.getOutputStream();
+        this.transport = transport;
+        this.in = in;
+        this.out = out;
         this.encoder = new PDUEncoder(this, out);
         if (requestor) {
             enterState(State.Sta4);
@@ -267,6 +317,27 @@ public class Association {
         return conn.isPackPDV();
     }
 
+    /**
+     * Returns {@code true}, if file content can be sent by
+     * {@link #transferFrom} directly from the file system to the socket.
+     * Not supported for TLS connections and for sockets not opened by a
+     * {@link SocketChannel}.
+     */
+    boolean isZeroCopySupported() {
+        return transport != null
+                ? !transport.isTls()
+                : sock.getChannel() != null;
+    }
+
+    void transferFrom(FileChannel src, long position, long length)
+            throws IOException {
+        if (transport != null)
+            transport.transferFrom(src, position, length);
+        else
+            SocketChannels.transferFrom(src, position, length,
+                    sock.getChannel());
+    }
+
     public void release() throws IOException {
         state.writeAReleaseRQ(this);
     }
@@ -284,18 +355,31 @@ public class Association {
         }
     }
 
-    private synchronized void closeSocket() {
-        state.closeSocket(this);
+    private void closeSocket() {
+        lock.lock();
+        try {
+            state.closeSocket(this);
+        } finally {
+            lock.unlock();
+        }
     }
 
     void doCloseSocket() {
         LOG.info("{}: close {}", name, sock);
-        SafeClose.close(sock);
+        if (transport != null)
+            transport.close();
+        else
+            SafeClose.close(sock);
         enterState(State.Sta1);
     }
 
-    synchronized private void closeSocketDelayed() {
-        state.closeSocketDelayed(this);
+    private void closeSocketDelayed() {
+        lock.lock();
+        try {
+            state.closeSocketDelayed(this);
+        } finally {
+            lock.unlock();
+        }
     }
 
     void doCloseSocketDelayed() {
@@ -313,14 +397,19 @@ public class Association {
             closeSocket();
     }
 
-    synchronized void onIOException(IOException e) {
-        if (ex != null)
-            return;
+    void onIOException(IOException e) {
+        lock.lock();
+        try {
+            if (ex != null)
+                return;
 
-        ex = e;
-        LOG.info("{}: i/o exception: {} in State: {}",
-                new Object[] { name, e, state });
-        closeSocket();
+            ex = e;
+            LOG.info("{}: i/o exception: {} in State: {}",
+                    new Object[] { name, e, state });
+            closeSocket();
+        } finally {
+            lock.unlock();
+        }
     }
 
     void write(AAbort aa) throws IOException  {
@@ -369,19 +458,23 @@ public class Association {
     private void startTimeout(String startMsg, String expiredMsg,
             String cancelMsg, int timeout, State state) {
         if (timeout > 0 && performing == 0 && rspHandlerForMsgId.isEmpty()) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (this.state == state) {
                     stopTimeout();
                     this.timeout = Timeout.start(this, startMsg, expiredMsg,
                             cancelMsg, timeout);
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
 
     private void startTimeout(final int msgID, int timeout) {
         if (timeout > 0) {
-            synchronized (rspHandlerForMsgId) {
+            rspLock.lock();
+            try {
                 DimseRSPHandler rspHandler = rspHandlerForMsgId.get(msgID);
                 if (rspHandler != null) {
                     rspHandler.setTimeout(Timeout.start(this,
@@ -390,21 +483,31 @@ public class Association {
                         "{}: stop " + msgID + ":DIMSE-RSP timeout",
                         timeout));
                 }
+            } finally {
+                rspLock.unlock();
             }
         }
     }
 
-    private synchronized void stopTimeout() {
-        if (timeout != null) {
-            timeout.stop();
-            timeout = null;
+    private void stopTimeout() {
+        lock.lock();
+        try {
+            if (timeout != null) {
+                timeout.stop();
+                timeout = null;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public void waitForOutstandingRSP() throws InterruptedException {
-        synchronized (rspHandlerForMsgId) {
+        rspLock.lock();
+        try {
             while (!rspHandlerForMsgId.isEmpty())
-                rspHandlerForMsgId.wait();
+                rspHandlerRemoved.await();
+        } finally {
+            rspLock.unlock();
         }
     }
 
@@ -437,28 +540,43 @@ public class Association {
             throw ex;
     }
 
-    private synchronized void enterState(State newState) {
-        LOG.debug("{}: enter state: {}", name, newState);
-        this.state = newState;
-        notifyAll();
+    private void enterState(State newState) {
+        lock.lock();
+        try {
+            LOG.debug("{}: enter state: {}", name, newState);
+            this.state = newState;
+            stateOrPerformingChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public final State getState() {
         return state;
     }
 
-    synchronized void waitForLeaving(State state)
+    void waitForLeaving(State state)
             throws InterruptedException, IOException {
-        while (this.state == state)
-            wait();
-        checkException();
+        lock.lock();
+        try {
+            while (this.state == state)
+                stateOrPerformingChanged.await();
+            checkException();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    synchronized void waitForEntering(State state)
+    void waitForEntering(State state)
             throws InterruptedException, IOException {
-        while (this.state != state)
-            wait();
-        checkException();
+        lock.lock();
+        try {
+            while (this.state != state)
+                stateOrPerformingChanged.await();
+            checkException();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void waitForSocketClose()
@@ -467,6 +585,10 @@ public class Association {
     }
 
     private void activate() {
+        if (transport != null) {
+            activateNIO();
+            return;
+        }
         device.execute(new Runnable() {
 
             @Override
@@ -488,9 +610,74 @@ public class Association {
         });
     }
 
+    private void activateNIO() {
+        decoder = new PDUDecoder(this, in);
+        device.incrementNumberOfOpenAssociations();
+        final AtomicBoolean reading = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Runnable reader = new Runnable() {
+
+            @Override
+            public void run() {
+                decoder.bindToCurrentThread();
+                try {
+                    while (!(state == State.Sta1 || state == State.Sta13)
+                            && isPDUReceived())
+                        decoder.nextPDU();
+                } catch (AAbort aa) {
+                    abort(aa);
+                } catch (IOException e) {
+                    onIOException(e);
+                } finally {
+                    reading.set(false);
+                }
+                if (state == State.Sta1 || state == State.Sta13) {
+                    if (closed.compareAndSet(false, true)) {
+                        onClose();
+                        device.decrementNumberOfOpenAssociations();
+                    }
+                } else if (isPDUReceived()
+                        && reading.compareAndSet(false, true)) {
+                    device.execute(this);
+                }
+            }
+        };
+        transport.start(new NIOTransport.Handler() {
+
+            @Override
+            public void onInput(NIOTransport transport) {
+                if (!closed.get() && (isPDUReceived()
+                        || state == State.Sta1 || state == State.Sta13)
+                        && reading.compareAndSet(false, true))
+                    device.execute(reader);
+            }
+        });
+    }
+
+    /**
+     * Returns {@code true}, if the next PDU was completely received, the
+     * input buffer of the transport is full or no further input will be
+     * received, so decoding the next PDU will not block for long.
+     */
+    private boolean isPDUReceived() {
+        int available = transport.available();
+        if (available < 6)
+            return transport.isInputShutdown()
+                    || transport.isInputBufferFull();
+
+        long pdulen = ((long) transport.peek(2) << 24)
+                | (transport.peek(3) << 16)
+                | (transport.peek(4) << 8)
+                | transport.peek(5);
+        return available >= 6 + Math.max(pdulen, 4)
+                || transport.isInputShutdown()
+                || transport.isInputBufferFull();
+    }
+
     private void onClose() {
         stopTimeout();
-        synchronized (rspHandlerForMsgId) {
+        rspLock.lock();
+        try {
             IntHashMap.Visitor<DimseRSPHandler> visitor =
                     new IntHashMap.Visitor<DimseRSPHandler>() {
 
@@ -502,10 +689,14 @@ public class Association {
             };
             rspHandlerForMsgId.accept(visitor);
             rspHandlerForMsgId.clear();
-            rspHandlerForMsgId.notifyAll();
+            rspHandlerRemoved.signalAll();
+        } finally {
+            rspLock.unlock();
         }
         if (ae != null)
             ae.getDevice().getAssociationHandler().onClose(this);
+        decoder.releaseBuffer();
+        encoder.releaseBuffer();
     }
 
     void onAAssociateRQ(AAssociateRQ rq) throws IOException {
@@ -524,6 +715,7 @@ public class Association {
             ac = device.getAssociationHandler().negotiate(this, rq);
             initPCMap();
             maxOpsInvoked = ac.getMaxOpsPerformed();
+            initDimseRQWorkers(ac.getMaxOpsInvoked());
             maxPDULength = Association.minZeroAsMax(
                     rq.getMaxPDULength(), conn.getSendPDULength());
             write(ac);
@@ -543,6 +735,7 @@ public class Association {
         this.ac = ac;
         initPCMap();
         maxOpsInvoked = ac.getMaxOpsInvoked();
+        initDimseRQWorkers(ac.getMaxOpsPerformed());
         maxPDULength = Association.minZeroAsMax(
                 ac.getMaxPDULength(), conn.getSendPDULength());
         enterState(State.Sta6);
@@ -573,13 +766,18 @@ public class Association {
         closeSocketDelayed();
     }
 
-    private synchronized void waitForPerformingOps() {
-        while (performing > 0 && state == State.Sta8) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    private void waitForPerformingOps() {
+        lock.lock();
+        try {
+            while (performing > 0 && state == State.Sta8) {
+                try {
+                    stateOrPerformingChanged.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -641,20 +839,148 @@ public class Association {
         encoder.writePDataTF();
     }
 
+    /**
+     * Process DIMSE requests concurrently by a bounded number of worker
+     * threads, if asynchronous operations were negotiated. Without explicit
+     * limit, the number of workers is bounded by the number of processors.
+     */
+    private void initDimseRQWorkers(int maxOpsPerformed) {
+        if (maxOpsPerformed != Connection.SYNCHRONOUS_MODE)
+            maxDimseRQWorkers = maxOpsPerformed > 0
+                    ? maxOpsPerformed
+                    : Runtime.getRuntime().availableProcessors();
+    }
+
     void onDimseRQ(PresentationContext pc, Dimse dimse, Attributes cmd,
             PDVInputStream data) throws IOException {
         stopTimeout();
+        if (maxDimseRQWorkers == 0) {
+            incPerforming();
+            ae.onDimseRQ(this, pc, dimse, cmd, data);
+        } else {
+            dispatchDimseRQ(pc, dimse, cmd, data);
+        }
+    }
+
+    /**
+     * Read the data set of the DIMSE request into a buffer, and pass the
+     * request to a worker thread, or queue it, if all workers are busy. So
+     * the reader thread never blocks and can decode following requests -
+     * in particular C-CANCEL-RQs, A-RELEASE-RQs and A-ABORTs - while the
+     * current ones are processed. Responses are written by the worker threads
+     * in the order of completion.
+     */
+    private void dispatchDimseRQ(final PresentationContext pc,
+            final Dimse dimse, final Attributes cmd, PDVInputStream data)
+            throws IOException {
+        final SpooledPDVInputStream spooled =
+                data != null ? spool(data) : null;
+        final int msgId = cmd.getInt(Tag.MessageID, -1);
+        setCanceledBeforeRegistered(msgId, Boolean.FALSE);
         incPerforming();
-        ae.onDimseRQ(this, pc, dimse, cmd, data);
+        try {
+            executeDimseRQ(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ae.onDimseRQ(Association.this, pc, dimse, cmd, spooled);
+                    } catch (AAbort aa) {
+                        abort(aa);
+                    } catch (IOException e) {
+                        onIOException(e);
+                    } catch (RuntimeException e) {
+                        LOG.warn("{}: failed to process {}:", name,
+                                dimse.toString(cmd, pc.getPCID(),
+                                        pc.getTransferSyntax()), e);
+                        abort();
+                    } finally {
+                        setCanceledBeforeRegistered(msgId, null);
+                        if (spooled != null)
+                            spooled.close();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            setCanceledBeforeRegistered(msgId, null);
+            decPerforming();
+            if (spooled != null)
+                spooled.close();
+            throw e;
+        }
     }
 
-    private synchronized void incPerforming() {
-        ++performing;
+    private void executeDimseRQ(final Runnable task) {
+        lock.lock();
+        try {
+            if (dimseRQWorkers >= maxDimseRQWorkers) {
+                queuedDimseRQs.add(task);
+                return;
+            }
+            dimseRQWorkers++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            device.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Runnable next = task;
+                    do {
+                        next.run();
+                        next = nextQueuedDimseRQ();
+                    } while (next != null);
+                }
+            });
+        } catch (RuntimeException e) {
+            // no request is queued, while not all workers are busy
+            nextQueuedDimseRQ();
+            throw e;
+        }
     }
 
-    private synchronized void decPerforming() {
-        --performing;
-        notifyAll();
+    private Runnable nextQueuedDimseRQ() {
+        lock.lock();
+        try {
+            Runnable next = queuedDimseRQs.poll();
+            if (next == null)
+                dimseRQWorkers--;
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SpooledPDVInputStream spool(PDVInputStream data)
+            throws IOException {
+        String dir = conn.getDimseRQSpoolDirectory();
+        SpooledPDVInputStream spooled = SpooledPDVInputStream.spool(data,
+                conn.getDimseRQSpoolThreshold(),
+                dir != null ? new File(dir) : null);
+        if (spooled.isSpooled())
+            LOG.debug("{}: spooled {} bytes of DIMSE data", name,
+                    spooled.length());
+        return spooled;
+    }
+
+    private void incPerforming() {
+        lock.lock();
+        try {
+            ++performing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decPerforming() {
+        lock.lock();
+        try {
+            --performing;
+            stateOrPerformingChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     void onDimseRSP(Dimse dimse, Attributes cmd, Attributes data) throws AAbort {
@@ -679,34 +1005,48 @@ public class Association {
         }
     }
 
-    private synchronized void startIdleOrReleaseTimeout() {
-        if (state == State.Sta6)
-            startIdleTimeout();
-        else if (state == State.Sta7)
-            startReleaseTimeout();
+    private void startIdleOrReleaseTimeout() {
+        lock.lock();
+        try {
+            if (state == State.Sta6)
+                startIdleTimeout();
+            else if (state == State.Sta7)
+                startReleaseTimeout();
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void addDimseRSPHandler(DimseRSPHandler rspHandler)
             throws InterruptedException {
-        synchronized (rspHandlerForMsgId) {
+        rspLock.lock();
+        try {
             while (maxOpsInvoked > 0
                     && rspHandlerForMsgId.size() >= maxOpsInvoked)
-                rspHandlerForMsgId.wait();
+                rspHandlerRemoved.await();
             rspHandlerForMsgId.put(rspHandler.getMessageID(), rspHandler);
+        } finally {
+            rspLock.unlock();
         }
     }
 
     private DimseRSPHandler getDimseRSPHandler(int msgId) {
-        synchronized (rspHandlerForMsgId ) {
+        rspLock.lock();
+        try {
             return rspHandlerForMsgId.get(msgId);
+        } finally {
+            rspLock.unlock();
         }
     }
 
     private DimseRSPHandler removeDimseRSPHandler(int msgId) {
-        synchronized (rspHandlerForMsgId ) {
+        rspLock.lock();
+        try {
             DimseRSPHandler tmp = rspHandlerForMsgId.remove(msgId);
-            rspHandlerForMsgId.notifyAll();
+            rspHandlerRemoved.signalAll();
             return tmp;
+        } finally {
+            rspLock.unlock();
         }
     }
 
@@ -756,20 +1096,53 @@ public class Association {
 
     void onCancelRQ(Attributes cmd) throws IOException {
         int msgId = cmd.getInt(Tag.MessageIDBeingRespondedTo, -1);
-        CancelRQHandler handler = removeCancelRQHandler(msgId);
+        CancelRQHandler handler;
+        cancelLock.lock();
+        try {
+            handler = cancelHandlerForMsgId.remove(msgId);
+            // deliver the C-CANCEL-RQ on registration of the handler, if the
+            // worker processing the DIMSE RQ has not registered it yet
+            if (handler == null && canceledBeforeRegistered.containsKey(msgId))
+                canceledBeforeRegistered.put(msgId, Boolean.TRUE);
+        } finally {
+            cancelLock.unlock();
+        }
         if (handler != null)
             handler.onCancelRQ(this);
     }
 
     public void addCancelRQHandler(int msgId, CancelRQHandler handler) {
-        synchronized (cancelHandlerForMsgId) {
-            cancelHandlerForMsgId.put(msgId, handler);
+        boolean canceled;
+        cancelLock.lock();
+        try {
+            canceled = Boolean.TRUE.equals(canceledBeforeRegistered.remove(msgId));
+            if (!canceled)
+                cancelHandlerForMsgId.put(msgId, handler);
+        } finally {
+            cancelLock.unlock();
+        }
+        if (canceled)
+            handler.onCancelRQ(this);
+    }
+
+    private void setCanceledBeforeRegistered(int msgId, Boolean canceled) {
+        cancelLock.lock();
+        try {
+            if (canceled != null)
+                canceledBeforeRegistered.put(msgId, canceled);
+            else
+                canceledBeforeRegistered.remove(msgId);
+        } finally {
+            cancelLock.unlock();
         }
     }
 
     public CancelRQHandler removeCancelRQHandler(int msgId) {
-        synchronized (cancelHandlerForMsgId) {
+        cancelLock.lock();
+        try {
             return cancelHandlerForMsgId.remove(msgId);
+        } finally {
+            cancelLock.unlock();
         }
     }
 
@@ -0,0 +1,836 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.CommonExtendedNegotiation;
+import org.dcm4che3.net.pdu.ExtendedNegotiation;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
+import org.dcm4che3.net.pdu.UserIdentityRQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of outbound associations of a {@link Device}, which are reused for
+ * subsequent operations to the same destination, instead of opening a new
+ * connection and negotiating a new association per operation.
+ * <p>
+ * Associations are pooled per local connection, calling and called AE
+ * Title, remote host and port, and proposed presentation contexts, role
+ * selections, extended negotiations and user identity, so callers must
+ * propose a stable set of presentation contexts - not one depending on the
+ * SOP Classes and Transfer Syntaxes of the particular operation - to get
+ * associations reused. A destination is removed from the pool, when it has
+ * no open association left. A pooled
+ * association is released, if it was idle for half of the idle timeout of
+ * the local connection, so it is not aborted by the association idle
+ * timeout, or for {@link #getMaxIdleTime()}, if the local connection has no
+ * idle timeout. On lease, associations idle for more than
+ * {@link #getHealthCheckIdleTime()} are verified by C-ECHO.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class AssociationPool {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(AssociationPool.class);
+
+    public static final int DEF_MAX_IDLE_TIME = 60000;
+    public static final int DEF_HEALTH_CHECK_IDLE_TIME = 5000;
+
+    private final Device device;
+    private final ConcurrentMap<Key, Destination> destinations =
+            new ConcurrentHashMap<Key, Destination>();
+    private final ConcurrentMap<Association, Destination> leased =
+            new ConcurrentHashMap<Association, Destination>();
+    private final ReentrantLock evictorLock = new ReentrantLock();
+    private long evictorDueTime;
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong healthCheckFailures = new AtomicLong();
+    private volatile int maxPerDestination;
+    private volatile int maxLeaseWaitTime;
+    private volatile int maxIdleTime = DEF_MAX_IDLE_TIME;
+    private volatile int healthCheckIdleTime = DEF_HEALTH_CHECK_IDLE_TIME;
+
+    AssociationPool(Device device) {
+        this.device = device;
+    }
+
+    /**
+     * Get the maximal number of open associations - leased or idle - per
+     * destination. If {@code 0}, the number is not limited.
+     *
+     * @return maximal number of associations per destination
+     */
+    public int getMaxPerDestination() {
+        return maxPerDestination;
+    }
+
+    /**
+     * Set the maximal number of open associations - leased or idle - per
+     * destination. If {@code 0}, the number is not limited.
+     *
+     * @param maxPerDestination
+     *            maximal number of associations per destination
+     */
+    public void setMaxPerDestination(int maxPerDestination) {
+        if (maxPerDestination < 0)
+            throw new IllegalArgumentException("maxPerDestination: "
+                    + maxPerDestination);
+        this.maxPerDestination = maxPerDestination;
+    }
+
+    /**
+     * Get the maximal time in ms to wait for an association to the
+     * destination, if {@link #getMaxPerDestination()} associations are
+     * already leased. If {@code 0}, wait without time limit.
+     *
+     * @return maximal wait time in ms
+     */
+    public int getMaxLeaseWaitTime() {
+        return maxLeaseWaitTime;
+    }
+
+    public void setMaxLeaseWaitTime(int maxLeaseWaitTime) {
+        if (maxLeaseWaitTime < 0)
+            throw new IllegalArgumentException("maxLeaseWaitTime: "
+                    + maxLeaseWaitTime);
+        this.maxLeaseWaitTime = maxLeaseWaitTime;
+    }
+
+    /**
+     * Get the time in ms after which an idle association is released, if the
+     * local connection does not specify an idle timeout.
+     *
+     * @return maximal idle time in ms
+     */
+    public int getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(int maxIdleTime) {
+        if (maxIdleTime <= 0)
+            throw new IllegalArgumentException("maxIdleTime: " + maxIdleTime);
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Get the idle time in ms after which a pooled association is verified
+     * by C-ECHO before it is leased again. If {@code 0}, associations are
+     * verified on each lease; if {@code -1}, they are never verified.
+     *
+     * @return idle time in ms before health check
+     */
+    public int getHealthCheckIdleTime() {
+        return healthCheckIdleTime;
+    }
+
+    public void setHealthCheckIdleTime(int healthCheckIdleTime) {
+        if (healthCheckIdleTime < -1)
+            throw new IllegalArgumentException("healthCheckIdleTime: "
+                    + healthCheckIdleTime);
+        this.healthCheckIdleTime = healthCheckIdleTime;
+    }
+
+    /**
+     * Lease association to the remote connection from the pool, using a
+     * compatible local connection of the Application Entity.
+     *
+     * @see #lease(ApplicationEntity, Connection, Connection, AAssociateRQ)
+     */
+    public Association lease(ApplicationEntity ae, Connection remote,
+            AAssociateRQ rq) throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        return lease(ae, ae.findCompatibelConnection(remote), remote, rq);
+    }
+
+    /**
+     * Lease association negotiated by the specified A-ASSOCIATE-RQ from the
+     * pool. If no idle association to the destination is available, a new
+     * one is opened, if not more than {@link #getMaxPerDestination()}
+     * associations to the destination are open already, otherwise waits for
+     * the return of one of them. If health checks are enabled, a
+     * presentation context for the Verification SOP Class is added to a copy
+     * of the A-ASSOCIATE-RQ, so the specified A-ASSOCIATE-RQ is not modified.
+     * <p>
+     * The association shall be returned by {@link #release(Association)}
+     * after use, or {@link #discard(Association)} on error.
+     *
+     * @return leased association
+     * @throws IOException
+     *             if no association could be opened, or no association to
+     *             the destination was returned within
+     *             {@link #getMaxLeaseWaitTime()}
+     */
+    public Association lease(ApplicationEntity ae, Connection local,
+            Connection remote, AAssociateRQ rq) throws IOException,
+            InterruptedException, IncompatibleConnectionException,
+            GeneralSecurityException {
+        return lease(ae, local, remote, rq, true);
+    }
+
+    /**
+     * Lease association from the pool without waiting, if
+     * {@link #getMaxPerDestination()} associations to the destination are
+     * already leased.
+     *
+     * @return leased association or {@code null}, if no association to the
+     *         destination is available
+     * @see #lease(ApplicationEntity, Connection, Connection, AAssociateRQ)
+     */
+    public Association tryLease(ApplicationEntity ae, Connection local,
+            Connection remote, AAssociateRQ rq) throws IOException,
+            InterruptedException, IncompatibleConnectionException,
+            GeneralSecurityException {
+        return lease(ae, local, remote, rq, false);
+    }
+
+    private Association lease(ApplicationEntity ae, Connection local,
+            Connection remote, AAssociateRQ rq, boolean wait)
+            throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        // do not modify the A-ASSOCIATE-RQ of the caller, which may be reused
+        // for subsequent leases
+        rq = copyOf(rq);
+        if (rq.getCallingAET() == null)
+            rq.setCallingAET(ae.getAETitle());
+        if (healthCheckIdleTime >= 0)
+            addVerificationPresentationContext(rq);
+        Key key = new Key(local, remote, rq);
+        Destination dest = destinationOf(key);
+        Idle idle;
+        while ((idle = dest.leaseIdle(wait)) != null) {
+            if (idle == Idle.EXHAUSTED)
+                return null;
+            if (idle == Idle.REMOVED) {
+                dest = destinationOf(key);
+                continue;
+            }
+            if (isHealthy(idle)) {
+                leases.incrementAndGet();
+                reused.incrementAndGet();
+                leased.put(idle.as, dest);
+                LOG.debug("{}: reuse pooled association", idle.as);
+                return idle.as;
+            }
+            dest.close(idle.as);
+        }
+        Association as = null;
+        try {
+            as = ae.connect(local, remote, rq);
+        } finally {
+            if (as == null)
+                dest.closed();
+        }
+        leases.incrementAndGet();
+        created.incrementAndGet();
+        leased.put(as, dest);
+        return as;
+    }
+
+    /**
+     * Add presentation context for the Verification SOP Class with the
+     * first unused odd presentation context ID, if the A-ASSOCIATE-RQ does
+     * not already propose one, and does not already propose the maximal
+     * number of 128 presentation contexts.
+     */
+    private static void addVerificationPresentationContext(AAssociateRQ rq) {
+        if (rq.containsPresentationContextFor(UID.VerificationSOPClass))
+            return;
+
+        for (int pcid = 1; pcid <= 255; pcid += 2)
+            if (rq.getPresentationContext(pcid) == null) {
+                rq.addPresentationContext(new PresentationContext(pcid,
+                        UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+                return;
+            }
+    }
+
+    private static AAssociateRQ copyOf(AAssociateRQ rq) {
+        AAssociateRQ copy = new AAssociateRQ();
+        copy.setProtocolVersion(rq.getProtocolVersion());
+        copy.setReservedBytes(rq.getReservedBytes());
+        if (rq.getCalledAET() != null)
+            copy.setCalledAET(rq.getCalledAET());
+        if (rq.getCallingAET() != null)
+            copy.setCallingAET(rq.getCallingAET());
+        copy.setApplicationContext(rq.getApplicationContext());
+        copy.setImplClassUID(rq.getImplClassUID());
+        copy.setImplVersionName(rq.getImplVersionName());
+        copy.setMaxPDULength(rq.getMaxPDULength());
+        copy.setMaxOpsInvoked(rq.getMaxOpsInvoked());
+        copy.setMaxOpsPerformed(rq.getMaxOpsPerformed());
+        copy.setUserIdentityRQ(rq.getUserIdentityRQ());
+        for (PresentationContext pc : rq.getPresentationContexts())
+            copy.addPresentationContext(pc);
+        for (RoleSelection rs : rq.getRoleSelections())
+            copy.addRoleSelection(rs);
+        for (ExtendedNegotiation extNeg : rq.getExtendedNegotiations())
+            copy.addExtendedNegotiation(extNeg);
+        for (CommonExtendedNegotiation extNeg
+                : rq.getCommonExtendedNegotiations())
+            copy.addCommonExtendedNegotiation(extNeg);
+        return copy;
+    }
+
+    /**
+     * Returns {@code true}, if the association was leased from this pool
+     * and not yet returned.
+     */
+    public boolean isLeased(Association as) {
+        return leased.containsKey(as);
+    }
+
+    /**
+     * Return leased association to the pool, after waiting for outstanding
+     * responses. Associations not ready for data transfer are discarded.
+     *
+     * @param as
+     *            leased association
+     * @throws IllegalArgumentException
+     *             if the association was not leased from this pool
+     */
+    public void release(Association as) {
+        Destination dest = removeLeased(as);
+        try {
+            as.waitForOutstandingRSP();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dest.close(as);
+            return;
+        }
+        if (!as.isReadyForDataTransfer()) {
+            dest.closed();
+            return;
+        }
+        dest.returnIdle(as);
+        scheduleEviction(evictAfter(as));
+    }
+
+    /**
+     * Abort leased association and remove it from the pool.
+     *
+     * @param as
+     *            leased association
+     * @throws IllegalArgumentException
+     *             if the association was not leased from this pool
+     */
+    public void discard(Association as) {
+        Destination dest = removeLeased(as);
+        as.abort();
+        dest.closed();
+    }
+
+    /**
+     * Release all idle associations. Invoked by
+     * {@link Device#unbindConnections()}.
+     */
+    public void clear() {
+        for (Destination dest : destinations.values())
+            dest.evict(Long.MAX_VALUE);
+    }
+
+    private Destination removeLeased(Association as) {
+        Destination dest = leased.remove(as);
+        if (dest == null)
+            throw new IllegalArgumentException(as + " not leased from pool");
+        return dest;
+    }
+
+    private Destination destinationOf(Key key) {
+        Destination dest = destinations.get(key);
+        if (dest == null) {
+            Destination newDest = new Destination(key);
+            dest = destinations.putIfAbsent(key, newDest);
+            if (dest == null)
+                dest = newDest;
+        }
+        return dest;
+    }
+
+    private int evictAfter(Association as) {
+        int idleTimeout = as.getConnection().getIdleTimeout();
+        return idleTimeout > 0 ? idleTimeout / 2 : maxIdleTime;
+    }
+
+    private boolean isHealthy(Idle idle) {
+        Association as = idle.as;
+        if (!as.isReadyForDataTransfer())
+            return false;
+
+        int checkAfter = healthCheckIdleTime;
+        if (checkAfter < 0
+                || System.currentTimeMillis() - idle.since < checkAfter
+                || as.getTransferSyntaxesFor(UID.VerificationSOPClass).isEmpty())
+            return true;
+
+        try {
+            DimseRSP rsp = as.cecho();
+            rsp.next();
+            if (rsp.getCommand().getInt(Tag.Status, -1) == Status.Success)
+                return true;
+        } catch (Exception e) {
+            LOG.info("{}: C-ECHO health check failed:", as, e);
+        }
+        healthCheckFailures.incrementAndGet();
+        return false;
+    }
+
+    private void scheduleEviction(int delay) {
+        long dueTime = System.currentTimeMillis() + delay;
+        evictorLock.lock();
+        try {
+            if (evictorDueTime != 0 && evictorDueTime <= dueTime)
+                return;
+            device.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    evict();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            evictorDueTime = dueTime;
+        } catch (IllegalStateException e) {
+            // no scheduled executor - evict on lease
+        } finally {
+            evictorLock.unlock();
+        }
+    }
+
+    private void evict() {
+        evictorLock.lock();
+        try {
+            evictorDueTime = 0;
+        } finally {
+            evictorLock.unlock();
+        }
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Destination dest : destinations.values())
+            next = Math.min(next, dest.evict(now));
+        if (next != Long.MAX_VALUE)
+            scheduleEviction((int) Math.max(0, next - now));
+    }
+
+    /**
+     * Returns the number of leased associations.
+     */
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * Returns the number of leases served by a pooled association.
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Returns the number of leases, which required to open a new
+     * association.
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Returns the ratio of leases served by a pooled association.
+     */
+    public double getReuseRatio() {
+        long n = leases.get();
+        return n > 0 ? (double) reused.get() / n : 0;
+    }
+
+    /**
+     * Returns the number of leases, which had to wait for the return of an
+     * association, because {@link #getMaxPerDestination()} associations to
+     * the destination were open.
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the total time in ms leases waited for the return of an
+     * association.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * Returns the maximal time in ms a lease waited for the return of an
+     * association.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * Returns the number of associations released because they were idle.
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Returns the number of pooled associations discarded because of a
+     * failed C-ECHO health check.
+     */
+    public long getHealthCheckFailures() {
+        return healthCheckFailures.get();
+    }
+
+    /**
+     * Returns the number of idle associations in the pool.
+     */
+    public int getIdle() {
+        int n = 0;
+        for (Destination dest : destinations.values())
+            n += dest.idleCount();
+        return n;
+    }
+
+    /**
+     * Returns the number of associations leased from the pool and not yet
+     * returned.
+     */
+    public int getLeased() {
+        return leased.size();
+    }
+
+    /**
+     * Returns the number of destinations with open associations.
+     */
+    public int getDestinations() {
+        return destinations.size();
+    }
+
+    public void resetStatistics() {
+        leases.set(0);
+        reused.set(0);
+        created.set(0);
+        waits.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+        evicted.set(0);
+        healthCheckFailures.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "AssociationPool[leased=" + getLeased()
+                + ", idle=" + getIdle()
+                + ", leases=" + leases
+                + ", reused=" + reused
+                + ", created=" + created
+                + ", waits=" + waits
+                + ", totalWaitTime=" + totalWaitTime
+                + "ms, maxWaitTime=" + maxWaitTime
+                + "ms, evicted=" + evicted
+                + ", healthCheckFailures=" + healthCheckFailures
+                + ']';
+    }
+
+    private static final class Idle {
+        static final Idle EXHAUSTED = new Idle(null, 0L);
+        static final Idle REMOVED = new Idle(null, 0L);
+
+        final Association as;
+        final long since;
+
+        Idle(Association as, long since) {
+            this.as = as;
+            this.since = since;
+        }
+    }
+
+    private final class Destination {
+
+        private final Key key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition returned = lock.newCondition();
+        private final Deque<Idle> idle = new ArrayDeque<Idle>();
+        private int open;
+        private boolean removed;
+
+        Destination(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the most recently returned idle association, or
+         * {@code null} after reserving a slot for a new association, or
+         * {@link Idle#EXHAUSTED}, if no association is available and
+         * {@code wait} is {@code false}, or {@link Idle#REMOVED}, if this
+         * destination was removed from the pool.
+         */
+        Idle leaseIdle(boolean wait) throws IOException, InterruptedException {
+            long start = 0L;
+            List<Association> expired = new ArrayList<Association>(0);
+            lock.lock();
+            try {
+                for (;;) {
+                    if (removed)
+                        return Idle.REMOVED;
+                    Idle e;
+                    while ((e = idle.pollFirst()) != null) {
+                        if (System.currentTimeMillis() - e.since
+                                < evictAfter(e.as)) {
+                            recordWait(start);
+                            return e;
+                        }
+                        expired.add(e.as);
+                        open--;
+                    }
+                    int max = maxPerDestination;
+                    if (max == 0 || open < max) {
+                        open++;
+                        recordWait(start);
+                        return null;
+                    }
+                    if (!wait)
+                        return Idle.EXHAUSTED;
+                    if (start == 0L)
+                        start = System.nanoTime();
+                    int maxWait = maxLeaseWaitTime;
+                    if (maxWait == 0) {
+                        returned.await();
+                    } else {
+                        long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait)
+                                - (System.nanoTime() - start);
+                        if (remaining <= 0) {
+                            recordWait(start);
+                            throw new IOException(
+                                    "No association to destination returned within "
+                                    + maxWait + "ms");
+                        }
+                        returned.awaitNanos(remaining);
+                    }
+                }
+            } finally {
+                lock.unlock();
+                for (Association as : expired)
+                    evicted(as);
+            }
+        }
+
+        private void recordWait(long start) {
+            if (start == 0L)
+                return;
+
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            waits.incrementAndGet();
+            totalWaitTime.addAndGet(ms);
+            long prev;
+            while (ms > (prev = maxWaitTime.get())
+                    && !maxWaitTime.compareAndSet(prev, ms))
+                ;
+        }
+
+        void returnIdle(Association as) {
+            lock.lock();
+            try {
+                idle.offerFirst(new Idle(as, System.currentTimeMillis()));
+                returned.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close(Association as) {
+            as.abort();
+            closed();
+        }
+
+        void closed() {
+            lock.lock();
+            try {
+                open--;
+                returned.signal();
+                removeIfUnused();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Remove this destination from the pool, if it has no open
+         * association. Shall be invoked while holding the lock.
+         */
+        private void removeIfUnused() {
+            if (open == 0 && idle.isEmpty()) {
+                removed = true;
+                destinations.remove(key, this);
+                // let waiting leases retry with a new destination
+                returned.signalAll();
+            }
+        }
+
+        int idleCount() {
+            lock.lock();
+            try {
+                return idle.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Release associations idle since before the specified time and
+         * return the time at which the next idle association expires, or
+         * {@link Long#MAX_VALUE}, if no idle associations remain.
+         */
+        long evict(long now) {
+            List<Association> expired = new ArrayList<Association>();
+            long next = Long.MAX_VALUE;
+            lock.lock();
+            try {
+                for (Iterator<Idle> iter = idle.iterator(); iter.hasNext();) {
+                    Idle e = iter.next();
+                    long dueTime = e.since + evictAfter(e.as);
+                    if (dueTime <= now || !e.as.isReadyForDataTransfer()) {
+                        iter.remove();
+                        expired.add(e.as);
+                        open--;
+                    } else {
+                        next = Math.min(next, dueTime);
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    returned.signalAll();
+                    removeIfUnused();
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Association as : expired)
+                evicted(as);
+            return next;
+        }
+    }
+
+    private void evicted(Association as) {
+        if (!as.isReadyForDataTransfer())
+            return;
+
+        evicted.incrementAndGet();
+        LOG.debug("{}: release idle pooled association", as);
+        try {
+            as.release();
+        } catch (IOException e) {
+            LOG.info("{}: failed to release idle pooled association:", as, e);
+        }
+    }
+
+    private static final class Key {
+
+        private final Connection local;
+        private final String id;
+
+        Key(Connection local, Connection remote, AAssociateRQ rq) {
+            this.local = local;
+            StringBuilder sb = new StringBuilder(256)
+                .append(rq.getCallingAET()).append('\\')
+                .append(rq.getCalledAET()).append('\\')
+                .append(remote.getHostname()).append(':')
+                .append(remote.getPort()).append('\\')
+                .append(remote.isTls());
+            TreeSet<String> items = new TreeSet<String>();
+            for (PresentationContext pc : rq.getPresentationContexts())
+                items.add("pc:" + pc.getAbstractSyntax() + ':'
+                        + Arrays.toString(pc.getTransferSyntaxes()));
+            for (RoleSelection rs : rq.getRoleSelections())
+                items.add("rs:" + rs.getSOPClassUID() + ':' + rs.isSCU()
+                        + ':' + rs.isSCP());
+            for (ExtendedNegotiation extNeg : rq.getExtendedNegotiations())
+                items.add("en:" + extNeg.getSOPClassUID() + ':'
+                        + Arrays.toString(extNeg.getInformation()));
+            for (String item : items)
+                sb.append('\\').append(item);
+            UserIdentityRQ userIdentity = rq.getUserIdentityRQ();
+            if (userIdentity != null)
+                sb.append("\\ui:").append(userIdentity.getType()).append(':')
+                    .append(Arrays.toString(userIdentity.getPrimaryField()))
+                    .append(Arrays.toString(userIdentity.getSecondaryField()));
+            this.id = sb.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+            return local == other.local && id.equals(other.id);
+        }
+    }
+}
@@ -51,12 +51,17 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
@@ -111,6 +116,9 @@ public class Connection implements Serializable {
     public static final int DEF_SOCKETDELAY = 50;
     public static final int DEF_BUFFERSIZE = 0;
     public static final int DEF_MAX_PDU_LENGTH = 16378;
+    public static final int DEF_DIMSE_RQ_SPOOL_THRESHOLD = 1048576;
+    public static final int DEF_TLS_HANDSHAKE_TIMEOUT = 10000;
+    public static final int DEF_TLS_HANDSHAKE_THREADS = 10;
     // to fit into SunJSSE TLS Application Data Length 16408
 
     public static final String TLS_RSA_WITH_NULL_SHA = "SSL_RSA_WITH_NULL_SHA";
@@ -182,15 +190,33 @@ public class Connection implements Serializable {
     @ConfigurableProperty(name = "dcmMaxOpsInvoked", defaultValue = "1")
     private int maxOpsInvoked = SYNCHRONOUS_MODE;
 
+    @ConfigurableProperty(name = "dcmDimseRQSpoolThreshold", defaultValue = "1048576")
+    private int dimseRQSpoolThreshold = DEF_DIMSE_RQ_SPOOL_THRESHOLD;
+
+    @ConfigurableProperty(name = "dcmDimseRQSpoolDirectory")
+    private String dimseRQSpoolDirectory;
+
     @ConfigurableProperty(name = "dcmPackPDV", defaultValue = "true")
     private boolean packPDV = true;
 
     @ConfigurableProperty(name = "dcmTCPNoDelay", defaultValue = "true")
     private boolean tcpNoDelay = true;
 
+    @ConfigurableProperty(name = "dcmSelectorThreads", defaultValue = "0")
+    private int selectorThreads;
+
+    @ConfigurableProperty(name = "dcmSocketChannel", defaultValue = "false")
+    private boolean socketChannel;
+
     @ConfigurableProperty(name = "dcmTLSNeedClientAuth", defaultValue = "true")
     private boolean tlsNeedClientAuth = true;
 
+    @ConfigurableProperty(name = "dcmTLSHandshakeTimeout", defaultValue = "10000")
+    private int tlsHandshakeTimeout = DEF_TLS_HANDSHAKE_TIMEOUT;
+
+    @ConfigurableProperty(name = "dcmTLSHandshakeThreads", defaultValue = "10")
+    private int tlsHandshakeThreads = DEF_TLS_HANDSHAKE_THREADS;
+
     @ConfigurableProperty(name = "dicomTLSCipherSuite")
     private String[] tlsCipherSuites = {};
 
@@ -625,6 +651,66 @@ public class Connection implements Serializable {
         needRebind();
     }
 
+    /**
+     * Get the timeout in ms for completing the TLS handshake of an accepted
+     * or requested connection.
+     *
+     * @return An int value containing the timeout in ms or
+     *         {@link #NO_TIMEOUT}.
+     */
+    public final int getTlsHandshakeTimeout() {
+        return tlsHandshakeTimeout;
+    }
+
+    /**
+     * Set the timeout in ms for completing the TLS handshake of an accepted
+     * or requested connection.
+     *
+     * @param tlsHandshakeTimeout
+     *            An int value containing the timeout in ms or
+     *            {@link #NO_TIMEOUT}.
+     */
+    public final void setTlsHandshakeTimeout(int tlsHandshakeTimeout) {
+        if (tlsHandshakeTimeout < 0)
+            throw new IllegalArgumentException("tlsHandshakeTimeout: "
+                    + tlsHandshakeTimeout);
+        this.tlsHandshakeTimeout = tlsHandshakeTimeout;
+    }
+
+    /**
+     * Get the maximal number of TLS handshakes of accepted connections
+     * performed concurrently, off the thread accepting the connections.
+     *
+     * @return An int value containing the maximal number of concurrent
+     *         handshakes or 0, if handshakes are performed by the thread
+     *         accepting the connections.
+     */
+    public final int getTlsHandshakeThreads() {
+        return tlsHandshakeThreads;
+    }
+
+    /**
+     * Set the maximal number of TLS handshakes of accepted connections
+     * performed concurrently, off the thread accepting the connections.
+     * Further connections are not accepted until one of the pending
+     * handshakes completed.
+     *
+     * @param tlsHandshakeThreads
+     *            An int value containing the maximal number of concurrent
+     *            handshakes or 0, to perform handshakes by the thread
+     *            accepting the connections.
+     */
+    public final void setTlsHandshakeThreads(int tlsHandshakeThreads) {
+        if (tlsHandshakeThreads < 0)
+            throw new IllegalArgumentException("tlsHandshakeThreads: "
+                    + tlsHandshakeThreads);
+        if (this.tlsHandshakeThreads == tlsHandshakeThreads)
+            return;
+
+        this.tlsHandshakeThreads = tlsHandshakeThreads;
+        needRebind();
+    }
+
     /**
      * Get the SO_RCVBUF socket value in KB.
      *
@@ -689,6 +775,60 @@ public class Connection implements Serializable {
         this.maxOpsPerformed = maxOpsPerformed;
     }
 
+    /**
+     * Get the maximal size of the data set of a DIMSE request, which is kept
+     * on the heap, if requests received on one association are processed
+     * concurrently. Larger data sets are spooled to a temporary file.
+     *
+     * @return An int value containing the maximal number of bytes kept on
+     *         the heap.
+     * @see #getMaxOpsPerformed()
+     */
+    public final int getDimseRQSpoolThreshold() {
+        return dimseRQSpoolThreshold;
+    }
+
+    /**
+     * Set the maximal size of the data set of a DIMSE request, which is kept
+     * on the heap, if requests received on one association are processed
+     * concurrently. Larger data sets are spooled to a temporary file.
+     *
+     * @param dimseRQSpoolThreshold
+     *            An int value containing the maximal number of bytes kept on
+     *            the heap.
+     */
+    public final void setDimseRQSpoolThreshold(int dimseRQSpoolThreshold) {
+        if (dimseRQSpoolThreshold < 0)
+            throw new IllegalArgumentException("dimseRQSpoolThreshold: "
+                    + dimseRQSpoolThreshold);
+        this.dimseRQSpoolThreshold = dimseRQSpoolThreshold;
+    }
+
+    /**
+     * Get the directory of spool files for data sets of DIMSE requests
+     * exceeding {@link #getDimseRQSpoolThreshold()}.
+     *
+     * @return A String containing the path of the directory or {@code null},
+     *         if spool files are created in the default temporary-file
+     *         directory.
+     */
+    public final String getDimseRQSpoolDirectory() {
+        return dimseRQSpoolDirectory;
+    }
+
+    /**
+     * Set the directory of spool files for data sets of DIMSE requests
+     * exceeding {@link #getDimseRQSpoolThreshold()}.
+     *
+     * @param dimseRQSpoolDirectory
+     *            A String containing the path of the directory or
+     *            {@code null}, to create spool files in the default
+     *            temporary-file directory.
+     */
+    public final void setDimseRQSpoolDirectory(String dimseRQSpoolDirectory) {
+        this.dimseRQSpoolDirectory = dimseRQSpoolDirectory;
+    }
+
     public final int getMaxOpsInvoked() {
         return maxOpsInvoked;
     }
@@ -705,6 +845,64 @@ public class Connection implements Serializable {
         this.packPDV = packPDV;
     }
 
+    /**
+     * Number of selector threads multiplexing the I/O of accepted connections.
+     * If {@code 0}, each accepted connection is served by its own thread.
+     * This is the default.
+     *
+     * @return An int value containing the number of selector threads.
+     */
+    public final int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * Number of selector threads multiplexing the I/O of accepted connections.
+     * If {@code 0}, each accepted connection is served by its own thread.
+     * Only effective, if the TCP Protocol Handler registered for the
+     * protocol of this network connection is a {@link NIOProtocolHandler}.
+     *
+     * @param selectorThreads An int value containing the number of selector
+     *                        threads.
+     */
+    public final void setSelectorThreads(int selectorThreads) {
+        if (selectorThreads < 0)
+            throw new IllegalArgumentException("selectorThreads: "
+                    + selectorThreads);
+
+        if (this.selectorThreads == selectorThreads)
+            return;
+
+        this.selectorThreads = selectorThreads;
+        needRebind();
+    }
+
+    /**
+     * Determine if outgoing non-TLS connections are opened by a
+     * {@link SocketChannel}, which enables zero-copy transfer of file content
+     * written by {@link FileDataWriter}.
+     *
+     * @return A boolean value indicating if outgoing connections are opened
+     *         by a {@code SocketChannel}.
+     */
+    public final boolean isSocketChannel() {
+        return socketChannel;
+    }
+
+    /**
+     * Set if outgoing non-TLS connections are opened by a
+     * {@link SocketChannel}, which enables zero-copy transfer of file content
+     * written by {@link FileDataWriter}. Accepted connections provide zero-copy
+     * transfer, if {@link #getSelectorThreads()} > 0.
+     *
+     * @param socketChannel
+     *            A boolean value indicating if outgoing connections are opened
+     *            by a {@code SocketChannel}.
+     */
+    public final void setSocketChannel(boolean socketChannel) {
+        this.socketChannel = socketChannel;
+    }
+
     /**
      * Determine if this network connection is using Nagle's algorithm as part
      * of its network communication.
@@ -932,7 +1130,9 @@ public class Connection implements Serializable {
             TCPProtocolHandler handler = tcpHandlers.get(protocol);
             if (handler == null)
                 throw new IllegalStateException("No TCP Protocol Handler for protocol " + protocol);
-            listener = new TCPListener(this, handler);
+            listener = selectorThreads > 0 && handler instanceof NIOProtocolHandler
+                    ? new NIOTCPListener(this, (NIOProtocolHandler) handler)
+                    : new TCPListener(this, handler);
         } else {
             UDPProtocolHandler handler = udpHandlers.get(protocol);
             if (handler == null)
@@ -974,7 +1174,9 @@ public class Connection implements Serializable {
         int remotePort = remoteConn.getPort();
         LOG.info("Initiate connection from {} to {}:{}",
                 bindPoint, remoteHostname, remotePort);
-        Socket s = new Socket();
+        Socket s = socketChannel && !isTls()
+                ? SocketChannel.open().socket()
+                : new Socket();
         ConnectionMonitor monitor = device != null
                 ? device.getConnectionMonitor()
                 : null;
@@ -1111,10 +1313,52 @@ public class Connection implements Serializable {
                 intersect(remoteConn.tlsProtocols, tlsProtocols));
         ssl.setEnabledCipherSuites(
                 intersect(remoteConn.tlsCipherSuites, tlsCipherSuites));
-        ssl.startHandshake();
+        startHandshake(ssl);
         return ssl;
     }
 
+    void startHandshake(final SSLSocket ssl) throws IOException {
+        TLSHandshakeStatistics stats = device.getTLSHandshakeStatistics();
+        long start = System.nanoTime();
+        ScheduledFuture<?> timer = null;
+        int soTimeout = ssl.getSoTimeout();
+        // claimed either by the timeout task or by the completed handshake
+        final AtomicBoolean claimed = new AtomicBoolean();
+        if (tlsHandshakeTimeout > 0) {
+            ssl.setSoTimeout(tlsHandshakeTimeout);
+            try {
+                timer = device.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (claimed.compareAndSet(false, true)) {
+                            LOG.info("{}: TLS handshake timeout expired", ssl);
+                            SafeClose.close(ssl);
+                        }
+                    }
+                }, tlsHandshakeTimeout, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                // no scheduled executor - rely on SO_TIMEOUT only
+            }
+        }
+        try {
+            ssl.startHandshake();
+            if (!claimed.compareAndSet(false, true))
+                throw new SocketTimeoutException(
+                        "TLS handshake timeout expired");
+            ssl.setSoTimeout(soTimeout);
+        } catch (IOException e) {
+            claimed.set(true);
+            stats.onHandshakeFailed();
+            throw e;
+        } finally {
+            if (timer != null)
+                timer.cancel(false);
+        }
+        stats.onHandshakeCompleted(System.nanoTime() - start,
+                ssl.getSession());
+    }
+
     public void close(Socket s) {
         LOG.info("Close connection {}", s);
         SafeClose.close(s);
@@ -1192,9 +1436,15 @@ public class Connection implements Serializable {
         setReceivePDULength(from.receivePDULength);
         setMaxOpsPerformed(from.maxOpsPerformed);
         setMaxOpsPerformed(from.maxOpsInvoked);
+        setDimseRQSpoolThreshold(from.dimseRQSpoolThreshold);
+        setDimseRQSpoolDirectory(from.dimseRQSpoolDirectory);
         setPackPDV(from.packPDV);
         setTcpNoDelay(from.tcpNoDelay);
+        setSelectorThreads(from.selectorThreads);
+        setSocketChannel(from.socketChannel);
         setTlsNeedClientAuth(from.tlsNeedClientAuth);
+        setTlsHandshakeTimeout(from.tlsHandshakeTimeout);
+        setTlsHandshakeThreads(from.tlsHandshakeThreads);
         setTlsCipherSuites(from.tlsCipherSuites);
         setTlsProtocols(from.tlsProtocols);
         setBlacklist(from.blacklist);
@@ -58,9 +58,12 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 
 import org.dcm4che3.conf.core.api.ConfigurableClass;
@@ -88,6 +91,8 @@ public class Device implements Serializable {
 
     private static final long serialVersionUID = -5816872456184522866L;
 
+    private static final int DEF_TLS_SESSION_TIMEOUT = 86400;
+
     @ConfigurableProperty(name = "dicomDeviceName")
     private String deviceName;
 
@@ -193,6 +198,21 @@ public class Device implements Serializable {
     @ConfigurableProperty(name = "dcmTimeZoneOfDevice")
     private TimeZone timeZoneOfDevice;
 
+    @ConfigurableProperty(name = "dcmVirtualThreads", defaultValue = "false")
+    private boolean virtualThreads;
+
+    @ConfigurableProperty(name = "dcmMaxPooledPDUBuffers", defaultValue = "0")
+    private int maxPooledPDUBuffers;
+
+    @ConfigurableProperty(name = "dcmMaxAssociationsPerDestination", defaultValue = "0")
+    private int maxAssociationsPerDestination;
+
+    @ConfigurableProperty(name = "dcmTLSSessionCacheSize", defaultValue = "0")
+    private int tlsSessionCacheSize;
+
+    @ConfigurableProperty(name = "dcmTLSSessionTimeout", defaultValue = "0")
+    private int tlsSessionTimeout;
+
 
     //TODO: finalize and store x509 cretificates !!
     private final LinkedHashMap<String, X509Certificate[]> authorizedNodeCertificates =
@@ -218,7 +238,15 @@ public class Device implements Serializable {
     private transient ConnectionMonitor connectionMonitor;
 
     private transient int assocCount = 0;
-    private transient final Object assocCountLock = new Object();
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private transient final ReentrantLock assocCountLock = new ReentrantLock();
+    private transient final Condition noOpenAssociations =
+            assocCountLock.newCondition();
+    private transient final PDUBufferPool pduBufferPool = new PDUBufferPool();
+    private transient final AssociationPool associationPool =
+            new AssociationPool(this);
+    private transient final TLSHandshakeStatistics tlsHandshakeStatistics =
+            new TLSHandshakeStatistics();
 
     private transient Executor executor;
     private transient ScheduledExecutorService scheduledExecutor;
@@ -840,6 +868,8 @@ public class Device implements Serializable {
         // the needReconfigureTLS method is cool
         for (Connection con : connections)
             con.unbind();
+        // release idle pooled associations
+        associationPool.clear();
     }
 
     public final Executor getExecutor() {
@@ -960,27 +990,162 @@ public class Device implements Serializable {
         this.limitOpenAssociations = limit;
     }
 
+    public final boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Execute tasks passed to {@link #execute(Runnable)} - in particular
+     * association readers and the DIMSE request handlers invoked by them,
+     * and C-FIND, C-MOVE and C-GET SCP tasks - on new virtual threads
+     * instead of threads provided by {@link #getExecutor()}. Only effective,
+     * if the JVM supports virtual threads (Java 21+); otherwise the executor
+     * is used regardless of this setting.
+     * 
+     * @param virtualThreads
+     *            {@code true} to execute tasks on virtual threads
+     */
+    public final void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public final int getMaxPooledPDUBuffers() {
+        return maxPooledPDUBuffers;
+    }
+
+    /**
+     * Set the maximal number of PDU buffers kept in the pool shared by the
+     * associations of this device for reuse by subsequent associations. If
+     * {@code 0}, buffers are allocated per association. This is the default.
+     * The total size of the pooled buffers is further limited by
+     * {@link PDUBufferPool#getMaxPooledBytes()}.
+     * 
+     * @param maxPooledPDUBuffers
+     *            maximal number of pooled PDU buffers
+     * @see #getPDUBufferPool()
+     */
+    public final void setMaxPooledPDUBuffers(int maxPooledPDUBuffers) {
+        pduBufferPool.setMaxPooledBuffers(maxPooledPDUBuffers);
+        this.maxPooledPDUBuffers = maxPooledPDUBuffers;
+    }
+
+    /**
+     * Returns the pool of PDU buffers shared by the associations of this
+     * device, providing hit/miss and size metrics.
+     */
+    public final PDUBufferPool getPDUBufferPool() {
+        return pduBufferPool;
+    }
+
+    public final int getMaxAssociationsPerDestination() {
+        return maxAssociationsPerDestination;
+    }
+
+    /**
+     * Set the maximal number of associations - leased or idle - to one
+     * destination held by the association pool of this device. If
+     * {@code 0}, the number is not limited. This is the default.
+     * 
+     * @param maxAssociationsPerDestination
+     *            maximal number of pooled associations per destination
+     * @see #getAssociationPool()
+     */
+    public final void setMaxAssociationsPerDestination(
+            int maxAssociationsPerDestination) {
+        associationPool.setMaxPerDestination(maxAssociationsPerDestination);
+        this.maxAssociationsPerDestination = maxAssociationsPerDestination;
+    }
+
+    /**
+     * Returns the pool of outbound associations of this device, providing
+     * reuse and wait time metrics.
+     */
+    public final AssociationPool getAssociationPool() {
+        return associationPool;
+    }
+
+    public final int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Set the maximal number of TLS sessions cached for resumption. Client
+     * sessions are cached by the host name and port of the remote connection.
+     * If {@code 0}, the number is not limited. This is the default.
+     * 
+     * @param tlsSessionCacheSize
+     *            maximal number of cached TLS sessions
+     */
+    public final void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        if (tlsSessionCacheSize < 0)
+            throw new IllegalArgumentException("tlsSessionCacheSize: "
+                    + tlsSessionCacheSize);
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        SSLContext ctx = sslContext;
+        if (ctx != null)
+            configureSessionContexts(ctx);
+    }
+
+    public final int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Set the time in s a cached TLS session may be resumed. If {@code 0},
+     * the default of the JSSE provider applies (24 hours).
+     * 
+     * @param tlsSessionTimeout
+     *            timeout of cached TLS sessions in s
+     */
+    public final void setTlsSessionTimeout(int tlsSessionTimeout) {
+        if (tlsSessionTimeout < 0)
+            throw new IllegalArgumentException("tlsSessionTimeout: "
+                    + tlsSessionTimeout);
+        this.tlsSessionTimeout = tlsSessionTimeout;
+        SSLContext ctx = sslContext;
+        if (ctx != null)
+            configureSessionContexts(ctx);
+    }
+
+    /**
+     * Returns the statistics of TLS handshakes of connections accepted or
+     * requested by this device, providing handshake durations and the ratio
+     * of resumed to full handshakes.
+     */
+    public final TLSHandshakeStatistics getTLSHandshakeStatistics() {
+        return tlsHandshakeStatistics;
+    }
+
     public int getNumberOfOpenAssociations() {
         return assocCount;
     }
 
     void incrementNumberOfOpenAssociations() {
-        synchronized (assocCountLock) {
+        assocCountLock.lock();
+        try {
             assocCount++;
+        } finally {
+            assocCountLock.unlock();
         }
     }
 
     void decrementNumberOfOpenAssociations() {
-        synchronized (assocCountLock) {
+        assocCountLock.lock();
+        try {
             if (--assocCount <= 0)
-                assocCountLock.notifyAll();
+                noOpenAssociations.signalAll();
+        } finally {
+            assocCountLock.unlock();
         }
     }
 
     public void waitForNoOpenConnections() throws InterruptedException {
-        synchronized (assocCountLock) {
+        assocCountLock.lock();
+        try {
             while (assocCount > 0)
-                assocCountLock.wait();
+                noOpenAssociations.await();
+        } finally {
+            assocCountLock.unlock();
         }
     }
 
@@ -1113,10 +1278,27 @@ public class Device implements Serializable {
         if (ctx != null)
             return ctx;
 
-        sslContext = ctx = createSSLContext(km(), tm());
+        ctx = createSSLContext(km(), tm());
+        configureSessionContexts(ctx);
+        sslContext = ctx;
         return ctx;
     }
 
+    private void configureSessionContexts(SSLContext ctx) {
+        configureSessionContext(ctx.getClientSessionContext());
+        configureSessionContext(ctx.getServerSessionContext());
+    }
+
+    private void configureSessionContext(SSLSessionContext sessionContext) {
+        if (sessionContext == null)
+            return;
+
+        sessionContext.setSessionCacheSize(tlsSessionCacheSize);
+        sessionContext.setSessionTimeout(tlsSessionTimeout > 0
+                ? tlsSessionTimeout
+                : DEF_TLS_SESSION_TIMEOUT);
+    }
+
     private static SSLContext createSSLContext(KeyManager km, TrustManager tm)
             throws GeneralSecurityException {
         SSLContext ctx = SSLContext.getInstance("TLS");
@@ -1126,6 +1308,13 @@ public class Device implements Serializable {
     }
 
     public void execute(Runnable command) {
+        if (virtualThreads) {
+            Executor virtualThreadExecutor = VirtualThreads.executor();
+            if (virtualThreadExecutor != null) {
+                virtualThreadExecutor.execute(command);
+                return;
+            }
+        }
         if (executor == null)
             throw new IllegalStateException("executer not initalized");
 
@@ -1218,6 +1407,11 @@ public class Device implements Serializable {
         setThisNodeCertificates(from.thisNodeCertificates);
         setVendorData(from.vendorData);
         setLimitOpenAssociations(from.limitOpenAssociations);
+        setVirtualThreads(from.virtualThreads);
+        setMaxPooledPDUBuffers(from.maxPooledPDUBuffers);
+        setMaxAssociationsPerDestination(from.maxAssociationsPerDestination);
+        setTlsSessionCacheSize(from.tlsSessionCacheSize);
+        setTlsSessionTimeout(from.tlsSessionTimeout);
         setInstalled(from.installed);
      }
 
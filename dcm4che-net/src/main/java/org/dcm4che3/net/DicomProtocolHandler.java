@@ -45,7 +45,7 @@ import java.net.Socket;
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
-enum DicomProtocolHandler implements TCPProtocolHandler {
+enum DicomProtocolHandler implements NIOProtocolHandler {
     INSTANCE;
 
     @Override
@@ -53,4 +53,10 @@ enum DicomProtocolHandler implements TCPProtocolHandler {
         new Association(null, conn, s);
     }
 
+    @Override
+    public void onAccept(Connection conn, NIOTransport transport)
+            throws IOException {
+        new Association(conn, transport);
+    }
+
 }
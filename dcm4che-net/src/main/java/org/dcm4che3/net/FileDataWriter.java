@@ -0,0 +1,112 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.dcm4che3.util.SafeClose;
+
+/**
+ * Writes the data set from a region of a file. If supported by the
+ * connection, the content is transferred directly from the file system to
+ * the socket, without copying it through the heap.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class FileDataWriter implements DataWriter {
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    public FileDataWriter(File file) {
+        this(file, 0, -1);
+    }
+
+    public FileDataWriter(File file, long offset) {
+        this(file, offset, -1);
+    }
+
+    /**
+     * @param file
+     *            file containing the data set
+     * @param offset
+     *            position of the data set in the file
+     * @param length
+     *            length of the data set or {@code -1}, if the data set
+     *            extends to the end of the file
+     */
+    public FileDataWriter(File file, long offset, long length) {
+        if (file == null)
+            throw new NullPointerException();
+        if (offset < 0)
+            throw new IllegalArgumentException("offset: " + offset);
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public final File getFile() {
+        return file;
+    }
+
+    public final long getOffset() {
+        return offset;
+    }
+
+    public final long getLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(PDVOutputStream out, String tsuid) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            out.copyFrom(ch, offset, length < 0 ? ch.size() - offset : length);
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+}
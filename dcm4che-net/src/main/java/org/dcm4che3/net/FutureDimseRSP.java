@@ -39,6 +39,8 @@
 package org.dcm4che3.net;
 
 import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
@@ -60,6 +62,9 @@ public class FutureDimseRSP extends DimseRSPHandler implements DimseRSP {
         }
     }
 
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
     private Entry entry = new Entry(null, null);
     private boolean finished;
     private int autoCancel;
@@ -70,36 +75,46 @@ public class FutureDimseRSP extends DimseRSPHandler implements DimseRSP {
     }
 
     @Override
-    public synchronized void onDimseRSP(Association as, Attributes cmd,
+    public void onDimseRSP(Association as, Attributes cmd,
             Attributes data) {
         super.onDimseRSP(as, cmd, data);
-        Entry last = entry;
-        while (last.next != null)
-            last = last.next;
-
-        last.next = new Entry(cmd, data);
-        if (Status.isPending(cmd.getInt(Tag.Status, 0))) {
-            if (autoCancel > 0 && --autoCancel == 0)
-                try {
-                    super.cancel(as);
-                } catch (IOException e) {
-                    ex = e;
-                }
-        } else {
-            finished = true;
+        lock.lock();
+        try {
+            Entry last = entry;
+            while (last.next != null)
+                last = last.next;
+
+            last.next = new Entry(cmd, data);
+            if (Status.isPending(cmd.getInt(Tag.Status, 0))) {
+                if (autoCancel > 0 && --autoCancel == 0)
+                    try {
+                        super.cancel(as);
+                    } catch (IOException e) {
+                        ex = e;
+                    }
+            } else {
+                finished = true;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
         }
-        notifyAll();
     }
 
     @Override
-    public synchronized void onClose(Association as) {
+    public void onClose(Association as) {
         super.onClose(as);
-        if (!finished) {
-            ex = as.getException();
-            if (ex == null)
-                ex = new IOException("Association to " + as.getRemoteAET()
-                            + " released before receive of outstanding DIMSE RSP");
-            notifyAll();
+        lock.lock();
+        try {
+            if (!finished) {
+                ex = as.getException();
+                if (ex == null)
+                    ex = new IOException("Association to " + as.getRemoteAET()
+                                + " released before receive of outstanding DIMSE RSP");
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -123,18 +138,23 @@ public class FutureDimseRSP extends DimseRSPHandler implements DimseRSP {
         return entry.dataset;
     }
 
-    public synchronized boolean next() throws IOException, InterruptedException {
-        if (entry.next == null) {
-            if (finished)
-                return false;
-
-            while (entry.next == null && ex == null)
-                wait();
-
-            if (ex != null)
-                throw ex;
+    public boolean next() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            if (entry.next == null) {
+                if (finished)
+                    return false;
+
+                while (entry.next == null && ex == null)
+                    changed.await();
+
+                if (ex != null)
+                    throw ex;
+            }
+            entry = entry.next;
+            return true;
+        } finally {
+            lock.unlock();
         }
-        entry = entry.next;
-        return true;
     }
 }
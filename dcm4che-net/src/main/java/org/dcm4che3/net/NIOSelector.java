@@ -0,0 +1,149 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector loop multiplexing the I/O of several {@link NIOTransport}s.
+ * 
+ * @author agent <agent@local>
+ *
+ */
+class NIOSelector implements Runnable {
+
+    private final String name;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<NIOTransport> pending =
+            new ConcurrentLinkedQueue<NIOTransport>();
+    private volatile Thread thread;
+    private volatile boolean shutdown;
+
+    public NIOSelector(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    boolean inSelectorThread() {
+        return thread == Thread.currentThread();
+    }
+
+    /**
+     * Schedule registration or update of the interest set of the transport
+     * by the selector thread.
+     */
+    void update(NIOTransport transport) {
+        pending.offer(transport);
+        if (!inSelectorThread())
+            selector.wakeup();
+    }
+
+    /**
+     * Stop the selector loop after all registered transports were closed.
+     */
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        Connection.LOG.info("Start {}", name);
+        try {
+            while (!(shutdown && selector.keys().isEmpty() && pending.isEmpty())) {
+                selector.select();
+                processPending();
+                processSelectedKeys();
+            }
+        } catch (Throwable e) {
+            Connection.LOG.error("Exception in {}:", name, e);
+            for (SelectionKey key : selector.keys())
+                ((NIOTransport) key.attachment()).close();
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignore) {}
+            thread = null;
+        }
+        Connection.LOG.info("Stop {}", name);
+    }
+
+    private void processPending() {
+        NIOTransport transport;
+        while ((transport = pending.poll()) != null) {
+            try {
+                transport.onUpdate(selector);
+            } catch (IOException e) {
+                transport.onFailure(e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+            NIOTransport transport = (NIOTransport) key.attachment();
+            try {
+                if (!key.isValid())
+                    continue;
+                if (key.isWritable())
+                    transport.onWritable();
+                if (key.isValid() && key.isReadable())
+                    transport.onReadable();
+            } catch (CancelledKeyException e) {
+                // transport closed by other thread
+            } catch (IOException e) {
+                transport.onFailure(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.dcm4che3.util.SafeClose;
+
+/**
+ * Listener accepting TCP connections, which I/O is multiplexed over
+ * {@link Connection#getSelectorThreads()} selector threads instead of
+ * dedicating one thread to each connection.
+ *
+ * @author agent <agent@local>
+ *
+ */
+class NIOTCPListener implements Listener {
+
+    private final Connection conn;
+    private final NIOProtocolHandler handler;
+    private final ServerSocketChannel ssc;
+    private final NIOSelector[] selectors;
+    private int nextSelector;
+
+    public NIOTCPListener(Connection conn, NIOProtocolHandler handler)
+            throws IOException, GeneralSecurityException {
+        this.conn = conn;
+        this.handler = handler;
+        this.selectors = new NIOSelector[conn.getSelectorThreads()];
+        try {
+            if (conn.isTls())
+                conn.getDevice().sslContext();
+            ssc = ServerSocketChannel.open();
+            ServerSocket ss = ssc.socket();
+            conn.setReceiveBufferSize(ss);
+            ss.bind(conn.getBindPoint(), conn.getBacklog());
+        } catch (IOException e) {
+            throw new IOException("Unable to start NIOTCPListener on "
+                    + conn.getHostname() + ":" + conn.getPort(), e);
+        }
+        SocketAddress sockAddr = ssc.socket().getLocalSocketAddress();
+        for (int i = 0; i < selectors.length; i++) {
+            selectors[i] = new NIOSelector("Selector-" + (i + 1) + " of " + sockAddr);
+            conn.getDevice().execute(selectors[i]);
+        }
+        conn.getDevice().execute(new Runnable() {
+
+            @Override
+            public void run() { listen(); }
+        });
+    }
+
+    private void listen() {
+        SocketAddress sockAddr = ssc.socket().getLocalSocketAddress();
+        Connection.LOG.info("Start NIO TCP Listener on {}", sockAddr);
+        try {
+            while (ssc.isOpen()) {
+                Connection.LOG.debug("Wait for connection on {}", sockAddr);
+                SocketChannel ch = ssc.accept();
+                Socket s = ch.socket();
+                ConnectionMonitor monitor = conn.getDevice() != null
+                        ? conn.getDevice().getConnectionMonitor()
+                        : null;
+                if (conn.isBlackListed(s.getInetAddress())) {
+                    if (monitor != null)
+                        monitor.onConnectionRejectedBlacklisted(conn, s);
+                    Connection.LOG.info("Reject blacklisted connection {}", s);
+                    conn.close(s);
+                    continue;
+                }
+                NIOTransport transport;
+                try {
+                    conn.setSocketSendOptions(s);
+                    transport = new NIOTransport(conn, ch,
+                            conn.isTls() ? createSSLEngine() : null,
+                            nextSelector());
+                } catch (Throwable e) {
+                    if (monitor != null)
+                        monitor.onConnectionRejected(conn, s, e);
+                    Connection.LOG.warn("Reject connection {}:", s, e);
+                    conn.close(s);
+                    continue;
+                }
+                if (!transport.isTls()) {
+                    if (monitor != null)
+                        monitor.onConnectionAccepted(conn, s);
+                    Connection.LOG.info("Accept connection {}", s);
+                }
+                try {
+                    handler.onAccept(conn, transport);
+                } catch (Throwable e) {
+                    Connection.LOG.warn("Exception on accepted connection {}:", s, e);
+                    transport.close();
+                }
+            }
+        } catch (Throwable e) {
+            if (ssc.isOpen()) // ignore exception caused by close()
+                Connection.LOG.error("Exception on listing on {}:", sockAddr, e);
+        }
+        Connection.LOG.info("Stop NIO TCP Listener on {}", sockAddr);
+    }
+
+    private NIOSelector nextSelector() {
+        NIOSelector selector = selectors[nextSelector];
+        nextSelector = (nextSelector + 1) % selectors.length;
+        return selector;
+    }
+
+    private SSLEngine createSSLEngine()
+            throws IOException, GeneralSecurityException {
+        SSLContext sslContext = conn.getDevice().sslContext();
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(conn.getTlsProtocols());
+        engine.setEnabledCipherSuites(conn.getTlsCipherSuites());
+        engine.setNeedClientAuth(conn.isTlsNeedClientAuth());
+        return engine;
+    }
+
+    @Override
+    public SocketAddress getEndPoint() {
+        return ssc.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Stops accepting connections. Already accepted connections are served
+     * until they are closed.
+     */
+    @Override
+    public void close() throws IOException {
+        SafeClose.close(ssc);
+        for (NIOSelector selector : selectors)
+            selector.shutdown();
+    }
+}
@@ -0,0 +1,749 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Non-blocking transport of a TCP connection, which I/O is multiplexed by a
+ * selector thread. Received data is buffered and provided to a reader thread
+ * by {@link #getInputStream()}, so a thread is only occupied while there is
+ * something to decode. {@link #getOutputStream()} blocks the writing thread
+ * only if the socket send buffer is full. TLS is supported by an
+ * {@link SSLEngine}, which handshake is driven by the selector thread.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class NIOTransport implements Closeable {
+
+    /**
+     * Callback invoked after data was received or the input was shut down.
+     * Invoked by the selector thread, so implementations must not block.
+     */
+    public interface Handler {
+        void onInput(NIOTransport transport);
+    }
+
+    private static final int MIN_INPUT_BUFFER_SIZE = 8192;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Connection conn;
+    private final SocketChannel ch;
+    private final Socket sock;
+    private final NIOSelector selector;
+    private final SSLEngine sslEngine;
+    private final int appBufferSize;
+    private final ReentrantLock inLock = new ReentrantLock();
+    private final Condition inputChanged = inLock.newCondition();
+    private final ReentrantLock outLock = new ReentrantLock();
+    private final Condition outputChanged = outLock.newCondition();
+    private final InputStream in = new TransportInputStream();
+    private final OutputStream out = new TransportOutputStream();
+    private final ByteBuffer inBuf;
+    private int inPos;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private SelectionKey key;
+    private int waitingWriters;
+    private IOException failure;
+    private volatile Handler handler;
+    private final AtomicBoolean handshaking = new AtomicBoolean();
+    private final AtomicBoolean runningDelegatedTasks = new AtomicBoolean();
+    private volatile boolean readSuspended;
+    private volatile boolean writeBlocked;
+    private volatile boolean eof;
+    private volatile boolean closed;
+    private long handshakeStarted;
+
+    NIOTransport(Connection conn, SocketChannel ch, SSLEngine sslEngine,
+            NIOSelector selector) throws IOException {
+        this.conn = conn;
+        this.ch = ch;
+        this.sock = ch.socket();
+        this.selector = selector;
+        this.sslEngine = sslEngine;
+        ch.configureBlocking(false);
+        int bufferSize = Math.max(conn.getReceivePDULength() + 6,
+                MIN_INPUT_BUFFER_SIZE);
+        if (sslEngine != null) {
+            int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+            appBufferSize = sslEngine.getSession().getApplicationBufferSize();
+            netIn = ByteBuffer.allocate(packetBufferSize);
+            netOut = ByteBuffer.allocate(packetBufferSize);
+            bufferSize += appBufferSize;
+            handshakeStarted = System.nanoTime();
+            sslEngine.beginHandshake();
+            handshaking.set(true);
+        } else {
+            appBufferSize = 1;
+        }
+        inBuf = ByteBuffer.allocate(bufferSize);
+    }
+
+    public final Connection getConnection() {
+        return conn;
+    }
+
+    public final Socket getSocket() {
+        return sock;
+    }
+
+    public final boolean isTls() {
+        return sslEngine != null;
+    }
+
+    public final InputStream getInputStream() {
+        return in;
+    }
+
+    public final OutputStream getOutputStream() {
+        return out;
+    }
+
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns {@code true} if no further input will be received, because the
+     * peer closed the connection, an I/O error occurred or the transport
+     * was closed.
+     */
+    public final boolean isInputShutdown() {
+        return eof || closed;
+    }
+
+    /**
+     * Returns {@code true} if reading from the socket is suspended, because
+     * the input buffer is full. 
+     */
+    public final boolean isInputBufferFull() {
+        return readSuspended;
+    }
+
+    /**
+     * Returns the number of received bytes, which can be read from
+     * {@link #getInputStream()} without blocking.
+     */
+    public int available() {
+        inLock.lock();
+        try {
+            return inBuf.position() - inPos;
+        } finally {
+            inLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the received byte at the specified offset without consuming it,
+     * or {@code -1} if not yet received.
+     */
+    public int peek(int offset) {
+        inLock.lock();
+        try {
+            int index = inPos + offset;
+            return index < inBuf.position() ? inBuf.array()[index] & 0xff : -1;
+        } finally {
+            inLock.unlock();
+        }
+    }
+
+    /**
+     * Start the processing of I/O events for this transport by the
+     * selector thread.
+     */
+    public void start(Handler handler) {
+        this.handler = handler;
+        if (handshaking.get())
+            scheduleHandshakeTimeout();
+        selector.update(this);
+    }
+
+    private void scheduleHandshakeTimeout() {
+        int timeout = conn.getTlsHandshakeTimeout();
+        if (timeout <= 0)
+            return;
+
+        try {
+            conn.getDevice().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (handshaking.compareAndSet(true, false)) {
+                        IOException e = new SocketTimeoutException(
+                                "TLS handshake timeout expired");
+                        setFailure(e);
+                        onHandshakeFailed(e);
+                        close();
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            Connection.LOG.debug("No TLS handshake timeout for {}: {}",
+                    sock, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sock.toString();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        if (sslEngine != null)
+            trySendCloseNotify();
+        try {
+            ch.close();
+        } catch (IOException ignore) {}
+        inLock.lock();
+        try {
+            inputChanged.signalAll();
+        } finally {
+            inLock.unlock();
+        }
+        outLock.lock();
+        try {
+            outputChanged.signalAll();
+        } finally {
+            outLock.unlock();
+        }
+        selector.update(this);
+        notifyHandler();
+    }
+
+    private void trySendCloseNotify() {
+        outLock.lock();
+        try {
+            if (waitingWriters > 0)
+                return;
+            sslEngine.closeOutbound();
+            try {
+                sslEngine.wrap(EMPTY, netOut);
+                netOut.flip();
+                ch.write(netOut);
+            } catch (IOException ignore) {
+            } finally {
+                netOut.clear();
+            }
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private void notifyHandler() {
+        Handler h = handler;
+        if (h != null)
+            h.onInput(this);
+    }
+
+    private int interestOps() {
+        int ops = 0;
+        if (!(readSuspended || eof))
+            ops |= SelectionKey.OP_READ;
+        if (writeBlocked)
+            ops |= SelectionKey.OP_WRITE;
+        return ops;
+    }
+
+    private void updateInterestOps() {
+        try {
+            if (key != null && key.isValid())
+                key.interestOps(interestOps());
+        } catch (CancelledKeyException e) {
+            // closed by other thread
+        }
+    }
+
+    void onUpdate(Selector sel) throws IOException {
+        if (closed) {
+            if (key != null)
+                key.cancel();
+            return;
+        }
+        if (key == null)
+            key = ch.register(sel, 0, this);
+        if (sslEngine != null && !readSuspended) {
+            inLock.lock();
+            try {
+                // also resume the handshake after delegated tasks completed
+                if (netIn.position() > 0 || handshaking.get()) {
+                    unwrap();
+                    inputChanged.signalAll();
+                }
+            } finally {
+                inLock.unlock();
+            }
+            updateInterestOps();
+            notifyHandler();
+        } else {
+            updateInterestOps();
+        }
+    }
+
+    void onReadable() throws IOException {
+        inLock.lock();
+        try {
+            if (sslEngine == null) {
+                if (ensureRemaining(appBufferSize) && ch.read(inBuf) < 0)
+                    eof = true;
+            } else {
+                if (ch.read(netIn) < 0)
+                    eof = true;
+                unwrap();
+            }
+            if (!ensureRemaining(appBufferSize))
+                readSuspended = true;
+            inputChanged.signalAll();
+        } finally {
+            inLock.unlock();
+        }
+        updateInterestOps();
+        notifyHandler();
+    }
+
+    void onWritable() throws IOException {
+        boolean flushed = true;
+        outLock.lock();
+        try {
+            writeBlocked = false;
+            if (waitingWriters > 0)
+                outputChanged.signalAll();
+            else if (sslEngine != null)
+                flushed = flushNetOut(false);
+        } finally {
+            outLock.unlock();
+        }
+        if (sslEngine != null && flushed && handshaking.get()) {
+            inLock.lock();
+            try {
+                unwrap();
+                inputChanged.signalAll();
+            } finally {
+                inLock.unlock();
+            }
+            notifyHandler();
+        }
+        updateInterestOps();
+    }
+
+    void onFailure(IOException e) {
+        setFailure(e);
+        if (handshaking.compareAndSet(true, false))
+            onHandshakeFailed(e);
+        else if (!closed)
+            Connection.LOG.info("I/O exception on connection {}: {}", sock, e);
+        close();
+    }
+
+    private void setFailure(IOException e) {
+        inLock.lock();
+        try {
+            if (failure == null)
+                failure = e;
+        } finally {
+            inLock.unlock();
+        }
+    }
+
+    private void onHandshakeFailed(IOException e) {
+        TLSHandshakeStatistics stats = tlsHandshakeStatistics();
+        if (stats != null)
+            stats.onHandshakeFailed();
+        ConnectionMonitor monitor = conn.getDevice() != null
+                ? conn.getDevice().getConnectionMonitor()
+                : null;
+        if (monitor != null)
+            monitor.onConnectionRejected(conn, sock, e);
+        Connection.LOG.warn("Reject connection {}:", sock, e);
+    }
+
+    private TLSHandshakeStatistics tlsHandshakeStatistics() {
+        return conn.getDevice() != null
+                ? conn.getDevice().getTLSHandshakeStatistics()
+                : null;
+    }
+
+    private void onHandshakeFinished() {
+        // the handshake timeout may have expired concurrently
+        if (!handshaking.compareAndSet(true, false))
+            return;
+
+        TLSHandshakeStatistics stats = tlsHandshakeStatistics();
+        if (stats != null)
+            stats.onHandshakeCompleted(System.nanoTime() - handshakeStarted,
+                    sslEngine.getSession());
+        ConnectionMonitor monitor = conn.getDevice() != null
+                ? conn.getDevice().getConnectionMonitor()
+                : null;
+        if (monitor != null)
+            monitor.onConnectionAccepted(conn, sock);
+        Connection.LOG.info("Accept connection {}", sock);
+    }
+
+    private boolean ensureRemaining(int minRemaining) {
+        if (inBuf.remaining() >= minRemaining)
+            return true;
+
+        if (inPos > 0) {
+            inBuf.flip();
+            inBuf.position(inPos);
+            inBuf.compact();
+            inPos = 0;
+        }
+        return inBuf.remaining() >= minRemaining;
+    }
+
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            for (;;) {
+                switch (sslEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    if (!runDelegatedTasks())
+                        return;
+                    continue;
+                case NEED_WRAP:
+                    if (!wrapHandshake())
+                        return;
+                    continue;
+                default:
+                    break;
+                }
+                if (!netIn.hasRemaining())
+                    return;
+                if (!ensureRemaining(appBufferSize)) {
+                    readSuspended = true;
+                    return;
+                }
+                SSLEngineResult result = sslEngine.unwrap(netIn, inBuf);
+                if (result.getHandshakeStatus()
+                        == SSLEngineResult.HandshakeStatus.FINISHED)
+                    onHandshakeFinished();
+                switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    return;
+                case BUFFER_OVERFLOW:
+                    readSuspended = true;
+                    return;
+                case CLOSED:
+                    eof = true;
+                    return;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    /**
+     * Run the delegated tasks of the SSLEngine - e.g. certificate validation -
+     * by the executor of the device, so they do not block the selector
+     * thread. The handshake is resumed by the selector thread after the
+     * tasks completed. Runs the tasks by the current thread, if no executor
+     * is available.
+     *
+     * @return {@code true} if the tasks completed, {@code false} if they
+     *         are performed asynchronously
+     */
+    private boolean runDelegatedTasks() {
+        if (!runningDelegatedTasks.compareAndSet(false, true))
+            return false;
+
+        final Runnable tasks = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Runnable task;
+                    while ((task = sslEngine.getDelegatedTask()) != null)
+                        task.run();
+                } finally {
+                    runningDelegatedTasks.set(false);
+                }
+            }
+        };
+        Device device = conn.getDevice();
+        if (device != null) {
+            try {
+                device.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        tasks.run();
+                        selector.update(NIOTransport.this);
+                    }
+                });
+                return false;
+            } catch (RuntimeException e) {
+                // no executor - run tasks by the selector thread
+            }
+        }
+        tasks.run();
+        return true;
+    }
+
+    private boolean wrapHandshake() throws IOException {
+        outLock.lock();
+        try {
+            if (waitingWriters > 0 || !flushNetOut(false))
+                return false;
+            SSLEngineResult result = sslEngine.wrap(EMPTY, netOut);
+            if (result.getHandshakeStatus()
+                    == SSLEngineResult.HandshakeStatus.FINISHED)
+                onHandshakeFinished();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                flushNetOut(false);
+                throw new SSLException("TLS handshake failed");
+            }
+            return flushNetOut(false);
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private boolean flushNetOut(boolean block) throws IOException {
+        for (;;) {
+            netOut.flip();
+            try {
+                if (netOut.hasRemaining())
+                    ch.write(netOut);
+                if (!netOut.hasRemaining())
+                    return true;
+            } finally {
+                netOut.compact();
+            }
+            if (!block) {
+                writeBlocked = true;
+                return false;
+            }
+            awaitWritable();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        writeBlocked = true;
+        selector.update(this);
+        waitingWriters++;
+        try {
+            while (writeBlocked && !closed)
+                outputChanged.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            waitingWriters--;
+        }
+        checkOpen();
+    }
+
+    private void checkOpen() throws SocketException {
+        if (closed)
+            throw new SocketException("Socket closed");
+    }
+
+    /**
+     * Transfers {@code length} bytes starting at {@code position} from the
+     * specified file channel directly to the socket, without copying them
+     * through the heap. Not supported for TLS connections.
+     */
+    void transferFrom(FileChannel src, long position, long length)
+            throws IOException {
+        if (sslEngine != null)
+            throw new IllegalStateException("TLS connection");
+        if (position + length > src.size())
+            throw new EOFException();
+
+        outLock.lock();
+        try {
+            checkOpen();
+            while (length > 0) {
+                long n = src.transferTo(position, length, ch);
+                if (n == 0)
+                    awaitWritable();
+                position += n;
+                length -= n;
+            }
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(b, off, len);
+        outLock.lock();
+        try {
+            checkOpen();
+            if (sslEngine == null) {
+                while (src.hasRemaining())
+                    if (ch.write(src) == 0)
+                        awaitWritable();
+                return;
+            }
+            while (src.hasRemaining()) {
+                SSLEngineResult result = sslEngine.wrap(src, netOut);
+                switch (result.getStatus()) {
+                case CLOSED:
+                    throw new SocketException("Socket closed");
+                case BUFFER_OVERFLOW:
+                    if (netOut.position() == 0)
+                        throw new SSLException(
+                                "Unexpected TLS buffer overflow");
+                    break;
+                default:
+                    if (result.bytesConsumed() == 0
+                            && result.bytesProduced() == 0)
+                        throw new SSLException(
+                                "TLS renegotiation not supported");
+                }
+                flushNetOut(true);
+            }
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        inLock.lock();
+        try {
+            int avail;
+            while ((avail = inBuf.position() - inPos) == 0) {
+                if (failure != null)
+                    throw failure;
+                if (eof)
+                    return -1;
+                checkOpen();
+                try {
+                    inputChanged.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            int n = Math.min(len, avail);
+            System.arraycopy(inBuf.array(), inPos, b, off, n);
+            inPos += n;
+            if (inPos == inBuf.position()) {
+                inBuf.clear();
+                inPos = 0;
+            }
+            if (readSuspended && inBuf.position() - inPos
+                    <= inBuf.capacity() / 2) {
+                readSuspended = false;
+                selector.update(this);
+            }
+            return n;
+        } finally {
+            inLock.unlock();
+        }
+    }
+
+    private class TransportInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return NIOTransport.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return NIOTransport.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return NIOTransport.this.available();
+        }
+
+        @Override
+        public void close() {
+            NIOTransport.this.close();
+        }
+    }
+
+    private class TransportOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            NIOTransport.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            NIOTransport.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            NIOTransport.this.close();
+        }
+    }
+}
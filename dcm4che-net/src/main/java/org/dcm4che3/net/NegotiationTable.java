@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable lookup table of the Transfer Capabilities of an
+ * {@link ApplicationEntity}, compiled once for the negotiation of all
+ * subsequent association requests. Each distinct Transfer Syntax UID is
+ * assigned a bit index, so matching of a proposed Transfer Syntax is one
+ * hash lookup and one bit test, independent of the number of Transfer
+ * Syntaxes supported by a Transfer Capability.
+ *
+ * @author agent <agent@local>
+ *
+ */
+final class NegotiationTable {
+
+    static final class Entry {
+
+        final TransferCapability tc;
+        private final BitSet tss;
+        private final boolean anyTS;
+
+        Entry(TransferCapability tc, BitSet tss, boolean anyTS) {
+            this.tc = tc;
+            this.tss = tss;
+            this.anyTS = anyTS;
+        }
+    }
+
+    private final HashMap<String, Integer> tsIndex =
+            new HashMap<String, Integer>();
+    private final String[] tsuids;
+    private final HashMap<String, Entry> scuEntries;
+    private final HashMap<String, Entry> scpEntries;
+
+    NegotiationTable(Collection<TransferCapability> scuTCs,
+            Collection<TransferCapability> scpTCs) {
+        scuEntries = compile(scuTCs);
+        scpEntries = compile(scpTCs);
+        tsuids = new String[tsIndex.size()];
+        for (Map.Entry<String, Integer> e : tsIndex.entrySet())
+            tsuids[e.getValue()] = e.getKey();
+    }
+
+    private HashMap<String, Entry> compile(Collection<TransferCapability> tcs) {
+        HashMap<String, Entry> entries =
+                new HashMap<String, Entry>(tcs.size() * 4 / 3 + 1);
+        for (TransferCapability tc : tcs) {
+            String[] tss = tc.getTransferSyntaxes();
+            BitSet bits = new BitSet();
+            boolean anyTS = "*".equals(tss[0]);
+            if (!anyTS)
+                for (String ts : tss)
+                    bits.set(indexOf(ts));
+            entries.put(tc.getSopClass().intern(),
+                    new Entry(tc, bits, anyTS));
+        }
+        return entries;
+    }
+
+    private int indexOf(String ts) {
+        Integer index = tsIndex.get(ts);
+        if (index == null)
+            tsIndex.put(ts.intern(), index = tsIndex.size());
+        return index;
+    }
+
+    Entry get(TransferCapability.Role role, String cuid) {
+        return (role == TransferCapability.Role.SCU
+                ? scuEntries : scpEntries).get(cuid);
+    }
+
+    /**
+     * Select the first of the proposed Transfer Syntaxes supported by the
+     * Transfer Capability of the specified table entry.
+     *
+     * @return the interned Transfer Syntax UID or {@code null}, if none of
+     *         the proposed Transfer Syntaxes is supported.
+     */
+    String selectTransferSyntax(Entry entry, String[] proposed) {
+        for (String ts : proposed) {
+            Integer index = tsIndex.get(ts);
+            if (index != null) {
+                if (entry.anyTS || entry.tss.get(index))
+                    return tsuids[index];
+            } else if (entry.anyTS)
+                return ts;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,236 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of buffers used by the PDU encoders and decoders of the associations
+ * of a {@link Device}. Buffers are leased on association start and
+ * returned on association close. Buffer lengths are rounded up to a
+ * multiple of 4 KiB, so buffers for the same maximal PDU length are shared
+ * across associations. The pool is bounded by the number of buffers and by
+ * their total size in bytes.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class PDUBufferPool {
+
+    private static final int SIZE_CLASS = 4096;
+
+    public static final long DEF_MAX_POOLED_BYTES = 32L * 1024 * 1024;
+
+    private final ConcurrentMap<Integer, Queue<byte[]>> pool =
+            new ConcurrentHashMap<Integer, Queue<byte[]>>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxPooledBuffers;
+    private volatile long maxPooledBytes = DEF_MAX_POOLED_BYTES;
+
+    /**
+     * Get the maximal number of buffers kept in the pool. If {@code 0},
+     * buffers are not pooled.
+     *
+     * @return maximal number of pooled buffers
+     */
+    public int getMaxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    /**
+     * Set the maximal number of buffers kept in the pool. If {@code 0},
+     * buffers are not pooled.
+     *
+     * @param maxPooledBuffers
+     *            maximal number of pooled buffers
+     */
+    public void setMaxPooledBuffers(int maxPooledBuffers) {
+        if (maxPooledBuffers < 0)
+            throw new IllegalArgumentException("maxPooledBuffers: "
+                    + maxPooledBuffers);
+
+        this.maxPooledBuffers = maxPooledBuffers;
+        if (maxPooledBuffers < pooledBuffers.get())
+            clear();
+    }
+
+    /**
+     * Get the maximal total size in bytes of the buffers kept in the pool.
+     *
+     * @return maximal total size of pooled buffers in bytes
+     */
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Set the maximal total size in bytes of the buffers kept in the pool.
+     * Buffers larger than the specified size are never pooled. Default:
+     * {@value #DEF_MAX_POOLED_BYTES}.
+     *
+     * @param maxPooledBytes
+     *            maximal total size of pooled buffers in bytes
+     */
+    public void setMaxPooledBytes(long maxPooledBytes) {
+        if (maxPooledBytes < 0)
+            throw new IllegalArgumentException("maxPooledBytes: "
+                    + maxPooledBytes);
+
+        this.maxPooledBytes = maxPooledBytes;
+        if (maxPooledBytes < pooledBytes.get())
+            clear();
+    }
+
+    /**
+     * Lease buffer with a length of at least the specified length.
+     *
+     * @param minLength
+     *            minimal buffer length
+     * @return leased buffer
+     */
+    public byte[] lease(int minLength) {
+        int length = (minLength + SIZE_CLASS - 1) & -SIZE_CLASS;
+        Queue<byte[]> queue = pool.get(length);
+        byte[] buf = queue != null ? queue.poll() : null;
+        if (buf == null) {
+            misses.incrementAndGet();
+            return new byte[length];
+        }
+        pooledBuffers.decrementAndGet();
+        pooledBytes.addAndGet(-length);
+        hits.incrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Return leased buffer to the pool. The buffer is discarded, if the pool
+     * is already full or would exceed {@link #getMaxPooledBytes()}.
+     *
+     * @param buf
+     *            leased buffer
+     */
+    public void release(byte[] buf) {
+        int length = buf.length;
+        if ((length & (SIZE_CLASS - 1)) != 0)
+            return;
+
+        if (pooledBuffers.incrementAndGet() > maxPooledBuffers) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        if (pooledBytes.addAndGet(length) > maxPooledBytes) {
+            pooledBytes.addAndGet(-length);
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        Queue<byte[]> queue = pool.get(length);
+        if (queue == null) {
+            Queue<byte[]> newQueue = new ConcurrentLinkedQueue<byte[]>();
+            queue = pool.putIfAbsent(length, newQueue);
+            if (queue == null)
+                queue = newQueue;
+        }
+        queue.offer(buf);
+    }
+
+    /**
+     * Discard all pooled buffers.
+     */
+    public void clear() {
+        for (Queue<byte[]> queue : pool.values()) {
+            byte[] buf;
+            while ((buf = queue.poll()) != null) {
+                pooledBuffers.decrementAndGet();
+                pooledBytes.addAndGet(-buf.length);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of leases served by a pooled buffer.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of leases, which required the allocation of a new
+     * buffer.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of buffers currently kept in the pool.
+     */
+    public int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    /**
+     * Returns the total size in bytes of the buffers currently kept in the
+     * pool.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PDUBufferPool[pooled=" + pooledBuffers
+                + ", bytes=" + pooledBytes
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ']';
+    }
+}
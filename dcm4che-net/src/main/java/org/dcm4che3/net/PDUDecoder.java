@@ -43,7 +43,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -89,8 +88,9 @@ class PDUDecoder extends PDVInputStream {
 
     private final Association as;
     private final InputStream in;
-    private final Thread th;
-    private byte[] buf = new byte[6 + Connection.DEF_MAX_PDU_LENGTH];
+    private Thread th;
+    private final PDUBufferPool bufferPool;
+    private byte[] buf;
     private int pos;
     private int pdutype;
     private int pdulen;
@@ -102,6 +102,19 @@ class PDUDecoder extends PDVInputStream {
         this.as = as;
         this.in = in;
         this.th = Thread.currentThread();
+        this.bufferPool = as.getDevice().getPDUBufferPool();
+        this.buf = bufferPool.lease(6 + Connection.DEF_MAX_PDU_LENGTH);
+    }
+
+    /**
+     * Return the buffer to the pool of the device, after the last PDU was
+     * decoded.
+     */
+    void releaseBuffer() {
+        if (buf != null) {
+            bufferPool.release(buf);
+            buf = null;
+        }
     }
 
     private int remaining() {
@@ -200,6 +213,15 @@ class PDUDecoder extends PDVInputStream {
         }
     }
 
+    /**
+     * Bind the decoder to the current thread, if PDUs are not decoded by a
+     * dedicated reader thread, but by a pooled thread after the PDU was
+     * received by a selector thread.
+     */
+    void bindToCurrentThread() {
+        th = Thread.currentThread();
+    }
+
     private void checkThread() {
         if (th != Thread.currentThread())
             throw new IllegalStateException("Entered by wrong thread");
@@ -214,8 +236,12 @@ class PDUDecoder extends PDVInputStream {
         if (pdulen < 4 || pdulen > MAX_PDU_LEN)
             abort(AAbort.INVALID_PDU_PARAMETER_VALUE, INVALID_PDU_LENGTH);
 
-        if (6 + pdulen > buf.length)
-            buf = Arrays.copyOf(buf, 6 + pdulen);
+        if (6 + pdulen > buf.length) {
+            byte[] b = bufferPool.lease(6 + pdulen);
+            System.arraycopy(buf, 0, b, 0, 10);
+            bufferPool.release(buf);
+            buf = b;
+        }
 
         readFully(10, pdulen - 4);
     }
@@ -42,6 +42,9 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -67,18 +70,57 @@ class PDUEncoder extends PDVOutputStream {
 
     private Association as;
     private OutputStream out;
-    private byte[] buf = new byte[Connection.DEF_MAX_PDU_LENGTH + 6];
+    private final PDUBufferPool bufferPool;
+    private byte[] buf;
+    private volatile boolean releaseBuffer;
     private int pos;
     private int pdvpcid;
     private int pdvcmd;
     private int pdvpos;
     private int maxpdulen;
     private Thread th;
-    private Object dimseLock = new Object();
+    private FileChannel transferSrc;
+    private long transferPos;
+    private int transferLen;
+    private final ReentrantLock dimseLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     public PDUEncoder(Association as, OutputStream out) {
         this.as = as;
         this.out = out;
+        this.bufferPool = as.getDevice().getPDUBufferPool();
+        this.buf = bufferPool.lease(Connection.DEF_MAX_PDU_LENGTH + 6);
+    }
+
+    private void ensureCapacity(int length) {
+        if (buf != null && buf.length >= length)
+            return;
+
+        if (buf != null)
+            bufferPool.release(buf);
+        buf = bufferPool.lease(length);
+    }
+
+    /**
+     * Return the buffer to the pool of the device on association close.
+     * Deferred until the completion of a concurrent DIMSE message write.
+     */
+    void releaseBuffer() {
+        releaseBuffer = true;
+        if (dimseLock.tryLock())
+            unlockDimse();
+    }
+
+    private void unlockDimse() {
+        try {
+            if (releaseBuffer && buf != null
+                    && dimseLock.getHoldCount() == 1) {
+                bufferPool.release(buf);
+                buf = null;
+            }
+        } finally {
+            dimseLock.unlock();
+        }
     }
 
     public void write(AAssociateRQ rq) throws IOException {
@@ -108,7 +150,7 @@ class PDUEncoder extends PDVOutputStream {
         write(PDUType.A_ABORT, 0, aa.getSource(), aa.getReason());
     }
 
-    private synchronized void write(int pdutype, int result, int source,
+    private void write(int pdutype, int result, int source,
             int reason) throws IOException {
         byte[] b = {
                 (byte) pdutype,
@@ -119,17 +161,29 @@ class PDUEncoder extends PDVOutputStream {
                 (byte) source,
                 (byte) reason
         };
-        out.write(b);
-        out.flush();
+        writeLock.lock();
+        try {
+            out.write(b);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private synchronized void writePDU(int pdulen) throws IOException {
+    private void writePDU(int pdulen) throws IOException {
+        writeLock.lock();
         try {
-            out.write(buf, 0, 6 + pdulen);
+            out.write(buf, 0, 6 + pdulen - transferLen);
             out.flush();
+            if (transferLen > 0)
+                as.transferFrom(transferSrc, transferPos, transferLen);
         } catch (IOException e) {
             as.onIOException(e);
             throw e;
+        } finally {
+            transferSrc = null;
+            transferLen = 0;
+            writeLock.unlock();
         }
         pdvpos = 6;
         pos = 12;
@@ -140,8 +194,7 @@ class PDUEncoder extends PDVOutputStream {
         rqac.checkCalledAET();
 
         int pdulen = rqac.length();
-        if (buf.length < 6 + pdulen)
-            buf = new byte[6 + pdulen];
+        ensureCapacity(6 + pdulen);
         pos = 0;
         put(pduType);
         put(0);
@@ -355,6 +408,43 @@ class PDUEncoder extends PDVOutputStream {
         }
     }
 
+    /**
+     * Copies the specified region of the file channel into P-DATA-TF PDUs.
+     * If supported by the connection, the content of all but the last PDU
+     * is transferred directly from the file channel to the socket, so only
+     * the PDU and PDV headers are written from the buffer.
+     */
+    @Override
+    public void copyFrom(FileChannel src, long position, long length)
+            throws IOException {
+        checkThread();
+        boolean zeroCopy = as.isZeroCopySupported();
+        long remaining = length;
+        try {
+            while (remaining > 0) {
+                flushPDataTF();
+                int copy = (int) Math.min(remaining, free());
+                if (zeroCopy && copy < remaining) {
+                    // content will be transferred by writePDU
+                    transferSrc = src;
+                    transferPos = position;
+                    transferLen = copy;
+                } else {
+                    ByteBuffer dst = ByteBuffer.wrap(buf, pos, copy);
+                    while (dst.hasRemaining())
+                        if (src.read(dst, position + dst.position() - pos) < 0)
+                            throw new EOFException();
+                }
+                pos += copy;
+                position += copy;
+                remaining -= copy;
+            }
+        } finally {
+            transferSrc = null;
+            transferLen = 0;
+        }
+    }
+
     private void checkThread() {
         if (th != Thread.currentThread())
             throw new IllegalStateException("Entered by wrong thread");
@@ -396,7 +486,8 @@ class PDUEncoder extends PDVOutputStream {
 
     public void writeDIMSE(PresentationContext pc, Attributes cmd,
             DataWriter dataWriter) throws IOException {
-        synchronized (dimseLock) {
+        dimseLock.lock();
+        try {
             int pcid = pc.getPCID();
             String tsuid = pc.getTransferSyntax();
             if (Dimse.LOG.isInfoEnabled()) {
@@ -409,8 +500,7 @@ class PDUEncoder extends PDVOutputStream {
             }
             this.th = Thread.currentThread();
             maxpdulen = as.getMaxPDULengthSend();
-            if (buf.length < maxpdulen + 6)
-                buf = new byte[maxpdulen + 6];
+            ensureCapacity(maxpdulen + 6);
 
             pdvpcid = pcid;
             pdvcmd = PDVType.COMMAND;
@@ -431,6 +521,8 @@ class PDUEncoder extends PDVOutputStream {
             }
             as.writePDataTF();
             this.th = null;
+        } finally {
+            unlockDimse();
         }
     }
 }
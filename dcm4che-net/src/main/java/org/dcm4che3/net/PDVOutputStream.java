@@ -38,9 +38,12 @@
 
 package org.dcm4che3.net;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -52,4 +55,24 @@ public abstract class PDVOutputStream extends OutputStream {
             throws IOException;
 
     public abstract void copyFrom(InputStream in) throws IOException;
+
+    /**
+     * Copies {@code length} bytes starting at {@code position} from the
+     * specified file channel, without modifying the position of the channel.
+     */
+    public void copyFrom(FileChannel src, long position, long length)
+            throws IOException {
+        byte[] b = new byte[(int) Math.min(length, 8192)];
+        ByteBuffer dst = ByteBuffer.wrap(b);
+        while (length > 0) {
+            dst.clear();
+            dst.limit((int) Math.min(length, b.length));
+            int n = src.read(dst, position);
+            if (n < 0)
+                throw new EOFException();
+            write(b, 0, n);
+            position += n;
+            length -= n;
+        }
+    }
 }
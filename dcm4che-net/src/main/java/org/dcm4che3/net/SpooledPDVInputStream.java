@@ -0,0 +1,247 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+
+/**
+ * Data set of a DIMSE request, read completely from the association, so it
+ * can be processed by a worker thread, while the reader thread continues to
+ * decode the following requests. The data is kept on the heap up to a
+ * threshold, and spooled to a temporary file beyond.
+ *
+ * @author agent <agent@local>
+ *
+ */
+final class SpooledPDVInputStream extends PDVInputStream {
+
+    private static final int INIT_BUFFER_SIZE = 8192;
+
+    private final long length;
+    private final File file;
+    private final InputStream in;
+    private long remaining;
+
+    private SpooledPDVInputStream(Spooler spooler) throws IOException {
+        this.length = spooler.length;
+        this.file = spooler.file;
+        this.in = file != null
+                ? new BufferedInputStream(new FileInputStream(file))
+                : new ByteArrayInputStream(spooler.buf, 0, spooler.count);
+        this.remaining = length;
+    }
+
+    /**
+     * Read the remaining data of a DIMSE message from the association.
+     *
+     * @param data
+     *            data of the DIMSE message
+     * @param threshold
+     *            maximal number of bytes kept on the heap
+     * @param dir
+     *            directory of the spool file or {@code null} for the default
+     *            temporary-file directory
+     * @return buffered data
+     * @throws IOException
+     */
+    static SpooledPDVInputStream spool(PDVInputStream data, int threshold,
+            File dir) throws IOException {
+        Spooler spooler = new Spooler(threshold, dir);
+        try {
+            data.copyTo(spooler);
+            spooler.close();
+            return new SpooledPDVInputStream(spooler);
+        } catch (IOException e) {
+            spooler.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of bytes of the data set.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Return {@code true}, if the data set was spooled to a file.
+     */
+    boolean isSpooled() {
+        return file != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0)
+            remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0)
+            remaining -= read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Attributes readDataset(String tsuid) throws IOException {
+        DicomInputStream din = new DicomInputStream(this, tsuid);
+        try {
+            return din.readDataset(-1, -1);
+        } finally {
+            SafeClose.close(din);
+        }
+    }
+
+    @Override
+    public void copyTo(OutputStream out, int length) throws IOException {
+        if (length > remaining)
+            throw new EOFException("remaining: " + remaining);
+        StreamUtils.copy(this, out, length);
+    }
+
+    @Override
+    public void copyTo(OutputStream out) throws IOException {
+        StreamUtils.copy(this, out);
+    }
+
+    @Override
+    public long skipAll() throws IOException {
+        long n = remaining;
+        StreamUtils.skipFully(in, n);
+        remaining = 0;
+        return n;
+    }
+
+    /**
+     * Release the buffered data and delete the spool file.
+     */
+    @Override
+    public void close() {
+        SafeClose.close(in);
+        if (file != null && !file.delete())
+            Association.LOG.warn("Failed to delete spool file {}", file);
+    }
+
+    private static final class Spooler extends OutputStream {
+
+        private final int threshold;
+        private final File dir;
+        private byte[] buf = {};
+        private int count;
+        private long length;
+        private File file;
+        private OutputStream out;
+
+        Spooler(int threshold, File dir) {
+            this.threshold = threshold;
+            this.dir = dir;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                int newCount = count + len;
+                if (newCount <= threshold) {
+                    if (newCount > buf.length)
+                        buf = Arrays.copyOf(buf, Math.min(threshold,
+                                Math.max(newCount,
+                                    Math.max(INIT_BUFFER_SIZE, buf.length << 1))));
+                    System.arraycopy(b, off, buf, count, len);
+                    count = newCount;
+                    length = newCount;
+                    return;
+                }
+                file = File.createTempFile("dimse", ".spool", dir);
+                out = new FileOutputStream(file);
+                out.write(buf, 0, count);
+                buf = null;
+            }
+            out.write(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null)
+                out.close();
+        }
+
+        void delete() {
+            SafeClose.close(out);
+            if (file != null)
+                file.delete();
+        }
+    }
+}
@@ -43,6 +43,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.Semaphore;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
@@ -58,6 +59,7 @@ class TCPListener implements Listener {
     private final Connection conn;
     private final TCPProtocolHandler handler;
     private final ServerSocket ss;
+    private final Semaphore handshakePermits;
 
     public TCPListener(Connection conn, TCPProtocolHandler handler)
             throws IOException, GeneralSecurityException {
@@ -65,6 +67,9 @@ class TCPListener implements Listener {
         
             this.conn = conn;
             this.handler = handler;
+            this.handshakePermits = conn.isTls() && conn.getTlsHandshakeThreads() > 0
+                    ? new Semaphore(conn.getTlsHandshakeThreads())
+                    : null;
             ss = conn.isTls() ? createTLSServerSocket(conn) : new ServerSocket();
             conn.setReceiveBufferSize(ss);
             ss.bind(conn.getBindPoint(), conn.getBacklog());
@@ -105,29 +110,19 @@ class TCPListener implements Listener {
                         monitor.onConnectionRejectedBlacklisted(conn, s);
                     Connection.LOG.info("Reject blacklisted connection {}", s);
                     conn.close(s);
-                } else {
+                } else if (s instanceof SSLSocket && handshakePermits != null) {
+                    handshakePermits.acquire();
                     try {
-                        conn.setSocketSendOptions(s);
-                        if (s instanceof SSLSocket) {
-                            ((SSLSocket) s).startHandshake();
-                        }
-                    } catch (Throwable e) {
+                        conn.getDevice().execute(new HandshakeTask((SSLSocket) s, monitor));
+                    } catch (RuntimeException e) {
+                        handshakePermits.release();
                         if (monitor != null)
                             monitor.onConnectionRejected(conn, s, e);
                         Connection.LOG.warn("Reject connection {}:",s, e);
                         conn.close(s);
-                        continue;
-                    }
-
-                    if (monitor != null)
-                        monitor.onConnectionAccepted(conn, s);
-                    Connection.LOG.info("Accept connection {}", s);
-                    try {
-                        handler.onAccept(conn, s);
-                    } catch (Throwable e) {
-                        Connection.LOG.warn("Exception on accepted connection {}:",s, e);
-                        conn.close(s);
                     }
+                } else {
+                    accept(s, monitor);
                 }
             }
         } catch (Throwable e) {
@@ -137,6 +132,51 @@ class TCPListener implements Listener {
         Connection.LOG.info("Stop TCP Listener on {}", sockAddr);
     }
 
+    private void accept(Socket s, ConnectionMonitor monitor) {
+        try {
+            conn.setSocketSendOptions(s);
+            if (s instanceof SSLSocket) {
+                conn.startHandshake((SSLSocket) s);
+            }
+        } catch (Throwable e) {
+            if (monitor != null)
+                monitor.onConnectionRejected(conn, s, e);
+            Connection.LOG.warn("Reject connection {}:",s, e);
+            conn.close(s);
+            return;
+        }
+
+        if (monitor != null)
+            monitor.onConnectionAccepted(conn, s);
+        Connection.LOG.info("Accept connection {}", s);
+        try {
+            handler.onAccept(conn, s);
+        } catch (Throwable e) {
+            Connection.LOG.warn("Exception on accepted connection {}:",s, e);
+            conn.close(s);
+        }
+    }
+
+    private class HandshakeTask implements Runnable {
+
+        private final SSLSocket s;
+        private final ConnectionMonitor monitor;
+
+        HandshakeTask(SSLSocket s, ConnectionMonitor monitor) {
+            this.s = s;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                accept(s, monitor);
+            } finally {
+                handshakePermits.release();
+            }
+        }
+    }
+
 
     @Override
     public SocketAddress getEndPoint() {
@@ -0,0 +1,184 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Statistics of the TLS handshakes of connections accepted or requested by
+ * a {@link Device}. A handshake is considered as resumed, if the ID of the
+ * negotiated session matches the ID of a session negotiated by one of the
+ * last {@value #MAX_SESSION_IDS} handshakes of the device. Handshakes which
+ * resume sessions negotiated before, or which negotiate sessions without
+ * session ID - as TLS 1.3 session resumption by pre-shared keys may do,
+ * depending on the provider - are counted as full handshakes.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class TLSHandshakeStatistics {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final AtomicLong totalHandshakeTime = new AtomicLong();
+    private final AtomicLong maxHandshakeTime = new AtomicLong();
+
+    public static final int MAX_SESSION_IDS = 1000;
+
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock sessionIDsLock = new ReentrantLock();
+    private final LinkedHashMap<ByteBuffer, Boolean> sessionIDs =
+            new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > MAX_SESSION_IDS;
+                }
+            };
+
+    void onHandshakeCompleted(long nanos, SSLSession session) {
+        boolean resumed = isResumed(session.getId());
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+        totalHandshakeTime.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxHandshakeTime.get())
+                && !maxHandshakeTime.compareAndSet(max, nanos))
+            ;
+    }
+
+    private boolean isResumed(byte[] sessionID) {
+        if (sessionID == null || sessionID.length == 0)
+            return false;
+
+        sessionIDsLock.lock();
+        try {
+            return sessionIDs.put(ByteBuffer.wrap(sessionID.clone()),
+                    Boolean.TRUE) != null;
+        } finally {
+            sessionIDsLock.unlock();
+        }
+    }
+
+    void onHandshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of completed handshakes, which negotiated a new
+     * session.
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Returns the number of completed handshakes, which resumed a cached
+     * session.
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Returns the number of failed or timed out handshakes.
+     */
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    /**
+     * Returns the ratio of resumed to completed handshakes.
+     */
+    public double getResumptionRatio() {
+        long resumed = resumedHandshakes.get();
+        long completed = resumed + fullHandshakes.get();
+        return completed > 0 ? (double) resumed / completed : 0.;
+    }
+
+    /**
+     * Returns the total duration of completed handshakes in ms.
+     */
+    public long getTotalHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalHandshakeTime.get());
+    }
+
+    /**
+     * Returns the average duration of completed handshakes in ms.
+     */
+    public long getAverageHandshakeTime() {
+        long completed = fullHandshakes.get() + resumedHandshakes.get();
+        return completed > 0 ? getTotalHandshakeTime() / completed : 0L;
+    }
+
+    /**
+     * Returns the maximal duration of a completed handshake in ms.
+     */
+    public long getMaxHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHandshakeTime.get());
+    }
+
+    public void resetStatistics() {
+        fullHandshakes.set(0);
+        resumedHandshakes.set(0);
+        failedHandshakes.set(0);
+        totalHandshakeTime.set(0);
+        maxHandshakeTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "TLSHandshakeStatistics[full=" + fullHandshakes
+                + ", resumed=" + resumedHandshakes
+                + ", failed=" + failedHandshakes
+                + ", totalTime=" + getTotalHandshakeTime()
+                + "ms, maxTime=" + getMaxHandshakeTime()
+                + "ms]";
+    }
+}
@@ -197,6 +197,9 @@ public class TransferCapability implements Serializable {
             if (ts.isEmpty())
                 throw new IllegalArgumentException("empty transferSyntax");
         this.transferSyntaxes = transferSyntaxes;
+        ApplicationEntity ae = this.ae;
+        if (ae != null)
+            ae.onTransferCapabilityChanged();
     }
 
     public boolean containsTransferSyntax(String ts) {
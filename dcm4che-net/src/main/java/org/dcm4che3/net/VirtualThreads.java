@@ -0,0 +1,86 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides an {@link Executor} which starts a new virtual thread for each
+ * task, if supported by the running JVM (Java 21+). Resolved by reflection,
+ * so the library still runs on older JVMs.
+ *
+ * @author agent <agent@local>
+ *
+ */
+final class VirtualThreads {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Executor EXECUTOR = newExecutor();
+
+    private VirtualThreads() {}
+
+    private static Executor newExecutor() {
+        try {
+            Method m = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (Executor) m.invoke(null);
+        } catch (NoSuchMethodException e) {
+        } catch (Exception e) {
+            LOG.debug("Failed to create virtual thread executor:", e);
+        }
+        LOG.warn("Virtual threads not supported by Java {} - use platform threads",
+                System.getProperty("java.version"));
+        return null;
+    }
+
+    /**
+     * Returns executor starting a new virtual thread for each task or
+     * {@code null}, if virtual threads are not supported by the JVM.
+     */
+    static Executor executor() {
+        return EXECUTOR;
+    }
+}
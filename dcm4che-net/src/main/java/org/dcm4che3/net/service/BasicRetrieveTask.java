@@ -40,10 +40,15 @@ package org.dcm4che3.net.service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -51,10 +56,12 @@ import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationPool;
 import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.DataWriter;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.FileDataWriter;
 import org.dcm4che3.net.InputStreamDataWriter;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
@@ -72,20 +79,27 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
     protected final Dimse rq;
     protected final Association rqas;
     protected final Association storeas;
+    protected final List<Association> storeass;
     protected final PresentationContext pc;
     protected final Attributes rqCmd;
     protected final int msgId;
     protected final int priority;
-    protected int status = Status.Success;
-    protected boolean pendingRSP;
+    protected volatile int status = Status.Success;
+    protected volatile boolean pendingRSP;
     protected int pendingRSPInterval;
-    protected boolean canceled;
+    protected volatile boolean canceled;
     protected final List<T> insts;
     protected final List<T> completed;
     protected final List<T> warning;
     protected final List<T> failed;
-    protected int outstandingRSP = 0;
-    protected Object outstandingRSPLock = new Object();
+    // private, so subclasses synchronizing on the former monitor object
+    // fail to compile; use the protected ...OutstandingRSP() methods instead
+    private int outstandingRSP = 0;
+    // use explicit locks instead of monitors, which would pin virtual threads
+    private final ReentrantLock outstandingRSPLock = new ReentrantLock();
+    private final Condition noOutstandingRSP =
+            outstandingRSPLock.newCondition();
+    protected InstanceDistribution distribution = InstanceDistribution.ROUND_ROBIN;
 
     private ScheduledFuture<?> writePendingRSP;
 
@@ -99,14 +113,40 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
         this.rq = rq;
         this.rqas = rqas;
         this.storeas = storeas;
+        this.storeass = new ArrayList<Association>(1);
+        this.storeass.add(storeas);
         this.pc = pc;
         this.rqCmd = rqCmd;
         this.insts = insts;
         this.msgId = rqCmd.getInt(Tag.MessageID, -1);
         this.priority = rqCmd.getInt(Tag.Priority, 0);
-        this.completed = new ArrayList<T>(insts.size());
-        this.warning = new ArrayList<T>(insts.size());
-        this.failed = new ArrayList<T>(insts.size());
+        this.completed = Collections.synchronizedList(new ArrayList<T>(insts.size()));
+        this.warning = Collections.synchronizedList(new ArrayList<T>(insts.size()));
+        this.failed = Collections.synchronizedList(new ArrayList<T>(insts.size()));
+    }
+
+    /**
+     * Add further Storage Association over which sub-operations are
+     * performed in parallel to the Storage Association passed to the
+     * constructor. Must be invoked before the task is run.
+     * 
+     * @param storeas
+     *            additional Storage Association to the same destination
+     */
+    public void addStoreAssociation(Association storeas) {
+        if (storeas == null)
+            throw new NullPointerException();
+        storeass.add(storeas);
+    }
+
+    public final InstanceDistribution getInstanceDistribution() {
+        return distribution;
+    }
+
+    public final void setInstanceDistribution(InstanceDistribution distribution) {
+        if (distribution == null)
+            throw new NullPointerException();
+        this.distribution = distribution;
     }
 
     public void setSendPendingRSP(boolean pendingRSP) {
@@ -137,6 +177,16 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
         return storeas;
     }
 
+    public List<Association> getStoreAssociations() {
+        return Collections.unmodifiableList(storeass);
+    }
+
+    /**
+     * Returns synchronized list of instances successfully sent. Iterations
+     * over the list must be synchronized on the list.
+     * 
+     * @return synchronized list of completed instances
+     */
     public List<T> getCompleted() {
         return completed;
     }
@@ -160,41 +210,14 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
         try {
             if (pendingRSPInterval > 0)
                 startWritePendingRSP();
-            for (Iterator<T> iter = insts.iterator(); iter.hasNext();) {
-                T inst = iter.next();
-                if (canceled) {
-                    status = Status.Cancel;
-                    break;
-                }
-                if (pendingRSP)
-                    writePendingRSP();
-                String tsuid;
-                DataWriter dataWriter;
-                try {
-                    tsuid = selectTransferSyntaxFor(storeas, inst);
-                    dataWriter = createDataWriter(inst, tsuid);
-                } catch (Exception e) {
-                    status = Status.OneOrMoreFailures;
-                    LOG.info("{}: Unable to retrieve {}/{} to {}", rqas,
-                            UID.nameOf(inst.cuid), UID.nameOf(inst.tsuid),
-                            storeas.getRemoteAET(), e);
-                    failed.add(inst);
-                    continue;
-                }
-                try {
-                    cstore(storeas, inst, tsuid, dataWriter);
-                } catch (Exception e) {
-                    status = Status.UnableToPerformSubOperations;
-                    LOG.warn("{}: Unable to perform sub-operation on association to {}",
-                            rqas, storeas.getRemoteAET(), e);
-                    failed.add(inst);
-                    while (iter.hasNext())
-                        failed.add(iter.next());
-                }
-            }
-            waitForOutstandingCStoreRSP(storeas);
+            if (storeass.size() == 1)
+                cstore(storeas, insts, true);
+            else
+                cstoreParallel();
+            waitForOutstandingCStoreRSP();
             if (isCMove())
-                releaseStoreAssociation(storeas);
+                for (Association storeas : storeass)
+                    releaseStoreAssociation(storeas);
             stopWritePendingRSP();
             writeRSP(status);
         } finally {
@@ -208,6 +231,95 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
         }
     }
 
+    private void cstoreParallel() {
+        final List<List<T>> instsPerAssoc = distribute();
+        final CountDownLatch done = new CountDownLatch(storeass.size() - 1);
+        for (int i = 1, n = storeass.size(); i < n; i++) {
+            final Association storeas = storeass.get(i);
+            final List<T> insts = instsPerAssoc.get(i);
+            Runnable sender = new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        cstore(storeas, insts, false);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                rqas.getApplicationEntity().getDevice().execute(sender);
+            } catch (RuntimeException e) {
+                LOG.warn("{}: failed to start parallel sub-operations on association to {}",
+                        rqas, storeas.getRemoteAET(), e);
+                sender.run();
+            }
+        }
+        cstore(storeas, instsPerAssoc.get(0), true);
+        try {
+            // only this thread writes pending RSPs, while the other
+            // sub-operations are still performed
+            int remaining = remaining();
+            while (!done.await(1, TimeUnit.SECONDS))
+                if (pendingRSP && remaining != (remaining = remaining()))
+                    writePendingRSP();
+        } catch (InterruptedException e) {
+            LOG.warn("{}: failed to wait for completion of sub-operations",
+                    rqas, e);
+        }
+    }
+
+    private List<List<T>> distribute() {
+        int numAssocs = storeass.size();
+        int numInsts = insts.size();
+        List<List<T>> instsPerAssoc = new ArrayList<List<T>>(numAssocs);
+        for (int i = 0; i < numAssocs; i++)
+            instsPerAssoc.add(new ArrayList<T>(numInsts / numAssocs + 1));
+        int index = 0;
+        for (T inst : insts)
+            instsPerAssoc.get(
+                    distribution.select(inst, index++, numInsts, numAssocs))
+                .add(inst);
+        return instsPerAssoc;
+    }
+
+    private void cstore(Association storeas, List<T> insts,
+            boolean writePendingRSP) {
+        for (Iterator<T> iter = insts.iterator(); iter.hasNext();) {
+            T inst = iter.next();
+            if (canceled) {
+                setStatus(Status.Cancel);
+                break;
+            }
+            if (writePendingRSP && pendingRSP)
+                writePendingRSP();
+            String tsuid;
+            DataWriter dataWriter;
+            try {
+                tsuid = selectTransferSyntaxFor(storeas, inst);
+                dataWriter = createDataWriter(inst, tsuid);
+            } catch (Exception e) {
+                setStatus(Status.OneOrMoreFailures);
+                LOG.info("{}: Unable to retrieve {}/{} to {}", rqas,
+                        UID.nameOf(inst.cuid), UID.nameOf(inst.tsuid),
+                        storeas.getRemoteAET(), e);
+                failed.add(inst);
+                continue;
+            }
+            try {
+                cstore(storeas, inst, tsuid, dataWriter);
+            } catch (Exception e) {
+                setStatus(Status.UnableToPerformSubOperations);
+                LOG.warn("{}: Unable to perform sub-operation on association to {}",
+                        rqas, storeas.getRemoteAET(), e);
+                failed.add(inst);
+                while (iter.hasNext())
+                    failed.add(iter.next());
+            }
+        }
+    }
+
     private void startWritePendingRSP() {
         writePendingRSP = rqas.getApplicationEntity().getDevice()
                 .scheduleAtFixedRate(
@@ -225,19 +337,50 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
             writePendingRSP.cancel(false);
     }
 
-    private void waitForOutstandingCStoreRSP(Association storeas) {
+    private void waitForOutstandingCStoreRSP() {
         try {
-            synchronized (outstandingRSPLock) {
-                while (outstandingRSP > 0)
-                    outstandingRSPLock.wait();
-            }
+            awaitNoOutstandingRSP();
         } catch (InterruptedException e) {
             LOG.warn("{}: failed to wait for outstanding RSP on association to {}",
                     rqas, storeas.getRemoteAET(), e);
         }
     }
 
+    /**
+     * Returns the number of C-STORE sub-operations, which RSP is outstanding.
+     */
+    protected int getOutstandingRSP() {
+        outstandingRSPLock.lock();
+        try {
+            return outstandingRSP;
+        } finally {
+            outstandingRSPLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until no RSP of C-STORE sub-operations is outstanding.
+     */
+    protected void awaitNoOutstandingRSP() throws InterruptedException {
+        outstandingRSPLock.lock();
+        try {
+            while (outstandingRSP > 0)
+                noOutstandingRSP.await();
+        } finally {
+            outstandingRSPLock.unlock();
+        }
+    }
+
+    /**
+     * Release the association used for the C-STORE sub-operations, or return
+     * it to the association pool of the device, if it was leased from it.
+     */
     protected void releaseStoreAssociation(Association storeas) {
+        AssociationPool pool = storeas.getDevice().getAssociationPool();
+        if (pool.isLeased(storeas)) {
+            pool.release(storeas);
+            return;
+        }
         try {
             storeas.release();
         } catch (IOException e) {
@@ -248,23 +391,63 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
 
     protected void cstore(Association storeas, T inst, String tsuid, 
             DataWriter dataWriter) throws IOException, InterruptedException {
-        DimseRSPHandler rspHandler =
+        CStoreRSPHandler rspHandler =
                 new CStoreRSPHandler(storeas.nextMessageID(), inst);
-        if (isCMove())
-            storeas.cstore(inst.cuid, inst.iuid, priority,
-                    rqas.getRemoteAET(), msgId,
-                    dataWriter, tsuid, rspHandler);
-        else
-            storeas.cstore(inst.cuid, inst.iuid, priority,
-                    dataWriter, tsuid, rspHandler);
-        synchronized (outstandingRSPLock) {
+        // count the RSP before the handler gets registered by Association,
+        // which invokes onClose of the handler, if sending the RQ fails
+        incrementOutstandingRSP();
+        boolean sent = false;
+        try {
+            if (isCMove())
+                storeas.cstore(inst.cuid, inst.iuid, priority,
+                        rqas.getRemoteAET(), msgId,
+                        dataWriter, tsuid, rspHandler);
+            else
+                storeas.cstore(inst.cuid, inst.iuid, priority,
+                        dataWriter, tsuid, rspHandler);
+            sent = true;
+        } finally {
+            if (!sent)
+                rspHandler.done();
+        }
+    }
+
+    private void setStatus(int status) {
+        outstandingRSPLock.lock();
+        try {
+            this.status = status;
+        } finally {
+            outstandingRSPLock.unlock();
+        }
+    }
+
+    private void onSubOperationFailed() {
+        outstandingRSPLock.lock();
+        try {
+            if (status == Status.Success)
+                status = Status.OneOrMoreFailures;
+        } finally {
+            outstandingRSPLock.unlock();
+        }
+    }
+
+    /**
+     * Increments the number of outstanding RSPs; shall be invoked before a
+     * C-STORE sub-operation is sent.
+     */
+    protected void incrementOutstandingRSP() {
+        outstandingRSPLock.lock();
+        try {
             outstandingRSP++;
+        } finally {
+            outstandingRSPLock.unlock();
         }
     }
 
     private final class CStoreRSPHandler extends DimseRSPHandler {
 
         private final T inst;
+        private final AtomicBoolean outstanding = new AtomicBoolean(true);
 
         public CStoreRSPHandler(int msgId, T inst) {
             super(msgId);
@@ -281,22 +464,34 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
                 warning.add(inst);
             else {
                 failed.add(inst);
-                if (status == Status.Success)
-                    status = Status.OneOrMoreFailures;
-            }
-            synchronized (outstandingRSPLock) {
-                if (--outstandingRSP == 0)
-                    outstandingRSPLock.notify();
+                onSubOperationFailed();
             }
+            done();
         }
 
         @Override
         public void onClose(Association as) {
             super.onClose(as);
-            synchronized (outstandingRSPLock) {
-                outstandingRSP = 0;
-                outstandingRSPLock.notify();
-            }
+            done();
+        }
+
+        void done() {
+            if (outstanding.compareAndSet(true, false))
+                decrementOutstandingRSP();
+        }
+    }
+
+    /**
+     * Decrements the number of outstanding RSPs and wakes up threads in
+     * {@link #awaitNoOutstandingRSP()}, if no RSP remains outstanding.
+     */
+    protected void decrementOutstandingRSP() {
+        outstandingRSPLock.lock();
+        try {
+            if (--outstandingRSP <= 0)
+                noOutstandingRSP.signalAll();
+        } finally {
+            outstandingRSPLock.unlock();
         }
     }
 
@@ -308,7 +503,14 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
     protected DataWriter createDataWriter(T inst, String tsuid) throws Exception {
         DicomInputStream in = new DicomInputStream(inst.getFile());
         in.readFileMetaInformation();
-        return new InputStreamDataWriter(in);
+        String filets = in.getTransferSyntax();
+        if (filets.equals(UID.DeflatedExplicitVRLittleEndian)
+                || filets.equals(UID.JPIPReferencedDeflate))
+            return new InputStreamDataWriter(in);
+
+        long offset = in.getPosition();
+        in.close();
+        return new FileDataWriter(inst.getFile(), offset);
     }
 
     public void writePendingRSP() {
@@ -325,9 +527,12 @@ public class BasicRetrieveTask<T extends InstanceLocator> implements RetrieveTas
         Attributes data = null;
         if (!failed.isEmpty() && status != Status.Pending) {
             data = new Attributes(1);
-            String[] iuids = new String[failed.size()];
-            for (int i = 0; i < iuids.length; i++) {
-                iuids[i] = failed.get(0).iuid;
+            String[] iuids;
+            synchronized (failed) {
+                iuids = new String[failed.size()];
+                for (int i = 0; i < iuids.length; i++) {
+                    iuids[i] = failed.get(i).iuid;
+                }
             }
             data.setString(Tag.FailedSOPInstanceUIDList, VR.UI, iuids);
         }
@@ -0,0 +1,92 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.service;
+
+/**
+ * Strategy to distribute the instances of a C-GET or C-MOVE request over
+ * several Storage Associations.
+ * 
+ * @author agent <agent@local>
+ */
+public interface InstanceDistribution {
+
+    /**
+     * Assigns consecutive instances to Storage Associations in turn.
+     */
+    InstanceDistribution ROUND_ROBIN = new InstanceDistribution() {
+
+        @Override
+        public int select(InstanceLocator inst, int index, int numInstances,
+                int numStoreAssociations) {
+            return index % numStoreAssociations;
+        }
+    };
+
+    /**
+     * Splits the list of instances in contiguous blocks of (nearly) equal
+     * size, one per Storage Association, to preserve the original order of
+     * instances - e.g. within a Series - on each Association.
+     */
+    InstanceDistribution BLOCK = new InstanceDistribution() {
+
+        @Override
+        public int select(InstanceLocator inst, int index, int numInstances,
+                int numStoreAssociations) {
+            return (int) ((long) index * numStoreAssociations / numInstances);
+        }
+    };
+
+    /**
+     * Selects the Storage Association on which the instance shall be sent.
+     * 
+     * @param inst
+     *            instance to send
+     * @param index
+     *            index of the instance in the list of instances to retrieve
+     * @param numInstances
+     *            number of instances to retrieve
+     * @param numStoreAssociations
+     *            number of available Storage Associations
+     * @return index of the Storage Association in the range
+     *         {@code 0..numStoreAssociations-1}
+     */
+    int select(InstanceLocator inst, int index, int numInstances,
+            int numStoreAssociations);
+
+}
@@ -0,0 +1,130 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateAC;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class ApplicationEntityTest {
+
+    private ApplicationEntity ae;
+    private AAssociateRQ rq;
+    private AAssociateAC ac;
+
+    @Before
+    public void setUp() {
+        ae = new ApplicationEntity("SCP");
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.CTImageStorage, TransferCapability.Role.SCP,
+                UID.JPEGLossless, UID.ExplicitVRLittleEndian));
+        ae.addTransferCapability(new TransferCapability(null,
+                "*", TransferCapability.Role.SCP, "*"));
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.StorageCommitmentPushModelSOPClass,
+                TransferCapability.Role.SCU, UID.ImplicitVRLittleEndian));
+        rq = new AAssociateRQ();
+        ac = new AAssociateAC();
+    }
+
+    @Test
+    public void testNegotiateTransferSyntax() {
+        PresentationContext pc = negotiate(UID.CTImageStorage,
+                UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian,
+                UID.JPEGLossless);
+        assertTrue(pc.isAccepted());
+        assertEquals(UID.ExplicitVRLittleEndian, pc.getTransferSyntax());
+        pc = negotiate(UID.CTImageStorage, UID.ImplicitVRLittleEndian);
+        assertEquals(PresentationContext.TRANSFER_SYNTAX_NOT_SUPPORTED,
+                pc.getResult());
+    }
+
+    @Test
+    public void testNegotiateWildcard() {
+        PresentationContext pc = negotiate(UID.MRImageStorage,
+                "1.2.3.4.5", UID.ImplicitVRLittleEndian);
+        assertTrue(pc.isAccepted());
+        assertEquals("1.2.3.4.5", pc.getTransferSyntax());
+        ae.removeTransferCapabilityFor("*", TransferCapability.Role.SCP);
+        pc = negotiate(UID.MRImageStorage, UID.ImplicitVRLittleEndian);
+        assertEquals(PresentationContext.ABSTRACT_SYNTAX_NOT_SUPPORTED,
+                pc.getResult());
+    }
+
+    @Test
+    public void testChangeTransferSyntaxes() {
+        assertFalse(negotiate(UID.CTImageStorage,
+                UID.ImplicitVRLittleEndian).isAccepted());
+        ae.getTransferCapabilityFor(UID.CTImageStorage,
+                TransferCapability.Role.SCP)
+                .setTransferSyntaxes(UID.ImplicitVRLittleEndian);
+        assertTrue(negotiate(UID.CTImageStorage,
+                UID.ImplicitVRLittleEndian).isAccepted());
+    }
+
+    @Test
+    public void testRoleSelection() {
+        rq.addRoleSelection(new RoleSelection(
+                UID.StorageCommitmentPushModelSOPClass, false, true));
+        PresentationContext pc = negotiate(
+                UID.StorageCommitmentPushModelSOPClass,
+                UID.ImplicitVRLittleEndian);
+        assertTrue(pc.isAccepted());
+        RoleSelection rs = ac.getRoleSelectionFor(
+                UID.StorageCommitmentPushModelSOPClass);
+        assertFalse(rs.isSCU());
+        assertTrue(rs.isSCP());
+    }
+
+    private PresentationContext negotiate(String as, String... tss) {
+        PresentationContext rqpc = new PresentationContext(1, as, tss);
+        return ae.negotiate(rq, ac, rqpc);
+    }
+
+}
@@ -0,0 +1,301 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class AssociationPoolTest {
+
+    private static final int PORT = 11121;
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static Device scp;
+    private static final AtomicInteger echos = new AtomicInteger();
+    private Device scu;
+    private ApplicationEntity ae;
+    private Connection remote;
+    private AssociationPool pool;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        scp = createSCP();
+        scp.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        scp.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        echos.set(0);
+        scu = createSCU();
+        ae = scu.getApplicationEntity("SCU");
+        remote = new Connection("dicom", "localhost", PORT);
+        pool = scu.getAssociationPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.clear();
+        scu.waitForNoOpenConnections();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        pool.setHealthCheckIdleTime(-1);
+        Association as1 = pool.lease(ae, remote, createAARQ());
+        assertTrue(pool.isLeased(as1));
+        pool.release(as1);
+        assertFalse(pool.isLeased(as1));
+        assertEquals(1, pool.getIdle());
+        Association as2 = pool.lease(ae, remote, createAARQ());
+        assertSame(as1, as2);
+        Association as3 = pool.lease(ae, remote, createAARQ());
+        assertNotSame(as1, as3);
+        pool.release(as2);
+        pool.release(as3);
+        assertEquals(3, pool.getLeases());
+        assertEquals(1, pool.getReused());
+        assertEquals(2, pool.getCreated());
+        assertEquals(2, pool.getIdle());
+        assertEquals(0, echos.get());
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception {
+        pool.setHealthCheckIdleTime(0);
+        Association as = pool.lease(ae, remote, createAARQ());
+        pool.release(as);
+        assertSame(as, pool.lease(ae, remote, createAARQ()));
+        assertEquals(1, echos.get());
+        pool.release(as);
+        as.abort();
+        Association as2 = pool.lease(ae, remote, createAARQ());
+        assertNotSame(as, as2);
+        pool.release(as2);
+        assertEquals(2, pool.getCreated());
+    }
+
+    @Test
+    public void testReuseWithSameRQ() throws Exception {
+        pool.setHealthCheckIdleTime(0);
+        AAssociateRQ rq = createAARQ();
+        Association as = pool.lease(ae, remote, rq);
+        assertEquals(1, rq.getNumberOfPresentationContexts());
+        assertNull(rq.getCallingAET());
+        assertFalse(as.getTransferSyntaxesFor(UID.VerificationSOPClass)
+                .isEmpty());
+        pool.release(as);
+        assertSame(as, pool.lease(ae, remote, rq));
+        pool.release(as);
+        assertEquals(1, pool.getCreated());
+    }
+
+    @Test
+    public void testVerificationPresentationContextID() throws Exception {
+        pool.setHealthCheckIdleTime(0);
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(3,
+                UID.SecondaryCaptureImageStorage, UID.ImplicitVRLittleEndian));
+        Association as = pool.lease(ae, remote, rq);
+        assertEquals(UID.VerificationSOPClass,
+                as.getAAssociateRQ().getPresentationContext(1)
+                    .getAbstractSyntax());
+        pool.release(as);
+    }
+
+    @Test
+    public void testMaxPresentationContexts() throws Exception {
+        pool.setHealthCheckIdleTime(0);
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        for (int pcid = 1; pcid <= 255; pcid += 2)
+            rq.addPresentationContext(new PresentationContext(pcid,
+                    UID.SecondaryCaptureImageStorage,
+                    UID.ImplicitVRLittleEndian));
+        Association as = pool.lease(ae, remote, rq);
+        assertEquals(128,
+                as.getAAssociateRQ().getNumberOfPresentationContexts());
+        pool.release(as);
+        // reuse without health check by C-ECHO
+        assertSame(as, pool.lease(ae, remote, rq));
+        pool.release(as);
+        assertEquals(0, echos.get());
+    }
+
+    @Test
+    public void testRemoveUnusedDestination() throws Exception {
+        pool.setHealthCheckIdleTime(-1);
+        Association as = pool.lease(ae, remote, createAARQ());
+        assertEquals(1, pool.getDestinations());
+        pool.discard(as);
+        assertEquals(0, pool.getDestinations());
+        as = pool.lease(ae, remote, createAARQ());
+        pool.release(as);
+        assertEquals(1, pool.getDestinations());
+        pool.clear();
+        assertEquals(0, pool.getDestinations());
+    }
+
+    @Test
+    public void testUnbindReleasesIdle() throws Exception {
+        pool.setHealthCheckIdleTime(-1);
+        Association as = pool.lease(ae, remote, createAARQ());
+        pool.release(as);
+        assertEquals(1, pool.getIdle());
+        scu.unbindConnections();
+        as.waitForSocketClose();
+        assertEquals(0, pool.getIdle());
+        assertEquals(1, pool.getEvicted());
+    }
+
+    @Test
+    public void testMaxPerDestination() throws Exception {
+        pool.setHealthCheckIdleTime(-1);
+        pool.setMaxPerDestination(1);
+        pool.setMaxLeaseWaitTime(100);
+        Connection local = ae.findCompatibelConnection(remote);
+        Association as = pool.lease(ae, local, remote, createAARQ());
+        assertNull(pool.tryLease(ae, local, remote, createAARQ()));
+        try {
+            pool.lease(ae, local, remote, createAARQ());
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, pool.getWaits());
+        assertTrue(pool.getMaxWaitTime() >= 100);
+        pool.release(as);
+        assertSame(as, pool.tryLease(ae, local, remote, createAARQ()));
+        pool.release(as);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        pool.setHealthCheckIdleTime(-1);
+        ae.getConnections().get(0).setIdleTimeout(400);
+        Association as = pool.lease(ae, remote, createAARQ());
+        pool.release(as);
+        as.waitForSocketClose();
+        assertEquals(0, pool.getIdle());
+        assertEquals(1, pool.getEvicted());
+    }
+
+    private AAssociateRQ createAARQ() {
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.SecondaryCaptureImageStorage, UID.ImplicitVRLittleEndian));
+        return rq;
+    }
+
+    private static Device createSCP() {
+        Device dev = new Device("scp");
+        Connection conn = new Connection("dicom", "localhost", PORT);
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCP");
+        ae.setAssociationAcceptor(true);
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.VerificationSOPClass, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.SecondaryCaptureImageStorage, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP() {
+
+            @Override
+            public void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes cmd, PDVInputStream data)
+                    throws IOException {
+                echos.incrementAndGet();
+                super.onDimseRQ(as, pc, dimse, cmd, data);
+            }
+        });
+        dev.setDimseRQHandler(serviceRegistry);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private static Device createSCU() {
+        Device dev = new Device("scu");
+        Connection conn = new Connection();
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCU");
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+}
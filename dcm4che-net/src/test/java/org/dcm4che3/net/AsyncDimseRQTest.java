@@ -0,0 +1,342 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.pdu.AAbort;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.AbstractDicomService;
+import org.dcm4che3.net.service.BasicCStoreSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class AsyncDimseRQTest {
+
+    private static final int PORT = 11120;
+    private static final int UNLIMITED_OPS_PORT = 11124;
+    private static final int NUM_RQ = 3;
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static File spoolDir;
+    private static Device scp;
+    private static final CyclicBarrier barrier = new CyclicBarrier(NUM_RQ);
+    private static final byte[][] stored = new byte[NUM_RQ][];
+    private static volatile boolean concurrent = true;
+    private Device scu;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        spoolDir = File.createTempFile("spool", "");
+        spoolDir.delete();
+        spoolDir.mkdir();
+        scp = createSCP();
+        scp.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        scp.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+        for (File f : spoolDir.listFiles())
+            f.delete();
+        spoolDir.delete();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scu = createSCU();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scp.waitForNoOpenConnections();
+    }
+
+    @Test
+    public void testConcurrentStore() throws Exception {
+        byte[][] content = new byte[NUM_RQ][];
+        Random rnd = new Random(42);
+        for (int i = 0; i < NUM_RQ; i++) {
+            content[i] = new byte[i == 0 ? 100 : 50000 * i];
+            rnd.nextBytes(content[i]);
+        }
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost", PORT);
+        Association as = ae.connect(remote, createAARQ());
+        DimseRSP[] rsps = new DimseRSP[NUM_RQ];
+        for (int i = 0; i < NUM_RQ; i++)
+            rsps[i] = as.cstore(UID.SecondaryCaptureImageStorage,
+                    Integer.toString(i), Priority.NORMAL,
+                    new BytesDataWriter(content[i]),
+                    UID.ImplicitVRLittleEndian);
+        for (DimseRSP rsp : rsps) {
+            rsp.next();
+            assertEquals(Status.Success,
+                    rsp.getCommand().getInt(Tag.Status, -1));
+        }
+        as.release();
+        as.waitForSocketClose();
+        assertTrue("requests not processed concurrently", concurrent);
+        for (int i = 0; i < NUM_RQ; i++)
+            assertTrue(Arrays.equals(content[i], stored[i]));
+        assertEquals(0, spoolDir.listFiles().length);
+    }
+
+    @Test
+    public void testCancelBeforeRegistration() throws Exception {
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost", PORT);
+        Association as = ae.connect(remote, createAARQ());
+        DimseRSP rsp = as.cfind(UID.StudyRootQueryRetrieveInformationModelFIND,
+                Priority.NORMAL, keys("delay"), UID.ImplicitVRLittleEndian, 0);
+        // received by the SCP before its worker registers the CancelRQHandler
+        rsp.cancel(as);
+        rsp.next();
+        assertEquals(Status.Cancel, rsp.getCommand().getInt(Tag.Status, -1));
+        as.release();
+        as.waitForSocketClose();
+    }
+
+    @Test
+    public void testRuntimeExceptionAbortsAssociation() throws Exception {
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost", PORT);
+        Association as = ae.connect(remote, createAARQ());
+        DimseRSP rsp = as.cfind(UID.StudyRootQueryRetrieveInformationModelFIND,
+                Priority.NORMAL, keys("throw"), UID.ImplicitVRLittleEndian, 0);
+        try {
+            rsp.next();
+            fail("Expected A-ABORT");
+        } catch (AAbort e) {
+            assertEquals(AAbort.UL_SERIVE_USER, e.getSource());
+        }
+        assertFalse(as.isReadyForDataTransfer());
+    }
+
+    @Test(timeout = 30000)
+    public void testCancelWhileAllWorkersBusy() throws Exception {
+        // unlimited operations - workers bounded by number of processors
+        int numRQ = Runtime.getRuntime().availableProcessors() + 1;
+        scu.listConnections().get(0).setMaxOpsInvoked(0);
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost",
+                UNLIMITED_OPS_PORT);
+        Association as = ae.connect(remote, createAARQ());
+        DimseRSP[] rsps = new DimseRSP[numRQ];
+        for (int i = 0; i < numRQ; i++)
+            rsps[i] = as.cfind(UID.StudyRootQueryRetrieveInformationModelFIND,
+                    Priority.NORMAL, keys("wait"), UID.ImplicitVRLittleEndian, 0);
+        for (DimseRSP rsp : rsps)
+            rsp.cancel(as);
+        for (DimseRSP rsp : rsps) {
+            rsp.next();
+            assertEquals(Status.Cancel, rsp.getCommand().getInt(Tag.Status, -1));
+        }
+        as.release();
+        as.waitForSocketClose();
+    }
+
+    private static Attributes keys(String patientID) {
+        Attributes keys = new Attributes(2);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setString(Tag.PatientID, VR.LO, patientID);
+        return keys;
+    }
+
+    private AAssociateRQ createAARQ() {
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.setMaxOpsInvoked(NUM_RQ);
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.SecondaryCaptureImageStorage, UID.ImplicitVRLittleEndian));
+        rq.addPresentationContext(new PresentationContext(3,
+                UID.StudyRootQueryRetrieveInformationModelFIND,
+                UID.ImplicitVRLittleEndian));
+        return rq;
+    }
+
+    private static Device createSCP() {
+        Device dev = new Device("scp");
+        Connection conn = new Connection("dicom", "localhost", PORT);
+        conn.setMaxOpsPerformed(NUM_RQ);
+        conn.setDimseRQSpoolThreshold(10000);
+        conn.setDimseRQSpoolDirectory(spoolDir.getPath());
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCP");
+        ae.setAssociationAcceptor(true);
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.SecondaryCaptureImageStorage, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.StudyRootQueryRetrieveInformationModelFIND,
+                TransferCapability.Role.SCP, UID.ImplicitVRLittleEndian));
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        Connection unlimitedOps = new Connection("dicom", "localhost",
+                UNLIMITED_OPS_PORT);
+        unlimitedOps.setMaxOpsPerformed(0);
+        dev.addConnection(unlimitedOps);
+        ae.addConnection(unlimitedOps);
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new AbstractDicomService(
+                UID.StudyRootQueryRetrieveInformationModelFIND) {
+
+            @Override
+            protected void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes rq, Attributes keys)
+                    throws IOException {
+                String patientID = keys.getString(Tag.PatientID);
+                if ("throw".equals(patientID))
+                    throw new IllegalStateException("test");
+                final CountDownLatch canceled = new CountDownLatch(1);
+                try {
+                    if ("wait".equals(patientID)) {
+                        // block the worker until canceled
+                        as.addCancelRQHandler(msgId(rq), new CancelRQHandler() {
+
+                            @Override
+                            public void onCancelRQ(Association as) {
+                                canceled.countDown();
+                            }
+                        });
+                        canceled.await(10, TimeUnit.SECONDS);
+                    } else {
+                        Thread.sleep(500);
+                        as.addCancelRQHandler(msgId(rq), new CancelRQHandler() {
+
+                            @Override
+                            public void onCancelRQ(Association as) {
+                                canceled.countDown();
+                            }
+                        });
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                as.removeCancelRQHandler(msgId(rq));
+                as.writeDimseRSP(pc, Commands.mkCFindRSP(rq,
+                        canceled.getCount() == 0 ? Status.Cancel : Status.Success));
+            }
+        });
+        serviceRegistry.addDicomService(new BasicCStoreSCP() {
+
+            @Override
+            protected void store(Association as, PresentationContext pc,
+                    Attributes rq, PDVInputStream data, Attributes rsp)
+                    throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                data.copyTo(out);
+                stored[Integer.parseInt(
+                        rq.getString(Tag.AffectedSOPInstanceUID))] =
+                        out.toByteArray();
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    concurrent = false;
+                }
+            }
+        });
+        dev.setDimseRQHandler(serviceRegistry);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private Device createSCU() {
+        Device dev = new Device("scu");
+        Connection conn = new Connection();
+        conn.setMaxOpsInvoked(NUM_RQ);
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCU");
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private static int msgId(Attributes rq) {
+        return rq.getInt(Tag.MessageID, -1);
+    }
+
+    private static class BytesDataWriter implements DataWriter {
+
+        private final byte[] b;
+
+        BytesDataWriter(byte[] b) {
+            this.b = b;
+        }
+
+        @Override
+        public void writeTo(PDVOutputStream out, String tsuid)
+                throws IOException {
+            out.write(b);
+        }
+    }
+}
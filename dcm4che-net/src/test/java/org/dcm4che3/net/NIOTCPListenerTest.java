@@ -0,0 +1,206 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.BasicCStoreSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class NIOTCPListenerTest {
+
+    private static final int PORT = 11119;
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static Device scp;
+    private static volatile byte[] stored;
+    private Device scu;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        scp = createSCP();
+        scp.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        scp.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scu = createSCU();
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost", PORT);
+        for (int i = 0; i < 3; i++) {
+            Association as = ae.connect(remote,
+                    createAARQ(UID.VerificationSOPClass));
+            for (int j = 0; j < 5; j++) {
+                DimseRSP rsp = as.cecho();
+                rsp.next();
+                assertEquals(Status.Success,
+                        rsp.getCommand().getInt(Tag.Status, -1));
+            }
+            as.release();
+            as.waitForSocketClose();
+        }
+    }
+
+    @Test
+    public void testStoreFile() throws Exception {
+        byte[] content = new byte[200000];
+        new Random(42).nextBytes(content);
+        File file = File.createTempFile("test", ".dcm");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new byte[132]);
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            ApplicationEntity ae = scu.getApplicationEntity("SCU");
+            ae.getConnections().get(0).setSocketChannel(true);
+            Connection remote = new Connection("dicom", "localhost", PORT);
+            Association as = ae.connect(remote,
+                    createAARQ(UID.SecondaryCaptureImageStorage));
+            DimseRSP rsp = as.cstore(UID.SecondaryCaptureImageStorage,
+                    "1.2.3.4", Priority.NORMAL, new FileDataWriter(file, 132),
+                    UID.ImplicitVRLittleEndian);
+            rsp.next();
+            assertEquals(Status.Success,
+                    rsp.getCommand().getInt(Tag.Status, -1));
+            as.release();
+            as.waitForSocketClose();
+            assertTrue(Arrays.equals(content, stored));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private AAssociateRQ createAARQ(String cuid) {
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(1,
+                cuid, UID.ImplicitVRLittleEndian));
+        return rq;
+    }
+
+    private static Device createSCP() {
+        Device dev = new Device("scp");
+        Connection conn = new Connection("dicom", "localhost", PORT);
+        conn.setSelectorThreads(1);
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCP");
+        ae.setAssociationAcceptor(true);
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.VerificationSOPClass, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.SecondaryCaptureImageStorage, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        serviceRegistry.addDicomService(new BasicCStoreSCP() {
+
+            @Override
+            protected void store(Association as, PresentationContext pc,
+                    Attributes rq, PDVInputStream data, Attributes rsp)
+                    throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                data.copyTo(out);
+                stored = out.toByteArray();
+            }
+        });
+        dev.setDimseRQHandler(serviceRegistry);
+        dev.setMaxPooledPDUBuffers(4);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private static Device createSCU() {
+        Device dev = new Device("scu");
+        Connection conn = new Connection();
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCU");
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        dev.setMaxPooledPDUBuffers(4);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+}
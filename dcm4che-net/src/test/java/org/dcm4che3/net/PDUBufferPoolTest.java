@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class PDUBufferPoolTest {
+
+    @Test
+    public void testLeaseRelease() {
+        PDUBufferPool pool = new PDUBufferPool();
+        pool.setMaxPooledBuffers(1);
+        byte[] b1 = pool.lease(16384 + 6);
+        assertEquals(20480, b1.length);
+        byte[] b2 = pool.lease(16384 + 6);
+        pool.release(b1);
+        pool.release(b2);
+        assertEquals(1, pool.getPooledBuffers());
+        assertEquals(20480, pool.getPooledBytes());
+        assertSame(b1, pool.lease(20000));
+        assertNotSame(b2, pool.lease(20000));
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+        assertEquals(0, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void testMaxPooledBytes() {
+        PDUBufferPool pool = new PDUBufferPool();
+        pool.setMaxPooledBuffers(10);
+        pool.setMaxPooledBytes(3 * 4096);
+        byte[] large = pool.lease(4 * 4096);
+        byte[] b1 = pool.lease(2 * 4096);
+        byte[] b2 = pool.lease(4096);
+        byte[] b3 = pool.lease(4096);
+        pool.release(large);
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertEquals(2, pool.getPooledBuffers());
+        assertEquals(3 * 4096, pool.getPooledBytes());
+        assertNotSame(large, pool.lease(4 * 4096));
+        assertSame(b1, pool.lease(2 * 4096));
+        pool.setMaxPooledBytes(0);
+        assertEquals(0, pool.getPooledBuffers());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testNoPooling() {
+        PDUBufferPool pool = new PDUBufferPool();
+        byte[] b = pool.lease(4096);
+        pool.release(b);
+        assertEquals(0, pool.getPooledBuffers());
+        assertNotSame(b, pool.lease(4096));
+    }
+
+}
@@ -0,0 +1,215 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class TLSHandshakeTest {
+
+    private static final int PORT = 11122;
+    private static final int NIO_PORT = 11126;
+    private static final String[] CIPHERS = {
+            "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA",
+            "TLS_RSA_WITH_AES_128_CBC_SHA" };
+    private static final String[] PROTOCOLS = { "TLSv1.2", "TLSv1" };
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static KeyStore keyStore;
+    private static Device scp;
+    private Device scu;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        keyStore = SSLManagerFactory.loadKeyStore("JKS",
+                "resource:key.jks", "secret");
+        scp = createSCP();
+        scp.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        scp.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scu = createDevice("scu", new Connection());
+        scu.addApplicationEntity(createAE("SCU", scu.listConnections().get(0)));
+        scp.getTLSHandshakeStatistics().resetStatistics();
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        echo();
+        echo();
+        TLSHandshakeStatistics stats = scu.getTLSHandshakeStatistics();
+        assertEquals(1, stats.getFullHandshakes());
+        assertEquals(1, stats.getResumedHandshakes());
+        assertEquals(0.5, stats.getResumptionRatio(), 0.);
+        TLSHandshakeStatistics scpStats = scp.getTLSHandshakeStatistics();
+        assertEquals(1, scpStats.getFullHandshakes());
+        assertEquals(1, scpStats.getResumedHandshakes());
+    }
+
+    @Test
+    public void testHandshakeTimeout() throws Exception {
+        Socket s = new Socket("localhost", PORT);
+        try {
+            echo();
+            InputStream in = s.getInputStream();
+            while (in.read() >= 0) // skip alert sent on timeout
+                ;
+        } catch (IOException expected) {
+        } finally {
+            s.close();
+        }
+        TLSHandshakeStatistics scpStats = scp.getTLSHandshakeStatistics();
+        for (int i = 0; i < 250 && scpStats.getFailedHandshakes() == 0; i++)
+            Thread.sleep(20);
+        assertEquals(1, scpStats.getFailedHandshakes());
+        assertEquals(1, scpStats.getFullHandshakes());
+    }
+
+    @Test
+    public void testHandshakeOverNIO() throws Exception {
+        echo(NIO_PORT);
+        echo(NIO_PORT);
+        TLSHandshakeStatistics scpStats = scp.getTLSHandshakeStatistics();
+        assertEquals(2, scpStats.getFullHandshakes()
+                + scpStats.getResumedHandshakes());
+        assertEquals(0, scpStats.getFailedHandshakes());
+    }
+
+    private void echo() throws Exception {
+        echo(PORT);
+    }
+
+    private void echo(int port) throws Exception {
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        Connection remote = new Connection("dicom", "localhost", port);
+        remote.setTlsCipherSuites(CIPHERS);
+        remote.setTlsProtocols(PROTOCOLS);
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.VerificationSOPClass, UID.ImplicitVRLittleEndian));
+        Association as = ae.connect(remote, rq);
+        DimseRSP rsp = as.cecho();
+        rsp.next();
+        assertEquals(Status.Success, rsp.getCommand().getInt(Tag.Status, -1));
+        as.release();
+        as.waitForSocketClose();
+    }
+
+    private static Device createSCP() throws Exception {
+        Connection conn = new Connection("dicom", "localhost", PORT);
+        // leave enough time for the first handshake, which initializes the
+        // security providers
+        conn.setTlsHandshakeTimeout(2000);
+        conn.setTlsHandshakeThreads(2);
+        Device dev = createDevice("scp", conn);
+        ApplicationEntity ae = createAE("SCP", conn);
+        // TLS handshake performed by the SSLEngine of the selector thread
+        Connection nioConn = new Connection("dicom", "localhost", NIO_PORT);
+        nioConn.setSelectorThreads(1);
+        nioConn.setTlsCipherSuites(CIPHERS);
+        nioConn.setTlsProtocols(PROTOCOLS);
+        dev.addConnection(nioConn);
+        ae.addConnection(nioConn);
+        ae.setAssociationAcceptor(true);
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.VerificationSOPClass, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        dev.addApplicationEntity(ae);
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        dev.setDimseRQHandler(serviceRegistry);
+        return dev;
+    }
+
+    private static Device createDevice(String name, Connection conn)
+            throws Exception {
+        Device dev = new Device(name);
+        conn.setTlsCipherSuites(CIPHERS);
+        conn.setTlsProtocols(PROTOCOLS);
+        dev.addConnection(conn);
+        dev.setKeyManager(SSLManagerFactory.createKeyManager(keyStore, "secret"));
+        dev.setTrustManager(SSLManagerFactory.createTrustManager(
+                (X509Certificate) keyStore.getCertificate("test")));
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private static ApplicationEntity createAE(String aet, Connection conn) {
+        ApplicationEntity ae = new ApplicationEntity(aet);
+        ae.addConnection(conn);
+        return ae;
+    }
+
+}
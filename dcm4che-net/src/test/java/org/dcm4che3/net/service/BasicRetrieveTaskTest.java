@@ -0,0 +1,255 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.DimseRSP;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.PDVOutputStream;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class BasicRetrieveTaskTest {
+
+    private static final int PORT = 11125;
+    private static final String[] IUIDS = {
+            "ok1", "warn1", "fail1", "ok2", "ok3", "warn2" };
+
+    private static ExecutorService executor;
+    private static ScheduledExecutorService scheduledExecutor;
+    private static Device scp;
+    private static final Set<Association> storeAssocs =
+            Collections.newSetFromMap(new IdentityHashMap<Association, Boolean>());
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        scp = createSCP();
+        scp.bindConnections();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        scp.unbindConnections();
+        executor.shutdownNow();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Before
+    public void setUp() {
+        synchronized (storeAssocs) {
+            storeAssocs.clear();
+        }
+    }
+
+    @Test
+    public void testRetrieveOverTwoStoreAssociations() throws Exception {
+        assertRetrieve(2);
+    }
+
+    @Test
+    public void testRetrieveOverThreeStoreAssociations() throws Exception {
+        assertRetrieve(3);
+    }
+
+    private void assertRetrieve(int numStoreAssocs) throws Exception {
+        Device scu = createSCU();
+        ApplicationEntity ae = scu.getApplicationEntity("SCU");
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.StudyRootQueryRetrieveInformationModelMOVE,
+                UID.ImplicitVRLittleEndian));
+        Association as = ae.connect(
+                new Connection("dicom", "localhost", PORT), rq);
+        Attributes keys = new Attributes(2);
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setInt(Tag.NumberOfStudyRelatedSeries, VR.IS, numStoreAssocs);
+        DimseRSP rsp = as.cmove(UID.StudyRootQueryRetrieveInformationModelMOVE,
+                Priority.NORMAL, keys, UID.ImplicitVRLittleEndian, "SCP");
+        while (rsp.next())
+            ;
+        Attributes cmd = rsp.getCommand();
+        assertEquals(Status.OneOrMoreFailures, cmd.getInt(Tag.Status, -1));
+        assertEquals(3, cmd.getInt(Tag.NumberOfCompletedSuboperations, -1));
+        assertEquals(2, cmd.getInt(Tag.NumberOfWarningSuboperations, -1));
+        assertEquals(1, cmd.getInt(Tag.NumberOfFailedSuboperations, -1));
+        assertArrayEquals(new String[] { "fail1" },
+                rsp.getDataset().getStrings(Tag.FailedSOPInstanceUIDList));
+        synchronized (storeAssocs) {
+            assertEquals(numStoreAssocs, storeAssocs.size());
+        }
+        as.release();
+        as.waitForSocketClose();
+        scp.waitForNoOpenConnections();
+    }
+
+    private static Device createSCP() {
+        Device dev = new Device("scp");
+        Connection conn = new Connection("dicom", "localhost", PORT);
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCP");
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.SecondaryCaptureImageStorage, TransferCapability.Role.SCP,
+                UID.ImplicitVRLittleEndian));
+        ae.addTransferCapability(new TransferCapability(null,
+                UID.StudyRootQueryRetrieveInformationModelMOVE,
+                TransferCapability.Role.SCP, UID.ImplicitVRLittleEndian));
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new AbstractDicomService(
+                UID.StudyRootQueryRetrieveInformationModelMOVE) {
+
+            @Override
+            protected void onDimseRQ(Association as, PresentationContext pc,
+                    Dimse dimse, Attributes rq, Attributes keys)
+                    throws IOException {
+                int numStoreAssocs = keys.getInt(Tag.NumberOfStudyRelatedSeries, 1);
+                List<InstanceLocator> insts =
+                        new ArrayList<InstanceLocator>(IUIDS.length);
+                for (String iuid : IUIDS)
+                    insts.add(new InstanceLocator(
+                            UID.SecondaryCaptureImageStorage, iuid,
+                            UID.ImplicitVRLittleEndian, null));
+                try {
+                    BasicRetrieveTask<InstanceLocator> task =
+                            new BasicRetrieveTask<InstanceLocator>(
+                                    Dimse.C_MOVE_RQ, as, pc, rq, insts,
+                                    openStoreAssociation(as)) {
+
+                        @Override
+                        protected DataWriter createDataWriter(
+                                InstanceLocator inst, String tsuid) {
+                            return new DataWriter() {
+
+                                @Override
+                                public void writeTo(PDVOutputStream out,
+                                        String tsuid) throws IOException {
+                                    out.write(new byte[100]);
+                                }
+                            };
+                        }
+                    };
+                    for (int i = 1; i < numStoreAssocs; i++)
+                        task.addStoreAssociation(openStoreAssociation(as));
+                    task.run();
+                } catch (Exception e) {
+                    throw new DicomServiceException(
+                            Status.UnableToPerformSubOperations, e);
+                }
+            }
+        });
+        serviceRegistry.addDicomService(new BasicCStoreSCP() {
+
+            @Override
+            protected void store(Association as, PresentationContext pc,
+                    Attributes rq, PDVInputStream data, Attributes rsp)
+                    throws IOException {
+                data.skipAll();
+                synchronized (storeAssocs) {
+                    storeAssocs.add(as);
+                }
+                String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
+                if (iuid.startsWith("warn"))
+                    rsp.setInt(Tag.Status, VR.US, Status.CoercionOfDataElements);
+                else if (iuid.startsWith("fail"))
+                    rsp.setInt(Tag.Status, VR.US, Status.OutOfResources);
+            }
+        });
+        dev.setDimseRQHandler(serviceRegistry);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+
+    private static Association openStoreAssociation(Association rqas)
+            throws Exception {
+        AAssociateRQ rq = new AAssociateRQ();
+        rq.setCalledAET("SCP");
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.SecondaryCaptureImageStorage, UID.ImplicitVRLittleEndian));
+        return rqas.getApplicationEntity().connect(
+                new Connection("dicom", "localhost", PORT), rq);
+    }
+
+    private static Device createSCU() {
+        Device dev = new Device("scu");
+        Connection conn = new Connection();
+        dev.addConnection(conn);
+        ApplicationEntity ae = new ApplicationEntity("SCU");
+        dev.addApplicationEntity(ae);
+        ae.addConnection(conn);
+        dev.setExecutor(executor);
+        dev.setScheduledExecutor(scheduledExecutor);
+        return dev;
+    }
+}
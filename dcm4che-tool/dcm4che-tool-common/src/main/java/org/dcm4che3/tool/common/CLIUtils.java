@@ -167,6 +167,18 @@ public class CLIUtils {
                 .withLongOpt("max-ops-performed")
                 .create(null));
         opts.addOption(null, "not-async", false, rb.getString("not-async"));
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("length")
+                .withDescription(rb.getString("spool-threshold"))
+                .withLongOpt("spool-threshold")
+                .create(null));
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("directory")
+                .withDescription(rb.getString("spool-dir"))
+                .withLongOpt("spool-dir")
+                .create(null));
         opts.addOption(null, "not-pack-pdv", false, rb.getString("not-pack-pdv"));
         opts.addOption(OptionBuilder
                 .hasArg()
@@ -225,6 +237,8 @@ public class CLIUtils {
                 .withLongOpt("sorcv-buffer")
                 .create(null));
         opts.addOption(null, "tcp-delay", false, rb.getString("tcp-delay"));
+        opts.addOption(null, "socket-channel", false,
+                rb.getString("socket-channel"));
     }
 
     @SuppressWarnings("static-access")
@@ -279,6 +293,12 @@ public class CLIUtils {
         opts.addOption(null, "ssl3", false, rb.getString("ssl3"));
         opts.addOption(null, "ssl2Hello", false, rb.getString("ssl2Hello"));
         opts.addOption(null, "tls-noauth", false, rb.getString("tls-noauth"));
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("ms")
+                .withDescription(rb.getString("tls-handshake-timeout"))
+                .withLongOpt("tls-handshake-timeout")
+                .create(null));
         opts.addOption(OptionBuilder
                 .hasArg()
                 .withArgName("file|url")
@@ -459,6 +479,9 @@ public class CLIUtils {
             conn.setMaxOpsInvoked(getIntOption(cl, "max-ops-invoked", 0));
             conn.setMaxOpsPerformed(getIntOption(cl, "max-ops-performed", 0));
         }
+        conn.setDimseRQSpoolThreshold(getIntOption(cl, "spool-threshold",
+                Connection.DEF_DIMSE_RQ_SPOOL_THRESHOLD));
+        conn.setDimseRQSpoolDirectory(cl.getOptionValue("spool-dir"));
         conn.setPackPDV(!cl.hasOption("not-pack-pdv"));
         conn.setConnectTimeout(getIntOption(cl, "connect-timeout", 0));
         conn.setRequestTimeout(getIntOption(cl, "request-timeout", 0));
@@ -472,6 +495,7 @@ public class CLIUtils {
         conn.setSendBufferSize(getIntOption(cl, "sosnd-buffer", 0));
         conn.setReceiveBufferSize(getIntOption(cl, "sorcv-buffer", 0));
         conn.setTcpNoDelay(!cl.hasOption("tcp-delay"));
+        conn.setSocketChannel(cl.hasOption("socket-channel"));
         configureTLS(conn, cl);
     }
 
@@ -505,6 +529,8 @@ public class CLIUtils {
             conn.setTlsProtocols(cl.getOptionValues("tls-protocol"));
 
         conn.setTlsNeedClientAuth(!cl.hasOption("tls-noauth"));
+        conn.setTlsHandshakeTimeout(getIntOption(cl, "tls-handshake-timeout",
+                Connection.DEF_TLS_HANDSHAKE_TIMEOUT));
 
         String keyStoreURL = cl.getOptionValue("key-store", "resource:key.jks");
         String keyStoreType =  cl.getOptionValue("key-store-type", "JKS");
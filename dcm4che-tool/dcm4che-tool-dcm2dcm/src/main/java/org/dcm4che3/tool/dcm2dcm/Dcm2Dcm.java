@@ -150,6 +150,10 @@ public class Dcm2Dcm {
                 .withLongOpt("j2ki")
                 .withDescription(rb.getString("j2ki"))
                 .create());
+        tsGroup.addOption(OptionBuilder
+                .withLongOpt("rle")
+                .withDescription(rb.getString("rle"))
+                .create());
         opts.addOptionGroup(tsGroup);
         OptionGroup fmiGroup = new OptionGroup();
         fmiGroup.addOption(OptionBuilder
@@ -265,6 +269,7 @@ public class Dcm2Dcm {
                 : cl.hasOption("jpls") ? UID.JPEGLSLossless
                 : cl.hasOption("j2kr") ? UID.JPEG2000LosslessOnly
                 : cl.hasOption("j2ki") ? UID.JPEG2000
+                : cl.hasOption("rle") ? UID.RLELossless
                 : cl.getOptionValue("t", def);
     }
 
@@ -66,12 +66,14 @@ import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.media.DicomDirIndex;
 import org.dcm4che3.media.DicomDirReader;
 import org.dcm4che3.media.DicomDirWriter;
 import org.dcm4che3.media.RecordFactory;
 import org.dcm4che3.media.RecordType;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationPool;
 import org.dcm4che3.net.AssociationStateException;
 import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.Connection;
@@ -136,6 +138,10 @@ public class DcmQRSCP {
     private boolean stgCmtOnSameAssoc;
     private boolean sendPendingCGet;
     private int sendPendingCMoveInterval;
+    private int cmoveAssociations = 1;
+    private boolean poolAssociations;
+    private int groupCommitSize = 1;
+    private long groupCommitDelay;
     private final FilesetInfo fsInfo = new FilesetInfo();
     private DicomDirReader ddReader;
     private DicomDirWriter ddWriter;
@@ -205,7 +211,7 @@ public class DcmQRSCP {
             try {
                 as.writeDimseRSP(pc, rsp, null);
                 device.execute(new SendStgCmtResult(as, eventInfo,
-                        stgCmtOnSameAssoc, remoteConnection));
+                        stgCmtOnSameAssoc, poolAssociations, remoteConnection));
             } catch (AssociationStateException e) {
                 LOG.warn("{} << N-ACTION-RSP failed: {}", as, e.getMessage());
             }
@@ -320,18 +326,44 @@ public class DcmQRSCP {
                 return null;
 
             AAssociateRQ aarq = makeAAssociateRQ(as.getLocalAET(), moveDest, matches);
-            Association storeas = openStoreAssociation(as, remote, aarq);
+            Association storeas = openStoreAssociation(as, remote, aarq, true);
             BasicRetrieveTask retrieveTask = new BasicRetrieveTask(
                     Dimse.C_MOVE_RQ, as, pc, rq, matches, storeas);
             retrieveTask.setSendPendingRSPInterval(getSendPendingCMoveInterval());
+            int n = Math.min(getCMoveAssociations(), matches.size());
+            for (int i = 1; i < n; i++) {
+                try {
+                    Association addas = openStoreAssociation(as, remote, aarq,
+                            false);
+                    if (addas == null)
+                        break;
+                    retrieveTask.addStoreAssociation(addas);
+                } catch (DicomServiceException e) {
+                    LOG.warn("{}: failed to open additional association to {}",
+                            as, moveDest, e);
+                    break;
+                }
+            }
             return retrieveTask;
         }
 
+        /**
+         * Open association to the Move Destination, or lease it from the
+         * association pool of the device. Additional associations are only
+         * leased, if available without waiting.
+         */
         private Association openStoreAssociation(Association as,
-                Connection remote, AAssociateRQ aarq) throws DicomServiceException {
+                Connection remote, AAssociateRQ aarq, boolean wait)
+                throws DicomServiceException {
+            ApplicationEntity ae = as.getApplicationEntity();
             try {
-                return as.getApplicationEntity().connect(
-                        as.getConnection(), remote, aarq);
+                if (!poolAssociations)
+                    return ae.connect(as.getConnection(), remote, aarq);
+
+                AssociationPool pool = device.getAssociationPool();
+                return wait
+                        ? pool.lease(ae, as.getConnection(), remote, aarq)
+                        : pool.tryLease(ae, as.getConnection(), remote, aarq);
             } catch (Exception e) {
                 throw new DicomServiceException(Status.UnableToPerformSubOperations, e);
             }
@@ -530,6 +562,44 @@ public class DcmQRSCP {
         this.recFact = recFact;
     }
 
+    public final void setCMoveAssociations(int cmoveAssociations) {
+        if (cmoveAssociations < 1)
+            throw new IllegalArgumentException("cmoveAssociations: " + cmoveAssociations);
+        this.cmoveAssociations = cmoveAssociations;
+    }
+
+    public final int getCMoveAssociations() {
+        return cmoveAssociations;
+    }
+
+    public final boolean isPoolAssociations() {
+        return poolAssociations;
+    }
+
+    public final void setPoolAssociations(boolean poolAssociations) {
+        this.poolAssociations = poolAssociations;
+    }
+
+    public final int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    public final void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+        if (ddWriter != null)
+            ddWriter.setGroupCommitSize(groupCommitSize);
+    }
+
+    public final long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    public final void setGroupCommitDelay(long groupCommitDelay) {
+        this.groupCommitDelay = groupCommitDelay;
+        if (ddWriter != null)
+            ddWriter.setGroupCommitDelay(groupCommitDelay);
+    }
+
     public final RecordFactory getRecordFactory() {
         return recFact;
     }
@@ -549,6 +619,8 @@ public class DcmQRSCP {
         addInstanceAvailabilityOption(opts);
         addStgCmtOptions(opts);
         addSendingPendingOptions(opts);
+        addAssociationPoolOptions(opts);
+        addGroupCommitOptions(opts);
         addRemoteConnectionsOption(opts);
         return CLIUtils.parseComandLine(args, opts, rb, DcmQRSCP.class);
     }
@@ -576,8 +648,41 @@ public class DcmQRSCP {
                 .withDescription(rb.getString("pending-cmove"))
                 .withLongOpt("pending-cmove")
                 .create());
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("no")
+                .withDescription(rb.getString("parallel-cmove"))
+                .withLongOpt("parallel-cmove")
+                .create());
    }
 
+    @SuppressWarnings("static-access")
+    private static void addAssociationPoolOptions(Options opts) {
+        opts.addOption(null, "pool-assocs", false, rb.getString("pool-assocs"));
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("no")
+                .withDescription(rb.getString("max-assocs-per-dest"))
+                .withLongOpt("max-assocs-per-dest")
+                .create());
+    }
+
+    @SuppressWarnings("static-access")
+    private static void addGroupCommitOptions(Options opts) {
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("no")
+                .withDescription(rb.getString("group-commit"))
+                .withLongOpt("group-commit")
+                .create());
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("ms")
+                .withDescription(rb.getString("group-commit-delay"))
+                .withLongOpt("group-commit-delay")
+                .create());
+    }
+
     @SuppressWarnings("static-access")
     private static void addDicomDirOption(Options opts) {
         opts.addOption(OptionBuilder
@@ -634,7 +739,7 @@ public class DcmQRSCP {
     public static void main(String[] args) {
         try {
             CommandLine cl = parseComandLine(args);
-            DcmQRSCP main = new DcmQRSCP();
+            final DcmQRSCP main = new DcmQRSCP();
             CLIUtils.configure(main.fsInfo, cl);
             CLIUtils.configureBindServer(main.conn, main.ae, cl);
             CLIUtils.configure(main.conn, cl);
@@ -643,6 +748,8 @@ public class DcmQRSCP {
             configureInstanceAvailability(main, cl);
             configureStgCmt(main, cl);
             configureSendPending(main, cl);
+            configureAssociationPool(main, cl);
+            configureGroupCommit(main, cl);
             configureRemoteConnections(main, cl);
             ExecutorService executorService = Executors.newCachedThreadPool();
             ScheduledExecutorService scheduledExecutorService = 
@@ -650,6 +757,14 @@ public class DcmQRSCP {
             main.device.setScheduledExecutor(scheduledExecutorService);
             main.device.setExecutor(executorService);
             main.device.bindConnections();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+
+                @Override
+                public void run() {
+                    // also releases idle associations of the association pool
+                    main.device.unbindConnections();
+                }
+            });
         } catch (ParseException e) {
             System.err.println("dcmqrscp: " + e.getMessage());
             System.err.println(rb.getString("try"));
@@ -684,6 +799,24 @@ public class DcmQRSCP {
         if (cl.hasOption("pending-cmove"))
                 main.setSendPendingCMoveInterval(
                         Integer.parseInt(cl.getOptionValue("pending-cmove")));
+        if (cl.hasOption("parallel-cmove"))
+                main.setCMoveAssociations(
+                        Integer.parseInt(cl.getOptionValue("parallel-cmove")));
+    }
+
+    private static void configureAssociationPool(DcmQRSCP main, CommandLine cl) {
+        main.setPoolAssociations(cl.hasOption("pool-assocs"));
+        if (cl.hasOption("max-assocs-per-dest"))
+            main.device.setMaxAssociationsPerDestination(
+                    Integer.parseInt(cl.getOptionValue("max-assocs-per-dest")));
+    }
+
+    private static void configureGroupCommit(DcmQRSCP main, CommandLine cl) {
+        if (cl.hasOption("group-commit"))
+            main.setGroupCommitSize(
+                    Integer.parseInt(cl.getOptionValue("group-commit")));
+        main.setGroupCommitDelay(
+                Long.parseLong(cl.getOptionValue("group-commit-delay", "50")));
     }
 
     private static void configureTransferCapability(DcmQRSCP main, CommandLine cl)
@@ -787,10 +920,14 @@ public class DcmQRSCP {
                     fsInfo.getDescriptorFile(), 
                     fsInfo.getDescriptorFileCharset());
         ddReader = ddWriter = DicomDirWriter.open(dicomDir);
+        ddWriter.setGroupCommitSize(groupCommitSize);
+        ddWriter.setGroupCommitDelay(groupCommitDelay);
+        ddReader.getIndex();
     }
 
-    private void openDicomDirForReadOnly() throws IOException {
+    void openDicomDirForReadOnly() throws IOException {
         ddReader = new DicomDirReader(dicomDir);
+        ddReader.getIndex();
     }
 
     public void addRemoteConnection(String aet, Connection remote) {
@@ -810,39 +947,32 @@ public class DcmQRSCP {
             String[] seriesIUIDs = keys.getStrings(Tag.SeriesInstanceUID);
             String[] sopIUIDs = keys.getStrings(Tag.SOPInstanceUID);
             DicomDirReader ddr = ddReader;
-            Attributes patRec = ddr.findPatientRecord(patIDs);
-            while (patRec != null) {
-                Attributes studyRec = ddr.findStudyRecord(patRec, studyIUIDs);
-                while (studyRec != null) {
-                    Attributes seriesRec = ddr.findSeriesRecord(studyRec, seriesIUIDs);
-                    while (seriesRec != null) {
-                        Attributes instRec = ddr.findLowerInstanceRecord(seriesRec, true, sopIUIDs);
-                        while (instRec != null) {
-                            String cuid = instRec.getString(Tag.ReferencedSOPClassUIDInFile);
-                            String iuid = instRec.getString(Tag.ReferencedSOPInstanceUIDInFile);
-                            String tsuid = instRec.getString(Tag.ReferencedTransferSyntaxUIDInFile);
-                            String[] fileIDs = instRec.getStrings(Tag.ReferencedFileID);
-                            String uri = ddr.toFile(fileIDs).toURI().toString();
-                            list.add(new InstanceLocator(cuid, iuid, tsuid, uri));
-                            if (sopIUIDs != null && sopIUIDs.length == 1)
-                                break;
-    
-                            instRec = ddr.findNextInstanceRecord(instRec, true, sopIUIDs);
-                        }
-                        if (seriesIUIDs != null && seriesIUIDs.length == 1)
-                            break;
-    
-                        seriesRec = ddr.findNextSeriesRecord(seriesRec, seriesIUIDs);
-                    }
-                    if (studyIUIDs != null && studyIUIDs.length == 1)
-                        break;
-    
-                    studyRec = ddr.findNextStudyRecord(studyRec, studyIUIDs);
+            DicomDirIndex index = ddr.getIndex();
+            if (PatientQueryTask.hasKeys(sopIUIDs)) {
+                for (Attributes instRec : index.findInstanceRecords(sopIUIDs)) {
+                    Attributes seriesRec = index.getParentRecord(instRec);
+                    if (matchesSeries(index, seriesRec, seriesIUIDs, studyIUIDs, patIDs))
+                        list.add(toInstanceLocator(ddr, instRec));
                 }
-                if (patIDs != null && patIDs.length == 1)
-                    break;
-    
-                    patRec = ddr.findNextPatientRecord(patRec, patIDs);
+            } else if (PatientQueryTask.hasKeys(seriesIUIDs)) {
+                for (Attributes seriesRec : index.findSeriesRecords(seriesIUIDs)) {
+                    if (matchesStudy(index, index.getParentRecord(seriesRec),
+                            studyIUIDs, patIDs))
+                        addInstances(ddr, seriesRec, list);
+                }
+            } else if (PatientQueryTask.hasKeys(studyIUIDs)) {
+                for (Attributes studyRec : index.findStudyRecords(studyIUIDs)) {
+                    if (matchesPatient(index.getParentRecord(studyRec), patIDs))
+                        addSeries(ddr, studyRec, list);
+                }
+            } else if (PatientQueryTask.hasKeys(patIDs)
+                    && !PatientQueryTask.containsWildCard(patIDs)) {
+                for (Attributes patRec : index.findPatientRecords(patIDs))
+                    addStudies(ddr, patRec, list);
+            } else {
+                for (Attributes patRec = ddr.findPatientRecord(patIDs); patRec != null;
+                        patRec = ddr.findNextPatientRecord(patRec, patIDs))
+                    addStudies(ddr, patRec, list);
             }
             return list;
         } catch (IOException e) {
@@ -850,6 +980,59 @@ public class DcmQRSCP {
         }
     }
 
+    private static boolean matchesSeries(DicomDirIndex index, Attributes rec,
+            String[] seriesIUIDs, String[] studyIUIDs, String[] patIDs) {
+        return rec != null
+                && PatientQueryTask.contains(seriesIUIDs,
+                        rec.getString(Tag.SeriesInstanceUID))
+                && matchesStudy(index, index.getParentRecord(rec),
+                        studyIUIDs, patIDs);
+    }
+
+    private static boolean matchesStudy(DicomDirIndex index, Attributes rec,
+            String[] studyIUIDs, String[] patIDs) {
+        return rec != null
+                && PatientQueryTask.contains(studyIUIDs,
+                        rec.getString(Tag.StudyInstanceUID))
+                && matchesPatient(index.getParentRecord(rec), patIDs);
+    }
+
+    private static boolean matchesPatient(Attributes rec, String[] patIDs) {
+        return rec != null
+                && PatientQueryTask.contains(patIDs, rec.getString(Tag.PatientID));
+    }
+
+    private static void addStudies(DicomDirReader ddr, Attributes patRec,
+            List<InstanceLocator> list) throws IOException {
+        for (Attributes studyRec = ddr.findStudyRecord(patRec); studyRec != null;
+                studyRec = ddr.findNextStudyRecord(studyRec))
+            addSeries(ddr, studyRec, list);
+    }
+
+    private static void addSeries(DicomDirReader ddr, Attributes studyRec,
+            List<InstanceLocator> list) throws IOException {
+        for (Attributes seriesRec = ddr.findSeriesRecord(studyRec); seriesRec != null;
+                seriesRec = ddr.findNextSeriesRecord(seriesRec))
+            addInstances(ddr, seriesRec, list);
+    }
+
+    private static void addInstances(DicomDirReader ddr, Attributes seriesRec,
+            List<InstanceLocator> list) throws IOException {
+        for (Attributes instRec = ddr.findLowerInstanceRecord(seriesRec, true);
+                instRec != null; instRec = ddr.findNextInstanceRecord(instRec, true))
+            list.add(toInstanceLocator(ddr, instRec));
+    }
+
+    private static InstanceLocator toInstanceLocator(DicomDirReader ddr,
+            Attributes instRec) {
+        String cuid = instRec.getString(Tag.ReferencedSOPClassUIDInFile);
+        String iuid = instRec.getString(Tag.ReferencedSOPInstanceUIDInFile);
+        String tsuid = instRec.getString(Tag.ReferencedTransferSyntaxUIDInFile);
+        String[] fileIDs = instRec.getStrings(Tag.ReferencedFileID);
+        String uri = ddr.toFile(fileIDs).toURI().toString();
+        return new InstanceLocator(cuid, iuid, tsuid, uri);
+    }
+
     public Attributes calculateStorageCommitmentResult(String calledAET,
             Attributes actionInfo) throws DicomServiceException {
         Sequence requestSeq = actionInfo.getSequence(Tag.ReferencedSOPSequence);
@@ -871,27 +1054,15 @@ public class DcmQRSCP {
         }
         DicomDirReader ddr = ddReader;
         try {
-            Attributes patRec = ddr.findPatientRecord();
-            while (patRec != null) {
-                Attributes studyRec = ddr.findStudyRecord(patRec);
-                while (studyRec != null) {
-                    Attributes seriesRec = ddr.findSeriesRecord(studyRec);
-                    while (seriesRec != null) {
-                        Attributes instRec = ddr.findLowerInstanceRecord(seriesRec, true, sopIUIDs);
-                        while (instRec != null) {
-                            String iuid = instRec.getString(Tag.ReferencedSOPInstanceUIDInFile);
-                            String cuid = map.remove(iuid);
-                            if (cuid.equals(instRec.getString(Tag.ReferencedSOPClassUIDInFile)))
-                                successSeq.add(refSOP(iuid, cuid, Status.Success));
-                            else
-                                failedSeq.add(refSOP(iuid, cuid, Status.ClassInstanceConflict));
-                            instRec = ddr.findNextInstanceRecord(instRec, true, sopIUIDs);
-                        }
-                        seriesRec = ddr.findNextSeriesRecord(seriesRec);
-                    }
-                    studyRec = ddr.findNextStudyRecord(studyRec);
-                }
-                patRec = ddr.findNextPatientRecord(patRec);
+            for (Attributes instRec : ddr.getIndex().findInstanceRecords(sopIUIDs)) {
+                String iuid = instRec.getString(Tag.ReferencedSOPInstanceUIDInFile);
+                String cuid = map.remove(iuid);
+                if (cuid == null)
+                    continue;
+                if (cuid.equals(instRec.getString(Tag.ReferencedSOPClassUIDInFile)))
+                    successSeq.add(refSOP(iuid, cuid, Status.Success));
+                else
+                    failedSeq.add(refSOP(iuid, cuid, Status.ClassInstanceConflict));
             }
         } catch (IOException e) {
             LOG.info("Failed to M-READ " + dicomDir, e);
@@ -906,8 +1077,18 @@ public class DcmQRSCP {
     }
 
     boolean addDicomDirRecords(Association as, Attributes ds, Attributes fmi,
-            File f) throws IOException {
+            File f) throws IOException, InterruptedException {
         DicomDirWriter ddWriter = getDicomDirWriter();
+        synchronized (ddWriter) {
+            if (!addDicomDirRecords(ddWriter, ds, fmi, f))
+                return false;
+        }
+        ddWriter.groupCommit();
+        return true;
+    }
+
+    private boolean addDicomDirRecords(DicomDirWriter ddWriter, Attributes ds,
+            Attributes fmi, File f) throws IOException {
         RecordFactory recFact = getRecordFactory();
         String pid = ds.getString(Tag.PatientID, null);
         String styuid = ds.getString(Tag.StudyInstanceUID, null);
@@ -934,14 +1115,11 @@ public class DcmQRSCP {
                     ds, null, null);
             ddWriter.addLowerDirectoryRecord(studyRec, seriesRec);
         }
-        Attributes instRec = 
-                ddWriter.findLowerInstanceRecord(seriesRec, false, iuid);
-        if (instRec != null)
+        if (!ddWriter.getIndex().findInstanceRecords(iuid).isEmpty())
             return false;
     
-        instRec = recFact.createRecord(ds, fmi, ddWriter.toFileIDs(f));
+        Attributes instRec = recFact.createRecord(ds, fmi, ddWriter.toFileIDs(f));
         ddWriter.addLowerDirectoryRecord(seriesRec, instRec);
-        ddWriter.commit();
         return true;
     }
 
@@ -39,6 +39,7 @@
 package org.dcm4che3.tool.dcmqrscp;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
@@ -53,11 +54,14 @@ class InstanceQueryTask extends SeriesQueryTask {
 
     protected final String[] sopIUIDs;
     protected Attributes instRec;
+    private Iterator<Attributes> instRecs;
 
     public InstanceQueryTask(Association as, PresentationContext pc, Attributes rq, Attributes keys,
             DicomDirReader ddr, String availability) throws DicomServiceException {
         super(as, pc, rq, keys, ddr, availability);
         sopIUIDs = StringUtils.maskNull(keys.getStrings(Tag.SOPInstanceUID));
+        if (hasKeys(sopIUIDs))
+            instRecs = index.findInstanceRecords(sopIUIDs).iterator();
         wrappedFindNextInstance();
     }
 
@@ -89,18 +93,32 @@ class InstanceQueryTask extends SeriesQueryTask {
     }
 
     protected boolean findNextInstance() throws IOException {
+        if (instRecs != null) {
+            while (instRecs.hasNext()) {
+                Attributes rec = instRecs.next();
+                Attributes parent = index.getParentRecord(rec);
+                if (matchesSeries(parent)) {
+                    instRec = rec;
+                    seriesRec = parent;
+                    studyRec = index.getParentRecord(seriesRec);
+                    patRec = index.getParentRecord(studyRec);
+                    return true;
+                }
+            }
+            instRec = null;
+            return false;
+        }
+
         if (seriesRec == null)
             return false;
 
         if (instRec == null)
-            instRec = ddr.findLowerInstanceRecord(seriesRec, true, sopIUIDs);
-        else if (sopIUIDs != null && sopIUIDs.length == 1)
-            instRec = null;
+            instRec = ddr.findLowerInstanceRecord(seriesRec, true);
         else
-            instRec = ddr.findNextInstanceRecord(instRec, true, sopIUIDs);
+            instRec = ddr.findNextInstanceRecord(instRec, true);
 
         while (instRec == null && super.findNextSeries())
-            instRec = ddr.findLowerInstanceRecord(seriesRec, true, sopIUIDs);
+            instRec = ddr.findLowerInstanceRecord(seriesRec, true);
 
         return instRec != null;
     }
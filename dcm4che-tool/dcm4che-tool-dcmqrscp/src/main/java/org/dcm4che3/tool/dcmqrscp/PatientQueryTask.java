@@ -39,30 +39,38 @@
 package org.dcm4che3.tool.dcmqrscp;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.media.DicomDirIndex;
 import org.dcm4che3.media.DicomDirReader;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicQueryTask;
 import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.StringUtils;
 
 class PatientQueryTask extends BasicQueryTask {
 
     protected final DicomDirReader ddr;
+    protected final DicomDirIndex index;
     protected final String availability;
     protected final String[] patIDs;
     protected Attributes patRec;
+    private Iterator<Attributes> patRecs;
 
     public PatientQueryTask(Association as, PresentationContext pc, Attributes rq, Attributes keys,
             DicomDirReader ddr, String availability) throws DicomServiceException {
         super(as, pc, rq, keys);
         this.ddr = ddr;
+        this.index = indexOf(ddr);
         this.availability = availability;
         this.patIDs = keys.getStrings(Tag.PatientID);
+        if (hasKeys(patIDs) && !containsWildCard(patIDs))
+            patRecs = index.findPatientRecords(patIDs).iterator();
         wrappedFindNextPatient();
     }
 
@@ -103,6 +111,15 @@ class PatientQueryTask extends BasicQueryTask {
         return adjust;
     }
 
+    private static DicomDirIndex indexOf(DicomDirReader ddr)
+            throws DicomServiceException {
+        try {
+            return ddr.getIndex();
+        } catch (IOException e) {
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+    }
+
     private void wrappedFindNextPatient() throws DicomServiceException {
         try {
             findNextPatient();
@@ -112,13 +129,42 @@ class PatientQueryTask extends BasicQueryTask {
     }
 
     protected boolean findNextPatient() throws IOException {
-        if (patRec == null)
+        if (patRecs != null)
+            patRec = patRecs.hasNext() ? patRecs.next() : null;
+        else if (patRec == null)
             patRec = ddr.findPatientRecord(patIDs);
-        else if (patIDs != null && patIDs.length == 1)
-            patRec = null;
         else
             patRec = ddr.findNextPatientRecord(patRec, patIDs);
 
         return patRec != null;
     }
+
+    protected boolean matchesPatient(Attributes rec) {
+        return rec != null && contains(patIDs, rec.getString(Tag.PatientID));
+    }
+
+    static boolean hasKeys(String[] keys) {
+        return keys != null && keys.length != 0;
+    }
+
+    static boolean contains(String[] keys, String value) {
+        if (!hasKeys(keys))
+            return true;
+
+        for (String key : keys)
+            if (StringUtils.containsWildCard(key)
+                    ? StringUtils.matches(value, key, false, false)
+                    : key.equals(value))
+                return true;
+
+        return false;
+    }
+
+    static boolean containsWildCard(String[] keys) {
+        for (String key : keys)
+            if (StringUtils.containsWildCard(key))
+                return true;
+
+        return false;
+    }
 }
\ No newline at end of file
@@ -45,6 +45,7 @@ import org.dcm4che3.data.UID;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationPool;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.pdu.AAssociateRQ;
@@ -59,13 +60,15 @@ class SendStgCmtResult implements Runnable {
     private final Association as;
     private final Attributes eventInfo;
     private final boolean sameAssoc;
+    private final boolean pooled;
     private final Connection remoteConn;
 
     SendStgCmtResult(Association as, Attributes eventInfo,
-            boolean sameAssoc, Connection remoteConn) {
+            boolean sameAssoc, boolean pooled, Connection remoteConn) {
         this.as = as;
         this.eventInfo = eventInfo;
         this.sameAssoc = sameAssoc;
+        this.pooled = pooled;
         this.remoteConn = remoteConn;
     }
 
@@ -80,6 +83,10 @@ class SendStgCmtResult implements Runnable {
                         "Failed to return Storage Commitment Result in same Association:", e);
             }
         }
+        if (pooled) {
+            neventReportOnPooledAssoc();
+            return;
+        }
         try {
             Association diffAssoc = as.getApplicationEntity().connect(
                     as.getConnection(), remoteConn, makeAAssociateRQ());
@@ -91,6 +98,27 @@ class SendStgCmtResult implements Runnable {
         }
     }
 
+    private void neventReportOnPooledAssoc() {
+        AssociationPool pool = as.getDevice().getAssociationPool();
+        Association diffAssoc;
+        try {
+            diffAssoc = pool.lease(as.getApplicationEntity(),
+                    as.getConnection(), remoteConn, makeAAssociateRQ());
+        } catch (Exception e) {
+            DcmQRSCP.LOG.error(
+                    "Failed to return Storage Commitment Result in pooled Association:", e);
+            return;
+        }
+        try {
+            neventReport(diffAssoc);
+            pool.release(diffAssoc);
+        } catch (Exception e) {
+            pool.discard(diffAssoc);
+            DcmQRSCP.LOG.error(
+                    "Failed to return Storage Commitment Result in pooled Association:", e);
+        }
+    }
+
     private void neventReport(Association as)
             throws IOException, InterruptedException {
         as.neventReport(UID.StorageCommitmentPushModelSOPClass,
@@ -39,6 +39,7 @@
 package org.dcm4che3.tool.dcmqrscp;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
@@ -53,12 +54,15 @@ class SeriesQueryTask extends StudyQueryTask {
 
     protected final String[] seriesIUIDs;
     protected Attributes seriesRec;
+    private Iterator<Attributes> seriesRecs;
 
     public SeriesQueryTask(Association as, PresentationContext pc, Attributes rq, Attributes keys,
             DicomDirReader ddr, String availability) throws DicomServiceException {
         super(as, pc, rq, keys, ddr, availability);
         seriesIUIDs = StringUtils.maskNull(
                 keys.getStrings(Tag.SeriesInstanceUID));
+        if (hasKeys(seriesIUIDs))
+            seriesRecs = index.findSeriesRecords(seriesIUIDs).iterator();
         wrappedFindNextSeries();
    }
 
@@ -88,19 +92,37 @@ class SeriesQueryTask extends StudyQueryTask {
     }
 
     protected boolean findNextSeries() throws IOException {
+        if (seriesRecs != null) {
+            while (seriesRecs.hasNext()) {
+                Attributes rec = seriesRecs.next();
+                if (matchesSeries(rec)) {
+                    seriesRec = rec;
+                    studyRec = index.getParentRecord(rec);
+                    patRec = index.getParentRecord(studyRec);
+                    return true;
+                }
+            }
+            seriesRec = null;
+            return false;
+        }
+
         if (studyRec == null)
             return false;
 
         if (seriesRec == null)
-            seriesRec = ddr.findSeriesRecord(studyRec, seriesIUIDs);
-        else if (seriesIUIDs != null && seriesIUIDs.length == 1)
-            seriesRec = null;
+            seriesRec = ddr.findSeriesRecord(studyRec);
         else
-            seriesRec = ddr.findNextSeriesRecord(seriesRec, seriesIUIDs);
+            seriesRec = ddr.findNextSeriesRecord(seriesRec);
 
         while (seriesRec == null && super.findNextStudy())
-            seriesRec = ddr.findSeriesRecord(studyRec, seriesIUIDs);
+            seriesRec = ddr.findSeriesRecord(studyRec);
 
         return seriesRec != null;
     }
+
+    protected boolean matchesSeries(Attributes rec) {
+        return rec != null
+                && contains(seriesIUIDs, rec.getString(Tag.SeriesInstanceUID))
+                && matchesStudy(index.getParentRecord(rec));
+    }
 }
\ No newline at end of file
@@ -39,25 +39,51 @@
 package org.dcm4che3.tool.dcmqrscp;
 
 import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.TimeZone;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.DateRange;
 import org.dcm4che3.media.DicomDirReader;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.StringUtils;
 
 class StudyQueryTask extends PatientQueryTask {
 
     protected final String[] studyIUIDs;
+    protected final String studyDateFrom;
+    protected final String studyDateTo;
+    protected final boolean matchStudyDate;
     protected Attributes studyRec;
+    private Iterator<Attributes> studyRecs;
 
     public StudyQueryTask(Association as, PresentationContext pc, Attributes rq, Attributes keys,
             DicomDirReader ddr, String availability) throws DicomServiceException {
         super(as, pc, rq, keys, ddr, availability);
         studyIUIDs = StringUtils.maskNull(keys.getStrings(Tag.StudyInstanceUID));
+        // values which cannot be parsed as date range - e.g. wildcards -
+        // are not matched, so the studies are scanned as without key
+        DateRange studyDate = keys.getDateRange(Tag.StudyDate);
+        matchStudyDate = studyDate != null;
+        if (matchStudyDate) {
+            TimeZone tz = keys.getTimeZone();
+            studyDateFrom = formatDA(tz, studyDate.getStartDate());
+            studyDateTo = formatDA(tz, studyDate.getEndDate());
+        } else {
+            studyDateFrom = null;
+            studyDateTo = null;
+        }
+        if (hasKeys(studyIUIDs))
+            studyRecs = index.findStudyRecords(studyIUIDs).iterator();
+        else if (matchStudyDate)
+            studyRecs = index.findStudyRecordsByDate(studyDateFrom, studyDateTo)
+                    .iterator();
         wrappedFindNextStudy();
     }
 
@@ -84,19 +110,50 @@ class StudyQueryTask extends PatientQueryTask {
     }
 
     protected boolean findNextStudy() throws IOException {
+        if (studyRecs != null) {
+            while (studyRecs.hasNext()) {
+                Attributes rec = studyRecs.next();
+                if (matchesStudy(rec)) {
+                    studyRec = rec;
+                    patRec = index.getParentRecord(rec);
+                    return true;
+                }
+            }
+            studyRec = null;
+            return false;
+        }
+
         if (patRec == null)
             return false;
 
         if (studyRec == null)
-            studyRec = ddr.findStudyRecord(patRec, studyIUIDs);
-        else if (studyIUIDs != null && studyIUIDs.length == 1)
-            studyRec = null;
+            studyRec = ddr.findStudyRecord(patRec);
         else
-            studyRec = ddr.findNextStudyRecord(studyRec, studyIUIDs);
+            studyRec = ddr.findNextStudyRecord(studyRec);
 
         while (studyRec == null && super.findNextPatient())
-            studyRec = ddr.findStudyRecord(patRec, studyIUIDs);
+            studyRec = ddr.findStudyRecord(patRec);
 
         return studyRec != null;
     }
+
+    protected boolean matchesStudy(Attributes rec) {
+        return rec != null
+                && contains(studyIUIDs, rec.getString(Tag.StudyInstanceUID))
+                && matchesStudyDate(rec.getString(Tag.StudyDate))
+                && matchesPatient(index.getParentRecord(rec));
+    }
+
+    private static String formatDA(TimeZone tz, Date date) {
+        return date != null ? DateUtils.formatDA(tz, date) : null;
+    }
+
+    private boolean matchesStudyDate(String date) {
+        if (!matchStudyDate)
+            return true;
+
+        return date != null
+                && (studyDateFrom == null || studyDateFrom.compareTo(date) <= 0)
+                && (studyDateTo == null || studyDateTo.compareTo(date) >= 0);
+    }
 }
\ No newline at end of file
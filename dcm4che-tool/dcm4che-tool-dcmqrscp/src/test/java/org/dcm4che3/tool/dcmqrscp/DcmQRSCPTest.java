@@ -0,0 +1,156 @@
+package org.dcm4che3.tool.dcmqrscp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.media.DicomDirWriter;
+import org.dcm4che3.net.service.InstanceLocator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DcmQRSCPTest {
+
+    private static File dir;
+    private static DcmQRSCP qrscp;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        dir = File.createTempFile("dcmqrscp", null);
+        dir.delete();
+        File file = new File(dir, "DICOMDIR");
+        qrscp = new DcmQRSCP();
+        qrscp.setDicomDirectory(file);
+        DicomDirWriter.createEmptyDirectory(file, "1.2.3", null, null, null);
+        DicomDirWriter w = DicomDirWriter.open(file);
+        try {
+            addPatient(w, "DOE1", "1.1", "20150101");
+            addPatient(w, "DOE2", "1.2", "20150115");
+            addPatient(w, "P1", "1.3", "20150201");
+            addPatient(w, "P12", "1.4", null);
+            w.commit();
+        } finally {
+            w.close();
+        }
+        qrscp.openDicomDirForReadOnly();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        qrscp.getDicomDirReader().close();
+        new File(dir, "DICOMDIR").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testCalculateMatchesByPatientID() throws Exception {
+        assertMatches(keys("P1"), "1.3.1");
+        assertMatches(keys("DOE2", "P12"), "1.2.1", "1.4.1");
+    }
+
+    @Test
+    public void testCalculateMatchesByWildcardPatientID() throws Exception {
+        assertMatches(keys("DOE*"), "1.1.1", "1.2.1");
+        assertMatches(keys("P?"), "1.3.1");
+        assertMatches(keys("P?", "DOE2"), "1.2.1", "1.3.1");
+        assertMatches(keys("X*"));
+    }
+
+    @Test
+    public void testCalculateMatchesByStudyAndWildcardPatientID()
+            throws Exception {
+        Attributes keys = keys("P*");
+        keys.setString(Tag.StudyInstanceUID, VR.UI, "1.2", "1.4");
+        assertMatches(keys, "1.4.1");
+    }
+
+    @Test
+    public void testContains() {
+        assertTrue(PatientQueryTask.contains(null, "P1"));
+        assertTrue(PatientQueryTask.contains(new String[] { "P1" }, "P1"));
+        assertFalse(PatientQueryTask.contains(new String[] { "P1" }, "P12"));
+        assertTrue(PatientQueryTask.contains(new String[] { "P*" }, "P12"));
+        assertFalse(PatientQueryTask.contains(new String[] { "P?" }, "P12"));
+        assertFalse(PatientQueryTask.contains(new String[] { "P*" }, null));
+    }
+
+    @Test
+    public void testStudyQueryByStudyDate() throws Exception {
+        assertStudyMatches("20150101-20150131", "1.1", "1.2");
+        assertStudyMatches("-20150110", "1.1");
+        assertStudyMatches("20150115-", "1.2", "1.3");
+        assertStudyMatches("20150201", "1.3");
+    }
+
+    @Test
+    public void testStudyQueryByUnparsableStudyDate() throws Exception {
+        assertStudyMatches("*", "1.1", "1.2", "1.3", "1.4");
+    }
+
+    private static void assertStudyMatches(String studyDate, String... iuids)
+            throws Exception {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setString(Tag.StudyDate, VR.DA, studyDate);
+        keys.setNull(Tag.StudyInstanceUID, VR.UI);
+        StudyQueryTask task = new StudyQueryTask(null, null, new Attributes(),
+                keys, qrscp.getDicomDirReader(), null);
+        for (String iuid : iuids) {
+            assertTrue(task.hasMoreMatches());
+            assertEquals(iuid, task.nextMatch().getString(Tag.StudyInstanceUID));
+        }
+        assertFalse(task.hasMoreMatches());
+    }
+
+    private static void assertMatches(Attributes keys, String... iuids)
+            throws Exception {
+        List<InstanceLocator> matches = qrscp.calculateMatches(keys);
+        assertEquals(iuids.length, matches.size());
+        for (int i = 0; i < iuids.length; i++)
+            assertEquals(iuids[i], matches.get(i).iuid);
+    }
+
+    private static Attributes keys(String... patIDs) {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientID, VR.LO, patIDs);
+        return keys;
+    }
+
+    private static void addPatient(DicomDirWriter w, String patID,
+            String studyIUID, String studyDate) throws Exception {
+        Attributes patRec = w.addRootDirectoryRecord(
+                record("PATIENT", Tag.PatientID, VR.LO, patID));
+        Attributes studyRec = record("STUDY", Tag.StudyInstanceUID, VR.UI,
+                studyIUID);
+        if (studyDate != null)
+            studyRec.setString(Tag.StudyDate, VR.DA, studyDate);
+        w.addLowerDirectoryRecord(patRec, studyRec);
+        Attributes seriesRec = w.addLowerDirectoryRecord(studyRec,
+                record("SERIES", Tag.SeriesInstanceUID, VR.UI,
+                        studyIUID + ".0"));
+        Attributes instRec = record("IMAGE",
+                Tag.ReferencedSOPInstanceUIDInFile, VR.UI, studyIUID + ".1");
+        instRec.setString(Tag.ReferencedSOPClassUIDInFile, VR.UI,
+                UID.SecondaryCaptureImageStorage);
+        instRec.setString(Tag.ReferencedTransferSyntaxUIDInFile, VR.UI,
+                UID.ExplicitVRLittleEndian);
+        instRec.setString(Tag.ReferencedFileID, VR.CS, patID, studyIUID);
+        w.addLowerDirectoryRecord(seriesRec, instRec);
+    }
+
+    private static Attributes record(String type, int tag, VR vr, String value) {
+        Attributes rec = new Attributes();
+        rec.setString(Tag.DirectoryRecordType, VR.CS, type);
+        rec.setString(tag, vr, value);
+        return rec;
+    }
+}
@@ -38,13 +38,11 @@
 
 package org.dcm4che3.tool.hl7rcv;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.Socket;
@@ -68,10 +66,10 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.dcm4che3.hl7.HL7Charset;
 import org.dcm4che3.hl7.HL7ContentHandler;
 import org.dcm4che3.hl7.HL7Exception;
 import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7MessageView;
 import org.dcm4che3.hl7.HL7Parser;
 import org.dcm4che3.hl7.HL7Segment;
 import org.dcm4che3.io.SAXTransformer;
@@ -273,7 +271,8 @@ public class HL7Rcv {
 
     private byte[] xslt(HL7Segment msh, byte[] msg, int off, int len)
             throws Exception {
-        String charsetName = HL7Charset.toCharsetName(msh.getField(17, charset));
+        HL7MessageView view = new HL7MessageView(msg, off, len, charset);
+        String charsetName = view.getCharsetName();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         TransformerHandler th = factory.newTransformerHandler(tpls);
         Transformer t = th.getTransformer();
@@ -284,9 +283,7 @@ public class HL7Rcv {
                 t.setParameter(xsltParams[i-1], xsltParams[i]);
         th.setResult(new SAXResult(new HL7ContentHandler(
                 new OutputStreamWriter(out, charsetName))));
-        new HL7Parser(th).parse(new InputStreamReader(
-                new ByteArrayInputStream(msg, off, len),
-                charsetName));
+        new HL7Parser(th).parse(view);
         return out.toByteArray();
     }
 
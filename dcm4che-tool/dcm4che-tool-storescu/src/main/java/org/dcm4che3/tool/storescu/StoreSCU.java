@@ -48,13 +48,16 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.security.GeneralSecurityException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -75,8 +78,8 @@ import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.DataWriterAdapter;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.FileDataWriter;
 import org.dcm4che3.net.IncompatibleConnectionException;
-import org.dcm4che3.net.InputStreamDataWriter;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.AAssociateRQ;
 import org.dcm4che3.net.pdu.PresentationContext;
@@ -113,7 +116,11 @@ public class StoreSCU {
     private String tmpSuffix;
     private File tmpDir;
     private File tmpFile;
+    private int associations = 1;
     private Association as;
+    private final List<Association> openAssociations =
+            new ArrayList<Association>();
+    private final AtomicInteger messageID = new AtomicInteger();
 
     private long totalSize;
     private int filesScanned;
@@ -124,7 +131,9 @@ public class StoreSCU {
         @Override
         public DimseRSPHandler createDimseRSPHandler(final File f) {
 
-            return new DimseRSPHandler(as.nextMessageID()) {
+            // unique across all associations to the destination
+            return new DimseRSPHandler(
+                    messageID.incrementAndGet() & 0xFFFF) {
 
                 @Override
                 public void onDimseRSP(Association as, Attributes cmd,
@@ -187,6 +196,21 @@ public class StoreSCU {
         this.tmpDir = tmpDir;
     }
 
+    /**
+     * Set the number of associations opened in parallel to the destination.
+     * Files are spread across the associations; each association keeps up
+     * to the negotiated number of asynchronous operations in flight.
+     * 
+     * @param associations
+     *            number of parallel associations; 1 by default
+     */
+    public final void setAssociations(int associations) {
+        if (associations < 1)
+            throw new IllegalArgumentException("associations: "
+                    + associations);
+        this.associations = associations;
+    }
+
     private static CommandLine parseComandLine(String[] args)
             throws ParseException {
         Options opts = new Options();
@@ -200,6 +224,7 @@ public class StoreSCU {
         addRelatedSOPClassOptions(opts);
         addAttributesOption(opts);
         addUIDSuffixOption(opts);
+        addAssociationsOption(opts);
         return CLIUtils.parseComandLine(args, opts, rb, StoreSCU.class);
     }
 
@@ -217,6 +242,13 @@ public class StoreSCU {
                 .withLongOpt("uid-suffix").create(null));
     }
 
+    @SuppressWarnings("static-access")
+    private static void addAssociationsOption(Options opts) {
+        opts.addOption(OptionBuilder.hasArg().withArgName("no")
+                .withDescription(rb.getString("parallel"))
+                .withLongOpt("parallel").create(null));
+    }
+
     @SuppressWarnings("static-access")
     public static void addTmpFileOptions(Options opts) {
         opts.addOption(OptionBuilder.hasArg().withArgName("directory")
@@ -261,6 +293,9 @@ public class StoreSCU {
             CLIUtils.addAttributes(main.attrs, cl.getOptionValues("s"));
             main.setUIDSuffix(cl.getOptionValue("uid-suffix"));
             main.setPriority(CLIUtils.priorityOf(cl));
+            if (cl.hasOption("parallel"))
+                main.setAssociations(Integer.parseInt(
+                        cl.getOptionValue("parallel")));
             List<String> argList = cl.getArgList();
             boolean echo = argList.isEmpty();
             if (!echo) {
@@ -277,7 +312,7 @@ public class StoreSCU {
                         (t2 - t1) / n));
             }
             ExecutorService executorService = Executors
-                    .newSingleThreadExecutor();
+                    .newCachedThreadPool();
             ScheduledExecutorService scheduledExecutorService = Executors
                     .newSingleThreadScheduledExecutor();
             device.setExecutor(executorService);
@@ -377,22 +412,30 @@ public class StoreSCU {
     }
 
     public void sendFiles() throws IOException {
-        BufferedReader fileInfos = new BufferedReader(new InputStreamReader(
-                new FileInputStream(tmpFile)));
+        final BufferedReader fileInfos = new BufferedReader(
+                new InputStreamReader(new FileInputStream(tmpFile)));
         try {
-            String line;
-            while (as.isReadyForDataTransfer()
-                    && (line = fileInfos.readLine()) != null) {
-                String[] ss = StringUtils.split(line, '\t');
-                try {
-                    send(new File(ss[4]), Long.parseLong(ss[3]), ss[1], ss[0],
-                            ss[2]);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            int n = openAssociations.size();
+            final CountDownLatch done = new CountDownLatch(n - 1);
+            for (int i = 1; i < n; i++) {
+                final Association as = openAssociations.get(i);
+                ae.getDevice().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            sendFiles(as, fileInfos);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
             }
+            sendFiles(as, fileInfos);
             try {
-                as.waitForOutstandingRSP();
+                done.await();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -401,6 +444,33 @@ public class StoreSCU {
         }
     }
 
+    private void sendFiles(Association as, BufferedReader fileInfos)
+            throws IOException {
+        String line;
+        while (as.isReadyForDataTransfer()
+                && (line = readLine(fileInfos)) != null) {
+            String[] ss = StringUtils.split(line, '\t');
+            try {
+                send(as, new File(ss[4]), Long.parseLong(ss[3]), ss[1], ss[0],
+                        ss[2]);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            as.waitForOutstandingRSP();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String readLine(BufferedReader fileInfos)
+            throws IOException {
+        synchronized (fileInfos) {
+            return fileInfos.readLine();
+        }
+    }
+
     public boolean addFile(BufferedWriter fileInfos, File f, long endFmi,
             Attributes fmi, Attributes ds) throws IOException {
         String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
@@ -448,7 +518,13 @@ public class StoreSCU {
     public void send(final File f, long fmiEndPos, String cuid, String iuid,
             String filets) throws IOException, InterruptedException,
             ParserConfigurationException, SAXException {
-        String ts = selectTransferSyntax(cuid, filets);
+        send(as, f, fmiEndPos, cuid, iuid, filets);
+    }
+
+    private void send(Association as, final File f, long fmiEndPos,
+            String cuid, String iuid, String filets) throws IOException,
+            InterruptedException, ParserConfigurationException, SAXException {
+        String ts = selectTransferSyntax(as, cuid, filets);
 
         if (f.getName().endsWith(".xml")) {
             Attributes parsedDicomFile = SAXReader.parse(new FileInputStream(f));
@@ -462,15 +538,9 @@ public class StoreSCU {
                     rspHandlerFactory.createDimseRSPHandler(f));
         } else {
             if (uidSuffix == null && attrs.isEmpty() && ts.equals(filets)) {
-                FileInputStream in = new FileInputStream(f);
-                try {
-                    in.skip(fmiEndPos);
-                    InputStreamDataWriter data = new InputStreamDataWriter(in);
-                    as.cstore(cuid, iuid, priority, data, ts,
-                            rspHandlerFactory.createDimseRSPHandler(f));
-                } finally {
-                    SafeClose.close(in);
-                }
+                as.cstore(cuid, iuid, priority,
+                        new FileDataWriter(f, fmiEndPos), ts,
+                        rspHandlerFactory.createDimseRSPHandler(f));
             } else {
                 DicomInputStream in = new DicomInputStream(f);
                 try {
@@ -491,7 +561,8 @@ public class StoreSCU {
         }
     }
 
-    private String selectTransferSyntax(String cuid, String filets) {
+    private static String selectTransferSyntax(Association as, String cuid,
+            String filets) {
         Set<String> tss = as.getTransferSyntaxesFor(cuid);
         if (tss.contains(filets))
             return filets;
@@ -503,19 +574,40 @@ public class StoreSCU {
     }
 
     public void close() throws IOException, InterruptedException {
-        if (as != null) {
+        for (Association as : openAssociations)
             if (as.isReadyForDataTransfer())
                 as.release();
+        for (Association as : openAssociations)
             as.waitForSocketClose();
-        }
+        openAssociations.clear();
     }
 
     public void open() throws IOException, InterruptedException,
             IncompatibleConnectionException, GeneralSecurityException {
         as = ae.connect(remote, rq);
+        openAssociations.add(as);
+        boolean opened = false;
+        try {
+            for (int i = 1; i < associations; i++)
+                openAssociations.add(ae.connect(remote, rq));
+            opened = true;
+        } finally {
+            if (!opened)
+                releaseOpenAssociations();
+        }
+    }
+
+    private void releaseOpenAssociations() {
+        for (Association as : openAssociations)
+            try {
+                as.release();
+            } catch (IOException e) {
+                as.abort();
+            }
+        openAssociations.clear();
     }
 
-    private void onCStoreRSP(Attributes cmd, File f) {
+    private synchronized void onCStoreRSP(Attributes cmd, File f) {
         int status = cmd.getInt(Tag.Status, -1);
         switch (status) {
         case Status.Success:
@@ -45,6 +45,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -183,6 +185,12 @@ public class Syslog {
                 .withDescription(rb.getString("spool-dir"))
                 .withLongOpt("spool-dir")
                 .create(null));
+        opts.addOption(OptionBuilder
+                .hasArg()
+                .withArgName("size")
+                .withDescription(rb.getString("queue-size"))
+                .withLongOpt("queue-size")
+                .create(null));
     }
 
     @SuppressWarnings("static-access")
@@ -264,6 +272,7 @@ public class Syslog {
         if (cl.hasOption("spool-dir"))
             logger.setSpoolDirectory(new File(cl.getOptionValue("spool-dir")));
         logger.setRetryInterval(CLIUtils.getIntOption(cl, "retry", 0));
+        logger.setQueueSize(CLIUtils.getIntOption(cl, "queue-size", 0));
     }
 
     private static AuditLogger.Severity toSeverity(CommandLine cl) {
@@ -285,12 +294,16 @@ public class Syslog {
     public void init() {
         remote.setTlsProtocols(conn.getTlsProtocols());
         remote.setTlsCipherSuites(conn.getTlsCipherSuites());
+        logDevice.setExecutor(Executors.newCachedThreadPool());
         logDevice.setScheduledExecutor(Executors.newSingleThreadScheduledExecutor());
         auditLogger.sendQueuedMessages();
     }
 
     public void close() {
         auditLogger.closeActiveConnection();
+        Executor executor = logDevice.getExecutor();
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
         ScheduledExecutorService scheduler = logDevice.getScheduledExecutor();
         if (scheduler != null)
             scheduler.shutdown();